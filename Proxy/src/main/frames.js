@@ -0,0 +1,201 @@
+// Modo binario del protocolo del servidor Java (ver network/Frame.java).
+//
+// frame  = largo cuerpo                   (varints sin signo, 7 bits por byte)
+// cuerpo = etiqueta [largo tipo] cantidad campo*
+// campo  = largo clave cabecera valor     cabecera = largo << 1 (bytes) o 1 (número zigzag)
+
+// Misma tabla y mismo orden que network/WireTypes.java (etiqueta = posición + 1)
+const WIRE_TYPES = [
+  "hello", "login", "logout", "private_message", "group_message", "create_group",
+  "join_group", "get_online_users", "get_groups", "get_history", "call_start",
+  "call_accept", "call_end", "audio_begin", "audio_chunk", "audio_commit", "audio_get",
+  "login_success", "login_error", "message_sent", "group_created", "join_group_success",
+  "online_users", "groups_list", "history", "system_message", "error", "incoming_call",
+  "call_waiting", "call_accepted", "audio_ready", "audio_committed", "audio_available",
+  "audio_data", "audio_end", "audio_error",
+]
+const TAGS = new Map(WIRE_TYPES.map((name, i) => [name, i + 1]))
+const MAX_FRAME_BYTES = 8 * 1024 * 1024
+
+function varint(value, out) {
+  let v = BigInt(value)
+  while (v > 0x7fn) {
+    out.push(Number(v & 0x7fn) | 0x80)
+    v >>= 7n
+  }
+  out.push(Number(v))
+}
+
+function pushBytes(buffer, out) {
+  varint(buffer.length, out)
+  for (const b of buffer) out.push(b)
+}
+
+// Codifica { type, campo: valor, ... } como frame. Los números enteros van como varint;
+// los Buffer como bytes sin base64; el resto como texto UTF-8, sin escapes.
+export function encodeFrame(message) {
+  const { type, ...fields } = message
+  const body = []
+  const tag = TAGS.get(type) || 0
+  varint(tag, body)
+  if (tag === 0) pushBytes(Buffer.from(type, "utf8"), body)
+
+  const entries = Object.entries(fields).filter(([, value]) => value !== undefined && value !== null)
+  varint(entries.length, body)
+  for (const [key, value] of entries) {
+    pushBytes(Buffer.from(key, "utf8"), body)
+    if (Number.isSafeInteger(value)) {
+      varint(1, body)
+      const n = BigInt(value)
+      varint(n >= 0n ? n << 1n : ((-n) << 1n) - 1n, body)
+    } else {
+      const bytes = Buffer.isBuffer(value) ? value : Buffer.from(String(value), "utf8")
+      varint(BigInt(bytes.length) << 1n, body)
+      for (const b of bytes) body.push(b)
+    }
+  }
+
+  const header = []
+  varint(body.length, header)
+  return Buffer.from([...header, ...body])
+}
+
+// Escapes de los valores en modo texto, los mismos que util/KeyValueLine.java:
+// "\\" es una barra, "\|" y "\:" son '|' y ':' literales, "\n" y "\r" saltos de línea
+const ESCAPES = { "\\": "\\\\", "|": "\\|", ":": "\\:", "\n": "\\n", "\r": "\\r" }
+const UNESCAPES = { "\\": "\\", "|": "|", ":": ":", n: "\n", r: "\r" }
+
+// Escapa un valor para que no corte la línea ni los campos (KeyValueLine.appendEscaped)
+export function escapeValue(value) {
+  return String(value).replace(/[\\|:\n\r]/g, (c) => ESCAPES[c])
+}
+
+// Convierte una línea "type:x|clave:valor" en el objeto que recibe encodeFrame, quitando los
+// escapes de los valores. Gana la primera aparición de cada clave
+export function parseLine(line) {
+  const message = {}
+  let key = ""
+  let value = ""
+  let inValue = false
+  for (let i = 0; i <= line.length; i++) {
+    const c = i < line.length ? line[i] : "|"
+    if (c === "\\" && i + 1 < line.length && line[i + 1] in UNESCAPES) {
+      const unescaped = UNESCAPES[line[++i]]
+      if (inValue) value += unescaped
+      else key += unescaped
+    } else if (c === ":" && !inValue) {
+      inValue = true
+    } else if (c === "|") {
+      if (inValue && key && !(key in message)) message[key] = value
+      key = ""
+      value = ""
+      inValue = false
+    } else if (inValue) {
+      value += c
+    } else {
+      key += c
+    }
+  }
+  return message
+}
+
+// Línea de texto equivalente a un frame, para los clientes web que esperan ese formato
+// (escapada igual que las que envía el servidor en modo texto)
+export function frameToLine(message) {
+  const { type, ...fields } = message
+  let line = "type:" + type
+  for (const [key, value] of Object.entries(fields)) {
+    line += "|" + key + ":" + (Buffer.isBuffer(value) ? value.toString("base64") : escapeValue(value))
+  }
+  return line
+}
+
+// Arma frames a partir de los fragmentos que llegan del socket
+export class FrameDecoder {
+  constructor() {
+    this.pending = Buffer.alloc(0)
+  }
+
+  push(chunk) {
+    this.pending = this.pending.length ? Buffer.concat([this.pending, chunk]) : chunk
+    const frames = []
+    while (true) {
+      const reader = new Reader(this.pending, 0)
+      const length = reader.tryVarint()
+      if (length === null) break
+      if (length <= 0 || length > MAX_FRAME_BYTES) throw new Error("Largo de frame inválido: " + length)
+      if (this.pending.length - reader.pos < length) break
+      const end = reader.pos + length
+      frames.push(decodeBody(this.pending.subarray(reader.pos, end)))
+      this.pending = this.pending.subarray(end)
+    }
+    return frames
+  }
+}
+
+function decodeBody(body) {
+  const reader = new Reader(body, 0)
+  const tag = reader.varint()
+  const type = tag === 0 ? reader.bytes().toString("utf8") : WIRE_TYPES[tag - 1]
+  if (!type) throw new Error("Etiqueta de tipo desconocida: " + tag)
+
+  const message = { type }
+  const count = reader.varint()
+  for (let i = 0; i < count; i++) {
+    const key = reader.bytes().toString("utf8")
+    const header = reader.bigVarint()
+    if (header === 1n) {
+      const zigzag = reader.bigVarint()
+      message[key] = Number((zigzag >> 1n) ^ -(zigzag & 1n))
+    } else {
+      const value = body.subarray(reader.pos, reader.pos + Number(header >> 1n))
+      reader.pos += value.length
+      // Solo los datos de audio son binarios; el resto es texto
+      message[key] = key === "data" ? Buffer.from(value) : value.toString("utf8")
+    }
+  }
+  return message
+}
+
+class Reader {
+  constructor(buffer, pos) {
+    this.buffer = buffer
+    this.pos = pos
+  }
+
+  tryVarint() {
+    const start = this.pos
+    let value = 0
+    for (let shift = 0; this.pos < this.buffer.length; shift += 7) {
+      const b = this.buffer[this.pos++]
+      value += (b & 0x7f) * 2 ** shift
+      if ((b & 0x80) === 0) return value
+      if (shift > 28) throw new Error("Varint inválido")
+    }
+    this.pos = start
+    return null
+  }
+
+  varint() {
+    return Number(this.bigVarint())
+  }
+
+  bigVarint() {
+    let value = 0n
+    for (let shift = 0n; shift < 64n; shift += 7n) {
+      if (this.pos >= this.buffer.length) throw new Error("Frame truncado")
+      const b = this.buffer[this.pos++]
+      value |= BigInt(b & 0x7f) << shift
+      if ((b & 0x80) === 0) return value
+    }
+    throw new Error("Varint inválido")
+  }
+
+  bytes() {
+    const length = this.varint()
+    if (this.pos + length > this.buffer.length) throw new Error("Frame truncado")
+    const value = this.buffer.subarray(this.pos, this.pos + length)
+    this.pos += length
+    return value
+  }
+}
@@ -5,6 +5,7 @@ import cors from "cors"
 import path from "path"
 import { fileURLToPath } from "url"
 import fs from "fs"
+import { encodeFrame, parseLine, frameToLine, escapeValue, FrameDecoder } from "./frames.js"
 
 const __filename = fileURLToPath(import.meta.url)
 const __dirname = path.dirname(__filename)
@@ -59,8 +60,13 @@ app.use((req, res, next) => {
 
 const TCP_HOST = "localhost"
 const TCP_PORT = 5000
+// Modo binario del protocolo (CHAT_FRAMING=text para forzar el modo texto)
+const BINARY_FRAMING = process.env.CHAT_FRAMING !== "text"
+const HELLO_TIMEOUT_MS = 2000
 
 const activeConnections = new Map()
+// Identificador de cada comando; el servidor lo repite en su respuesta (reqId)
+let nextReqId = 1
 const pendingNotifications = new Map() // Guardar notificaciones para cada usuario
 
 function connectUser(username) {
@@ -72,7 +78,11 @@ function connectUser(username) {
     }
 
     const socket = new net.Socket()
-    const userSession = { socket: socket, responseQueue: [], username: username, connected: false, isConnecting: false, notifications: [] }
+    const userSession = { socket: socket, responseQueue: [], username: username, connected: false, isConnecting: false, notifications: [], binary: false }
+    const decoder = new FrameDecoder()
+    let handshake = null // bytes recibidos mientras se espera la respuesta al hello
+    let partialLine = "" // modo texto: resto de una línea que llegó partida
+    let helloTimer = null
 
     socket.setTimeout(300000)
     socket.on("timeout", () => {
@@ -82,11 +92,25 @@ function connectUser(username) {
       reject(new Error("Connection timeout"))
     })
 
+    const startLogin = (binary) => {
+      clearTimeout(helloTimer)
+      handshake = null
+      userSession.binary = binary
+      const loginCmd = `type:login|username:${username}`
+      console.log(`[${username}] Enviando comando de login (${binary ? "binario" : "texto"}): ${loginCmd}`)
+      writeCommand(userSession, loginCmd)
+    }
+
     socket.on("connect", () => {
       console.log(`[${username}] Conectado al servidor Java en ${TCP_HOST}:${TCP_PORT}`)
-      const loginCmd = `type:login|username:${username}`
-      console.log(`[${username}] Enviando comando de login: ${loginCmd}`)
-      socket.write(loginCmd + "\n")
+      if (!BINARY_FRAMING) {
+        startLogin(false)
+        return
+      }
+      // Un servidor que no conoce el hello no responde: se sigue en modo texto
+      handshake = Buffer.alloc(0)
+      socket.write("type:hello|framing:binary|version:1\n")
+      helloTimer = setTimeout(() => startLogin(false), HELLO_TIMEOUT_MS)
     })
 
     socket.connect(TCP_PORT, TCP_HOST)
@@ -94,7 +118,42 @@ function connectUser(username) {
     let loginResponseReceived = false
 
     socket.on("data", (data) => {
-      const message = data.toString().trim()
+      if (handshake) {
+        handshake = Buffer.concat([handshake, data])
+        const newline = handshake.indexOf(10)
+        if (newline < 0) return
+        const line = handshake.subarray(0, newline).toString("utf8").trim()
+        const rest = handshake.subarray(newline + 1)
+        if (!line.startsWith("type:hello")) {
+          startLogin(false)
+          handleJavaMessage(line, parseLine(line))
+          return
+        }
+        startLogin(line.includes("framing:binary"))
+        if (rest.length === 0) return
+        data = rest
+      }
+
+      if (!userSession.binary) {
+        // Un mismo paquete puede traer varias líneas, o solo parte de una
+        const lines = (partialLine + data.toString("utf8")).split("\n")
+        partialLine = lines.pop()
+        for (const line of lines) {
+          if (line.trim()) handleJavaMessage(line.trim(), parseLine(line.trim()))
+        }
+        return
+      }
+      try {
+        for (const frame of decoder.push(data)) {
+          handleJavaMessage(frameToLine(frame), frame)
+        }
+      } catch (err) {
+        console.error(`[${username}] Frame inválido: ${err.message}`)
+        socket.destroy(err)
+      }
+    })
+
+    const handleJavaMessage = (message, fields) => {
       console.log(`[${username}] Recibido de Java: ${message}`)
       appendLog(`[${username}] Recibido de Java:`, message)
 
@@ -109,8 +168,15 @@ function connectUser(username) {
         socket.end()
         reject(new Error(message))
       } else {
-        // Respuesta a un comando HTTP o notificación
-        if (userSession.responseQueue.length > 0) {
+        // Respuesta a un comando HTTP (por su reqId) o notificación (push)
+        const reqId = fields.reqId !== undefined ? String(fields.reqId) : undefined
+        const index = reqId !== undefined ? userSession.responseQueue.findIndex((entry) => entry.reqId === reqId) : -1
+        const isPush = fields.push === true || fields.push === "true"
+        if (index >= 0) {
+          const [{ resolve: httpResolve }] = userSession.responseQueue.splice(index, 1)
+          httpResolve(message)
+        } else if (!isPush && reqId === undefined && userSession.responseQueue.length > 0) {
+          // Servidor sin reqId: se asume el orden de los comandos
           const { resolve: httpResolve } = userSession.responseQueue.shift()
           httpResolve(message)
         } else {
@@ -120,7 +186,7 @@ function connectUser(username) {
           console.log(`[${username}] Notificación guardada: ${message}`)
         }
       }
-    })
+    }
 
     socket.on("error", (err) => {
       console.error(`[${username}] Error de socket: ${err.message}`)
@@ -140,6 +206,30 @@ function connectUser(username) {
   })
 }
 
+// Envía un comando en el modo de la sesión. Acepta la línea de texto de siempre o un
+// objeto { type, campo: valor }; en modo binario los valores viajan sin escapes.
+function writeCommand(session, command) {
+  if (session.binary) {
+    session.socket.write(encodeFrame(typeof command === "string" ? parseLine(command) : command))
+  } else {
+    session.socket.write((typeof command === "string" ? command : toTextLine(command)) + "\n")
+  }
+}
+
+// En modo texto los valores se escapan como en el servidor: el contenido llega intacto
+function toTextLine(command) {
+  const { type, ...fields } = command
+  let line = "type:" + type
+  for (const [key, value] of Object.entries(fields)) {
+    line += "|" + key + ":" + escapeValue(value)
+  }
+  return line
+}
+
+function withReqId(command, reqId) {
+  return typeof command === "string" ? `${command}|reqId:${reqId}` : { ...command, reqId }
+}
+
 function sendCommand(username, command) {
   return new Promise((resolve, reject) => {
     const session = activeConnections.get(username)
@@ -148,11 +238,10 @@ function sendCommand(username, command) {
       return
     }
 
-    const timeout = setTimeout(() => {
-      reject(new Error("Timeout esperando respuesta del servidor"))
-    }, 30000)
-
-    session.responseQueue.push({
+    // Con reqId varios comandos pueden estar en curso a la vez en la misma sesión
+    const reqId = String(nextReqId++)
+    const entry = {
+      reqId,
       resolve: (msg) => {
         clearTimeout(timeout)
         resolve(msg)
@@ -161,12 +250,20 @@ function sendCommand(username, command) {
         clearTimeout(timeout)
         reject(err)
       },
-    })
+    }
+    const timeout = setTimeout(() => {
+      // Se quita de la cola para que una respuesta tardía no se entregue a otro comando
+      const index = session.responseQueue.indexOf(entry)
+      if (index >= 0) session.responseQueue.splice(index, 1)
+      reject(new Error("Timeout esperando respuesta del servidor"))
+    }, 30000)
+    session.responseQueue.push(entry)
 
     try {
-      session.socket.write(command + "\n")
+      writeCommand(session, withReqId(command, reqId))
     } catch (err) {
-      session.responseQueue.pop()
+      session.responseQueue.splice(session.responseQueue.indexOf(entry), 1)
+      clearTimeout(timeout)
       reject(err)
     }
   })
@@ -224,8 +321,7 @@ app.post("/api/sendMessage", async (req, res) => {
     return res.status(400).json({ ok: false, error: "Faltan parámetros" })
   }
 
-  const escapedContent = String(content).replace(/\n/g, " ").replace(/\|/g, "_")
-  const cmd = `type:private_message|from:${from}|to:${to}|content:${escapedContent}`
+  const cmd = { type: "private_message", from, to, content: String(content) }
 
   try {
     const response = await sendCommand(from, cmd)
@@ -246,8 +342,7 @@ app.post("/api/sendGroupMessage", async (req, res) => {
     return res.status(400).json({ ok: false, error: "Faltan parámetros" })
   }
 
-  const escapedContent = String(content).replace(/\n/g, " ").replace(/\|/g, "_")
- const cmd = `type:group_message|from:${from}|group:${group_name}|content:${escapedContent}`
+  const cmd = { type: "group_message", from, group: group_name, content: String(content) }
 
   try {
     const response = await sendCommand(from, cmd)
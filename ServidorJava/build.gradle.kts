@@ -10,14 +10,58 @@ repositories {
     mavenCentral()
 }
 
+// Benchmarks JMH: gradle jmh (todos) o gradle jmh -Pjmh="KeyValueLine" (los que coinciden)
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val jmhImplementation by configurations.getting
+val jmhAnnotationProcessor by configurations.getting
+
 dependencies {
+    jmhImplementation("org.openjdk.jmh:jmh-core:1.37")
+    jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 tasks.test {
-    useJUnitPlatform()
+    useJUnitPlatform {
+        excludeTags("stress")
+    }
+}
+
+// Pruebas de carga (no corren con gradle test): gradle stressTest
+tasks.register<Test>("stressTest") {
+    group = "verification"
+    description = "Ejecuta las pruebas de carga."
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("stress")
+    }
+    testLogging.showStandardStreams = true
+    listOf("stress.sessions", "stress.wave", "stress.participants", "stress.seconds", "stress.connections",
+        "stress.messages", "stress.pollMs", "stress.conversations", "stress.perConversation").forEach { key ->
+        System.getProperty(key)?.let { systemProperty(key, it) }
+    }
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Ejecuta los benchmarks JMH."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    (project.findProperty("jmh") as String?)?.let { args(it.split(" ")) }
+}
+
+// Los benchmarks se compilan en cada build para que no queden desactualizados
+tasks.named("check") {
+    dependsOn("jmhClasses")
 }
 
 tasks.withType<JavaCompile> {
@@ -0,0 +1,97 @@
+package network;
+
+import org.openjdk.jmh.annotations.*;
+import util.AudioCodec;
+import util.AudioCodecs;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Un tick de 20 ms del mezclador del relay (modo mix): cada participante entrega un paquete,
+ * se decodifican, se mezclan los 3 que más fuerte hablan y se codifica un paquete por oyente.
+ * Es lo que hace el hilo audio-mixer cada 20 ms por cada llamada.
+ *
+ * El resultado es por tick; dividido por participants da el costo por participante, que
+ * debería mantenerse parecido al crecer la llamada (solo suman los K más fuertes). El tick
+ * tiene 20 ms de presupuesto para todas las llamadas mezcladas.
+ *
+ * gradle jmh -Pjmh="AudioMixer"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AudioMixerBenchmark {
+    private static final int SAMPLES = AudioMixer.FRAME_SAMPLES;
+    private static final int LOUD_SPEAKERS = 3;
+
+    @Param({"5", "20", "50"})
+    public int participants;
+
+    @Param({"pcm16", "ima-adpcm"})
+    public String codecName;
+
+    private AudioMixer mixer;
+    private AudioMixer.Channel[] channels;
+    private byte[][] payloads;
+    private PacketBufferPool pool;
+    private int payloadType;
+    private int sequence;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mixer = new AudioMixer(LOUD_SPEAKERS);
+        channels = new AudioMixer.Channel[participants];
+        payloads = new byte[participants][];
+        // Cada jitter buffer retiene hasta 300 ms (15 paquetes)
+        pool = new PacketBufferPool(participants * 20 + 64, 2048);
+        for (int i = 0; i < participants; i++) {
+            AudioCodec codec = AudioCodecs.create(codecName);
+            payloadType = codec.getPayloadType();
+            channels[i] = mixer.newChannel(codec);
+
+            // Los primeros hablan, el resto manda ruido de fondo
+            int amplitude = i < LOUD_SPEAKERS ? 8000 : 40;
+            byte[] pcm = new byte[SAMPLES * 2];
+            for (int s = 0; s < SAMPLES; s++) {
+                int sample = (int) (amplitude * Math.sin(2 * Math.PI * (300 + 37 * i) * s / 16000.0));
+                pcm[2 * s] = (byte) sample;
+                pcm[2 * s + 1] = (byte) (sample >> 8);
+            }
+            ByteBuffer encoded = ByteBuffer.allocate(codec.maxEncodedBytes(pcm.length));
+            codec.encode(pcm, 0, pcm.length, encoded);
+            payloads[i] = Arrays.copyOf(encoded.array(), encoded.position());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (AudioMixer.Channel channel : channels) {
+            channel.close();
+        }
+    }
+
+    @Benchmark
+    public int tick() {
+        for (int i = 0; i < participants; i++) {
+            PacketBuffer packet = pool.acquire();
+            ByteBuffer data = packet.data();
+            RtpPacket.writeHeader(data, payloadType, sequence, (long) sequence * SAMPLES, i + 1);
+            data.put(payloads[i]).flip();
+            channels[i].offer(packet);
+        }
+        sequence = (sequence + 1) & 0xFFFF;
+
+        mixer.mix(channels);
+        int bytes = 0;
+        for (AudioMixer.Channel channel : channels) {
+            ByteBuffer output = channel.takeOutput();
+            if (output != null) bytes += output.remaining();
+        }
+        return bytes;
+    }
+}
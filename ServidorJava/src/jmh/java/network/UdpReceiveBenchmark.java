@@ -0,0 +1,97 @@
+package network;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recepción de un paquete de audio por UDP (160 bytes, 20 ms de G.711) en loopback: el
+ * camino de {@link UDPConnection} (DatagramChannel sobre buffers de un {@link PacketBufferPool})
+ * contra el anterior (DatagramPacket y un byte[] nuevo por paquete).
+ *
+ * Lo importante es la basura por paquete (gc.alloc.rate.norm):
+ * gradle jmh -Pjmh="UdpReceive -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UdpReceiveBenchmark {
+    private static final int BUFFER_SIZE = 2048;
+    private static final int PACKET_BYTES = 160;
+
+    private DatagramChannel sender;
+    private ByteBuffer outgoing;
+
+    private DatagramChannel pooledReceiver;
+    private InetSocketAddress pooledAddress;
+    private PacketBufferPool pool;
+
+    private DatagramSocket legacyReceiver;
+    private InetSocketAddress legacyAddress;
+    private byte[] legacyBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        sender = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        outgoing = ByteBuffer.allocateDirect(PACKET_BYTES);
+
+        pooledReceiver = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        pooledAddress = (InetSocketAddress) pooledReceiver.getLocalAddress();
+        pool = new PacketBufferPool(64, BUFFER_SIZE);
+
+        legacyReceiver = new DatagramSocket(new InetSocketAddress(loopback, 0));
+        legacyAddress = (InetSocketAddress) legacyReceiver.getLocalSocketAddress();
+        legacyBuffer = new byte[BUFFER_SIZE];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sender.close();
+        pooledReceiver.close();
+        legacyReceiver.close();
+    }
+
+    /**
+     * Lo que hace el hilo receptor de {@link UDPConnection} por cada paquete.
+     */
+    @Benchmark
+    public void pooled(Blackhole blackhole) throws IOException {
+        sender.send(outgoing.clear(), pooledAddress);
+
+        PacketBuffer packet = pool.acquire();
+        ByteBuffer buffer = packet.data();
+        InetSocketAddress from = (InetSocketAddress) pooledReceiver.receive(buffer);
+        buffer.flip();
+        packet.setSender(from);
+        blackhole.consume(packet.length());
+        packet.release();
+    }
+
+    /**
+     * El receptor anterior, copiado como referencia.
+     */
+    @Benchmark
+    public void legacy(Blackhole blackhole) throws IOException {
+        sender.send(outgoing.clear(), legacyAddress);
+
+        DatagramPacket packet = new DatagramPacket(legacyBuffer, legacyBuffer.length);
+        legacyReceiver.receive(packet);
+        byte[] audioData = new byte[packet.getLength()];
+        System.arraycopy(packet.getData(), 0, audioData, 0, packet.getLength());
+        blackhole.consume(audioData);
+        blackhole.consume(packet.getAddress());
+        blackhole.consume(packet.getPort());
+    }
+}
@@ -0,0 +1,119 @@
+package persistence;
+
+import model.Message;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Lectura del historial de una conversación grande: {@link SegmentedLog#readMapped} con
+ * {@link MessageView} (lo que usan appendHistory y loadPage) contra {@link SegmentedLog#read},
+ * que copia cada registro y lo decodifica a {@link Message}.
+ *
+ * "full" recorre la conversación completa; "page" lee los últimos 50 mensajes, el caso
+ * de get_history paginado, donde pesa volver a mapear el segmento activo en cada lectura.
+ *
+ * gradle jmh -Pjmh="HistoryRead" (o -p messages=100000 para una prueba corta)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HistoryReadBenchmark {
+    private static final int PAGE = 50;
+
+    @Param("1000000")
+    public int messages;
+
+    private Path directory;
+    private NameDictionary names;
+    private MessageCodec codec;
+    private SegmentedLog log;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("history-bench");
+        names = new NameDictionary(directory.resolve("names.dat"));
+        codec = new MessageCodec(names);
+        log = new SegmentedLog(directory.resolve("ana_beto.log"), 64L * 1024 * 1024, FsyncPolicy.NEVER, 1000);
+
+        List<byte[]> batch = new ArrayList<>();
+        long[] timestamps = new long[1000];
+        for (int i = 0; i < messages; ) {
+            batch.clear();
+            for (int r = 0; r < timestamps.length && i < messages; r++, i++) {
+                String from = i % 2 == 0 ? "ana" : "beto";
+                String to = i % 2 == 0 ? "beto" : "ana";
+                Message message = new Message(UUID.randomUUID().toString(), from, to, "mensaje número " + i + ", ¿llegó bien?", false, 1_700_000_000_000L + i);
+                batch.add(codec.encode(message));
+                timestamps[r] = message.getTimestamp().getTime();
+            }
+            log.appendBatch(batch, timestamps, false);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        names.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public int fullMapped() throws IOException {
+        return mapped(0, log.size());
+    }
+
+    @Benchmark
+    public int fullReader(Blackhole blackhole) throws IOException {
+        return reader(0, log.size(), blackhole);
+    }
+
+    @Benchmark
+    public int pageMapped() throws IOException {
+        return mapped(log.size() - PAGE, log.size());
+    }
+
+    @Benchmark
+    public int pageReader(Blackhole blackhole) throws IOException {
+        return reader(log.size() - PAGE, log.size(), blackhole);
+    }
+
+    private int mapped(int from, int to) throws IOException {
+        MessageView view = codec.newView();
+        StringBuilder out = new StringBuilder();
+        log.readMapped(from, to, (index, timestamp, buffer, offset, length) -> {
+            if (!view.reset(buffer, offset, length)) return;
+            out.append(view.getFrom()).append(':');
+            view.appendEscapedContent(out);
+            out.append('|');
+        });
+        return out.length();
+    }
+
+    private int reader(int from, int to, Blackhole blackhole) throws IOException {
+        StringBuilder out = new StringBuilder();
+        log.read(from, to, (timestamp, payload) -> {
+            Message message = codec.decode(payload);
+            if (message == null) return;
+            out.append(message.getFrom()).append(':').append(message.getContent()).append('|');
+            blackhole.consume(message);
+        });
+        return out.length();
+    }
+}
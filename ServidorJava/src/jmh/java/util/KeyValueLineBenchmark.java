@@ -0,0 +1,107 @@
+package util;
+
+import network.CommandType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Análisis de una línea del protocolo: {@link KeyValueLine} contra el split + HashMap que
+ * usaban MainServer.parseCommand y ChatHistory.parseLine.
+ *
+ * Para ver también la basura por línea: gradle jmh -Pjmh="KeyValueLine -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyValueLineBenchmark {
+    private static final String COMMAND =
+            "type:private_message|reqId:42|from:ana|to:beto|content:hola, ¿cómo va todo?";
+    private static final String HISTORY_LINE =
+            "type:message|from:ana|to:beto|content:hora 10\\:30 \\| sala 2\\nnos vemos|isGroup:false|timestamp:1700000000000";
+
+    @Benchmark
+    public void commandSplit(Blackhole blackhole) {
+        Map<String, String> data = splitLine(COMMAND);
+        String type = data.get("type");
+        blackhole.consume(switchOnType(type));
+        blackhole.consume(data.get("to"));
+        blackhole.consume(data.get("content"));
+    }
+
+    @Benchmark
+    public void commandKeyValueLine(Blackhole blackhole) {
+        KeyValueLine data = KeyValueLine.parseThreadLocal(COMMAND);
+        blackhole.consume(CommandType.of(data));
+        blackhole.consume(data.get("to"));
+        blackhole.consume(data.get("content"));
+    }
+
+    /**
+     * Lo que hace el servidor con cada comando de texto: el hilo lector lo analiza una vez y el
+     * hilo que lo ejecuta recibe una copia de las posiciones (antes lo volvía a analizar).
+     */
+    @Benchmark
+    public void commandParsedOnceDetached(Blackhole blackhole) {
+        KeyValueLine read = KeyValueLine.parseThreadLocal(COMMAND).detach();
+        blackhole.consume(CommandType.of(read));
+        blackhole.consume(read.get("to"));
+        blackhole.consume(read.get("content"));
+    }
+
+    @Benchmark
+    public void commandParsedTwice(Blackhole blackhole) {
+        blackhole.consume(CommandType.of(KeyValueLine.parseThreadLocal(COMMAND)));
+        KeyValueLine data = KeyValueLine.parseThreadLocal(COMMAND);
+        blackhole.consume(data.get("to"));
+        blackhole.consume(data.get("content"));
+    }
+
+    @Benchmark
+    public void historySplit(Blackhole blackhole) {
+        Map<String, String> data = splitLine(HISTORY_LINE);
+        blackhole.consume(data.get("from"));
+        blackhole.consume(unescapeContent(data.get("content")));
+        blackhole.consume(Long.parseLong(data.get("timestamp")));
+    }
+
+    @Benchmark
+    public void historyKeyValueLine(Blackhole blackhole) {
+        KeyValueLine data = KeyValueLine.parseThreadLocal(HISTORY_LINE);
+        blackhole.consume(data.get("from"));
+        blackhole.consume(data.get("content"));
+        blackhole.consume(data.getLong("timestamp", 0));
+    }
+
+    // Código anterior, copiado tal cual como referencia
+
+    private static Map<String, String> splitLine(String line) {
+        Map<String, String> result = new HashMap<>();
+        for (String part : line.split("\\|")) {
+            String[] kv = part.split(":", 2);
+            if (kv.length == 2) result.put(kv[0], kv[1]);
+        }
+        return result;
+    }
+
+    private static String unescapeContent(String content) {
+        return content.replace("\\|", "|").replace("\\:", ":").replace("\\n", "\n");
+    }
+
+    private static int switchOnType(String type) {
+        return switch (type) {
+            case "login" -> 1;
+            case "logout" -> 2;
+            case "private_message" -> 3;
+            case "group_message" -> 4;
+            case "get_history" -> 5;
+            default -> 0;
+        };
+    }
+}
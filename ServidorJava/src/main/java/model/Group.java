@@ -1,22 +1,24 @@
 package model;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Group implements java.io.Serializable {
     private final String name;
     private final String creator;
-    private final Set<String> members;
+    // Conjunto inmutable que se reemplaza en cada cambio: los lectores obtienen
+    // una foto consistente de los miembros sin copiar ni bloquear
+    private volatile Set<String> members;
     private final List<Message> messages;
 
     public Group(String name, String creator) {
         this.name = name;
         this.creator = creator;
-        this.members = new HashSet<>();
-        this.messages = new ArrayList<>();
-        this.members.add(creator);
+        this.members = Collections.singleton(creator);
+        this.messages = new CopyOnWriteArrayList<>();
     }
 
     public String getName() { return name; }
@@ -24,12 +26,20 @@ public class Group implements java.io.Serializable {
     public Set<String> getMembers() { return members; }
     public List<Message> getMessages() { return messages; }
 
-    public boolean addMember(String username) {
-        return members.add(username);
+    public synchronized boolean addMember(String username) {
+        if (members.contains(username)) return false;
+        Set<String> updated = new HashSet<>(members);
+        updated.add(username);
+        members = Collections.unmodifiableSet(updated);
+        return true;
     }
 
-    public boolean removeMember(String username) {
-        return members.remove(username);
+    public synchronized boolean removeMember(String username) {
+        if (!members.contains(username)) return false;
+        Set<String> updated = new HashSet<>(members);
+        updated.remove(username);
+        members = Collections.unmodifiableSet(updated);
+        return true;
     }
 
     public boolean hasMember(String username) {
@@ -0,0 +1,239 @@
+package network;
+
+import util.AudioCodec;
+import util.AudioCodecs;
+import util.JitterBuffer;
+import util.PcmCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Mezclador de una llamada grupal (modo MCU del {@link MediaRelay}).
+ *
+ * Cada participante envía su audio como siempre; el mezclador lo decodifica y cada 20 ms
+ * ({@link #mix(Channel[])}) arma un solo flujo por oyente: la suma de los K participantes que
+ * más fuerte hablan, sin la voz del propio oyente. Así cada cliente recibe y decodifica un
+ * flujo, sin importar el tamaño del grupo.
+ *
+ * La mezcla se hace sobre arreglos de primitivos (short por participante, int para la suma)
+ * con ciclos simples, que la JIT puede vectorizar. Como solo suman los K más fuertes, hay a lo
+ * sumo K+1 mezclas distintas: la de los que no hablan (compartida) y una por cada hablante.
+ *
+ * Hilos: {@link Channel#offer(PacketBuffer)} lo llama el receptor UDP; mix() lo llama siempre
+ * el mismo hilo (el reloj del relay).
+ */
+public class AudioMixer {
+    /** Muestras por tick: 20 ms a 16 kHz. */
+    public static final int FRAME_SAMPLES = 320;
+    public static final int TICK_MS = 20;
+
+    // Por debajo de este nivel (RMS) un participante no cuenta como hablante
+    private static final int SILENCE_RMS = 64;
+    private static final long SILENCE_ENERGY = (long) FRAME_SAMPLES * SILENCE_RMS * SILENCE_RMS;
+    // Audio decodificado de un paquete (ADPCM se expande 4 veces) y pendiente de mezclar
+    private static final int DECODE_BYTES = 8192;
+    private static final int FIFO_SAMPLES = DECODE_BYTES / 2 + FRAME_SAMPLES;
+
+    private final int speakers;
+    private final Channel[] loudest;
+    private final int[] total = new int[FRAME_SAMPLES];
+    private final byte[] sharedMix = new byte[FRAME_SAMPLES * 2];
+    private final byte[] ownMix = new byte[FRAME_SAMPLES * 2];
+
+    public AudioMixer(int speakers) {
+        this.speakers = Math.max(1, speakers);
+        this.loudest = new Channel[this.speakers];
+    }
+
+    /**
+     * Canal nuevo para un participante que se une a la llamada. La mezcla se le envía con el
+     * codec que negoció (PCM si es null), aunque nunca envíe audio.
+     */
+    public Channel newChannel(AudioCodec codec) {
+        return new Channel(codec);
+    }
+
+    /**
+     * Un tick de mezcla: toma 20 ms de cada participante y deja en cada canal el paquete RTP
+     * que le corresponde ({@link Channel#takeOutput()}).
+     */
+    public void mix(Channel[] channels) {
+        for (Channel channel : channels) {
+            channel.pull();
+        }
+
+        int count = selectLoudest(channels);
+        Arrays.fill(total, 0);
+        for (int i = 0; i < count; i++) {
+            short[] frame = loudest[i].frame;
+            for (int s = 0; s < FRAME_SAMPLES; s++) {
+                total[s] += frame[s];
+            }
+        }
+        toPcm(total, null, sharedMix);
+
+        for (Channel channel : channels) {
+            if (channel.speaking) {
+                toPcm(total, channel.frame, ownMix);
+                channel.writePacket(ownMix);
+            } else {
+                channel.writePacket(sharedMix);
+            }
+        }
+    }
+
+    /**
+     * Deja en loudest los (a lo sumo) K canales con más energía en este tick, sin contar
+     * silencios, y marca speaking en cada canal. Devuelve cuántos eligió.
+     */
+    private int selectLoudest(Channel[] channels) {
+        int count = 0;
+        for (Channel channel : channels) {
+            channel.speaking = false;
+            if (!channel.hasFrame || channel.energy < SILENCE_ENERGY) continue;
+            int position = count < speakers ? count++ : speakers;
+            // Inserción ordenada de mayor a menor; con K chico es más barato que ordenar todo
+            while (position > 0 && loudest[position - 1].energy < channel.energy) {
+                if (position < speakers) loudest[position] = loudest[position - 1];
+                position--;
+            }
+            if (position < speakers) loudest[position] = channel;
+        }
+        for (int i = 0; i < count; i++) {
+            loudest[i].speaking = true;
+        }
+        return count;
+    }
+
+    /**
+     * Convierte la suma (menos la voz propia, si se indica) a PCM 16 bits little-endian,
+     * saturando en lugar de desbordar.
+     */
+    private static void toPcm(int[] total, short[] minus, byte[] out) {
+        for (int s = 0; s < FRAME_SAMPLES; s++) {
+            int value = minus != null ? total[s] - minus[s] : total[s];
+            value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            out[2 * s] = (byte) value;
+            out[2 * s + 1] = (byte) (value >> 8);
+        }
+    }
+
+    /**
+     * Estado de un participante: lo que envía (jitter buffer y audio decodificado) y lo que
+     * recibe (su paquete mezclado, con su propio flujo RTP).
+     */
+    public static final class Channel {
+        private final JitterBuffer jitterBuffer = new JitterBuffer();
+        private final byte[] decoded = new byte[DECODE_BYTES];
+        private final short[] fifo = new short[FIFO_SAMPLES];
+        private int fifoCount;
+        private AudioCodec decoder;
+        private int decoderType = -1;
+
+        private final short[] frame = new short[FRAME_SAMPLES];
+        private boolean hasFrame;
+        private long energy;
+        private boolean speaking;
+
+        // El codec negociado; si el participante envía con otro, se le responde con ese
+        private AudioCodec encoder;
+        private int encoderType;
+        private final ByteBuffer output = ByteBuffer.allocateDirect(RtpPacket.HEADER_BYTES + FRAME_SAMPLES * 2);
+        private boolean outputReady;
+        private final int ssrc;
+        private int sequence;
+        private long timestamp;
+
+        private Channel(AudioCodec codec) {
+            // Instancia propia: el codificador ADPCM guarda estado entre paquetes
+            encoder = AudioCodecs.create(codec != null ? codec.getName() : null);
+            if (encoder == null) encoder = PcmCodec.INSTANCE;
+            encoderType = encoder.getPayloadType();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            ssrc = random.nextInt();
+            sequence = random.nextInt(0x10000);
+            timestamp = random.nextInt() & 0xFFFFFFFFL;
+        }
+
+        /**
+         * Paquete recibido del participante; el canal lo devuelve al pool después de
+         * decodificarlo.
+         */
+        public void offer(PacketBuffer packet) {
+            jitterBuffer.offer(packet);
+        }
+
+        /**
+         * Paquete mezclado de este tick (de position a limit), o null si no hay. El buffer se
+         * reutiliza en el próximo tick.
+         */
+        public ByteBuffer takeOutput() {
+            if (!outputReady) return null;
+            outputReady = false;
+            return output;
+        }
+
+        /**
+         * Libera los paquetes pendientes (el participante salió de la llamada).
+         */
+        public void close() {
+            jitterBuffer.clear();
+        }
+
+        /**
+         * Saca 20 ms de audio del participante: decodifica paquetes del jitter buffer hasta
+         * tener suficientes muestras. Si faltan (buffer llenándose, pérdida), este tick no
+         * aporta audio.
+         */
+        private void pull() {
+            while (fifoCount < FRAME_SAMPLES) {
+                PacketBuffer packet = jitterBuffer.poll();
+                if (packet == null) break;
+                int payloadType = jitterBuffer.getPayloadType();
+                if (decoder == null || decoderType != payloadType) {
+                    decoder = AudioCodecs.forPayloadType(payloadType);
+                    decoderType = payloadType;
+                }
+                if (encoderType != payloadType) {
+                    AudioCodec sent = AudioCodecs.forPayloadType(payloadType);
+                    if (sent != null) encoder = sent;
+                    encoderType = payloadType;
+                }
+                int bytes = decoder != null ? decoder.decode(packet.data(), decoded, 0) : 0;
+                packet.release();
+                int samples = Math.min(bytes / 2, fifo.length - fifoCount);
+                for (int s = 0; s < samples; s++) {
+                    fifo[fifoCount + s] = (short) ((decoded[2 * s] & 0xFF) | (decoded[2 * s + 1] << 8));
+                }
+                fifoCount += samples;
+            }
+
+            hasFrame = fifoCount >= FRAME_SAMPLES;
+            if (!hasFrame) {
+                energy = 0;
+                return;
+            }
+            System.arraycopy(fifo, 0, frame, 0, FRAME_SAMPLES);
+            fifoCount -= FRAME_SAMPLES;
+            System.arraycopy(fifo, FRAME_SAMPLES, fifo, 0, fifoCount);
+
+            long sum = 0;
+            for (int s = 0; s < FRAME_SAMPLES; s++) {
+                sum += frame[s] * frame[s];
+            }
+            energy = sum;
+        }
+
+        private void writePacket(byte[] pcm) {
+            output.clear();
+            RtpPacket.writeHeader(output, encoder.getPayloadType(), sequence, timestamp, ssrc);
+            encoder.encode(pcm, 0, pcm.length, output);
+            output.flip();
+            outputReady = true;
+            sequence = (sequence + 1) & 0xFFFF;
+            timestamp = (timestamp + FRAME_SAMPLES) & 0xFFFFFFFFL;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package network;
+
+import util.Fields;
+
+/**
+ * Tipos de comando conocidos del protocolo de texto (campo "type").
+ *
+ * La búsqueda usa una tabla indexada por el hash precalculado de cada nombre, de modo
+ * que reconocer el tipo de una línea no crea ningún String (en los frames binarios el
+ * nombre ya viene resuelto desde su etiqueta).
+ */
+public enum CommandType {
+    LOGIN("login"),
+    LOGOUT("logout"),
+    PRIVATE_MESSAGE("private_message"),
+    GROUP_MESSAGE("group_message"),
+    CREATE_GROUP("create_group"),
+    JOIN_GROUP("join_group"),
+    GET_ONLINE_USERS("get_online_users", true),
+    GET_GROUPS("get_groups", true),
+    GET_HISTORY("get_history", true),
+    CALL_START("call_start"),
+    CALL_ACCEPT("call_accept"),
+    CALL_END("call_end"),
+    AUDIO_BEGIN("audio_begin"),
+    AUDIO_CHUNK("audio_chunk"),
+    AUDIO_COMMIT("audio_commit"),
+    AUDIO_GET("audio_get", true),
+    UNKNOWN("");
+
+    private static final int TABLE_SIZE = 64;
+    private static final CommandType[] TABLE = new CommandType[TABLE_SIZE];
+
+    static {
+        for (CommandType type : values()) {
+            if (type == UNKNOWN) continue;
+            int slot = type.hash & (TABLE_SIZE - 1);
+            while (TABLE[slot] != null) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            TABLE[slot] = type;
+        }
+    }
+
+    private final String wireName;
+    private final int hash;
+    private final boolean readOnly;
+
+    CommandType(String wireName) {
+        this(wireName, false);
+    }
+
+    CommandType(String wireName, boolean readOnly) {
+        this.wireName = wireName;
+        this.hash = wireName.hashCode();
+        this.readOnly = readOnly;
+    }
+
+    public String getWireName() {
+        return wireName;
+    }
+
+    /**
+     * true si el comando solo consulta estado (presencia, grupos, historial, descarga de
+     * audio): puede ejecutarse a la vez que otros comandos de la misma conexión.
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Tipo del comando según su campo "type", o null si la línea no tiene tipo.
+     */
+    public static CommandType of(Fields line) {
+        CharSequence value = line.view("type");
+        if (value == null) return null;
+
+        int hash = line.valueHash("type");
+        int slot = hash & (TABLE_SIZE - 1);
+        for (int probes = 0; probes < TABLE_SIZE; probes++) {
+            CommandType candidate = TABLE[slot];
+            if (candidate == null) break;
+            if (candidate.hash == hash && contentEquals(candidate.wireName, value)) {
+                return candidate;
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean contentEquals(String expected, CharSequence value) {
+        if (expected.length() != value.length()) return false;
+        for (int i = 0; i < expected.length(); i++) {
+            if (expected.charAt(i) != value.charAt(i)) return false;
+        }
+        return true;
+    }
+}
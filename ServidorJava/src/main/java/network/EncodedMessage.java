@@ -0,0 +1,122 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Mensaje ya codificado para enviar.
+ *
+ * Se codifica una sola vez por modo del protocolo (línea de texto UTF-8 con su salto de línea,
+ * o frame binario) y se comparte entre todos los destinatarios de un envío masivo: cada conexión
+ * recibe una vista de solo lectura de los mismos bytes. Cada forma se genera la primera vez que
+ * una conexión de ese modo la pide.
+ *
+ * Los mensajes no críticos (notificaciones) llevan una clave ("kind") que la cola de
+ * salida usa para descartarlos o agruparlos si el cliente va lento: de los que comparten
+ * clave solo se envía el último, así que la clave debe nombrar de qué trata el aviso (por
+ * ejemplo "group:amigos"). Si el aviso describe un cambio y quedarse con el último perdería
+ * los anteriores (la presencia), lleva además un resumen del estado actual que se envía en
+ * su lugar cuando se agruparon varios.
+ */
+public final class EncodedMessage {
+    private final String line;
+    private final WireMessage wire;
+    private final boolean critical;
+    private final String kind;
+    private final Supplier<WireMessage> summary;
+    // Reemplazó en la cola a otro de la misma clave
+    private final boolean merged;
+
+    // Se calculan al primer uso; si dos hilos compiten ambos obtienen los mismos bytes
+    private volatile byte[] text;
+    private volatile byte[] frame;
+
+    private EncodedMessage(String line, WireMessage wire, boolean critical, String kind,
+                           Supplier<WireMessage> summary, boolean merged) {
+        this.line = line;
+        this.wire = wire;
+        this.critical = critical;
+        this.kind = kind;
+        this.summary = summary;
+        this.merged = merged;
+    }
+
+    /**
+     * Mensaje crítico: respuestas y mensajes de chat, nunca se descartan.
+     */
+    public static EncodedMessage of(String line) {
+        return new EncodedMessage(line, null, true, null, null, false);
+    }
+
+    public static EncodedMessage of(WireMessage message) {
+        return new EncodedMessage(null, message, true, null, null, false);
+    }
+
+    /**
+     * Notificación no crítica que puede descartarse o agruparse por tipo.
+     */
+    public static EncodedMessage notification(String kind, String line) {
+        return new EncodedMessage(line, null, false, kind, null, false);
+    }
+
+    public static EncodedMessage notification(String kind, WireMessage message) {
+        return new EncodedMessage(null, message, false, kind, null, false);
+    }
+
+    /**
+     * Notificación no crítica que, si la cola agrupa varias con la misma clave, se reemplaza
+     * por summary (calculado al enviarlo).
+     */
+    public static EncodedMessage notification(String kind, WireMessage message, Supplier<WireMessage> summary) {
+        return new EncodedMessage(null, message, false, kind, summary, false);
+    }
+
+    /**
+     * Lo que la cola guarda cuando este mensaje reemplaza a otro de la misma clave.
+     */
+    EncodedMessage merged() {
+        return summary == null || merged ? this : new EncodedMessage(line, wire, false, kind, summary, true);
+    }
+
+    /**
+     * Lo que se envía al vaciar los avisos agrupados: el resumen si se juntaron varios.
+     */
+    EncodedMessage coalescedForm() {
+        return merged ? of(summary.get()) : this;
+    }
+
+    public boolean isCritical() {
+        return critical;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * Vista de solo lectura con posición propia; no copia los bytes.
+     */
+    public ByteBuffer buffer(boolean binary) {
+        return ByteBuffer.wrap(bytes(binary)).asReadOnlyBuffer();
+    }
+
+    public int length(boolean binary) {
+        return bytes(binary).length;
+    }
+
+    private byte[] bytes(boolean binary) {
+        if (binary) {
+            byte[] encoded = frame;
+            if (encoded == null) {
+                frame = encoded = (wire != null ? wire : WireMessage.fromLine(line)).toFrame();
+            }
+            return encoded;
+        }
+        byte[] encoded = text;
+        if (encoded == null) {
+            text = encoded = ((line != null ? line : wire.toText()) + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+}
@@ -0,0 +1,273 @@
+package network;
+
+import util.Fields;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Mensaje recibido en el modo binario del protocolo.
+ *
+ * Formato de un frame (todos los enteros son varints sin signo, 7 bits por byte):
+ *
+ *   frame  = largo cuerpo                  largo = bytes del cuerpo
+ *   cuerpo = etiqueta [largo tipo] campos   el nombre del tipo solo viaja si la etiqueta es 0
+ *   campos = cantidad campo*
+ *   campo  = largo clave  cabecera valor
+ *            cabecera = largo << 1          valor: bytes tal cual (texto UTF-8 o datos binarios)
+ *            cabecera = 1                   valor: número (varint en zigzag)
+ *
+ * Los valores no se escapan: pueden contener '|', ':' o saltos de línea, y los datos de audio
+ * viajan sin base64. El frame solo guarda posiciones sobre su arreglo de bytes; los valores se
+ * convierten a String cuando alguien los pide.
+ *
+ * @see WireMessage para construir frames
+ * @see WireTypes para las etiquetas de tipo
+ */
+public final class Frame implements Fields {
+    /** Tamaño máximo del cuerpo de un frame. */
+    public static final int MAX_BYTES = 8 * 1024 * 1024;
+    /** Campos como máximo por frame; ningún mensaje del protocolo se acerca. */
+    public static final int MAX_FIELDS = 1024;
+
+    static final int NUMBER = 1;
+
+    private final byte[] body;
+    private final String type;
+    private final int count;
+    private final int[] keyStart;
+    private final int[] keyEnd;
+    private final int[] valueStart;
+    private final int[] valueEnd;
+    private final long[] numbers;
+    private final boolean[] numeric;
+
+    private int position;
+
+    private Frame(byte[] body) throws IOException {
+        this.body = body;
+
+        int tag = (int) readVarint();
+        if (tag == 0) {
+            int length = readLength();
+            type = new String(body, position, length, StandardCharsets.UTF_8);
+            position += length;
+        } else {
+            type = WireTypes.nameOf(tag);
+            if (type == null) throw new IOException("Etiqueta de tipo desconocida: " + tag);
+        }
+
+        // Cada campo ocupa al menos 2 bytes (largo de la clave y cabecera): se valida antes de
+        // reservar los arreglos, para que un largo inventado no cueste memoria
+        long fields = readVarint();
+        if (fields < 0 || fields > MAX_FIELDS) throw new IOException("Demasiados campos: " + fields);
+        if (fields * 2 > body.length - position) throw new IOException("Frame truncado");
+        count = (int) fields;
+        keyStart = new int[count];
+        keyEnd = new int[count];
+        valueStart = new int[count];
+        valueEnd = new int[count];
+        numbers = new long[count];
+        numeric = new boolean[count];
+
+        for (int i = 0; i < count; i++) {
+            int keyLength = readLength();
+            keyStart[i] = position;
+            keyEnd[i] = position += keyLength;
+
+            long header = readVarint();
+            if (header == NUMBER) {
+                long zigzag = readVarint();
+                numbers[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+                numeric[i] = true;
+            } else if ((header & 1) == 0) {
+                long length = header >>> 1;
+                if (length > body.length - position) throw new IOException("Frame truncado");
+                valueStart[i] = position;
+                valueEnd[i] = position += (int) length;
+            } else {
+                throw new IOException("Cabecera de campo inválida: " + header);
+            }
+        }
+        if (position != body.length) {
+            throw new IOException("Frame con " + (body.length - position) + " bytes sobrantes");
+        }
+    }
+
+    /**
+     * Interpreta el cuerpo de un frame. El arreglo pasa a ser del frame y no debe modificarse.
+     */
+    public static Frame parse(byte[] body) throws IOException {
+        try {
+            return new Frame(body);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Frame truncado");
+        }
+    }
+
+    /**
+     * Lee un frame completo del stream. Devuelve null si el stream terminó entre frames.
+     */
+    public static Frame read(InputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) return null;
+
+        int length = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            b = in.read();
+            if (b < 0) throw new EOFException("Frame truncado");
+            if (shift > 28) throw new IOException("Largo de frame inválido");
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        if (length <= 0 || length > MAX_BYTES) {
+            throw new IOException("Largo de frame inválido: " + length);
+        }
+
+        byte[] body = in.readNBytes(length);
+        if (body.length < length) throw new EOFException("Frame truncado");
+        return parse(body);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public int size() {
+        return count + 1;
+    }
+
+    @Override
+    public boolean has(String key) {
+        return "type".equals(key) || indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(String key) {
+        if ("type".equals(key)) return type;
+        int index = indexOf(key);
+        if (index < 0) return null;
+        if (numeric[index]) return Long.toString(numbers[index]);
+        return new String(body, valueStart[index], valueEnd[index] - valueStart[index], StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public CharSequence view(String key) {
+        return get(key);
+    }
+
+    @Override
+    public boolean valueEquals(String key, CharSequence expected) {
+        if ("type".equals(key)) return type.contentEquals(expected);
+        int index = indexOf(key);
+        if (index < 0) return false;
+        if (numeric[index]) return Long.toString(numbers[index]).contentEquals(expected);
+
+        int start = valueStart[index];
+        if (valueEnd[index] - start != expected.length()) {
+            return get(key).contentEquals(expected);
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            char c = expected.charAt(i);
+            if (c >= 0x80 || body[start + i] < 0) return get(key).contentEquals(expected);
+            if (body[start + i] != c) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int getInt(String key, int defaultValue) {
+        long value = getLong(key, Long.MIN_VALUE);
+        if (value == Long.MIN_VALUE || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    @Override
+    public long getLong(String key, long defaultValue) {
+        int index = indexOf(key);
+        if (index < 0) return defaultValue;
+        if (numeric[index]) return numbers[index];
+
+        // También se aceptan números enviados como texto
+        int i = valueStart[index];
+        int end = valueEnd[index];
+        if (i == end) return defaultValue;
+        boolean negative = body[i] == '-';
+        if (negative) i++;
+        if (i == end) return defaultValue;
+
+        long result = 0;
+        for (; i < end; i++) {
+            byte c = body[i];
+            if (c < '0' || c > '9') return defaultValue;
+            result = result * 10 + (c - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    @Override
+    public int valueHash(String key) {
+        String value = get(key);
+        return value != null ? value.hashCode() : 0;
+    }
+
+    @Override
+    public ByteBuffer getBytes(String key) {
+        int index = indexOf(key);
+        if (index < 0 || numeric[index]) return null;
+        return ByteBuffer.wrap(body, valueStart[index], valueEnd[index] - valueStart[index]).slice();
+    }
+
+    private int indexOf(String key) {
+        int keyLength = key.length();
+        for (int f = 0; f < count; f++) {
+            if (keyEnd[f] - keyStart[f] != keyLength) continue;
+            int start = keyStart[f];
+            int i = 0;
+            while (i < keyLength && body[start + i] == key.charAt(i)) i++;
+            if (i == keyLength) return f;
+        }
+        return -1;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = body[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Varint inválido");
+    }
+
+    private int readLength() throws IOException {
+        long length = readVarint();
+        if (length < 0 || length > body.length - position) throw new IOException("Frame truncado");
+        return (int) length;
+    }
+
+    /**
+     * Representación en el formato de texto (para registros y depuración).
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("type:").append(type);
+        for (int i = 0; i < count; i++) {
+            sb.append('|').append(new String(body, keyStart[i], keyEnd[i] - keyStart[i], StandardCharsets.UTF_8)).append(':');
+            if (numeric[i]) {
+                sb.append(numbers[i]);
+            } else {
+                sb.append(new String(body, valueStart[i], valueEnd[i] - valueStart[i], StandardCharsets.UTF_8));
+            }
+        }
+        return sb.toString();
+    }
+}
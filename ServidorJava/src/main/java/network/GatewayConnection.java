@@ -0,0 +1,262 @@
+package network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Conexión de un navegador a través del gateway web ({@link WebGateway}).
+ *
+ * Para el servidor es una conexión más en modo texto: recibe las mismas líneas
+ * "type:x|clave:valor" y usa la misma cola de salida. Solo cambia cómo viaja cada línea:
+ *
+ * - WebSocket: cada línea es un mensaje de texto, en los dos sentidos.
+ * - SSE: las líneas del servidor van como eventos ("data: línea"); las del navegador llegan
+ *   por POST /command y se asocian a la conexión por su id de sesión.
+ */
+public class GatewayConnection extends TCPConnection {
+    public enum Transport { WEBSOCKET, SSE }
+
+    private static final int MAX_MESSAGE_BYTES = 8 * 1024 * 1024;
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+
+    private final Transport transport;
+    private final String sessionId;
+    private final OutputStream out;
+
+    private GatewayConnection(Socket socket, OutputStream out, Transport transport, String sessionId,
+                              TCPConnectionListener listener) {
+        super(listener, socket, out, new MessageChannel(out, transport));
+        this.out = out;
+        this.transport = transport;
+        this.sessionId = sessionId;
+    }
+
+    static GatewayConnection webSocket(Socket socket, OutputStream out, TCPConnectionListener listener) {
+        return new GatewayConnection(socket, out, Transport.WEBSOCKET, null, listener);
+    }
+
+    static GatewayConnection eventStream(Socket socket, OutputStream out, String sessionId,
+                                         TCPConnectionListener listener) {
+        return new GatewayConnection(socket, out, Transport.SSE, sessionId, listener);
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Entrega al servidor las líneas recibidas del navegador (una o varias separadas por '\n').
+     */
+    void receive(String text) throws InterruptedException {
+        for (String line : text.split("\n")) {
+            String command = line.trim();
+            if (command.isEmpty() || !connected) continue;
+            awaitCommandWindow();
+            if (listener != null) listener.onReceiveObject(this, command);
+        }
+    }
+
+    /**
+     * Lee mensajes WebSocket hasta que el navegador cierra. Se ejecuta en el hilo de la conexión.
+     */
+    void readWebSocket(InputStream in) {
+        try {
+            if (listener != null) listener.onConnectionReady(this);
+
+            byte[] message = new byte[256];
+            int messageLength = 0;
+            boolean inMessage = false;
+
+            while (connected) {
+                int b0 = in.read();
+                if (b0 < 0) break;
+                int b1 = readByte(in);
+                boolean fin = (b0 & 0x80) != 0;
+                int opcode = b0 & 0x0F;
+                if ((b1 & 0x80) == 0) throw new IOException("Mensaje WebSocket sin máscara");
+
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    length = (readByte(in) << 8) | readByte(in);
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) length = (length << 8) | readByte(in);
+                }
+                byte[] mask = in.readNBytes(4);
+                if (mask.length < 4) throw new EOFException("Mensaje WebSocket truncado");
+                if (length < 0 || length > MAX_MESSAGE_BYTES - messageLength) {
+                    sendControl(OP_CLOSE, new byte[]{0x03, (byte) 0xF1}); // 1009: mensaje demasiado grande
+                    break;
+                }
+
+                byte[] payload = in.readNBytes((int) length);
+                if (payload.length < length) throw new EOFException("Mensaje WebSocket truncado");
+                for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+
+                switch (opcode) {
+                    case OP_TEXT, OP_CONTINUATION -> {
+                        if (opcode == OP_TEXT) {
+                            messageLength = 0;
+                            inMessage = true;
+                        } else if (!inMessage) {
+                            throw new IOException("Continuación WebSocket sin mensaje");
+                        }
+                        if (messageLength + payload.length > message.length) {
+                            message = Arrays.copyOf(message,
+                                    Math.max(message.length * 2, messageLength + payload.length));
+                        }
+                        System.arraycopy(payload, 0, message, messageLength, payload.length);
+                        messageLength += payload.length;
+                        if (fin) {
+                            inMessage = false;
+                            receive(new String(message, 0, messageLength, StandardCharsets.UTF_8));
+                            // El tope de tamaño es por mensaje, no por conexión
+                            messageLength = 0;
+                        }
+                    }
+                    case OP_PING -> sendControl(OP_PONG, payload);
+                    case OP_PONG -> { }
+                    case OP_CLOSE -> {
+                        sendControl(OP_CLOSE, payload.length >= 2 ? new byte[]{payload[0], payload[1]} : new byte[0]);
+                        return;
+                    }
+                    default -> {
+                        // Solo se usan mensajes de texto (el protocolo de líneas)
+                        sendControl(OP_CLOSE, new byte[]{0x03, (byte) 0xEB}); // 1003: tipo no soportado
+                        return;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (connected && listener != null) listener.onException(this, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            disconnect();
+        }
+    }
+
+    /**
+     * Espera a que el navegador cierre el stream de eventos (no envía nada por ahí).
+     */
+    void awaitEventStreamClose(InputStream in) {
+        try {
+            if (listener != null) listener.onConnectionReady(this);
+            while (connected && in.read() >= 0) {
+                // Se descarta cualquier byte: los comandos llegan por POST /command
+            }
+        } catch (IOException ignored) {
+        } finally {
+            disconnect();
+        }
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException("Mensaje WebSocket truncado");
+        return b;
+    }
+
+    private void sendControl(int opcode, byte[] payload) throws IOException {
+        synchronized (out) {
+            out.write(0x80 | opcode);
+            out.write(payload.length);
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    /**
+     * Canal de salida que envuelve cada línea de la cola en el formato del transporte.
+     * La cola entrega cada mensaje completo (terminado en '\n') en una sola escritura.
+     */
+    private static final class MessageChannel implements WritableByteChannel {
+        private static final byte[] SSE_PREFIX = "data: ".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] SSE_SUFFIX = "\n\n".getBytes(StandardCharsets.US_ASCII);
+
+        private final OutputStream out;
+        private final Transport transport;
+        private byte[] scratch = new byte[256];
+        private volatile boolean open = true;
+
+        MessageChannel(OutputStream out, Transport transport) {
+            this.out = out;
+            this.transport = transport;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int consumed = src.remaining();
+            int length = consumed;
+            if (length > 0 && src.get(src.position() + length - 1) == '\n') length--;
+            if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+            src.get(scratch, 0, length);
+            src.position(src.position() + consumed - length);
+
+            synchronized (out) {
+                if (transport == Transport.WEBSOCKET) {
+                    out.write(0x80 | OP_TEXT);
+                    if (length < 126) {
+                        out.write(length);
+                    } else if (length < 65536) {
+                        out.write(126);
+                        out.write(length >>> 8);
+                        out.write(length);
+                    } else {
+                        out.write(127);
+                        for (int shift = 56; shift >= 0; shift -= 8) out.write((int) ((long) length >>> shift));
+                    }
+                    out.write(scratch, 0, length);
+                } else {
+                    writeEvent(scratch, length);
+                }
+            }
+            return consumed;
+        }
+
+        /**
+         * Un evento SSE termina en la primera línea vacía: un salto de línea dentro del mensaje
+         * se envía como otra línea "data: ", y el navegador las vuelve a unir con '\n'.
+         */
+        private void writeEvent(byte[] bytes, int length) throws IOException {
+            out.write(SSE_PREFIX);
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                byte b = bytes[i];
+                if (b != '\n' && b != '\r') continue;
+                out.write(bytes, start, i - start);
+                out.write('\n');
+                out.write(SSE_PREFIX);
+                if (b == '\r' && i + 1 < length && bytes[i + 1] == '\n') i++;
+                start = i + 1;
+            }
+            out.write(bytes, start, length - start);
+            out.write(SSE_SUFFIX);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package network;
+
+import util.AudioCodec;
+import util.AudioCodecs;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+/**
+ * Relay de audio para las llamadas grupales (SFU).
+ *
+ * Cada participante envía su audio una sola vez, al relay, y el relay lo reenvía a los demás
+ * miembros de la llamada sin decodificarlo. Así lo que sube cada cliente no depende del
+ * tamaño del grupo, y el cliente sigue teniendo un solo destino para su audio.
+ *
+ * Cada llamada tiene su tabla de ruteo: los participantes con el endpoint UDP que anunciaron
+ * en call_start/call_accept. Un paquete se reenvía si viene de uno de esos endpoints y tiene
+ * cabecera RTP válida; el resto se descarta, así que el relay no reenvía tráfico de
+ * desconocidos.
+ *
+ * Cada llamada pertenece a un grupo y solo se unen sus miembros: conocer el id de la llamada
+ * (un UUID, que no se puede adivinar) no alcanza para escuchar la llamada de otro grupo.
+ *
+ * A cada cliente le llegan a lo sumo chat.relay.maxForwarded flujos: con más participantes se
+ * reenvían los que más fuerte hablan (ver {@link SpeakerSelector}). Para medir el volumen el
+ * relay decodifica cada paquete en un buffer propio, pero reenvía el original.
+ *
+ * La recepción usa el {@link UDPConnection} de siempre (buffers del pool, sin objetos por
+ * paquete) y el reenvío se hace en el mismo hilo, mandando el mismo buffer a cada destino.
+ *
+ * Con chat.relay.mode=mix las llamadas se mezclan en el servidor (MCU) en lugar de reenviarse:
+ * cada oyente recibe un solo flujo con los chat.relay.mixSpeakers participantes que más fuerte
+ * hablan (ver {@link AudioMixer}). Cuesta CPU en el servidor, pero con grupos grandes cada
+ * cliente recibe y decodifica un flujo en lugar de N-1.
+ */
+public class MediaRelay implements UDPAudioListener {
+    public enum JoinResult { JOINED, NO_CALL, NOT_MEMBER }
+
+    // Un paquete se reenvía a N-1 destinos: mientras tanto los que llegan esperan en el socket
+    private static final int RECEIVE_BUFFER_BYTES = Integer.getInteger("chat.relay.receiveBuffer", 4 * 1024 * 1024);
+    private static final boolean MIX = "mix".equalsIgnoreCase(System.getProperty("chat.relay.mode", "forward"));
+    private static final int MIX_SPEAKERS = Integer.getInteger("chat.relay.mixSpeakers", 3);
+    // El reproductor del cliente mezcla hasta 8 flujos; más que eso los reemplazaría entre sí
+    private static final int MAX_FORWARDED = Math.min(8, Integer.getInteger("chat.relay.maxForwarded", 4));
+    // Audio decodificado de un paquete para medir su volumen (ADPCM se expande 4 veces)
+    private static final int LEVEL_DECODE_BYTES = 8192;
+
+    private final UDPConnection udpConnection;
+    // (usuario, grupo) -> si el usuario es miembro del grupo
+    private final BiPredicate<String, String> membership;
+
+    // Endpoint de origen -> participante (y su llamada), para ubicar cada paquete sin recorrer las llamadas
+    private final Map<InetSocketAddress, Participant> routes = new ConcurrentHashMap<>();
+    private final Map<String, RelayCall> calls = new HashMap<>();
+    private final Map<String, RelayCall> callsByUser = new HashMap<>();
+
+    private final AtomicLong forwardedPackets = new AtomicLong();
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private final AtomicLong unforwardedPackets = new AtomicLong();
+
+    // Decodificación para medir el volumen; solo la usa el hilo receptor
+    private final byte[] levelPcm = new byte[LEVEL_DECODE_BYTES];
+    private final AudioCodec[] levelDecoders = new AudioCodec[128];
+
+    // Llamadas mezcladas, recorridas por el reloj de mezcla
+    private final Map<String, RelayCall> mixedCalls = new ConcurrentHashMap<>();
+    private ScheduledExecutorService mixerClock;
+
+    private MediaRelay(int port, BiPredicate<String, String> membership) throws IOException {
+        this.membership = membership;
+        this.udpConnection = new UDPConnection(port, this);
+        this.udpConnection.setReceiveBufferSize(RECEIVE_BUFFER_BYTES);
+    }
+
+    /**
+     * Abre el puerto UDP y empieza a reenviar (o a mezclar, según chat.relay.mode).
+     * membership dice si un usuario es miembro de un grupo (usuario, grupo).
+     */
+    public static MediaRelay start(int port, BiPredicate<String, String> membership) throws IOException {
+        MediaRelay relay = new MediaRelay(port, membership);
+        relay.udpConnection.startListening();
+        if (MIX) {
+            relay.mixerClock = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "audio-mixer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            relay.mixerClock.scheduleAtFixedRate(relay::mixTick, AudioMixer.TICK_MS, AudioMixer.TICK_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+        return relay;
+    }
+
+    public boolean isMixing() {
+        return MIX;
+    }
+
+    /**
+     * Crea una llamada vacía del grupo y devuelve su id.
+     */
+    public synchronized String createCall(String group) {
+        String callId = "grp_" + UUID.randomUUID();
+        RelayCall call = MIX ? new RelayCall(callId, group, new AudioMixer(MIX_SPEAKERS), null)
+                : new RelayCall(callId, group, null, new SpeakerSelector(MAX_FORWARDED));
+        calls.put(callId, call);
+        if (call.mixer != null) mixedCalls.put(callId, call);
+        return callId;
+    }
+
+    /**
+     * Agrega un participante a la llamada (o actualiza su endpoint). Si el usuario estaba en
+     * otra llamada, sale de ella. Solo se unen los miembros del grupo de la llamada. codec es
+     * el que negoció el participante: en las llamadas mezcladas se le envía la mezcla con él.
+     */
+    public synchronized JoinResult join(String callId, String user, InetSocketAddress endpoint, AudioCodec codec) {
+        RelayCall call = calls.get(callId);
+        if (call == null) return JoinResult.NO_CALL;
+        if (!membership.test(user, call.group)) return JoinResult.NOT_MEMBER;
+
+        RelayCall previous = callsByUser.get(user);
+        if (previous != null && previous != call) {
+            leave(user);
+        }
+        Participant[] current = call.participants;
+        Participant[] updated = new Participant[current.length + 1];
+        int count = 0;
+        for (Participant participant : current) {
+            if (participant.user().equals(user)) {
+                removeRoute(participant);
+            } else {
+                updated[count++] = participant;
+            }
+        }
+        Participant joined = new Participant(user, endpoint, call,
+                call.mixer != null ? call.mixer.newChannel(codec) : null,
+                call.speakers != null ? new SpeakerSelector.Speaker() : null);
+        updated[count++] = joined;
+        call.setParticipants(Arrays.copyOf(updated, count));
+        routes.put(endpoint, joined);
+        callsByUser.put(user, call);
+        return JoinResult.JOINED;
+    }
+
+    /**
+     * Saca al usuario de su llamada, si está en una. La llamada se cierra cuando no queda nadie.
+     */
+    public synchronized void leave(String user) {
+        RelayCall call = callsByUser.remove(user);
+        if (call == null) return;
+
+        Participant[] current = call.participants;
+        Participant[] updated = new Participant[current.length];
+        int count = 0;
+        for (Participant participant : current) {
+            if (participant.user().equals(user)) {
+                removeRoute(participant);
+            } else {
+                updated[count++] = participant;
+            }
+        }
+        call.setParticipants(Arrays.copyOf(updated, count));
+        if (count == 0) {
+            calls.remove(call.callId);
+            mixedCalls.remove(call.callId);
+            System.out.println("🔁 Llamada grupal " + call.callId + " terminada: "
+                    + call.forwardedPackets.get() + " paquetes reenviados, "
+                    + call.unforwardedPackets.get() + " retenidos por el tope de hablantes");
+        }
+    }
+
+    public synchronized boolean hasCall(String callId) {
+        return calls.containsKey(callId);
+    }
+
+    public int getLocalPort() {
+        return udpConnection.getLocalPort();
+    }
+
+    /** Copias enviadas (un paquete a N-1 participantes cuenta N-1). */
+    public long getForwardedPackets() {
+        return forwardedPackets.get();
+    }
+
+    /** Paquetes descartados: origen desconocido o sin cabecera válida. */
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    /** Paquetes que no se reenviaron porque quien los envió no estaba entre los que más hablan. */
+    public long getUnforwardedPackets() {
+        return unforwardedPackets.get();
+    }
+
+    public void close() {
+        if (mixerClock != null) mixerClock.shutdownNow();
+        udpConnection.close();
+    }
+
+    private void removeRoute(Participant participant) {
+        routes.remove(participant.endpoint(), participant);
+        if (participant.channel() != null) participant.channel().close();
+    }
+
+    @Override
+    public void onAudioReceived(PacketBuffer packet) {
+        boolean handedOff = false;
+        try {
+            InetSocketAddress sender = packet.getSender();
+            Participant source = sender != null ? routes.get(sender) : null;
+            ByteBuffer data = packet.data();
+            if (source == null || !RtpPacket.isValid(data)) {
+                droppedPackets.incrementAndGet();
+                return;
+            }
+            RelayCall call = source.call();
+            if (source.channel() != null) {
+                // Llamada mezclada: el paquete espera en el canal hasta el próximo tick
+                source.channel().offer(packet);
+                handedOff = true;
+                return;
+            }
+
+            Participant[] participants = call.participants;
+            // Hasta el tope (contando a quien envía) se reenvía todo sin medir nada
+            if (participants.length > call.speakers.getMaxForwarded() + 1
+                    && !call.speakers.accept(source.speaker(), energy(data), System.nanoTime())) {
+                call.unforwardedPackets.incrementAndGet();
+                unforwardedPackets.incrementAndGet();
+                return;
+            }
+
+            int start = data.position();
+            int sent = 0;
+            for (Participant participant : participants) {
+                if (participant.endpoint().equals(sender)) continue;
+                data.position(start);
+                try {
+                    udpConnection.send(data, participant.endpoint());
+                    sent++;
+                } catch (IOException e) {
+                    // Un destino inalcanzable no corta el reenvío a los demás
+                    System.err.println("⚠️ Relay: no se pudo reenviar a " + participant.user() + ": " + e.getMessage());
+                }
+            }
+            call.forwardedPackets.addAndGet(sent);
+            forwardedPackets.addAndGet(sent);
+        } finally {
+            if (!handedOff) packet.release();
+        }
+    }
+
+    /**
+     * Energía media por muestra del audio del paquete, o 0 si el codec no es conocido.
+     */
+    private long energy(ByteBuffer data) {
+        int payloadType = RtpPacket.payloadType(data);
+        AudioCodec decoder = levelDecoders[payloadType];
+        if (decoder == null) {
+            decoder = AudioCodecs.forPayloadType(payloadType);
+            if (decoder == null) return 0;
+            levelDecoders[payloadType] = decoder;
+        }
+        int start = data.position();
+        data.position(start + RtpPacket.HEADER_BYTES);
+        int samples = decoder.decode(data, levelPcm, 0) / 2;
+        data.position(start);
+        if (samples == 0) return 0;
+
+        long sum = 0;
+        for (int s = 0; s < samples; s++) {
+            int value = (short) ((levelPcm[2 * s] & 0xFF) | (levelPcm[2 * s + 1] << 8));
+            sum += value * value;
+        }
+        return sum / samples;
+    }
+
+    /**
+     * Un tick del reloj de mezcla: mezcla cada llamada y envía a cada oyente su paquete.
+     */
+    private void mixTick() {
+        try {
+            for (RelayCall call : mixedCalls.values()) {
+                Participant[] participants = call.participants;
+                call.mixer.mix(call.channels);
+                int sent = 0;
+                for (Participant participant : participants) {
+                    ByteBuffer output = participant.channel().takeOutput();
+                    if (output == null) continue;
+                    try {
+                        udpConnection.send(output, participant.endpoint());
+                        sent++;
+                    } catch (IOException e) {
+                        System.err.println("⚠️ Relay: no se pudo enviar la mezcla a " + participant.user() + ": " + e.getMessage());
+                    }
+                }
+                call.forwardedPackets.addAndGet(sent);
+                forwardedPackets.addAndGet(sent);
+            }
+        } catch (RuntimeException e) {
+            // Una excepción cancelaría el reloj y cortaría todas las llamadas mezcladas
+            System.err.println("⚠️ Relay: error mezclando audio: " + e);
+        }
+    }
+
+    private record Participant(String user, InetSocketAddress endpoint, RelayCall call, AudioMixer.Channel channel,
+                               SpeakerSelector.Speaker speaker) {
+    }
+
+    private static final class RelayCall {
+        final String callId;
+        final String group;
+        final AudioMixer mixer;
+        // Llamadas reenviadas: quiénes se reenvían (solo lo usa el hilo receptor)
+        final SpeakerSelector speakers;
+        // Arreglos inmutables: se reemplazan enteros al cambiar, así el hilo receptor y el de
+        // mezcla los recorren sin bloquear
+        volatile Participant[] participants = new Participant[0];
+        volatile AudioMixer.Channel[] channels = new AudioMixer.Channel[0];
+        final AtomicLong forwardedPackets = new AtomicLong();
+        final AtomicLong unforwardedPackets = new AtomicLong();
+
+        RelayCall(String callId, String group, AudioMixer mixer, SpeakerSelector speakers) {
+            this.callId = callId;
+            this.group = group;
+            this.mixer = mixer;
+            this.speakers = speakers;
+        }
+
+        void setParticipants(Participant[] updated) {
+            if (mixer != null) {
+                AudioMixer.Channel[] updatedChannels = new AudioMixer.Channel[updated.length];
+                for (int i = 0; i < updated.length; i++) {
+                    updatedChannels[i] = updated[i].channel();
+                }
+                channels = updatedChannels;
+            }
+            participants = updated;
+        }
+    }
+}
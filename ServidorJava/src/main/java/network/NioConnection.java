@@ -0,0 +1,242 @@
+package network;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Conexión en modo NIO. Se comporta como un {@link TCPConnection} en modo texto
+ * (una línea por mensaje, o frames binarios si el cliente los pide en el hello) pero no
+ * tiene hilo propio: la lectura y escritura las hace el event loop al que pertenece.
+ *
+ * Con la ventana de comandos llena se quita OP_READ de la clave (lo ya leído en el buffer se
+ * entrega igual) y se vuelve a poner desde el event loop cuando termina algún comando.
+ */
+public class NioConnection extends TCPConnection {
+    private static final int MAX_LINE_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_GATHER = 32;
+
+    private final SocketChannel channel;
+    private final NioServer.EventLoop loop;
+    private SelectionKey key;
+
+    // Acumulador de la línea en curso, reutilizado entre mensajes
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    // Frame en curso (modo binario): el cuerpo se lee directamente en su propio arreglo
+    private byte[] frame;
+    private int frameFilled;
+    private int headerValue;
+    private int headerShift;
+
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    NioConnection(SocketChannel channel, NioServer.EventLoop loop, TCPConnectionListener listener) {
+        super(listener, channel.socket(), true);
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    void attachKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Lee lo disponible en el canal y entrega cada línea (o frame) completo al listener.
+     * El buffer de lectura lo comparte todo el event loop; solo los restos de
+     * líneas incompletas se copian al acumulador de esta conexión.
+     */
+    void handleRead(ByteBuffer buffer) {
+        try {
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read < 0) {
+                disconnect();
+                return;
+            }
+            buffer.flip();
+
+            while (buffer.hasRemaining()) {
+                if (binaryInput) {
+                    Frame complete = readFrame(buffer);
+                    if (complete != null) {
+                        if (listener != null) listener.onReceiveObject(this, complete);
+                        if (!connected) return;
+                    }
+                    continue;
+                }
+                byte b = buffer.get();
+                if (b == '\n') {
+                    int end = lineLength;
+                    if (end > 0 && line[end - 1] == '\r') end--;
+                    String text = new String(line, 0, end, StandardCharsets.UTF_8);
+                    lineLength = 0;
+                    if (handleHello(text)) continue;
+                    if (listener != null) listener.onReceiveObject(this, text);
+                    if (!connected) return;
+                } else {
+                    appendToLine(b);
+                }
+            }
+            if (isCommandWindowFull()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            if (connected && listener != null) listener.onException(this, e);
+            disconnect();
+        }
+    }
+
+    /**
+     * Avanza en el frame en curso con lo que haya en el buffer. Devuelve el frame cuando
+     * se completa, o null si faltan bytes.
+     */
+    private Frame readFrame(ByteBuffer buffer) throws IOException {
+        if (frame == null) {
+            // Largo del cuerpo: varint que puede llegar partido entre lecturas
+            boolean headerDone = false;
+            while (!headerDone && buffer.hasRemaining()) {
+                byte b = buffer.get();
+                headerValue |= (b & 0x7F) << headerShift;
+                if ((b & 0x80) == 0) {
+                    headerDone = true;
+                } else if ((headerShift += 7) > 28) {
+                    throw new IOException("Largo de frame inválido");
+                }
+            }
+            if (!headerDone) return null;
+            int length = headerValue;
+            headerValue = 0;
+            headerShift = 0;
+            if (length <= 0 || length > Frame.MAX_BYTES) {
+                throw new IOException("Largo de frame inválido: " + length);
+            }
+            frame = new byte[length];
+            frameFilled = 0;
+        }
+
+        int count = Math.min(buffer.remaining(), frame.length - frameFilled);
+        buffer.get(frame, frameFilled, count);
+        frameFilled += count;
+        if (frameFilled < frame.length) return null;
+
+        byte[] body = frame;
+        frame = null;
+        return Frame.parse(body);
+    }
+
+    private void appendToLine(byte b) throws IOException {
+        if (lineLength == line.length) {
+            if (line.length >= MAX_LINE_BYTES) {
+                throw new IOException("Línea demasiado larga (> " + MAX_LINE_BYTES + " bytes)");
+            }
+            byte[] bigger = new byte[Math.min(line.length * 2, MAX_LINE_BYTES)];
+            System.arraycopy(line, 0, bigger, 0, lineLength);
+            line = bigger;
+        }
+        line[lineLength++] = b;
+    }
+
+    @Override
+    public void sendObject(Serializable object) {
+        if (!connected) return;
+        sendEncoded(EncodedMessage.of(object instanceof String s ? s : object.toString()));
+    }
+
+    /**
+     * Encola el mensaje en la cola de salida. Desde el propio event loop se escribe de
+     * inmediato; desde otros hilos se agenda una única tarea de vaciado por ráfaga de mensajes.
+     */
+    @Override
+    public void sendEncoded(EncodedMessage message) {
+        if (!connected || !outbound.offer(message)) return;
+        if (loop.inLoop()) {
+            handleWrite();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                handleWrite();
+            });
+        }
+    }
+
+    /**
+     * Escribe lo pendiente con una escritura gather. Si el socket no acepta todo,
+     * se activa OP_WRITE y el resto se envía cuando el selector lo indique.
+     */
+    void handleWrite() {
+        if (!connected || key == null || !key.isValid()) return;
+
+        try {
+            while (true) {
+                int count = 0;
+                Iterator<ByteBuffer> it = outbound.iterator();
+                while (count < MAX_GATHER && it.hasNext()) {
+                    gather[count++] = it.next();
+                }
+                if (count == 0) {
+                    key.interestOps(readInterest());
+                    onOutboundDrained();
+                    return;
+                }
+
+                long written = channel.write(gather, 0, count);
+
+                for (int i = 0; i < count; i++) {
+                    if (gather[i].hasRemaining()) break;
+                    outbound.remove();
+                }
+                Arrays.fill(gather, 0, count, null);
+
+                if (written == 0 || (!outbound.isEmpty() && outbound.peek().position() > 0)) {
+                    key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            if (connected && listener != null) listener.onException(this, e);
+            disconnect();
+        }
+    }
+
+    private int readInterest() {
+        return isCommandWindowFull() ? 0 : SelectionKey.OP_READ;
+    }
+
+    @Override
+    protected void onCommandWindowOpen() {
+        loop.execute(() -> {
+            if (connected && key != null && key.isValid() && !isCommandWindowFull()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        });
+    }
+
+    @Override
+    public void disconnect() {
+        if (!closed.compareAndSet(false, true)) return;
+        connected = false;
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        outbound.close();
+        onOutboundDrained();
+        if (listener != null) listener.onDisconnect(this);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected && channel.isOpen();
+    }
+}
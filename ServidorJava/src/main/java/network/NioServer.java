@@ -0,0 +1,175 @@
+package network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servidor TCP no bloqueante basado en {@link Selector}.
+ *
+ * Un hilo acepta conexiones y las reparte (round-robin) entre un pequeño grupo de
+ * event loops. Cada event loop atiende miles de sockets con un solo hilo y entrega
+ * las líneas recibidas a través del mismo {@link TCPConnectionListener} que usa el
+ * modo clásico de un hilo por conexión.
+ */
+public class NioServer {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final int port;
+    private final TCPConnectionListener listener;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile boolean running;
+    private ServerSocketChannel serverChannel;
+
+    public NioServer(int port, int eventLoops, TCPConnectionListener listener) {
+        this.port = port;
+        this.listener = listener;
+        this.loops = new EventLoop[Math.max(1, eventLoops)];
+    }
+
+    /**
+     * Arranca los event loops y acepta conexiones en el hilo actual hasta que se llame a {@link #stop()}.
+     */
+    public void run() throws IOException {
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("nio-loop-" + i);
+            loops[i].start();
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                loop.register(channel);
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("⚠️ Error al aceptar conexión: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) {}
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.shutdown();
+        }
+    }
+
+    /**
+     * Hilo con su propio selector. Todas las operaciones sobre los canales registrados
+     * se ejecutan en este hilo; otros hilos le encargan trabajo mediante {@link #execute(Runnable)}.
+     */
+    final class EventLoop implements Runnable {
+        private final Thread thread;
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Buffer de lectura compartido por todas las conexiones del loop
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private volatile boolean active = true;
+
+        EventLoop(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    NioConnection connection = new NioConnection(channel, this, listener);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connection.attachKey(key);
+                    if (listener != null) listener.onConnectionReady(connection);
+                } catch (IOException e) {
+                    System.err.println("⚠️ Error registrando conexión: " + e.getMessage());
+                    try { channel.close(); } catch (IOException ignored) {}
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void shutdown() {
+            active = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (active) {
+                try {
+                    selector.select();
+                    runTasks();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (!key.isValid()) {
+                            connection.disconnect();
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                connection.handleRead(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.handleWrite();
+                            }
+                        } catch (CancelledKeyException e) {
+                            connection.disconnect();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("⚠️ Error en event loop " + thread.getName() + ": " + e.getMessage());
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                ((NioConnection) key.attachment()).disconnect();
+            }
+            try { selector.close(); } catch (IOException ignored) {}
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("⚠️ Error en tarea del event loop: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de salida acotada de una conexión.
+ *
+ * Los hilos que envían solo encolan (sin bloqueos); un escritor (el event loop en modo
+ * NIO o un hilo escritor en modo clásico) la vacía. Cuando los bytes pendientes superan
+ * la marca alta se avisa al dueño y se aplica la {@link SlowConsumerPolicy}; al bajar de
+ * la marca baja se vuelve a avisar y se envían las notificaciones agrupadas.
+ *
+ * Con la política DISCONNECT, al pasar la marca alta se agenda una revisión para dentro de
+ * chat.outbound.disconnectAfterMs: si para entonces la cola no bajó, se desconecta al cliente
+ * aunque nadie le haya vuelto a enviar nada.
+ */
+public class OutboundQueue {
+    public static final long HIGH_WATERMARK = Long.getLong("chat.outbound.highWatermark", 256 * 1024);
+    public static final long LOW_WATERMARK = Long.getLong("chat.outbound.lowWatermark", 64 * 1024);
+    public static final long MAX_BYTES = Long.getLong("chat.outbound.maxBytes", 4 * 1024 * 1024);
+    public static final long DISCONNECT_AFTER_MS = Long.getLong("chat.outbound.disconnectAfterMs", 10_000);
+    public static final SlowConsumerPolicy POLICY =
+            SlowConsumerPolicy.fromString(System.getProperty("chat.outbound.policy"));
+
+    // Revisiones de la política DISCONNECT, compartidas por todas las colas
+    private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+        thread.setName("outbound-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        WATCHDOG.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Avisos de la cola a su conexión.
+     */
+    public interface Listener {
+        void onHighWatermark();
+        void onLowWatermark();
+        /** El cliente no consume lo suficientemente rápido y debe desconectarse. */
+        void onSlowConsumer(String reason);
+    }
+
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final Map<String, EncodedMessage> coalesced = new ConcurrentHashMap<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicBoolean aboveHigh = new AtomicBoolean();
+    private volatile long aboveHighSince;
+    private ScheduledFuture<?> disconnectCheck;
+    private volatile boolean closed;
+    // Modo del protocolo de la conexión: decide qué codificación de cada mensaje se encola
+    private volatile boolean binary;
+
+    private final Listener listener;
+    private final SlowConsumerPolicy policy;
+
+    public OutboundQueue(Listener listener) {
+        this(listener, POLICY);
+    }
+
+    public OutboundQueue(Listener listener, SlowConsumerPolicy policy) {
+        this.listener = listener;
+        this.policy = policy;
+    }
+
+    /**
+     * Intenta encolar un mensaje. Devuelve false si se descartó o si la conexión
+     * se está cerrando por cliente lento.
+     */
+    public boolean offer(EncodedMessage message) {
+        if (closed) return false;
+
+        if (aboveHigh.get()) {
+            if (policy == SlowConsumerPolicy.DISCONNECT
+                    && System.currentTimeMillis() - aboveHighSince > DISCONNECT_AFTER_MS) {
+                listener.onSlowConsumer("más de " + DISCONNECT_AFTER_MS + " ms sobre la marca alta");
+                return false;
+            }
+            if (!message.isCritical()) {
+                if (policy == SlowConsumerPolicy.COALESCE && message.getKind() != null) {
+                    coalesced.merge(message.getKind(), message, (previous, latest) -> latest.merged());
+                    return true;
+                }
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+
+        // Se reservan los bytes antes de encolar, así dos hilos no pasan juntos el límite
+        ByteBuffer buffer = message.buffer(binary);
+        int length = buffer.remaining();
+        long current;
+        do {
+            current = bytes.get();
+            if (current + length > MAX_BYTES) {
+                listener.onSlowConsumer("cola de salida llena (" + MAX_BYTES + " bytes)");
+                return false;
+            }
+        } while (!bytes.compareAndSet(current, current + length));
+
+        enqueue(buffer, current + length);
+        return true;
+    }
+
+    private void add(ByteBuffer buffer) {
+        enqueue(buffer, bytes.addAndGet(buffer.remaining()));
+    }
+
+    /**
+     * Encola un buffer cuyos bytes ya se sumaron a la cuenta (pending es el total resultante).
+     */
+    private void enqueue(ByteBuffer buffer, long pending) {
+        buffers.add(buffer);
+        depth.incrementAndGet();
+        if (pending >= HIGH_WATERMARK && aboveHigh.compareAndSet(false, true)) {
+            aboveHighSince = System.currentTimeMillis();
+            if (policy == SlowConsumerPolicy.DISCONNECT) scheduleDisconnectCheck();
+            listener.onHighWatermark();
+        }
+    }
+
+    /**
+     * Agenda una tarea en el hilo de revisiones de las colas (por ejemplo, el cierre forzado
+     * de una conexión que no terminó de vaciarse a tiempo).
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return WATCHDOG.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void scheduleDisconnectCheck() {
+        if (closed) return;
+        if (disconnectCheck != null) disconnectCheck.cancel(false);
+        long since = aboveHighSince;
+        disconnectCheck = WATCHDOG.schedule(() -> {
+            // Sigue sobre la marca alta desde la misma vez: no bajó en todo el plazo
+            if (!closed && aboveHigh.get() && aboveHighSince == since) {
+                listener.onSlowConsumer("más de " + DISCONNECT_AFTER_MS + " ms sobre la marca alta");
+            }
+        }, DISCONNECT_AFTER_MS + 1, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelDisconnectCheck() {
+        if (disconnectCheck != null) {
+            disconnectCheck.cancel(false);
+            disconnectCheck = null;
+        }
+    }
+
+    public ByteBuffer peek() {
+        return buffers.peek();
+    }
+
+    /**
+     * Iterador sobre los buffers pendientes (para escrituras gather). No los retira.
+     */
+    public Iterator<ByteBuffer> iterator() {
+        return buffers.iterator();
+    }
+
+    /**
+     * Retira el primer buffer, que el escritor ya terminó de enviar.
+     */
+    public void remove() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null || closed) return;
+        // close() pone la cuenta en cero: si corrió entre el poll y aquí, no se baja de cero
+        depth.updateAndGet(current -> current > 0 ? current - 1 : 0);
+        long pending = bytes.accumulateAndGet(buffer.limit(), (current, removed) -> Math.max(0, current - removed));
+        if (pending <= LOW_WATERMARK && aboveHigh.compareAndSet(true, false)) {
+            if (policy == SlowConsumerPolicy.DISCONNECT) cancelDisconnectCheck();
+            drainCoalesced();
+            listener.onLowWatermark();
+        }
+    }
+
+    private void drainCoalesced() {
+        for (String kind : coalesced.keySet()) {
+            EncodedMessage message = coalesced.remove(kind);
+            if (message != null) add(message.coalescedForm().buffer(binary));
+        }
+    }
+
+    /**
+     * Cambia la codificación de los mensajes que se encolen desde ahora (los ya encolados
+     * se envían como estaban).
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public boolean isEmpty() {
+        return buffers.isEmpty();
+    }
+
+    public void close() {
+        closed = true;
+        cancelDisconnectCheck();
+        buffers.clear();
+        coalesced.clear();
+        depth.set(0);
+        bytes.set(0);
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public long getPendingBytes() {
+        return bytes.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public boolean isAboveHighWatermark() {
+        return aboveHigh.get();
+    }
+}
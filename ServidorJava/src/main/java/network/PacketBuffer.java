@@ -0,0 +1,65 @@
+package network;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Datagrama recibido en un buffer prestado por un {@link PacketBufferPool}.
+ *
+ * Mientras está prestado, {@link #data()} tiene el contenido del paquete (de position a
+ * limit) y {@link #getSender()} su origen. Después de {@link #release()} el buffer vuelve al
+ * pool y se reutiliza para otro paquete: no debe guardarse ninguna referencia a él.
+ */
+public final class PacketBuffer {
+    private final PacketBufferPool pool;
+    private final ByteBuffer data;
+    private final AtomicBoolean leased = new AtomicBoolean();
+    private InetSocketAddress sender;
+
+    PacketBuffer(PacketBufferPool pool, ByteBuffer data) {
+        this.pool = pool;
+        this.data = data;
+    }
+
+    void lease() {
+        leased.set(true);
+        data.clear();
+        sender = null;
+    }
+
+    void setSender(InetSocketAddress sender) {
+        this.sender = sender;
+    }
+
+    public ByteBuffer data() {
+        return data;
+    }
+
+    public int length() {
+        return data.remaining();
+    }
+
+    public InetSocketAddress getSender() {
+        return sender;
+    }
+
+    /**
+     * Copia el contenido al arreglo indicado (sin mover la posición del buffer) y devuelve
+     * cuántos bytes copió.
+     */
+    public int copyTo(byte[] target) {
+        int count = Math.min(target.length, data.remaining());
+        data.get(data.position(), target, 0, count);
+        return count;
+    }
+
+    /**
+     * Devuelve el buffer al pool. Solo la primera llamada tiene efecto.
+     */
+    public void release() {
+        if (leased.compareAndSet(true, false)) {
+            pool.release(this);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool de buffers directos para recibir datagramas sin crear objetos por paquete.
+ *
+ * Los buffers se prestan envueltos en un {@link PacketBuffer}; quien lo recibe lo devuelve
+ * con {@link PacketBuffer#release()} cuando terminó de usarlo (puede ser en otro hilo). Si
+ * el pool se queda sin buffers se crea uno nuevo, y al devolverlo se conserva solo si hay
+ * lugar: el pool no crece más allá de su capacidad.
+ */
+public class PacketBufferPool {
+    private final int bufferSize;
+    // Cola sobre arreglo: devolver un buffer no crea nodos
+    private final BlockingQueue<PacketBuffer> free;
+    private final AtomicLong created = new AtomicLong();
+
+    public PacketBufferPool(int capacity, int bufferSize) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.offer(newBuffer());
+        }
+    }
+
+    /**
+     * Buffer vacío, listo para recibir. Nunca devuelve null.
+     */
+    public PacketBuffer acquire() {
+        PacketBuffer buffer = free.poll();
+        if (buffer == null) buffer = newBuffer();
+        buffer.lease();
+        return buffer;
+    }
+
+    void release(PacketBuffer buffer) {
+        free.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /** Buffers libres en este momento. */
+    public int getAvailable() {
+        return free.size();
+    }
+
+    /** Buffers creados desde el inicio (la capacidad inicial más los creados por faltantes). */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    private PacketBuffer newBuffer() {
+        created.incrementAndGet();
+        return new PacketBuffer(this, ByteBuffer.allocateDirect(bufferSize));
+    }
+}
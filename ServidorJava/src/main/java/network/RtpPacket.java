@@ -0,0 +1,82 @@
+package network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cabecera de los paquetes de audio de las llamadas, con el mismo formato que la cabecera
+ * fija de RTP (12 bytes, big-endian):
+ *
+ *   byte 0      versión (2) en los dos bits altos
+ *   byte 1      tipo de payload (formato del audio)
+ *   bytes 2-3   número de secuencia (+1 por paquete)
+ *   bytes 4-7   timestamp en muestras (+muestras del paquete anterior)
+ *   bytes 8-11  SSRC: identifica el flujo de quien envía (cambia en cada llamada)
+ *
+ * Los métodos leen y escriben directamente sobre el buffer del paquete, sin crear objetos.
+ * Las posiciones son relativas a la posición actual del buffer.
+ */
+public final class RtpPacket {
+    public static final int HEADER_BYTES = 12;
+    /** Tipo de payload: PCM lineal 16 bits, 16 kHz, mono (el formato de AudioRecorder). */
+    public static final int PAYLOAD_PCM16 = 96;
+    /** IMA ADPCM en el formato DVI4 a 16 kHz (tipo estático de RFC 3551). */
+    public static final int PAYLOAD_DVI4 = 6;
+    /**
+     * G.711 μ-law y A-law. Los tipos estáticos 0 y 8 suponen 8 kHz; a 16 kHz se usan tipos
+     * dinámicos.
+     */
+    public static final int PAYLOAD_PCMU = 97;
+    public static final int PAYLOAD_PCMA = 98;
+    /** Frecuencia del reloj de los timestamps. */
+    public static final int CLOCK_RATE = 16000;
+
+    private static final int VERSION_BITS = 0x80;
+
+    private RtpPacket() {
+    }
+
+    /**
+     * Escribe la cabecera en la posición actual y avanza la posición.
+     */
+    public static void writeHeader(ByteBuffer out, int payloadType, int sequence, long timestamp, int ssrc) {
+        out.put((byte) VERSION_BITS);
+        out.put((byte) (payloadType & 0x7F));
+        out.putShort((short) sequence);
+        out.putInt((int) timestamp);
+        out.putInt(ssrc);
+    }
+
+    /**
+     * true si el buffer tiene una cabecera completa con la versión esperada.
+     */
+    public static boolean isValid(ByteBuffer packet) {
+        return packet.remaining() >= HEADER_BYTES
+                && (packet.get(packet.position()) & 0xC0) == VERSION_BITS;
+    }
+
+    public static int payloadType(ByteBuffer packet) {
+        return packet.get(packet.position() + 1) & 0x7F;
+    }
+
+    /** Número de secuencia, de 0 a 65535. */
+    public static int sequence(ByteBuffer packet) {
+        return packet.getShort(packet.position() + 2) & 0xFFFF;
+    }
+
+    /** Timestamp sin signo, de 0 a 2^32 - 1. */
+    public static long timestamp(ByteBuffer packet) {
+        return packet.getInt(packet.position() + 4) & 0xFFFFFFFFL;
+    }
+
+    public static int ssrc(ByteBuffer packet) {
+        return packet.getInt(packet.position() + 8);
+    }
+
+    /**
+     * Distancia de a hasta b en números de secuencia (negativa si b es anterior), teniendo en
+     * cuenta que la secuencia da la vuelta en 65535.
+     */
+    public static int sequenceDelta(int a, int b) {
+        return (short) (b - a);
+    }
+}
@@ -0,0 +1,27 @@
+package network;
+
+/**
+ * Qué hacer con una conexión cuya cola de salida supera la marca alta.
+ *
+ * - DROP_NON_CRITICAL: se descartan las notificaciones no críticas (avisos de sistema, presencia).
+ * - COALESCE: de las notificaciones no críticas solo se guarda la última de cada clave (de qué
+ *   trata el aviso), y se envía cuando la cola baja de la marca baja. Si se juntaron varios
+ *   avisos de presencia se envía en su lugar la lista de conectados.
+ * - DISCONNECT: se desconecta al cliente si permanece por encima de la marca alta más de
+ *   el tiempo configurado.
+ */
+public enum SlowConsumerPolicy {
+    DROP_NON_CRITICAL,
+    COALESCE,
+    DISCONNECT;
+
+    public static SlowConsumerPolicy fromString(String value) {
+        if (value == null) return DROP_NON_CRITICAL;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Política de cliente lento desconocida: " + value + ", usando DROP_NON_CRITICAL");
+            return DROP_NON_CRITICAL;
+        }
+    }
+}
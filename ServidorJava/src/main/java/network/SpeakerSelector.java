@@ -0,0 +1,87 @@
+package network;
+
+/**
+ * Elige qué participantes de una llamada reenvía el {@link MediaRelay}: a lo sumo N a la vez,
+ * los que más fuerte hablan. Sin tope, en una llamada de 50 cada cliente recibiría 49 flujos,
+ * más de los que su reproductor puede mezclar, y pasaría el tiempo reemplazando unos por otros.
+ *
+ * Un participante entra si hay lugar, o si su nivel supera al doble del más débil de los
+ * reenviados y ese lleva al menos {@link #HOLD_NANOS} reenviándose (para que dos voces
+ * parecidas no se alternen paquete a paquete). Quien deja de enviar (salió, perdió la red)
+ * cuenta como silencio y cede su lugar enseguida.
+ *
+ * Lo usa solo el hilo receptor del relay, así que no sincroniza.
+ */
+final class SpeakerSelector {
+    static final long HOLD_NANOS = 1_000_000_000L;
+    static final long STALE_NANOS = 300_000_000L;
+
+    private final Speaker[] forwarded;
+    private int count;
+
+    SpeakerSelector(int maxForwarded) {
+        this.forwarded = new Speaker[Math.max(1, maxForwarded)];
+    }
+
+    int getMaxForwarded() {
+        return forwarded.length;
+    }
+
+    /**
+     * Registra un paquete del participante, con la energía media por muestra de su audio, y
+     * devuelve si se reenvía.
+     */
+    boolean accept(Speaker speaker, long energy, long now) {
+        // Promedio móvil de unos 8 paquetes (160 ms): un golpe suelto no desplaza a quien habla
+        speaker.level += (energy - speaker.level) >> 3;
+        speaker.lastPacketNanos = now;
+        if (speaker.forwarded) return true;
+
+        if (count < forwarded.length) {
+            promote(count++, speaker, now);
+            return true;
+        }
+
+        int weakest = 0;
+        long weakestLevel = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            long level = levelOf(forwarded[i], now);
+            if (level < weakestLevel) {
+                weakest = i;
+                weakestLevel = level;
+            }
+        }
+        Speaker current = forwarded[weakest];
+        boolean stale = now - current.lastPacketNanos > STALE_NANOS;
+        boolean louder = speaker.level > 2 * weakestLevel && now - current.forwardedSinceNanos >= HOLD_NANOS;
+        if (!stale && !louder) return false;
+
+        current.forwarded = false;
+        promote(weakest, speaker, now);
+        return true;
+    }
+
+    private void promote(int slot, Speaker speaker, long now) {
+        forwarded[slot] = speaker;
+        speaker.forwarded = true;
+        speaker.forwardedSinceNanos = now;
+    }
+
+    private static long levelOf(Speaker speaker, long now) {
+        return now - speaker.lastPacketNanos > STALE_NANOS ? 0 : speaker.level;
+    }
+
+    /**
+     * Estado de un participante en la selección.
+     */
+    static final class Speaker {
+        private long level;
+        private long lastPacketNanos;
+        private long forwardedSinceNanos;
+        private boolean forwarded;
+
+        boolean isForwarded() {
+            return forwarded;
+        }
+    }
+}
@@ -1,7 +1,20 @@
 package network;
 
+import util.KeyValueLine;
+
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TCPConnection compatible con:
@@ -9,39 +22,117 @@ import java.net.Socket;
  * - clientes que usan texto (BufferedReader / PrintWriter) (modo texto)
  *
  * Detecta el modo en el arranque y luego procesa mensajes acorde a ese modo.
+ *
+ * En modo texto los envíos no escriben en el socket: se encolan en una {@link OutboundQueue}
+ * que vacía un hilo escritor, de modo que un cliente lento no bloquea a quien envía.
+ *
+ * Modo binario: si la primera línea del cliente es "type:hello|framing:binary", el servidor
+ * responde (en texto) "type:hello|framing:binary" y desde ahí ambos lados usan frames binarios
+ * ({@link Frame}) en lugar de líneas. Los clientes que no envían el hello, o servidores que no
+ * lo conocen, siguen en modo texto.
+ *
+ * Pipelining: el cliente puede enviar varios comandos sin esperar las respuestas. El listener
+ * marca cada comando con {@link #commandAccepted()} / {@link #commandCompleted()}; cuando hay
+ * {@link #PIPELINE_WINDOW} en curso la conexión deja de leer del socket hasta que termine
+ * alguno, y el cliente queda frenado por TCP en lugar de acumular trabajo en el servidor.
  */
 public class TCPConnection {
-    private final Socket socket;
+    public static final int PROTOCOL_VERSION = 1;
+    /** Permite desactivar el modo binario en el servidor (-Dchat.protocol.binary=false). */
+    public static final boolean BINARY_ENABLED =
+            !"false".equalsIgnoreCase(System.getProperty("chat.protocol.binary"));
+    /** Comandos en curso por conexión antes de dejar de leer (-Dchat.pipeline.window). */
+    public static final int PIPELINE_WINDOW = Math.max(1, Integer.getInteger("chat.pipeline.window", 32));
+    private static final String HELLO = "type:hello";
+    private static final int MAX_LINE_BYTES = 8 * 1024 * 1024;
+
+    // Hilos escritores compartidos; solo hay uno activo por conexión con datos pendientes
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "tcp-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    protected final Socket socket;
 
     // Streams para modo objeto
     private ObjectInputStream objectInputStream;
     private ObjectOutputStream objectOutputStream;
 
-    // Streams para modo texto (fallback)
-    private BufferedReader reader;
-    private PrintWriter writer;
+    // Streams para modo texto (fallback) y modo binario
+    private InputStream input;
+    private byte[] line = new byte[256];
+    private OutputStream output;
+    private WritableByteChannel outputChannel;
+
+    // Cola de salida y estado del escritor
+    protected final OutboundQueue outbound;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    // flush() espera aquí a que el escritor vacíe la cola
+    private final Object drained = new Object();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // Cerrar en cuanto el escritor vacíe la cola (ver disconnectWhenDrained)
+    private volatile boolean closeWhenDrained;
 
-    private TCPConnectionListener listener;
-    private volatile boolean connected;
+    protected final TCPConnectionListener listener;
+    protected volatile boolean connected;
+
+    // Usuario autenticado en esta conexión (índice inverso conexión -> usuario)
+    private volatile String username;
     private Thread listenerThread;
 
     // true si estamos en modo texto, false si estamos en modo objeto
     private boolean textMode = false;
 
+    // Se reciben frames binarios en lugar de líneas (tras el hello)
+    protected volatile boolean binaryInput;
+    // Presente mientras esta conexión (lado cliente) espera la respuesta a su hello
+    private volatile CompletableFuture<Boolean> helloReply;
+    private volatile boolean helloSent;
+
+    // Comandos entregados al listener que todavía no terminaron
+    private final AtomicInteger pendingCommands = new AtomicInteger();
+
     public TCPConnection(Socket socket, TCPConnectionListener listener) throws IOException {
         this.socket = socket;
         this.listener = listener;
         this.connected = true;
+        this.outbound = new OutboundQueue(new QueueListener());
 
         // ⚠️ Forzamos modo texto SIEMPRE para compatibilidad con Node
         this.textMode = true;
-        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), true);
+        this.input = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        this.output = new BufferedOutputStream(socket.getOutputStream());
+        this.outputChannel = Channels.newChannel(output);
 
         startListening();
     }
 
 
+    /**
+     * Constructor para subclases que gestionan su propia E/S (por ejemplo, el modo NIO).
+     * No crea streams ni hilo lector.
+     */
+    protected TCPConnection(TCPConnectionListener listener, Socket socket, boolean connected) {
+        this.socket = socket;
+        this.listener = listener;
+        this.connected = connected;
+        this.outbound = new OutboundQueue(new QueueListener());
+    }
+
+    /**
+     * Constructor para subclases que leen por su cuenta pero escriben a través de la cola de
+     * salida. Cada mensaje de la cola llega en una sola llamada a write del canal, que puede
+     * darle el formato de su transporte (por ejemplo, el gateway web).
+     */
+    protected TCPConnection(TCPConnectionListener listener, Socket socket, OutputStream output,
+                            WritableByteChannel outputChannel) {
+        this(listener, socket, true);
+        this.textMode = true;
+        this.output = output;
+        this.outputChannel = outputChannel;
+    }
+
     // Constructor auxiliar que crea socket cliente (si se usa)
     public TCPConnection(TCPConnectionListener listener, String ip, int port) throws IOException {
         this(new Socket(ip, port), listener);
@@ -62,13 +153,21 @@ public class TCPConnection {
                         if (listener != null) listener.onReceiveObject(this, obj);
                     }
                 } else {
-                    // modo texto: leer líneas
-                    String line;
-                    while (connected && (line = reader.readLine()) != null) {
-                        if (listener != null) listener.onReceiveObject(this, line);
+                    // modo texto: leer líneas (o frames, si se negoció el modo binario)
+                    while (connected) {
+                        awaitCommandWindow();
+                        if (binaryInput) {
+                            Frame frame = Frame.read(input);
+                            if (frame == null) break;
+                            if (listener != null) listener.onReceiveObject(this, frame);
+                        } else {
+                            String text = readLine();
+                            if (text == null) break;
+                            if (!handleHello(text) && listener != null) listener.onReceiveObject(this, text);
+                        }
                     }
                 }
-            } catch (IOException | ClassNotFoundException e) {
+            } catch (IOException | ClassNotFoundException | InterruptedException e) {
                 if (connected && listener != null) {
                     listener.onException(this, e);
                 }
@@ -80,40 +179,268 @@ public class TCPConnection {
         listenerThread.start();
     }
 
+    /**
+     * Espera a que haya lugar en la ventana de comandos antes de leer el siguiente.
+     */
+    protected void awaitCommandWindow() throws InterruptedException {
+        synchronized (pendingCommands) {
+            while (connected && isCommandWindowFull()) {
+                pendingCommands.wait();
+            }
+        }
+    }
+
+    /**
+     * El listener recibió un comando de esta conexión y lo va a procesar.
+     */
+    public void commandAccepted() {
+        pendingCommands.incrementAndGet();
+    }
+
+    /**
+     * Terminó un comando aceptado. Si la ventana estaba llena, se vuelve a leer del socket.
+     */
+    public void commandCompleted() {
+        if (pendingCommands.decrementAndGet() == PIPELINE_WINDOW - 1) {
+            onCommandWindowOpen();
+        }
+    }
+
+    protected boolean isCommandWindowFull() {
+        return pendingCommands.get() >= PIPELINE_WINDOW;
+    }
+
+    protected void onCommandWindowOpen() {
+        synchronized (pendingCommands) {
+            pendingCommands.notifyAll();
+        }
+    }
+
+    /**
+     * Lee una línea terminada en '\n' (sin el '\r' final) directamente de los bytes, para
+     * poder pasar a leer frames justo después del hello sin perder nada en un buffer de texto.
+     */
+    private String readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = input.read()) >= 0 && b != '\n') {
+            if (length == line.length) {
+                if (length >= MAX_LINE_BYTES) {
+                    throw new IOException("Línea demasiado larga (> " + MAX_LINE_BYTES + " bytes)");
+                }
+                line = Arrays.copyOf(line, Math.min(length * 2, MAX_LINE_BYTES));
+            }
+            line[length++] = (byte) b;
+        }
+        if (b < 0 && length == 0) return null;
+        if (length > 0 && line[length - 1] == '\r') length--;
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Atiende el hello del handshake. Devuelve true si la línea era el hello (no se entrega
+     * al listener).
+     *
+     * En el servidor se responde en texto y, si se acepta el modo binario, todo lo que se
+     * encole o se lea después usa frames. En el cliente, la línea es la respuesta del servidor.
+     */
+    protected boolean handleHello(String text) {
+        if (!text.startsWith(HELLO)
+                || (text.length() > HELLO.length() && text.charAt(HELLO.length()) != '|')) {
+            return false;
+        }
+        boolean binary;
+        try {
+            binary = KeyValueLine.parseThreadLocal(text).valueEquals("framing", "binary");
+        } catch (IllegalArgumentException e) {
+            // Demasiados campos: que lo rechace el servidor como cualquier otro comando
+            return false;
+        }
+
+        if (helloSent) {
+            if (binary) switchToBinary();
+            CompletableFuture<Boolean> reply = helloReply;
+            if (reply != null) reply.complete(binary);
+        } else {
+            boolean accepted = binary && BINARY_ENABLED;
+            sendObject("type:hello|framing:" + (accepted ? "binary" : "text") + "|version:" + PROTOCOL_VERSION);
+            if (accepted) switchToBinary();
+        }
+        return true;
+    }
+
+    private void switchToBinary() {
+        outbound.setBinary(true);
+        binaryInput = true;
+    }
+
+    /**
+     * Pide al servidor el modo binario (lado cliente). Espera la respuesta como máximo
+     * timeoutMs; si el servidor no lo soporta o no responde, la conexión sigue en modo texto.
+     * Debe llamarse antes de enviar cualquier otro mensaje.
+     */
+    public boolean requestBinaryFraming(long timeoutMs) {
+        CompletableFuture<Boolean> reply = new CompletableFuture<>();
+        helloReply = reply;
+        helloSent = true;
+        sendObject("type:hello|framing:binary|version:" + PROTOCOL_VERSION);
+        try {
+            return reply.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            return false;
+        } finally {
+            helloReply = null;
+        }
+    }
+
+    /**
+     * true si la conexión ya usa frames binarios.
+     */
+    public boolean isBinary() {
+        return outbound.isBinary();
+    }
+
     /**
      * Envía un objeto o texto al cliente, respetando el modo del cliente
      * Si el cliente está en modo texto y el objeto no es String, lo convierte a String via toString()
      */
-    public synchronized void sendObject(Serializable object) {
+    public void sendObject(Serializable object) {
         if (!connected) return;
 
+        if (!textMode) {
+            // modo objeto: enviar como objeto serializado
+            synchronized (this) {
+                try {
+                    objectOutputStream.writeObject(object);
+                    objectOutputStream.flush();
+                } catch (IOException e) {
+                    if (listener != null) listener.onException(this, e);
+                }
+            }
+        } else {
+            // modo texto: si es String, enviar tal cual; si no, enviar toString()
+            sendEncoded(EncodedMessage.of(object instanceof String s ? s : object.toString()));
+        }
+    }
+
+    /**
+     * Envía un mensaje construido por campos, codificado según el modo de la conexión.
+     */
+    public void send(WireMessage message) {
+        sendEncoded(EncodedMessage.of(message));
+    }
+
+    /**
+     * Envía un mensaje ya codificado. Los bytes se encolan tal cual, sin volver a
+     * codificar el texto, por lo que el mismo mensaje se puede repartir a muchas conexiones.
+     */
+    public void sendEncoded(EncodedMessage message) {
+        if (!connected) return;
+        if (outbound.offer(message) && draining.compareAndSet(false, true)) {
+            WRITERS.execute(this::drainOutbound);
+        }
+    }
+
+    /**
+     * Escribe todo lo pendiente y hace un solo flush por ráfaga de mensajes.
+     */
+    private void drainOutbound() {
         try {
-            if (!textMode) {
-                // modo objeto: enviar como objeto serializado
-                objectOutputStream.writeObject(object);
-                objectOutputStream.flush();
-            } else {
-                // modo texto: si es String, enviar tal cual; si no, enviar toString()
-                if (object instanceof String s) {
-                    writer.println(s);
-                } else {
-                    // Puedes mejorar aquí y usar JSON si quieres más estructura
-                    writer.println(object.toString());
+            while (true) {
+                ByteBuffer buffer;
+                while ((buffer = outbound.peek()) != null) {
+                    while (buffer.hasRemaining()) {
+                        outputChannel.write(buffer);
+                    }
+                    outbound.remove();
+                }
+                output.flush();
+
+                draining.set(false);
+                // Si alguien encoló justo después de vaciar, seguir escribiendo
+                if (outbound.isEmpty() || !draining.compareAndSet(false, true)) {
+                    onOutboundDrained();
+                    return;
                 }
-                writer.flush();
             }
         } catch (IOException e) {
-            if (listener != null) listener.onException(this, e);
+            draining.set(false);
+            onOutboundDrained();
+            if (connected && listener != null) listener.onException(this, e);
+            disconnect();
+        }
+    }
+
+    /**
+     * Espera (como máximo el tiempo indicado) a que se envíe todo lo pendiente.
+     * No debe llamarse desde el hilo que vacía la cola.
+     */
+    public void flush(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (drained) {
+            while (isConnected() && (!outbound.isEmpty() || draining.get())) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) break;
+                try {
+                    drained.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * La cola de salida quedó vacía (o el escritor se detuvo): despierta a quien espera en
+     * {@link #flush(long)}.
+     */
+    protected void onOutboundDrained() {
+        synchronized (drained) {
+            drained.notifyAll();
         }
+        if (closeWhenDrained && outbound.isEmpty()) disconnect();
     }
 
-    public synchronized void disconnect() {
+    /**
+     * Envía lo pendiente y luego desconecta, para que el último mensaje (por ejemplo,
+     * un error de login) llegue antes de cerrar.
+     */
+    public void flushAndDisconnect(long timeoutMs) {
+        flush(timeoutMs);
+        disconnect();
+    }
+
+    /**
+     * Como {@link #flushAndDisconnect(long)}, pero sin bloquear a quien llama: la conexión se
+     * cierra desde el escritor cuando termina de enviar lo pendiente, o a los timeoutMs si no
+     * lo logra. Es la que debe usarse desde los hilos del despachador.
+     */
+    public void disconnectWhenDrained(long timeoutMs) {
+        closeWhenDrained = true;
+        // El escritor revisa el aviso después de soltar draining: si ya terminó, se cierra aquí
+        if (outbound.isEmpty() && !draining.get()) {
+            disconnect();
+            return;
+        }
+        OutboundQueue.schedule(this::disconnect, timeoutMs);
+    }
+
+    /**
+     * Cierra la conexión. Solo la primera llamada hace algo: la pueden llamar a la vez el hilo
+     * lector, el escritor y el servidor, y onDisconnect se avisa una sola vez.
+     */
+    public void disconnect() {
+        if (!closed.compareAndSet(false, true)) return;
         connected = false;
+        onCommandWindowOpen();
+        onOutboundDrained();
         try {
             try { if (objectOutputStream != null) objectOutputStream.close(); } catch (IOException ignored) {}
             try { if (objectInputStream != null) objectInputStream.close(); } catch (IOException ignored) {}
-            try { if (reader != null) reader.close(); } catch (IOException ignored) {}
-            try { if (writer != null) writer.close(); } catch (Exception ignored) {}
+            try { if (input != null) input.close(); } catch (IOException ignored) {}
+            try { if (output != null) output.close(); } catch (Exception ignored) {}
+            outbound.close();
             try { if (socket != null && !socket.isClosed()) socket.close(); } catch (IOException ignored) {}
             if (listener != null) listener.onDisconnect(this);
         } catch (Exception e) {
@@ -136,6 +463,60 @@ public class TCPConnection {
         return socket;
     }
 
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    /**
+     * Devuelve el usuario asociado y lo desvincula de la conexión. Solo la primera
+     * llamada devuelve el nombre, así logout y desconexión no se procesan dos veces.
+     */
+    public synchronized String detachUsername() {
+        String user = username;
+        username = null;
+        return user;
+    }
+
+    /** Mensajes pendientes de envío en la cola de salida. */
+    public int getQueueDepth() {
+        return outbound.getDepth();
+    }
+
+    /** Bytes pendientes de envío en la cola de salida. */
+    public long getQueuedBytes() {
+        return outbound.getPendingBytes();
+    }
+
+    /** Notificaciones descartadas por ser un cliente lento. */
+    public long getDroppedNotifications() {
+        return outbound.getDroppedCount();
+    }
+
+    /**
+     * Reenvía los avisos de la cola de salida al listener de la conexión.
+     */
+    private class QueueListener implements OutboundQueue.Listener {
+        @Override
+        public void onHighWatermark() {
+            if (listener != null) listener.onHighWatermark(TCPConnection.this);
+        }
+
+        @Override
+        public void onLowWatermark() {
+            if (listener != null) listener.onLowWatermark(TCPConnection.this);
+        }
+
+        @Override
+        public void onSlowConsumer(String reason) {
+            System.err.println("🐢 Cliente lento " + getRemoteAddress() + ": " + reason + ". Desconectando.");
+            disconnect();
+        }
+    }
+
     @Override
     public String toString() {
         return getRemoteAddress();
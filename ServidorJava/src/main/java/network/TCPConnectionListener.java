@@ -5,4 +5,10 @@ public interface TCPConnectionListener {
     void onReceiveObject(TCPConnection connection, Object message);
     void onDisconnect(TCPConnection connection);
     void onException(TCPConnection connection, Exception e);
-}
\ No newline at end of file
+
+    /** La cola de salida de la conexión superó la marca alta. */
+    default void onHighWatermark(TCPConnection connection) {}
+
+    /** La cola de salida de la conexión volvió a bajar de la marca baja. */
+    default void onLowWatermark(TCPConnection connection) {}
+}
@@ -1,7 +1,13 @@
 package network;
 
-import java.net.InetAddress;
-
+/**
+ * Recibe los paquetes de audio de un {@link UDPConnection}.
+ *
+ * El paquete se presta: su buffer pertenece al pool de la conexión y quien lo recibe debe
+ * devolverlo con {@link PacketBuffer#release()} cuando ya no lo necesite, en este mismo
+ * hilo o más tarde (por ejemplo, después de reproducirlo). Un paquete que no se devuelve
+ * no se pierde, pero obliga al pool a crear otro buffer.
+ */
 public interface UDPAudioListener {
-    void onAudioReceived(byte[] audioData, InetAddress from, int port);
-}
\ No newline at end of file
+    void onAudioReceived(PacketBuffer packet);
+}
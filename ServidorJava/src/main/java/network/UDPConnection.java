@@ -1,31 +1,62 @@
 package network;
 
-import java.net.*;
 import java.io.IOException;
-
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Canal UDP para el audio de las llamadas.
+ *
+ * La recepción no crea objetos por paquete: cada datagrama se lee en un buffer directo
+ * prestado por un {@link PacketBufferPool} y se entrega así al listener, que lo devuelve
+ * al pool cuando termina (ver {@link UDPAudioListener}).
+ */
 public class UDPConnection {
     private static final int BUFFER_SIZE = 2048;
-    private DatagramSocket socket;
-    private InetAddress serverAddress;
-    private int serverPort;
-    private boolean running;
+    private static final int POOL_SIZE = Integer.getInteger("chat.udp.poolSize", 64);
+
+    private final DatagramChannel channel;
+    private final PacketBufferPool pool;
+    private InetSocketAddress serverAddress;
+    private volatile boolean running;
     private Thread receiverThread;
     private UDPAudioListener listener;
 
-    public UDPConnection(int localPort, UDPAudioListener listener) throws SocketException {
-        this.socket = new DatagramSocket(localPort);
+    public UDPConnection(int localPort, UDPAudioListener listener) throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(localPort));
+        this.pool = new PacketBufferPool(POOL_SIZE, BUFFER_SIZE);
         this.listener = listener;
         this.running = false;
     }
 
     public void setServerAddress(String host, int port) throws UnknownHostException {
-        this.serverAddress = InetAddress.getByName(host);
-        this.serverPort = port;
+        this.serverAddress = new InetSocketAddress(InetAddress.getByName(host), port);
     }
 
     public void sendAudio(byte[] audioData, InetAddress address, int port) throws IOException {
-        DatagramPacket packet = new DatagramPacket(audioData, audioData.length, address, port);
-        socket.send(packet);
+        send(ByteBuffer.wrap(audioData), new InetSocketAddress(address, port));
+    }
+
+    /**
+     * Envía el contenido del buffer (de position a limit) sin copiarlo a un arreglo.
+     */
+    public void send(ByteBuffer data, SocketAddress target) throws IOException {
+        channel.send(data, target);
+    }
+
+    /**
+     * Tamaño del buffer de recepción del socket (el sistema puede limitarlo). Sirve para no
+     * perder paquetes cuando llegan muchos juntos y el hilo receptor está ocupado.
+     */
+    public void setReceiveBufferSize(int bytes) throws IOException {
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, bytes);
     }
 
     public void startListening() {
@@ -33,26 +64,30 @@ public class UDPConnection {
 
         running = true;
         receiverThread = new Thread(() -> {
-            byte[] buffer = new byte[BUFFER_SIZE];
-
             while (running) {
+                PacketBuffer packet = pool.acquire();
                 try {
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-
-                    byte[] audioData = new byte[packet.getLength()];
-                    System.arraycopy(packet.getData(), 0, audioData, 0, packet.getLength());
+                    ByteBuffer buffer = packet.data();
+                    SocketAddress from = channel.receive(buffer);
+                    buffer.flip();
+                    packet.setSender((InetSocketAddress) from);
 
                     if (listener != null) {
-                        listener.onAudioReceived(audioData, packet.getAddress(), packet.getPort());
+                        listener.onAudioReceived(packet);
+                    } else {
+                        packet.release();
                     }
+                } catch (ClosedChannelException e) {
+                    packet.release();
+                    break;
                 } catch (IOException e) {
+                    packet.release();
                     if (running) {
                         System.err.println("[UDP] Error recibiendo: " + e.getMessage());
                     }
                 }
             }
-        });
+        }, "udp-receiver");
 
         receiverThread.setDaemon(true);
         receiverThread.start();
@@ -63,24 +98,27 @@ public class UDPConnection {
         if (serverAddress == null) {
             throw new IOException("Dirección del servidor no configurada");
         }
-        sendAudio(audioData, serverAddress, serverPort);
+        send(ByteBuffer.wrap(audioData), serverAddress);
     }
 
     public void close() {
         running = false;
-        if (receiverThread != null) {
-            receiverThread.interrupt();
-        }
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
+        try {
+            // Cerrar el canal desbloquea al hilo receptor
+            channel.close();
+        } catch (IOException ignored) {
         }
     }
 
     public int getLocalPort() {
-        return socket.getLocalPort();
+        return channel.socket().getLocalPort();
     }
 
     public boolean isRunning() {
         return running;
     }
-}
\ No newline at end of file
+
+    public PacketBufferPool getPool() {
+        return pool;
+    }
+}
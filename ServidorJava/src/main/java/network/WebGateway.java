@@ -0,0 +1,285 @@
+package network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gateway web del servidor: los navegadores se conectan directamente, sin pasar por el proxy
+ * de Node ni abrir un socket TCP por usuario, y reciben los avisos en cuanto se producen.
+ *
+ * Rutas:
+ * - GET /ws (Upgrade: websocket): conexión WebSocket; cada mensaje de texto es una línea del
+ *   protocolo ("type:x|clave:valor"), en los dos sentidos.
+ * - GET /events: stream Server-Sent Events. El primer evento es
+ *   "type:gateway_session|session:id"; después llegan las respuestas y los avisos.
+ * - POST /command?session=id: una o más líneas del protocolo (una por línea) para la sesión SSE.
+ *   Responde 202; la respuesta del servidor llega por el stream de eventos, con su reqId.
+ *
+ * Cada navegador es un {@link GatewayConnection}, que el servidor atiende igual que cualquier
+ * otra conexión de texto. El servidor HTTP es mínimo (un hilo por conexión, como el modo
+ * clásico): solo entiende estas rutas.
+ */
+public class WebGateway implements Runnable {
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int MAX_COMMAND_BYTES = 1024 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final TCPConnectionListener listener;
+    // Sesiones SSE abiertas, para asociar cada POST /command a su stream
+    private final Map<String, GatewayConnection> sessions = new ConcurrentHashMap<>();
+
+    private WebGateway(ServerSocket serverSocket, TCPConnectionListener listener) {
+        this.serverSocket = serverSocket;
+        this.listener = listener;
+    }
+
+    /**
+     * Abre el puerto y atiende conexiones en un hilo propio.
+     */
+    public static WebGateway start(int port, TCPConnectionListener listener) throws IOException {
+        WebGateway gateway = new WebGateway(new ServerSocket(port), listener);
+        Thread thread = new Thread(gateway, "web-gateway");
+        thread.setDaemon(true);
+        thread.start();
+        return gateway;
+    }
+
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(() -> handle(socket), "gateway-http");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("⚠️ Gateway web: error al aceptar conexión: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void handle(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            Request request = Request.read(in);
+            if (request == null) {
+                socket.close();
+                return;
+            }
+
+            if (request.method.equals("OPTIONS")) {
+                respond(out, "204 No Content", "");
+            } else if (request.method.equals("GET") && request.path.equals("/ws")
+                    && "websocket".equalsIgnoreCase(request.header("upgrade"))) {
+                openWebSocket(socket, in, out, request);
+                return;
+            } else if (request.method.equals("GET") && request.path.equals("/events")) {
+                openEventStream(socket, in, out);
+                return;
+            } else if (request.method.equals("POST") && request.path.equals("/command")) {
+                handleCommand(in, out, request);
+            } else {
+                respond(out, "404 Not Found", "Ruta desconocida\n");
+            }
+            socket.close();
+        } catch (IOException e) {
+            closeQuietly(socket);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeQuietly(socket);
+        }
+    }
+
+    private void openWebSocket(Socket socket, InputStream in, OutputStream out, Request request) throws IOException {
+        String key = request.header("sec-websocket-key");
+        if (key == null) {
+            respond(out, "400 Bad Request", "Falta Sec-WebSocket-Key\n");
+            socket.close();
+            return;
+        }
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        GatewayConnection.webSocket(socket, out, listener).readWebSocket(in);
+    }
+
+    private void openEventStream(Socket socket, InputStream in, OutputStream out) throws IOException {
+        out.write(("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/event-stream; charset=utf-8\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Connection: keep-alive\r\n"
+                + "Access-Control-Allow-Origin: *\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        String sessionId = UUID.randomUUID().toString();
+        GatewayConnection connection = GatewayConnection.eventStream(socket, out, sessionId, listener);
+        sessions.put(sessionId, connection);
+        try {
+            connection.sendObject("type:gateway_session|session:" + sessionId);
+            connection.awaitEventStreamClose(in);
+        } finally {
+            sessions.remove(sessionId, connection);
+        }
+    }
+
+    private void handleCommand(InputStream in, OutputStream out, Request request)
+            throws IOException, InterruptedException {
+        GatewayConnection connection = sessions.get(request.query.getOrDefault("session", ""));
+        String contentLength = request.header("content-length");
+        if (contentLength == null) {
+            respond(out, "411 Length Required", "Falta Content-Length\n");
+            return;
+        }
+        int length = parseContentLength(contentLength);
+        if (length < 0) {
+            respond(out, "400 Bad Request", "Content-Length inválido\n");
+            return;
+        }
+        if (length > MAX_COMMAND_BYTES) {
+            respond(out, "413 Payload Too Large", "Comando demasiado grande\n");
+            return;
+        }
+        byte[] body = in.readNBytes(length);
+        if (body.length != length) {
+            // El navegador cerró antes de mandar todo el cuerpo: no se ejecuta un comando cortado
+            respond(out, "400 Bad Request", "Cuerpo incompleto\n");
+            return;
+        }
+        if (connection == null || !connection.isConnected()) {
+            respond(out, "404 Not Found", "Sesión desconocida\n");
+            return;
+        }
+        connection.receive(new String(body, StandardCharsets.UTF_8));
+        respond(out, "202 Accepted", "");
+    }
+
+    private static void respond(OutputStream out, String status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        out.write(("HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Length: " + bytes.length + "\r\n"
+                + "Access-Control-Allow-Origin: *\r\n"
+                + "Access-Control-Allow-Methods: GET, POST, OPTIONS\r\n"
+                + "Access-Control-Allow-Headers: Content-Type\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.flush();
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest((key.trim() + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 no disponible", e);
+        }
+    }
+
+    /**
+     * Largo del cuerpo, o -1 si el valor no es un número válido.
+     */
+    private static int parseContentLength(String value) {
+        try {
+            return Math.max(-1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Línea de petición y cabeceras HTTP (los nombres de cabecera en minúsculas).
+     */
+    private static final class Request {
+        final String method;
+        final String path;
+        final Map<String, String> query;
+        final Map<String, String> headers;
+
+        private Request(String method, String path, Map<String, String> query, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.query = query;
+            this.headers = headers;
+        }
+
+        String header(String name) {
+            return headers.get(name);
+        }
+
+        static Request read(InputStream in) throws IOException {
+            int[] budget = {MAX_HEADER_BYTES};
+            String requestLine = readLine(in, budget);
+            if (requestLine == null || requestLine.isEmpty()) return null;
+            String[] parts = requestLine.split(" ");
+            if (parts.length < 2) return null;
+
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = readLine(in, budget)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                }
+            }
+
+            String target = parts[1];
+            int question = target.indexOf('?');
+            String path = question >= 0 ? target.substring(0, question) : target;
+            Map<String, String> query = new HashMap<>();
+            if (question >= 0) {
+                for (String pair : target.substring(question + 1).split("&")) {
+                    int equals = pair.indexOf('=');
+                    if (equals > 0) {
+                        query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                                URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            return new Request(parts[0].toUpperCase(Locale.ROOT), path, query, headers);
+        }
+
+        private static String readLine(InputStream in, int[] budget) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while ((b = in.read()) >= 0 && b != '\n') {
+                if (--budget[0] < 0) throw new IOException("Cabeceras HTTP demasiado largas");
+                if (b != '\r') sb.append((char) b);
+            }
+            return b < 0 && sb.length() == 0 ? null : sb.toString();
+        }
+    }
+}
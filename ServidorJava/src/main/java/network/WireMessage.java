@@ -0,0 +1,230 @@
+package network;
+
+import util.Fields;
+import util.KeyValueLine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Mensaje de salida construido campo a campo, que se puede codificar en cualquiera de los
+ * dos modos del protocolo:
+ *
+ * - {@link #toText()}: la línea "type:x|clave:valor|..." de siempre. Los valores se escapan
+ *   (ver {@link KeyValueLine}): un '|' o un salto de línea que llegó en un frame binario no
+ *   puede cortar la línea ni inventar campos para los clientes de texto.
+ * - {@link #toFrame()}: un frame binario (ver {@link Frame}), donde los valores no necesitan
+ *   escaparse, los números van como varints y los datos binarios sin base64.
+ *
+ * Una vez entregado a {@link EncodedMessage} no debe modificarse: la codificación se hace
+ * cuando cada conexión la necesita.
+ */
+public final class WireMessage {
+    private final String type;
+    private String[] keys = new String[8];
+    private Object[] values = new Object[8];
+    private int count;
+
+    private WireMessage(String type) {
+        this.type = type;
+    }
+
+    public static WireMessage of(String type) {
+        return new WireMessage(type);
+    }
+
+    /**
+     * Respuesta directa a un comando. Si el comando traía "reqId", la respuesta lo repite como
+     * primer campo, así el cliente la asocia a su comando aunque entre medio lleguen avisos.
+     */
+    public static WireMessage replyTo(Fields request, String type) {
+        WireMessage message = new WireMessage(type);
+        String reqId = request.get("reqId");
+        if (reqId != null) message.put("reqId", reqId);
+        return message;
+    }
+
+    /**
+     * Aviso no solicitado (mensajes de otros usuarios, avisos del sistema, llamadas entrantes).
+     * Lleva "push:true" para que el cliente no lo tome como respuesta a un comando pendiente.
+     */
+    public static WireMessage push(String type) {
+        return new WireMessage(type).put("push", true);
+    }
+
+    /**
+     * Convierte una línea del protocolo de texto. Se usa para los mensajes que todavía se
+     * arman como texto; un '|' dentro de un valor solo se respeta si viene escapado ("\|").
+     * Los escapes se quitan aquí y {@link #toText()} los vuelve a poner.
+     */
+    public static WireMessage fromLine(String line) {
+        WireMessage message = null;
+        StringBuilder key = new StringBuilder();
+        StringBuilder value = new StringBuilder();
+        boolean inValue = false;
+
+        int length = line.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? line.charAt(i) : '|';
+            if (c == '\\' && i + 1 < length && KeyValueLine.isEscape(line.charAt(i + 1))) {
+                (inValue ? value : key).append(KeyValueLine.unescaped(line.charAt(++i)));
+            } else if (c == ':' && !inValue) {
+                inValue = true;
+            } else if (c == '|') {
+                if (inValue) {
+                    if (message == null && key.toString().equals("type")) {
+                        message = new WireMessage(value.toString());
+                    } else {
+                        if (message == null) message = new WireMessage("");
+                        message.put(key.toString(), value.toString());
+                    }
+                }
+                key.setLength(0);
+                value.setLength(0);
+                inValue = false;
+            } else {
+                (inValue ? value : key).append(c);
+            }
+        }
+        return message != null ? message : new WireMessage("");
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public WireMessage put(String key, CharSequence value) {
+        return add(key, value != null ? value.toString() : "null");
+    }
+
+    public WireMessage put(String key, long value) {
+        return add(key, value);
+    }
+
+    public WireMessage put(String key, boolean value) {
+        return add(key, value ? "true" : "false");
+    }
+
+    /**
+     * Datos binarios (se copian). En texto viajan en base64; en binario, tal cual.
+     */
+    public WireMessage putBytes(String key, ByteBuffer value) {
+        byte[] bytes = new byte[value.remaining()];
+        value.duplicate().get(bytes);
+        return add(key, bytes);
+    }
+
+    private WireMessage add(String key, Object value) {
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        keys[count] = key;
+        values[count] = value;
+        count++;
+        return this;
+    }
+
+    /**
+     * Línea del protocolo de texto, sin el salto de línea final.
+     */
+    public String toText() {
+        StringBuilder sb = new StringBuilder(64).append("type:").append(type);
+        for (int i = 0; i < count; i++) {
+            sb.append('|').append(keys[i]).append(':');
+            Object value = values[i];
+            if (value instanceof byte[] bytes) {
+                sb.append(Base64.getEncoder().encodeToString(bytes));
+            } else if (value instanceof String text) {
+                KeyValueLine.appendEscaped(sb, text);
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Frame binario completo, con su largo al principio.
+     */
+    public byte[] toFrame() {
+        Output out = new Output();
+        int tag = WireTypes.tagOf(type);
+        out.varint(tag);
+        if (tag == 0) out.bytes(type.getBytes(StandardCharsets.UTF_8));
+        out.varint(count);
+        for (int i = 0; i < count; i++) {
+            out.bytes(keys[i].getBytes(StandardCharsets.UTF_8));
+            Object value = values[i];
+            if (value instanceof Long number) {
+                out.varint(Frame.NUMBER);
+                out.varint((number << 1) ^ (number >> 63));
+            } else {
+                byte[] bytes = value instanceof byte[] raw ? raw : ((String) value).getBytes(StandardCharsets.UTF_8);
+                out.varint((long) bytes.length << 1);
+                out.raw(bytes);
+            }
+        }
+        if (out.length > Frame.MAX_BYTES) {
+            throw new IllegalStateException("Mensaje demasiado grande para un frame: " + out.length + " bytes");
+        }
+
+        Output framed = new Output(out.length + 5);
+        framed.varint(out.length);
+        framed.raw(out.data, out.length);
+        return framed.length == framed.data.length ? framed.data : Arrays.copyOf(framed.data, framed.length);
+    }
+
+    @Override
+    public String toString() {
+        return toText();
+    }
+
+    /**
+     * Arreglo de bytes que crece según se escribe.
+     */
+    private static final class Output {
+        byte[] data;
+        int length;
+
+        Output() {
+            this(64);
+        }
+
+        Output(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        void bytes(byte[] bytes) {
+            varint(bytes.length);
+            raw(bytes);
+        }
+
+        void raw(byte[] bytes) {
+            raw(bytes, bytes.length);
+        }
+
+        void raw(byte[] bytes, int count) {
+            ensure(count);
+            System.arraycopy(bytes, 0, data, length, count);
+            length += count;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package network;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Etiquetas numéricas de los tipos de mensaje en el modo binario.
+ *
+ * Un frame lleva la etiqueta (un varint de un byte) en lugar del nombre del tipo. La etiqueta
+ * es la posición en {@link #NAMES} más uno; 0 indica que el nombre viaja como texto (tipos que
+ * esta tabla todavía no conoce). Solo se agregan tipos al final: cambiar el orden rompe la
+ * compatibilidad con clientes ya desplegados.
+ */
+public final class WireTypes {
+    private static final String[] NAMES = {
+            // Comandos del cliente
+            "hello", "login", "logout", "private_message", "group_message", "create_group",
+            "join_group", "get_online_users", "get_groups", "get_history", "call_start",
+            "call_accept", "call_end", "audio_begin", "audio_chunk", "audio_commit", "audio_get",
+            // Respuestas y avisos del servidor
+            "login_success", "login_error", "message_sent", "group_created", "join_group_success",
+            "online_users", "groups_list", "history", "system_message", "error", "incoming_call",
+            "call_waiting", "call_accepted", "audio_ready", "audio_committed", "audio_available",
+            "audio_data", "audio_end", "audio_error",
+    };
+
+    private static final Map<String, Integer> TAGS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < NAMES.length; i++) {
+            TAGS.put(NAMES[i], i + 1);
+        }
+    }
+
+    private WireTypes() {
+    }
+
+    /**
+     * Etiqueta del tipo, o 0 si no tiene.
+     */
+    public static int tagOf(String type) {
+        Integer tag = TAGS.get(type);
+        return tag != null ? tag : 0;
+    }
+
+    /**
+     * Nombre del tipo de la etiqueta, o null si la etiqueta es 0 o desconocida.
+     */
+    public static String nameOf(int tag) {
+        return tag > 0 && tag <= NAMES.length ? NAMES[tag - 1] : null;
+    }
+}
@@ -0,0 +1,81 @@
+package persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Acceso a los datos de una nota de voz guardada en el {@link AudioBlobStore}.
+ *
+ * No carga nada en memoria: los datos se leen en streaming con {@link #openChannel()},
+ * {@link #openStream()} o {@link #transferTo(WritableByteChannel)} (sin copias en espacio
+ * de usuario cuando el destino es un socket o archivo).
+ */
+public class AudioBlob {
+    private final Path path;
+    private final String hash;
+    private final long size;
+
+    AudioBlob(Path path, String hash, long size) {
+        this.path = path;
+        this.hash = hash;
+        this.size = size;
+    }
+
+    /**
+     * SHA-256 del contenido en hexadecimal (null para audios guardados por versiones anteriores).
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public FileChannel openChannel() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    public InputStream openStream() throws IOException {
+        return Channels.newInputStream(openChannel());
+    }
+
+    /**
+     * Copia el audio completo al canal de destino.
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        try (FileChannel channel = openChannel()) {
+            long position = 0;
+            long total = channel.size();
+            while (position < total) {
+                position += channel.transferTo(position, total - position, target);
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Lee a partir de {@code offset} lo que quepa en {@code target}; devuelve los bytes
+     * leídos o -1 si offset está al final del audio.
+     */
+    public int read(long offset, ByteBuffer target) throws IOException {
+        try (FileChannel channel = openChannel()) {
+            return channel.read(target, offset);
+        }
+    }
+
+    /**
+     * Carga el audio completo en memoria (solo para audios pequeños o código heredado).
+     */
+    public byte[] readAllBytes() throws IOException {
+        try (InputStream in = openStream()) {
+            return in.readAllBytes();
+        }
+    }
+}
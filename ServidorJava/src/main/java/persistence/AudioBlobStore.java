@@ -0,0 +1,407 @@
+package persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Almacén de notas de voz direccionado por contenido.
+ *
+ * Cada audio distinto se guarda una sola vez, con su SHA-256 como nombre. Un audio reenviado
+ * o repetido solo agrega una referencia. Estructura dentro del directorio raíz:
+ *
+ *   blobs/ab/cd/abcd...ef.blob   contenido (dos niveles de 256 directorios según el hash)
+ *   blobs/ab/cd/abcd...ef.refs   contador de referencias (long)
+ *   links/12/34/1234...-....     id del audio -> hash (mismo reparto por los primeros caracteres)
+ *   tmp/                         escrituras en curso
+ *   uploads/<id>.part            subidas por partes sin terminar (sobreviven a desconexiones)
+ *   uploads/<id>.owner           usuario que empezó la subida (el único que puede retomarla)
+ *
+ * Con el reparto en subdirectorios, ningún directorio crece demasiado aunque haya millones
+ * de audios, y buscar uno es abrir una ruta conocida.
+ *
+ * Orden de las operaciones para que borrar sea seguro ante caídas: al guardar se incrementa
+ * el contador (con fsync) antes de crear el enlace; al borrar se quita el enlace antes de
+ * decrementar. Una caída puede dejar un contador alto (el blob no se borra nunca), pero nunca
+ * un enlace que apunte a un blob borrado.
+ */
+public class AudioBlobStore {
+    private static final String BLOB_SUFFIX = ".blob";
+    private static final String REFS_SUFFIX = ".refs";
+    private static final String LEGACY_SUFFIX = ".audio";
+    private static final String PART_SUFFIX = ".part";
+    private static final String OWNER_SUFFIX = ".owner";
+    private static final int COPY_BUFFER = 64 * 1024;
+    /** Subidas abandonadas: se borran al arrancar (y en AudioTransferService) si no se tocaron en este tiempo. */
+    public static final long UPLOAD_TTL_MS = Long.getLong("chat.audio.uploadTtlMs", 24L * 60 * 60 * 1000);
+
+    private final Path root;
+    private final Path blobs;
+    private final Path links;
+    private final Path tmp;
+    private final Path uploads;
+
+    // Candados (repartidos en franjas) por hash para los contadores y por id para los enlaces.
+    // Siempre se toma primero el del id y después el del hash.
+    private final Object[] locks = new Object[64];
+    private final Object[] linkLocks = new Object[64];
+
+    public AudioBlobStore(Path root) throws IOException {
+        this.root = root;
+        this.blobs = root.resolve("blobs");
+        this.links = root.resolve("links");
+        this.tmp = root.resolve("tmp");
+        this.uploads = root.resolve("uploads");
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+            linkLocks[i] = new Object();
+        }
+        Files.createDirectories(blobs);
+        Files.createDirectories(links);
+        Files.createDirectories(tmp);
+        Files.createDirectories(uploads);
+        cleanTemporaryFiles();
+    }
+
+    /**
+     * Guarda el audio de una nota de voz. Si el mismo contenido ya existe no se escribe de
+     * nuevo: solo se agrega una referencia.
+     */
+    public AudioBlob store(String audioId, byte[] data) throws IOException {
+        return store(audioId, new ByteArrayChannel(data));
+    }
+
+    /**
+     * Guarda el audio leyéndolo en streaming del canal (se escribe a un temporal mientras
+     * se calcula el hash, y luego se mueve a su lugar definitivo).
+     */
+    public AudioBlob store(String audioId, ReadableByteChannel source) throws IOException {
+        MessageDigest digest = sha256();
+        Path temp = tmp.resolve(UUID.randomUUID() + ".tmp");
+        long size = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER);
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    size += out.write(buffer);
+                }
+                buffer.clear();
+            }
+            out.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        return place(audioId, temp, HexFormat.of().formatHex(digest.digest()), size);
+    }
+
+    /**
+     * Archivo parcial de una subida por partes. Se escribe directamente desde la red y
+     * se conserva entre reconexiones hasta {@link #commitUpload} o {@link #abortUpload}.
+     */
+    public Path uploadPath(String uploadId) {
+        return uploads.resolve(safeName(uploadId) + PART_SUFFIX);
+    }
+
+    /**
+     * Registra quién empezó una subida, para comprobarlo al retomarla.
+     */
+    public void setUploadOwner(String uploadId, String owner) throws IOException {
+        writeAtomically(ownerPath(uploadId), owner.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Usuario que empezó la subida, o null si no hay ninguno registrado.
+     */
+    public String getUploadOwner(String uploadId) throws IOException {
+        Path owner = ownerPath(uploadId);
+        if (!Files.exists(owner)) return null;
+        String name = Files.readString(owner).trim();
+        return name.isEmpty() ? null : name;
+    }
+
+    private Path ownerPath(String uploadId) {
+        return uploads.resolve(safeName(uploadId) + OWNER_SUFFIX);
+    }
+
+    /**
+     * Termina una subida por partes: calcula el hash leyendo el archivo parcial en streaming
+     * y lo mueve al almacén (o lo descarta si el contenido ya existía).
+     */
+    public AudioBlob commitUpload(String audioId, String uploadId) throws IOException {
+        Path part = uploadPath(uploadId);
+        MessageDigest digest = sha256();
+        long size = 0;
+        try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER);
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+                size += read;
+            }
+        }
+        AudioBlob blob = place(audioId, part, HexFormat.of().formatHex(digest.digest()), size);
+        Files.deleteIfExists(ownerPath(uploadId));
+        return blob;
+    }
+
+    public void abortUpload(String uploadId) throws IOException {
+        Files.deleteIfExists(uploadPath(uploadId));
+        Files.deleteIfExists(ownerPath(uploadId));
+    }
+
+    /**
+     * Mueve un archivo ya escrito y con hash calculado a su lugar en el almacén.
+     */
+    private AudioBlob place(String audioId, Path temp, String hash, long size) throws IOException {
+        Path blob = blobPath(hash);
+        synchronized (lockFor(hash)) {
+            if (Files.exists(blob)) {
+                Files.delete(temp);
+            } else {
+                Files.createDirectories(blob.getParent());
+                Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            addReferences(hash, 1);
+        }
+        writeLink(audioId, hash);
+        return new AudioBlob(blob, hash, size);
+    }
+
+    /**
+     * Registra un nuevo id de audio que comparte el contenido de otro (reenvío), sin copiar
+     * los datos. Devuelve null si el audio original no existe.
+     */
+    public AudioBlob link(String audioId, String existingAudioId) throws IOException {
+        String hash = readLink(existingAudioId);
+        if (hash == null) return null;
+        synchronized (lockFor(hash)) {
+            if (!Files.exists(blobPath(hash))) return null;
+            addReferences(hash, 1);
+        }
+        writeLink(audioId, hash);
+        return open(audioId);
+    }
+
+    /**
+     * Acceso en streaming al audio, o null si no existe. También encuentra los audios
+     * guardados por versiones anteriores como {@code <id>.audio}.
+     */
+    public AudioBlob open(String audioId) throws IOException {
+        String hash = readLink(audioId);
+        if (hash != null) {
+            Path blob = blobPath(hash);
+            return Files.exists(blob) ? new AudioBlob(blob, hash, Files.size(blob)) : null;
+        }
+        Path legacy = legacyPath(audioId);
+        return Files.exists(legacy) ? new AudioBlob(legacy, null, Files.size(legacy)) : null;
+    }
+
+    /**
+     * Quita la referencia del audio; el contenido se borra cuando nadie más lo usa.
+     */
+    public boolean delete(String audioId) throws IOException {
+        synchronized (linkLockFor(audioId)) {
+            String hash = readLink(audioId);
+            if (hash == null) {
+                return Files.deleteIfExists(legacyPath(audioId));
+            }
+
+            Files.deleteIfExists(linkPath(audioId));
+            release(hash);
+            return true;
+        }
+    }
+
+    /**
+     * Referencias actuales a un contenido (0 si no existe).
+     */
+    public long getReferences(String hash) throws IOException {
+        synchronized (lockFor(hash)) {
+            return readReferences(hash);
+        }
+    }
+
+    // =====================================================
+    // Contadores y enlaces
+    // =====================================================
+
+    private long addReferences(String hash, long delta) throws IOException {
+        long references = readReferences(hash) + delta;
+        try (FileChannel channel = FileChannel.open(refsPath(hash),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(references).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+            channel.force(false);
+        }
+        return references;
+    }
+
+    private long readReferences(String hash) throws IOException {
+        Path refs = refsPath(hash);
+        if (!Files.exists(refs)) return 0;
+        byte[] bytes = Files.readAllBytes(refs);
+        return bytes.length == Long.BYTES ? ByteBuffer.wrap(bytes).getLong() : 0;
+    }
+
+    /**
+     * Quita una referencia al contenido y lo borra si era la última.
+     */
+    private void release(String hash) throws IOException {
+        synchronized (lockFor(hash)) {
+            if (addReferences(hash, -1) <= 0) {
+                Files.deleteIfExists(blobPath(hash));
+                Files.deleteIfExists(refsPath(hash));
+            }
+        }
+    }
+
+    /**
+     * Apunta el id al contenido. Si el id ya apuntaba a otro contenido, se libera esa referencia.
+     */
+    private void writeLink(String audioId, String hash) throws IOException {
+        synchronized (linkLockFor(audioId)) {
+            String previous = readLink(audioId);
+            Path link = linkPath(audioId);
+            Files.createDirectories(link.getParent());
+            writeAtomically(link, hash.getBytes(StandardCharsets.UTF_8));
+            if (previous != null) {
+                release(previous);
+            }
+        }
+    }
+
+    /**
+     * Reemplaza el archivo de una vez: se escribe a un temporal, se baja a disco y se renombra
+     * encima. Un corte a mitad deja el contenido anterior o el nuevo, nunca un archivo vacío.
+     */
+    private void writeAtomically(Path target, byte[] bytes) throws IOException {
+        Path temp = tmp.resolve(UUID.randomUUID() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(false);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private String readLink(String audioId) throws IOException {
+        Path link = linkPath(audioId);
+        if (!Files.exists(link)) return null;
+        String hash = Files.readString(link).trim();
+        return hash.isEmpty() ? null : hash;
+    }
+
+    // =====================================================
+    // Rutas
+    // =====================================================
+
+    private Path blobPath(String hash) {
+        return shard(blobs, hash).resolve(hash + BLOB_SUFFIX);
+    }
+
+    private Path refsPath(String hash) {
+        return shard(blobs, hash).resolve(hash + REFS_SUFFIX);
+    }
+
+    private Path linkPath(String audioId) {
+        String safe = safeName(audioId);
+        return shard(links, safe).resolve(safe);
+    }
+
+    private Path legacyPath(String audioId) {
+        return root.resolve(safeName(audioId) + LEGACY_SUFFIX);
+    }
+
+    private static Path shard(Path base, String key) {
+        String padded = key.length() >= 4 ? key : (key + "0000").substring(0, 4);
+        return base.resolve(padded.substring(0, 2)).resolve(padded.substring(2, 4));
+    }
+
+    private static String safeName(String audioId) {
+        return audioId.replaceAll("[^a-zA-Z0-9-]", "_");
+    }
+
+    private Object lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), locks.length)];
+    }
+
+    private Object linkLockFor(String audioId) {
+        return linkLocks[Math.floorMod(audioId.hashCode(), linkLocks.length)];
+    }
+
+    private void cleanTemporaryFiles() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(tmp)) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(uploads)) {
+            for (Path path : stream) {
+                if (now - Files.getLastModifiedTime(path).toMillis() > UPLOAD_TTL_MS) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Canal de lectura sobre un arreglo ya en memoria.
+     */
+    private static final class ByteArrayChannel implements ReadableByteChannel {
+        private final ByteBuffer data;
+
+        ByteArrayChannel(byte[] data) {
+            this.data = ByteBuffer.wrap(data);
+        }
+
+        @Override
+        public int read(ByteBuffer target) {
+            if (!data.hasRemaining()) return -1;
+            int count = Math.min(target.remaining(), data.remaining());
+            ByteBuffer slice = data.slice().limit(count);
+            target.put(slice);
+            data.position(data.position() + count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
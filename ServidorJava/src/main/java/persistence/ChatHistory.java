@@ -2,151 +2,518 @@ package persistence;
 
 import model.Message;
 import model.AudioMessage;
+import util.KeyValueLine;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ChatHistory {
-    private static final String HISTORY_DIR = "data/history/";
-    private static final String AUDIO_DIR = "data/audio/";
+    private static final String DATA_DIR = "data";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String AUDIO_SUFFIX = "_audio";
+    private static final String NAMES_FILE = "users.dict";
+    private static final String MIGRATING_SUFFIX = ".migrating";
+
+    // Configuración del log segmentado (se puede cambiar con -Dchat.history.*)
+    private static final long SEGMENT_BYTES = Long.getLong("chat.history.segmentBytes", 64L * 1024 * 1024);
+    private static final FsyncPolicy FSYNC_POLICY = FsyncPolicy.fromString(System.getProperty("chat.history.fsync"));
+    private static final long FSYNC_INTERVAL_MS = Long.getLong("chat.history.fsyncIntervalMs", 1000);
+    // false: cada mensaje se escribe en el hilo que lo guarda, sin cola
+    private static final boolean WRITE_BEHIND =
+            Boolean.parseBoolean(System.getProperty("chat.history.writeBehind", "true"));
+    // Revisar todos los logs al arrancar (si no, cada uno se revisa al abrirlo por primera vez)
+    private static final boolean RECOVER_ON_START =
+            Boolean.parseBoolean(System.getProperty("chat.history.recoverOnStart", "true"));
+
+    // Caché de conversaciones recientes (se puede cambiar con -Dchat.cache.*)
+    private static final long CACHE_MAX_BYTES = Long.getLong("chat.cache.maxBytes", 64L * 1024 * 1024);
+    private static final int CACHE_MAX_PER_CONVERSATION = Integer.getInteger("chat.cache.maxPerConversation", 2000);
+    private static final long CACHE_EXPIRE_MS = Long.getLong("chat.cache.expireAfterAccessMs", 10 * 60 * 1000);
+    private static final int PAGE_CURSORS = 4096;
+
+    // Directorios del historial y de las notas de voz (terminan en '/')
+    private final String historyDir;
+    private final String audioDir;
+
+    // Un log abierto por conversación, para anexar sin releer el archivo
+    private final Map<String, SegmentedLog> logs = new ConcurrentHashMap<>();
+    private final ConversationCache cache =
+            new ConversationCache(CACHE_MAX_BYTES, CACHE_MAX_PER_CONVERSATION, CACHE_EXPIRE_MS);
+
+    // Candados por conversación (repartidos en franjas) para que una carga desde disco
+    // y la escritura de un mensaje no se crucen al actualizar la caché
+    private final Object[] conversationLocks = new Object[64];
+
+    private final WriteBehindQueue writeQueue;
+
+    // Posición en el log de los mensajes que quedaron en el borde de una página servida
+    // (clave: archivo + id). El cursor de la página siguiente casi siempre es uno de ellos,
+    // así no hay que buscarlo recorriendo el log. Los logs solo crecen, las posiciones no cambian
+    private final Map<String, Integer> pageCursors = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > PAGE_CURSORS;
+                }
+            });
+
+    // Formato binario de los registros y diccionario de nombres que usa
+    private final NameDictionary names;
+    private final MessageCodec codec;
+
+    // Datos de las notas de voz, sin duplicados
+    private final AudioBlobStore audioBlobs;
 
     public ChatHistory() {
+        this(Paths.get(DATA_DIR));
+    }
+
+    /**
+     * Historial guardado bajo dataDir (subdirectorios history/ y audio/). El servidor usa
+     * "data" dentro del directorio de trabajo.
+     */
+    public ChatHistory(Path dataDir) {
+        historyDir = dataDir.resolve("history") + "/";
+        audioDir = dataDir.resolve("audio") + "/";
+        for (int i = 0; i < conversationLocks.length; i++) {
+            conversationLocks[i] = new Object();
+        }
         createDirectories();
+        try {
+            names = new NameDictionary(Paths.get(historyDir, NAMES_FILE));
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo abrir el diccionario de nombres", e);
+        }
+        codec = new MessageCodec(names);
+        try {
+            audioBlobs = new AudioBlobStore(Paths.get(audioDir));
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo abrir el almacén de audio", e);
+        }
+        if (RECOVER_ON_START) {
+            recoverLogs();
+        }
+        writeQueue = WRITE_BEHIND ? new WriteBehindQueue(this::writeBatch) : null;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
     }
 
     private void createDirectories() {
-        new File(HISTORY_DIR).mkdirs();
-        new File(AUDIO_DIR).mkdirs();
+        new File(historyDir).mkdirs();
+        new File(audioDir).mkdirs();
     }
 
-    public void saveMessage(Message message) {
-        if (message == null) return;
+    /**
+     * Abre todos los logs del directorio de historial: descarta los registros incompletos
+     * que haya dejado una caída y reconstruye el índice de cada conversación.
+     */
+    private void recoverLogs() {
+        // Migraciones que una caída dejó a medio instalar (ver migrateLegacyFile)
+        File[] migrating = new File(historyDir).listFiles(file ->
+                file.isDirectory() && file.getName().endsWith(LOG_SUFFIX + MIGRATING_SUFFIX));
+        if (migrating != null) {
+            for (File directory : migrating) {
+                String name = directory.getName();
+                try {
+                    openLog(historyDir + name.substring(0, name.length() - LOG_SUFFIX.length() - MIGRATING_SUFFIX.length())).close();
+                } catch (IOException e) {
+                    System.err.println("Error terminando la migración de " + directory + ": " + e.getMessage());
+                }
+            }
+        }
 
-        String filename = getHistoryFilename(message.getTo(), message.isGroupMessage());
-        List<Message> messages = loadMessages(message.getTo(), message.isGroupMessage());
-        messages.add(message);
+        File[] directories = new File(historyDir).listFiles(file ->
+                file.isDirectory() && file.getName().endsWith(LOG_SUFFIX));
+        if (directories == null || directories.length == 0) return;
+
+        long start = System.currentTimeMillis();
+        Arrays.stream(directories).parallel().forEach(directory -> {
+            String name = directory.getName();
+            String filename = historyDir + name.substring(0, name.length() - LOG_SUFFIX.length());
+            try {
+                logs.putIfAbsent(filename, openLog(filename));
+            } catch (IOException e) {
+                System.err.println("Error recuperando historial " + directory + ": " + e.getMessage());
+            }
+        });
 
-        saveMessagesToFile(messages, filename);
+        long records = 0;
+        long truncated = 0;
+        for (SegmentedLog log : logs.values()) {
+            records += log.size();
+            truncated += log.getTruncatedBytes();
+        }
+        System.out.println("Historial recuperado: " + logs.size() + " conversaciones, " + records
+                + " registros, " + truncated + " bytes descartados en " + (System.currentTimeMillis() - start) + " ms");
     }
 
-    public void saveAudioMessage(AudioMessage audioMessage) {
-        if (audioMessage == null) return;
+    /**
+     * Guarda un mensaje sin esperar a que llegue a disco.
+     */
+    public CompletableFuture<Void> saveMessage(Message message) {
+        return saveMessage(message, false);
+    }
 
-        // Guardar metadatos del audio
-        String filename = getHistoryFilename(audioMessage.getTo(), audioMessage.isGroupMessage()) + "_audio";
-        List<AudioMessage> audioMessages = loadAudioMessages(audioMessage.getTo(), audioMessage.isGroupMessage());
-        audioMessages.add(audioMessage);
+    /**
+     * Guarda un mensaje. El futuro se completa cuando está escrito en el log; con
+     * {@code durable} además se espera al fsync de su lote.
+     *
+     * Los mensajes se ven en el historial (y en la caché) cuando se escriben, unos
+     * milisegundos después de llamar a este método.
+     */
+    public CompletableFuture<Void> saveMessage(Message message, boolean durable) {
+        if (message == null) return CompletableFuture.completedFuture(null);
 
-        saveAudioMessagesToFile(audioMessages, filename);
+        String filename = getHistoryFilename(message.getTo(), message.isGroupMessage());
+        byte[] payload;
+        try {
+            payload = codec.encode(message);
+        } catch (IOException e) {
+            System.err.println("Error guardando mensajes: " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+        return submit(new WriteBehindQueue.Write(filename, payload, message.getTimestamp().getTime(), message, durable));
+    }
+
+    public CompletableFuture<Void> saveAudioMessage(AudioMessage audioMessage) {
+        if (audioMessage == null) return CompletableFuture.completedFuture(null);
 
         // Guardar datos de audio en archivo separado
         saveAudioData(audioMessage);
+
+        // Guardar metadatos del audio
+        String filename = getHistoryFilename(audioMessage.getTo(), audioMessage.isGroupMessage()) + AUDIO_SUFFIX;
+        byte[] payload;
+        try {
+            payload = codec.encodeAudio(audioMessage);
+        } catch (IOException e) {
+            System.err.println("Error guardando audio message: " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+        return submit(new WriteBehindQueue.Write(filename, payload, audioMessage.getTimestamp().getTime(), null, false));
     }
 
-    private void saveMessagesToFile(List<Message> messages, String filename) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            for (Message message : messages) {
-                writer.println(serializeMessage(message));
-            }
+    /**
+     * Con escritura diferida, espera a que llegue al log lo ya encolado para la conversación:
+     * quien envía un mensaje y después pide el historial lo ve.
+     */
+    private void awaitPendingWrites(String filename) {
+        if (writeQueue != null) {
+            writeQueue.awaitWritten(filename);
+        }
+    }
+
+    private CompletableFuture<Void> submit(WriteBehindQueue.Write write) {
+        if (writeQueue != null) {
+            return writeQueue.submit(write);
+        }
+        try {
+            writeBatch(write.filename, List.of(write), write.durable);
+            return CompletableFuture.completedFuture(null);
         } catch (IOException e) {
             System.err.println("Error guardando mensajes: " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
         }
     }
 
-    private void saveAudioMessagesToFile(List<AudioMessage> audioMessages, String filename) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            for (AudioMessage audioMessage : audioMessages) {
-                writer.println(serializeAudioMessage(audioMessage));
+    /**
+     * Escribe un lote de registros de una conversación y actualiza la caché.
+     */
+    private void writeBatch(String filename, List<WriteBehindQueue.Write> writes, boolean durable) throws IOException {
+        List<byte[]> payloads = new ArrayList<>(writes.size());
+        long[] timestamps = new long[writes.size()];
+        for (int i = 0; i < writes.size(); i++) {
+            payloads.add(writes.get(i).payload);
+            timestamps[i] = writes.get(i).timestamp;
+        }
+
+        synchronized (lockFor(filename)) {
+            getLog(filename).appendBatch(payloads, timestamps, durable);
+            for (WriteBehindQueue.Write write : writes) {
+                if (write.message != null) {
+                    cache.onAppend(filename, write.message);
+                }
             }
-        } catch (IOException e) {
-            System.err.println("Error guardando audio messages: " + e.getMessage());
         }
     }
 
-    private String serializeMessage(Message message) {
-        return String.format("id:%s|from:%s|to:%s|content:%s|timestamp:%d|isGroup:%b",
-                message.getId(),
-                message.getFrom(),
-                message.getTo(),
-                escapeContent(message.getContent()),
-                message.getTimestamp().getTime(),
-                message.isGroupMessage()
-        );
+    /**
+     * Recorre todos los registros de una conversación en orden de escritura.
+     */
+    private void readRecords(String filename, SegmentedLog.RecordVisitor visitor) throws IOException {
+        SegmentedLog log = findLog(filename);
+        if (log != null) {
+            log.forEach(visitor);
+        }
     }
 
-    private String serializeAudioMessage(AudioMessage audioMessage) {
-        return String.format("id:%s|from:%s|to:%s|timestamp:%d|isGroup:%b|duration:%d|size:%d",
-                audioMessage.getId(),
-                audioMessage.getFrom(),
-                audioMessage.getTo(),
-                audioMessage.getTimestamp().getTime(),
-                audioMessage.isGroupMessage(),
-                audioMessage.getDuration(),
-                audioMessage.getAudioSize()
-        );
+    /**
+     * Log de la conversación, o null si la conversación no tiene historial.
+     */
+    private SegmentedLog findLog(String filename) throws IOException {
+        if (logs.containsKey(filename) || new File(filename + LOG_SUFFIX).isDirectory() || new File(filename).exists()
+                || new File(filename + LOG_SUFFIX + MIGRATING_SUFFIX).isDirectory()) {
+            return getLog(filename);
+        }
+        return null;
     }
 
-    private Message deserializeMessage(String line) {
-        try {
-            Map<String, String> data = parseLine(line);
-            Message message = new Message(
-                    data.get("from"),
-                    data.get("to"),
-                    unescapeContent(data.get("content")),
-                    Boolean.parseBoolean(data.get("isGroup"))
-            );
-            return message;
-        } catch (Exception e) {
-            System.err.println("Error deserializando mensaje: " + e.getMessage());
-            return null;
+    private SegmentedLog getLog(String filename) throws IOException {
+        SegmentedLog log = logs.get(filename);
+        if (log != null) return log;
+
+        synchronized (logs) {
+            log = logs.get(filename);
+            if (log == null) {
+                log = openLog(filename);
+                logs.put(filename, log);
+            }
+            return log;
         }
     }
 
-    private AudioMessage deserializeAudioMessage(String line) {
-        try {
-            Map<String, String> data = parseLine(line);
-            // Para audio, solo guardamos metadatos, los datos binarios se guardan aparte
-            AudioMessage audioMessage = new AudioMessage(
-                    data.get("id"),
-                    data.get("from"),
-                    data.get("to"),
-                    Boolean.parseBoolean(data.get("isGroup")),
-                    Long.parseLong(data.get("timestamp")),
-                    Integer.parseInt(data.get("audioSize")),
-                    Integer.parseInt(data.get("duration"))
-            );
-
-            return audioMessage;
-        } catch (Exception e) {
-            System.err.println("Error deserializando audio message: " + e.getMessage());
-            return null;
+    /**
+     * Abre el log de la conversación, importando antes el archivo .txt de versiones anteriores
+     * si todavía existe.
+     */
+    private SegmentedLog openLog(String filename) throws IOException {
+        Path directory = Paths.get(filename + LOG_SUFFIX);
+        migrateLegacyFile(filename, directory);
+        return new SegmentedLog(directory, SEGMENT_BYTES, FSYNC_POLICY, FSYNC_INTERVAL_MS);
+    }
+
+    /**
+     * Importa al log, en formato binario, el archivo .txt de versiones anteriores (si existe)
+     * y lo renombra a .migrated, para que todo el historial quede indexado en un solo lugar.
+     *
+     * Como convertLog, no escribe sobre el log: arma uno nuevo en .log.migrating (el .txt y
+     * después lo que ya tuviera el log), lo baja a disco y recién ahí renombra el .txt, que es
+     * el punto de no retorno. Si el servidor se cae antes, el .txt sigue ahí y la importación
+     * se repite desde cero sin duplicar mensajes; si se cae después, se termina de instalar el
+     * log importado.
+     */
+    private void migrateLegacyFile(String filename, Path directory) throws IOException {
+        File legacy = new File(filename);
+        Path migrating = Paths.get(directory + MIGRATING_SUFFIX);
+        if (!legacy.exists()) {
+            if (Files.isDirectory(migrating)) installLog(migrating, directory);
+            deleteDirectory(Paths.get(directory + ".old"));
+            return;
+        }
+
+        deleteDirectory(migrating);
+        int imported = 0;
+        // ALWAYS: cada lote (y cada segmento que se cierra) queda en disco antes de renombrar el .txt
+        try (SegmentedLog target = new SegmentedLog(migrating, SEGMENT_BYTES, FsyncPolicy.ALWAYS, FSYNC_INTERVAL_MS)) {
+            List<byte[]> batch = new ArrayList<>();
+            List<Long> times = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new FileReader(legacy, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    byte[] record = toBinary(filename, line.getBytes(StandardCharsets.UTF_8));
+                    if (record == null) continue;
+                    batch.add(record);
+                    times.add(timestampOf(filename, record));
+                    imported++;
+                    if (batch.size() == 1000) appendAll(target, batch, times);
+                }
+            }
+            // Lo que ya estaba en el log es posterior al .txt
+            if (Files.isDirectory(directory)) {
+                IOException[] error = {null};
+                try (SegmentedLog existing = new SegmentedLog(directory, SEGMENT_BYTES, FsyncPolicy.NEVER, FSYNC_INTERVAL_MS)) {
+                    existing.forEach((timestamp, payload) -> {
+                        try {
+                            batch.add(payload);
+                            times.add(timestamp);
+                            if (batch.size() == 1000) appendAll(target, batch, times);
+                        } catch (IOException e) {
+                            error[0] = e;
+                        }
+                    });
+                }
+                if (error[0] != null) throw error[0];
+            }
+            appendAll(target, batch, times);
+        }
+
+        File migrated = new File(filename + ".migrated");
+        Files.move(legacy.toPath(), migrated.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        installLog(migrating, directory);
+        System.out.println("Historial migrado al log segmentado: " + filename + " (" + imported + " mensajes)");
+    }
+
+    private static void appendAll(SegmentedLog target, List<byte[]> batch, List<Long> times) throws IOException {
+        if (batch.isEmpty()) return;
+        target.appendBatch(batch, times.stream().mapToLong(Long::longValue).toArray(), false);
+        batch.clear();
+        times.clear();
+    }
+
+    /**
+     * Reemplaza el log por el importado. Se puede repetir si una caída lo corta a la mitad.
+     */
+    private static void installLog(Path migrating, Path directory) throws IOException {
+        Path old = Paths.get(directory + ".old");
+        if (Files.isDirectory(directory)) {
+            deleteDirectory(old);
+            Files.move(directory, old);
+        }
+        Files.move(migrating, directory);
+        deleteDirectory(old);
+    }
+
+    /**
+     * Convierte un registro (de texto o binario) al formato binario actual.
+     * Devuelve null si el registro no se puede leer.
+     */
+    byte[] toBinary(String filename, byte[] record) throws IOException {
+        if (MessageCodec.isBinary(record)) {
+            return record;
+        }
+        if (filename.endsWith(AUDIO_SUFFIX)) {
+            AudioMessage audioMessage = codec.decodeAudio(record);
+            return audioMessage != null ? codec.encodeAudio(audioMessage) : null;
         }
+        Message message = codec.decode(record);
+        return message != null ? codec.encode(message) : null;
     }
 
-    private Map<String, String> parseLine(String line) {
-        Map<String, String> result = new HashMap<>();
-        String[] pairs = line.split("\\|");
-        for (String pair : pairs) {
-            String[] keyValue = pair.split(":", 2);
-            if (keyValue.length == 2) {
-                result.put(keyValue[0].trim(), keyValue[1].trim());
+    /**
+     * Reescribe en formato binario los logs que todavía tienen registros de texto.
+     * Los archivos .txt se convierten al abrir cada log. Debe ejecutarse con el servidor
+     * detenido (ver {@link HistoryConverter}).
+     *
+     * @return número de conversaciones convertidas
+     */
+    public int convertToBinary() throws IOException {
+        // Archivos .txt sin log: se importan (ya en binario) al abrir su log
+        File[] legacyFiles = new File(historyDir).listFiles(file -> file.isFile()
+                && (file.getName().endsWith(".txt") || file.getName().endsWith(".txt" + AUDIO_SUFFIX)));
+        if (legacyFiles != null) {
+            for (File legacy : legacyFiles) {
+                getLog(historyDir + legacy.getName());
+            }
+        }
+
+        File[] directories = new File(historyDir).listFiles(file ->
+                file.isDirectory() && file.getName().endsWith(LOG_SUFFIX));
+        if (directories == null) return 0;
+
+        int converted = 0;
+        for (File directory : directories) {
+            String name = directory.getName();
+            String filename = historyDir + name.substring(0, name.length() - LOG_SUFFIX.length());
+            synchronized (lockFor(filename)) {
+                if (convertLog(filename, getLog(filename))) {
+                    converted++;
+                }
             }
         }
-        return result;
+        return converted;
+    }
+
+    private boolean convertLog(String filename, SegmentedLog log) throws IOException {
+        boolean[] hasText = {false};
+        log.forEach((timestamp, payload) -> hasText[0] |= !MessageCodec.isBinary(payload));
+        if (!hasText[0]) return false;
+
+        Path directory = log.getDirectory();
+        Path converting = Paths.get(directory + ".converting");
+        deleteDirectory(converting);
+
+        long bytesBefore = directorySize(directory);
+        try (SegmentedLog target = new SegmentedLog(converting, SEGMENT_BYTES, FsyncPolicy.NEVER, FSYNC_INTERVAL_MS)) {
+            List<byte[]> batch = new ArrayList<>();
+            List<Long> times = new ArrayList<>();
+            IOException[] error = {null};
+            log.forEach((timestamp, payload) -> {
+                try {
+                    byte[] record = toBinary(filename, payload);
+                    if (record != null) {
+                        batch.add(record);
+                        times.add(timestamp);
+                    }
+                    if (batch.size() == 1000) {
+                        target.appendBatch(batch, times.stream().mapToLong(Long::longValue).toArray(), false);
+                        batch.clear();
+                        times.clear();
+                    }
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) throw error[0];
+            target.appendBatch(batch, times.stream().mapToLong(Long::longValue).toArray(), true);
+        }
+
+        // Cambiar el log viejo por el convertido
+        log.close();
+        logs.remove(filename);
+        cache.invalidate(filename);
+        Path old = Paths.get(directory + ".old");
+        deleteDirectory(old);
+        Files.move(directory, old);
+        Files.move(converting, directory);
+        deleteDirectory(old);
+
+        System.out.println("Convertido a binario: " + filename + " (" + bytesBefore + " -> "
+                + directorySize(directory) + " bytes)");
+        return true;
     }
 
-    private String escapeContent(String content) {
-        return content.replace("|", "\\|").replace(":", "\\:").replace("\n", "\\n");
+    private static long directorySize(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.mapToLong(path -> path.toFile().length()).sum();
+        }
     }
 
-    private String unescapeContent(String content) {
-        return content.replace("\\|", "|").replace("\\:", ":").replace("\\n", "\n");
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) return;
+        try (var files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private long timestampOf(String filename, byte[] record) {
+        Message message = filename.endsWith(AUDIO_SUFFIX) ? codec.decodeAudio(record) : codec.decode(record);
+        return message != null ? message.getTimestamp().getTime() : 0;
+    }
+
+    public void close() {
+        if (writeQueue != null) {
+            writeQueue.close();
+        }
+        for (SegmentedLog log : logs.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Error cerrando historial: " + e.getMessage());
+            }
+        }
+        logs.clear();
+        try {
+            names.close();
+        } catch (IOException e) {
+            System.err.println("Error cerrando diccionario de nombres: " + e.getMessage());
+        }
     }
 
     private void saveAudioData(AudioMessage audioMessage) {
-        String audioFilename = AUDIO_DIR + audioMessage.getId() + ".audio";
-        try (FileOutputStream fos = new FileOutputStream(audioFilename)) {
-            fos.write(audioMessage.getAudioData());
+        if (audioMessage.getAudioData() == null) return;
+        try {
+            // Un mismo audio (reenviado o repetido) se guarda una sola vez
+            audioBlobs.store(audioMessage.getId(), audioMessage.getAudioData());
         } catch (IOException e) {
             System.err.println("Error guardando datos de audio: " + e.getMessage());
         }
@@ -154,51 +521,294 @@ public class ChatHistory {
 
     public List<Message> loadMessages(String target, boolean isGroup) {
         String filename = getHistoryFilename(target, isGroup);
-        List<Message> messages = new ArrayList<>();
-
-        File file = new File(filename);
-        if (!file.exists()) {
-            return messages;
+        awaitPendingWrites(filename);
+        List<Message> cached = cache.getAll(filename);
+        if (cached != null) {
+            return cached;
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Message message = deserializeMessage(line);
-                if (message != null) {
-                    messages.add(message);
+        List<Message> messages = new ArrayList<>();
+        synchronized (lockFor(filename)) {
+            try {
+                SegmentedLog log = findLog(filename);
+                if (log != null) {
+                    messages.addAll(readRange(log, 0, log.size()));
                 }
+                cache.put(filename, messages, true);
+            } catch (IOException e) {
+                System.err.println("Error cargando mensajes: " + e.getMessage());
+            }
+        }
+
+        return messages;
+    }
+
+    /**
+     * Devuelve una página de la conversación sin recorrer el archivo desde el inicio.
+     *
+     * Un cursor de timestamp se resuelve con una búsqueda binaria en el índice del log
+     * (O(log n)). Un cursor de id es O(1) si es el primer o el último mensaje de una página
+     * servida hace poco (lo normal al paginar); si no, se busca recorriendo el log desde el
+     * final, en tiempo proporcional a la distancia del mensaje al final.
+     *
+     * @param limit  máximo de mensajes de la página
+     * @param before cursor (id de mensaje o timestamp): mensajes anteriores a él
+     * @param since  cursor (id de mensaje o timestamp): mensajes posteriores a él
+     *               (tiene prioridad sobre before). Sin cursores se devuelven los últimos.
+     */
+    public HistoryPage loadPage(String target, boolean isGroup, int limit, String before, String since) {
+        String filename = getHistoryFilename(target, isGroup);
+        limit = Math.max(0, limit);
+        awaitPendingWrites(filename);
+
+        try {
+            SegmentedLog log = findLog(filename);
+            if (log == null) {
+                return new HistoryPage(new ArrayList<>(), false);
             }
+
+            if (since == null && before == null) {
+                return loadLatestPage(filename, log, limit);
+            }
+
+            int start;
+            int end;
+            boolean hasMore;
+            if (since != null) {
+                start = resolveCursor(filename, log, since, true);
+                end = (int) Math.min(log.size(), (long) start + limit);
+                hasMore = end < log.size();
+            } else {
+                end = resolveCursor(filename, log, before, false);
+                start = Math.max(0, end - limit);
+                hasMore = start > 0;
+            }
+            return new HistoryPage(readPage(filename, log, start, end), hasMore);
         } catch (IOException e) {
             System.err.println("Error cargando mensajes: " + e.getMessage());
+            return new HistoryPage(new ArrayList<>(), false);
+        }
+    }
+
+    /**
+     * Última página: se sirve desde la caché si está; si no, se leen los últimos
+     * mensajes del log y se dejan en caché para las siguientes consultas.
+     */
+    private HistoryPage loadLatestPage(String filename, SegmentedLog log, int limit) throws IOException {
+        List<Message> cached = cache.getLatest(filename, limit);
+        if (cached != null) {
+            return new HistoryPage(cached, log.size() > cached.size());
+        }
+
+        synchronized (lockFor(filename)) {
+            int size = log.size();
+            int start = Math.max(0, size - Math.max(limit, CACHE_MAX_PER_CONVERSATION));
+            List<Message> recent = readRange(log, start, size);
+            cache.put(filename, recent, start == 0);
+
+            List<Message> page = recent.subList(Math.max(0, recent.size() - limit), recent.size());
+            // Si se leyó todo el tramo, la posición del primero de la página es conocida
+            if (recent.size() == size - start && !page.isEmpty()) {
+                rememberCursor(filename, page.get(0), size - page.size());
+                rememberCursor(filename, page.get(page.size() - 1), size - 1);
+            }
+            return new HistoryPage(new ArrayList<>(page), size > page.size());
         }
+    }
 
+    private List<Message> readRange(SegmentedLog log, int start, int end) throws IOException {
+        List<Message> messages = new ArrayList<>(Math.max(0, end - start));
+        MessageView view = codec.newView();
+        log.readMapped(start, end, (index, timestamp, buffer, offset, length) -> {
+            if (view.reset(buffer, offset, length)) {
+                messages.add(view.toMessage());
+            }
+        });
         return messages;
     }
 
-    public List<AudioMessage> loadAudioMessages(String target, boolean isGroup) {
-        String filename = getHistoryFilename(target, isGroup) + "_audio";
-        List<AudioMessage> audioMessages = new ArrayList<>();
+    /**
+     * Lee una página y recuerda la posición de sus mensajes de los bordes, que serán los
+     * cursores de las páginas vecinas.
+     */
+    private List<Message> readPage(String filename, SegmentedLog log, int start, int end) throws IOException {
+        List<Message> messages = new ArrayList<>(Math.max(0, end - start));
+        int[] positions = {-1, -1};
+        MessageView view = codec.newView();
+        log.readMapped(start, end, (index, timestamp, buffer, offset, length) -> {
+            if (view.reset(buffer, offset, length)) {
+                messages.add(view.toMessage());
+                if (positions[0] < 0) positions[0] = index;
+                positions[1] = index;
+            }
+        });
+        if (!messages.isEmpty()) {
+            rememberCursor(filename, messages.get(0), positions[0]);
+            rememberCursor(filename, messages.get(messages.size() - 1), positions[1]);
+        }
+        return messages;
+    }
+
+    private void rememberCursor(String filename, Message message, int position) {
+        if (message.getId() != null) {
+            pageCursors.put(filename + '\0' + message.getId(), position);
+        }
+    }
+
+    /**
+     * Escribe el historial completo como "remitente:contenido|remitente:contenido|..."
+     * (el formato de la respuesta "history"; ver {@link #appendEntry}).
+     *
+     * Si la conversación está en caché se usa; si no, se leen los segmentos mapeados y solo
+     * se decodifican el remitente (del diccionario) y el contenido, directamente en
+     * {@code out}, sin crear objetos Message ni Strings por mensaje.
+     */
+    public void appendHistory(String target, boolean isGroup, StringBuilder out) {
+        String filename = getHistoryFilename(target, isGroup);
+        awaitPendingWrites(filename);
+        List<Message> cached = cache.getAll(filename);
+        if (cached != null) {
+            appendMessages(cached, out);
+            return;
+        }
+
+        try {
+            SegmentedLog log = findLog(filename);
+            if (log == null) return;
+            if (log.size() <= CACHE_MAX_PER_CONVERSATION) {
+                // Conversación chica: se carga completa y queda en caché
+                appendMessages(loadMessages(target, isGroup), out);
+                return;
+            }
 
-        File file = new File(filename);
-        if (!file.exists()) {
-            return audioMessages;
+            MessageView view = codec.newView();
+            int start = out.length();
+            log.readMapped(0, log.size(), (index, timestamp, buffer, offset, length) -> {
+                if (!view.reset(buffer, offset, length)) return;
+                if (out.length() > start) out.append('|');
+                KeyValueLine.appendEscaped(out, view.getFrom());
+                out.append(':');
+                view.appendEscapedContent(out);
+            });
+        } catch (IOException e) {
+            System.err.println("Error cargando mensajes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Escribe los mensajes en el formato de la respuesta "history", separados por '|'.
+     */
+    public static void appendMessages(List<Message> messages, StringBuilder out) {
+        int start = out.length();
+        for (Message message : messages) {
+            if (out.length() > start) out.append('|');
+            appendEntry(message, out);
+        }
+    }
+
+    /**
+     * Un mensaje de la respuesta "history": remitente y contenido escapados con
+     * {@link KeyValueLine#appendEscaped} y unidos por ':'. Así un '|' o un ':' del contenido
+     * no se confunde con los separadores: quien lee la lista la parte por los '|' y ':' sin
+     * escapar y después quita los escapes de cada parte. Es independiente del escape de la
+     * línea: en texto el campo "messages" completo se escapa otra vez (como cualquier valor)
+     * y en un frame binario viaja tal cual.
+     */
+    public static void appendEntry(Message message, StringBuilder out) {
+        KeyValueLine.appendEscaped(out, message.getFrom());
+        out.append(':');
+        KeyValueLine.appendEscaped(out, message.getContent());
+    }
+
+    /**
+     * Convierte un cursor en posición del índice. Un cursor numérico es un timestamp;
+     * cualquier otro valor se trata como id de mensaje.
+     *
+     * @param after true para obtener la primera posición posterior al cursor,
+     *              false para la posición del propio cursor (límite exclusivo)
+     */
+    private int resolveCursor(String filename, SegmentedLog log, String cursor, boolean after) throws IOException {
+        if (!cursor.isEmpty() && cursor.chars().allMatch(Character::isDigit)) {
+            long timestamp = Long.parseLong(cursor);
+            return after ? log.upperBound(timestamp) : log.lowerBound(timestamp);
+        }
+
+        int position = findById(filename, log, cursor);
+        if (position < 0) {
+            // Cursor desconocido: "since" resincroniza todo, "before" parte del final
+            return after ? 0 : log.size();
+        }
+        return after ? position + 1 : position;
+    }
+
+    /**
+     * Busca un mensaje por id: primero entre los bordes de las páginas servidas y, si no
+     * está, recorriendo el log desde el final en bloques, ya que los cursores casi siempre
+     * apuntan a mensajes recientes.
+     */
+    private int findById(String filename, SegmentedLog log, String id) throws IOException {
+        UUID uuid = null;
+        try {
+            uuid = UUID.fromString(id);
+        } catch (IllegalArgumentException ignored) {
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                AudioMessage audioMessage = deserializeAudioMessage(line);
+        MessageView view = codec.newView();
+        UUID target = uuid;
+        Integer remembered = pageCursors.get(filename + '\0' + id);
+        if (remembered != null && remembered < log.size()) {
+            boolean[] matches = {false};
+            log.readMapped(remembered, remembered + 1, (index, timestamp, buffer, offset, length) ->
+                    matches[0] = view.reset(buffer, offset, length) && view.idEquals(id, target));
+            if (matches[0]) return remembered;
+        }
+
+        final int chunk = 256;
+        for (int end = log.size(); end > 0; end -= chunk) {
+            int start = Math.max(0, end - chunk);
+            int[] found = {-1};
+            log.readMapped(start, end, (index, timestamp, buffer, offset, length) -> {
+                if (view.reset(buffer, offset, length) && view.idEquals(id, target)) {
+                    found[0] = index;
+                }
+            });
+            if (found[0] >= 0) return found[0];
+        }
+        return -1;
+    }
+
+    /**
+     * Escrituras en cola que aún no llegaron al log.
+     */
+    public int getPendingWrites() {
+        return writeQueue != null ? writeQueue.getPending() : 0;
+    }
+
+    public AudioBlobStore getAudioBlobs() {
+        return audioBlobs;
+    }
+
+    public ConversationCache getCache() {
+        return cache;
+    }
+
+    private Object lockFor(String filename) {
+        return conversationLocks[Math.floorMod(filename.hashCode(), conversationLocks.length)];
+    }
+
+    public List<AudioMessage> loadAudioMessages(String target, boolean isGroup) {
+        String filename = getHistoryFilename(target, isGroup) + AUDIO_SUFFIX;
+        awaitPendingWrites(filename);
+        List<AudioMessage> audioMessages = new ArrayList<>();
+
+        try {
+            readRecords(filename, (timestamp, payload) -> {
+                AudioMessage audioMessage = codec.decodeAudio(payload);
                 if (audioMessage != null) {
-                    // Cargar datos de audio
-                    byte[] audioData = loadAudioData(audioMessage.getId());
-                    if (audioData != null) {
-                        // Necesitaríamos un método setter en AudioMessage para establecer los datos
-                        // audioMessage.setAudioData(audioData);
-                    }
+                    // Los datos no se cargan aquí: se piden en streaming con loadAudioData
                     audioMessages.add(audioMessage);
                 }
-            }
+            });
         } catch (IOException e) {
             System.err.println("Error cargando audio messages: " + e.getMessage());
         }
@@ -206,19 +816,27 @@ public class ChatHistory {
         return audioMessages;
     }
 
-    public byte[] loadAudioData(String audioId) {
-        String audioFilename = AUDIO_DIR + audioId + ".audio";
-        File file = new File(audioFilename);
-
-        if (!file.exists()) {
+    /**
+     * Acceso en streaming a los datos de una nota de voz, o null si no existe.
+     */
+    public AudioBlob loadAudioData(String audioId) {
+        try {
+            return audioBlobs.open(audioId);
+        } catch (IOException e) {
+            System.err.println("Error cargando datos de audio: " + e.getMessage());
             return null;
         }
+    }
 
-        try (FileInputStream fis = new FileInputStream(audioFilename)) {
-            return fis.readAllBytes();
+    /**
+     * Borra una nota de voz; el contenido se conserva mientras otra nota lo use.
+     */
+    public boolean deleteAudioData(String audioId) {
+        try {
+            return audioBlobs.delete(audioId);
         } catch (IOException e) {
-            System.err.println("Error cargando datos de audio: " + e.getMessage());
-            return null;
+            System.err.println("Error borrando datos de audio: " + e.getMessage());
+            return false;
         }
     }
 
@@ -227,6 +845,6 @@ public class ChatHistory {
     private String getHistoryFilename(String target, boolean isGroup) {
         String prefix = isGroup ? "group_" : "user_";
         String safeTarget = target.replaceAll("[^a-zA-Z0-9]", "_");
-        return HISTORY_DIR + prefix + safeTarget + ".txt";
+        return historyDir + prefix + safeTarget + ".txt";
     }
 }
\ No newline at end of file
@@ -0,0 +1,189 @@
+package persistence;
+
+import model.Message;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché en memoria de los mensajes recientes de cada conversación.
+ *
+ * - Se llena al leer una conversación desde disco y se mantiene al día con cada
+ *   escritura (no se reconstruye en las lecturas).
+ * - Cada conversación guarda como máximo {@code maxPerConversation} mensajes; si tiene
+ *   más, solo se guardan los últimos y la entrada se marca como incompleta.
+ * - Expulsa por LRU cuando se supera el tamaño total estimado en bytes, y también las
+ *   conversaciones que no se consultan hace más de {@code expireAfterAccessMs}.
+ */
+public class ConversationCache {
+    private final long maxBytes;
+    private final int maxPerConversation;
+    private final long expireAfterAccessMs;
+
+    // accessOrder = true: el primer elemento es el menos usado recientemente
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ConversationCache(long maxBytes, int maxPerConversation, long expireAfterAccessMs) {
+        this.maxBytes = maxBytes;
+        this.maxPerConversation = maxPerConversation;
+        this.expireAfterAccessMs = expireAfterAccessMs;
+    }
+
+    /**
+     * Devuelve una copia de la conversación completa si está en caché, o null.
+     */
+    public synchronized List<Message> getAll(String key) {
+        Entry entry = lookup(key);
+        if (entry == null || !entry.complete) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ArrayList<>(entry.messages);
+    }
+
+    /**
+     * Devuelve una copia de los últimos {@code limit} mensajes si la caché los tiene, o null.
+     */
+    public synchronized List<Message> getLatest(String key, int limit) {
+        Entry entry = lookup(key);
+        if (entry == null || (!entry.complete && entry.messages.size() < limit)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+
+        int skip = Math.max(0, entry.messages.size() - limit);
+        List<Message> result = new ArrayList<>(entry.messages.size() - skip);
+        Iterator<Message> it = entry.messages.iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            Message message = it.next();
+            if (i >= skip) result.add(message);
+        }
+        return result;
+    }
+
+    /**
+     * Guarda los mensajes más recientes de una conversación recién leídos de disco.
+     *
+     * @param complete true si la lista es la conversación entera
+     */
+    public synchronized void put(String key, List<Message> messages, boolean complete) {
+        Entry previous = entries.remove(key);
+        if (previous != null) totalBytes -= previous.bytes;
+
+        Entry entry = new Entry();
+        int from = Math.max(0, messages.size() - maxPerConversation);
+        entry.complete = complete && from == 0;
+        for (int i = from; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            entry.messages.addLast(message);
+            entry.bytes += estimateBytes(message);
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        entries.put(key, entry);
+        totalBytes += entry.bytes;
+        evictIfNeeded();
+    }
+
+    /**
+     * Añade un mensaje recién escrito a la conversación, solo si ya está en caché.
+     */
+    public synchronized void onAppend(String key, Message message) {
+        Entry entry = entries.get(key);
+        if (entry == null) return;
+
+        long size = estimateBytes(message);
+        entry.messages.addLast(message);
+        entry.bytes += size;
+        totalBytes += size;
+
+        if (entry.messages.size() > maxPerConversation) {
+            Message oldest = entry.messages.removeFirst();
+            long oldestSize = estimateBytes(oldest);
+            entry.bytes -= oldestSize;
+            totalBytes -= oldestSize;
+            entry.complete = false;
+        }
+        evictIfNeeded();
+    }
+
+    public synchronized void invalidate(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) totalBytes -= entry.bytes;
+    }
+
+    private Entry lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+
+        long now = System.currentTimeMillis();
+        if (now - entry.lastAccess > expireAfterAccessMs) {
+            entries.remove(key);
+            totalBytes -= entry.bytes;
+            evictions.incrementAndGet();
+            return null;
+        }
+        entry.lastAccess = now;
+        return entry;
+    }
+
+    private void evictIfNeeded() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry eldest = it.next();
+            boolean expired = now - eldest.lastAccess > expireAfterAccessMs;
+            if (!expired && totalBytes <= maxBytes) break;
+            it.remove();
+            totalBytes -= eldest.bytes;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long estimateBytes(Message message) {
+        // Cabecera del objeto, id, fecha y los Strings (2 bytes por carácter aproximadamente)
+        String content = message.getContent();
+        return 160 + 2L * ((content != null ? content.length() : 0)
+                + (message.getFrom() != null ? message.getFrom().length() : 0)
+                + (message.getTo() != null ? message.getTo().length() : 0));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private static final class Entry {
+        final ArrayDeque<Message> messages = new ArrayDeque<>();
+        long bytes;
+        long lastAccess;
+        boolean complete;
+    }
+}
@@ -0,0 +1,24 @@
+package persistence;
+
+/**
+ * Política de sincronización a disco (fsync) de los segmentos del historial.
+ *
+ * - NEVER: se deja que el sistema operativo decida cuándo bajar las páginas a disco.
+ * - ALWAYS: fsync después de cada escritura (máxima durabilidad, más lento).
+ * - INTERVAL: fsync como máximo una vez por intervalo configurado.
+ */
+public enum FsyncPolicy {
+    NEVER,
+    ALWAYS,
+    INTERVAL;
+
+    public static FsyncPolicy fromString(String value) {
+        if (value == null) return INTERVAL;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Política de fsync desconocida: " + value + ", usando INTERVAL");
+            return INTERVAL;
+        }
+    }
+}
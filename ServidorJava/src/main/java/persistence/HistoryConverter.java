@@ -0,0 +1,22 @@
+package persistence;
+
+import java.io.IOException;
+
+/**
+ * Convierte el historial guardado en texto (archivos .txt y registros de texto dentro de
+ * los logs) al formato binario de {@link MessageCodec}. Se ejecuta con el servidor detenido,
+ * desde el directorio que contiene "data/".
+ */
+public class HistoryConverter {
+    public static void main(String[] args) {
+        ChatHistory history = new ChatHistory();
+        try {
+            int converted = history.convertToBinary();
+            System.out.println("Conversaciones convertidas: " + converted);
+        } catch (IOException e) {
+            System.err.println("Error convirtiendo el historial: " + e.getMessage());
+        } finally {
+            history.close();
+        }
+    }
+}
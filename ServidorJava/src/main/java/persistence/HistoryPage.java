@@ -0,0 +1,31 @@
+package persistence;
+
+import model.Message;
+
+import java.util.List;
+
+/**
+ * Página de historial: mensajes en orden cronológico y si quedan más en la
+ * dirección consultada (hacia atrás para "before" o la última página, hacia
+ * adelante para "since").
+ */
+public class HistoryPage {
+    private final List<Message> messages;
+    private final boolean hasMore;
+
+    public HistoryPage(List<Message> messages, boolean hasMore) {
+        this.messages = messages;
+        this.hasMore = hasMore;
+    }
+
+    public List<Message> getMessages() { return messages; }
+    public boolean hasMore() { return hasMore; }
+
+    public Message getOldest() {
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    public Message getNewest() {
+        return messages.isEmpty() ? null : messages.get(messages.size() - 1);
+    }
+}
@@ -0,0 +1,357 @@
+package persistence;
+
+import model.AudioMessage;
+import model.Message;
+import util.KeyValueLine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Formato binario de los registros del historial.
+ *
+ * El primer byte es la versión del formato. Los registros de texto de versiones anteriores
+ * ("id:...|from:...") empiezan por un carácter imprimible, así que ambos formatos conviven
+ * en el mismo log y se distinguen por ese byte.
+ *
+ * Mensaje (versión 1):
+ *   [1][flags][id][varint timestamp][varint from][varint to][varint longitud][contenido UTF-8]
+ * Audio (versión 2):
+ *   [2][flags][id][varint timestamp][varint from][varint to][varint duración][varint tamaño]
+ *
+ * - flags: bit 0 = mensaje de grupo, bit 1 = el id es un UUID.
+ * - id: un UUID se guarda como dos long (16 bytes); cualquier otro id como [varint longitud][UTF-8].
+ * - from/to: número en el {@link NameDictionary} + 1 (0 = sin valor).
+ *
+ * La codificación usa un buffer reutilizable por hilo y escribe el UTF-8 directamente,
+ * sin Strings ni arreglos intermedios.
+ */
+public class MessageCodec {
+    public static final byte MESSAGE_V1 = 1;
+    public static final byte AUDIO_V1 = 2;
+
+    static final int FLAG_GROUP = 1;
+    static final int FLAG_UUID_ID = 2;
+
+    private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(Output::new);
+    // Instancia propia para los registros de texto: KeyValueLine.parseThreadLocal es la del hilo,
+    // y quien lee el historial suele estar usándola para el comando que está atendiendo
+    private static final ThreadLocal<KeyValueLine> LEGACY_LINE = ThreadLocal.withInitial(KeyValueLine::new);
+
+    private final NameDictionary names;
+
+    public MessageCodec(NameDictionary names) {
+        this.names = names;
+    }
+
+    /**
+     * Vista reutilizable para leer registros de mensaje sin copiarlos (ver {@link MessageView}).
+     */
+    public MessageView newView() {
+        return new MessageView(this, names);
+    }
+
+    /**
+     * true si el registro está en formato binario (y no en el texto de versiones anteriores).
+     */
+    public static boolean isBinary(byte[] payload) {
+        return payload.length > 0 && payload[0] >= MESSAGE_V1 && payload[0] <= AUDIO_V1;
+    }
+
+    public byte[] encode(Message message) throws IOException {
+        Output out = writeHeader(MESSAGE_V1, message);
+        out.writeString(message.getContent() != null ? message.getContent() : "");
+        return out.toByteArray();
+    }
+
+    public byte[] encodeAudio(AudioMessage audioMessage) throws IOException {
+        Output out = writeHeader(AUDIO_V1, audioMessage);
+        out.writeVarLong(audioMessage.getDuration());
+        out.writeVarLong(audioMessage.getAudioSize());
+        return out.toByteArray();
+    }
+
+    private Output writeHeader(byte version, Message message) throws IOException {
+        Output out = OUTPUT.get();
+        out.reset();
+        out.writeByte(version);
+
+        UUID uuid = parseUuid(message.getId());
+        out.writeByte((message.isGroupMessage() ? FLAG_GROUP : 0) | (uuid != null ? FLAG_UUID_ID : 0));
+        if (uuid != null) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else {
+            out.writeString(message.getId());
+        }
+
+        out.writeVarLong(message.getTimestamp().getTime());
+        out.writeVarLong(message.getFrom() != null ? names.idOf(message.getFrom()) + 1 : 0);
+        out.writeVarLong(message.getTo() != null ? names.idOf(message.getTo()) + 1 : 0);
+        return out;
+    }
+
+    /**
+     * Decodifica un mensaje en cualquiera de los dos formatos. Devuelve null si el
+     * registro no se puede leer.
+     */
+    public Message decode(byte[] payload) {
+        try {
+            if (!isBinary(payload)) {
+                return decodeText(new String(payload, StandardCharsets.UTF_8));
+            }
+            Input in = new Input(payload);
+            if (in.readByte() != MESSAGE_V1) return null;
+            int flags = in.readByte();
+            String id = readId(in, flags);
+            long timestamp = in.readVarLong();
+            String from = readName(in);
+            String to = readName(in);
+            String content = in.readString();
+            return new Message(id, from, to, content, (flags & FLAG_GROUP) != 0, timestamp);
+        } catch (RuntimeException e) {
+            System.err.println("Error deserializando mensaje: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Decodifica los metadatos de un audio en cualquiera de los dos formatos.
+     */
+    public AudioMessage decodeAudio(byte[] payload) {
+        try {
+            if (!isBinary(payload)) {
+                return decodeAudioText(new String(payload, StandardCharsets.UTF_8));
+            }
+            Input in = new Input(payload);
+            if (in.readByte() != AUDIO_V1) return null;
+            int flags = in.readByte();
+            String id = readId(in, flags);
+            long timestamp = in.readVarLong();
+            String from = readName(in);
+            String to = readName(in);
+            int duration = (int) in.readVarLong();
+            int size = (int) in.readVarLong();
+            return new AudioMessage(id, from, to, (flags & FLAG_GROUP) != 0, timestamp, size, duration);
+        } catch (RuntimeException e) {
+            System.err.println("Error deserializando audio message: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lee solo el id del registro (para buscar cursores sin decodificar el contenido).
+     */
+    public String readId(byte[] payload) {
+        if (!isBinary(payload)) {
+            return LEGACY_LINE.get().reset(new String(payload, StandardCharsets.UTF_8)).get("id");
+        }
+        Input in = new Input(payload);
+        in.readByte();
+        return readId(in, in.readByte());
+    }
+
+    private String readId(Input in, int flags) {
+        if ((flags & FLAG_UUID_ID) != 0) {
+            return new UUID(in.readLong(), in.readLong()).toString();
+        }
+        return in.readString();
+    }
+
+    private String readName(Input in) {
+        long id = in.readVarLong();
+        return id == 0 ? null : names.nameOf((int) (id - 1));
+    }
+
+    private static UUID parseUuid(String id) {
+        if (id == null || id.length() != 36) return null;
+        try {
+            UUID uuid = UUID.fromString(id);
+            // Solo si la ida y vuelta reproduce el mismo texto (minúsculas, con ceros)
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // =====================================================
+    // Formato de texto de versiones anteriores
+    // =====================================================
+
+    private static Message decodeText(String line) {
+        KeyValueLine data = LEGACY_LINE.get().reset(line);
+        String id = data.get("id");
+        long timestamp = data.getLong("timestamp", -1);
+        if (id == null || timestamp < 0) {
+            return new Message(
+                    data.get("from"),
+                    data.get("to"),
+                    data.get("content"),
+                    data.valueEquals("isGroup", "true")
+            );
+        }
+        return new Message(
+                id,
+                data.get("from"),
+                data.get("to"),
+                data.get("content"),
+                data.valueEquals("isGroup", "true"),
+                timestamp
+        );
+    }
+
+    private static AudioMessage decodeAudioText(String line) {
+        KeyValueLine data = LEGACY_LINE.get().reset(line);
+        // El formato de texto guardaba el tamaño como "size"; se acepta también "audioSize"
+        int size = data.has("size") ? data.getInt("size", 0) : data.getInt("audioSize", 0);
+        return new AudioMessage(
+                data.get("id"),
+                data.get("from"),
+                data.get("to"),
+                data.valueEquals("isGroup", "true"),
+                data.getLong("timestamp", 0),
+                size,
+                data.getInt("duration", 0)
+        );
+    }
+
+    // =====================================================
+    // Lectura y escritura de bytes
+    // =====================================================
+
+    private static final class Output {
+        private byte[] buffer = new byte[256];
+        private int position;
+
+        void reset() {
+            position = 0;
+            if (buffer.length > 64 * 1024) {
+                // No retener por hilo el buffer de un mensaje excepcionalmente grande
+                buffer = new byte[256];
+            }
+        }
+
+        private void ensure(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        /**
+         * [varint longitud en bytes][UTF-8], codificado directamente desde los chars.
+         */
+        void writeString(String value) {
+            int length = utf8Length(value);
+            writeVarLong(length);
+            ensure(length);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (cp >> 18));
+                    buffer[position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buffer[position++] = '?';
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private static int utf8Length(String value) {
+            int length = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    length++;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            return data[position++] & 0xFF;
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalStateException("varint demasiado largo");
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package persistence;
+
+import model.Message;
+import util.KeyValueLine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Vista de un registro de mensaje sobre el buffer mapeado de un segmento, sin copiarlo.
+ *
+ * Al posicionarse sobre un registro solo se leen los campos de tamaño fijo y las posiciones
+ * de los demás (formato descrito en {@link MessageCodec}). El id y el contenido se convierten
+ * a String únicamente si alguien los pide; {@link #appendEscapedContent(StringBuilder)} decodifica
+ * el UTF-8 directamente en el StringBuilder de destino. Los nombres vienen del diccionario,
+ * que ya los tiene en memoria.
+ *
+ * Las instancias se reutilizan registro tras registro: no se deben guardar referencias.
+ */
+public final class MessageView {
+    private final MessageCodec codec;
+    private final NameDictionary names;
+
+    private ByteBuffer buffer;
+    private int flags;
+    private int idPosition;
+    private long timestamp;
+    private int fromId;
+    private int toId;
+    private int contentPosition;
+    private int contentLength;
+    // Posición siguiente al último varint leído
+    private int nextPosition;
+
+    // Registro en el formato de texto de versiones anteriores: se decodifica completo
+    private Message legacy;
+
+    MessageView(MessageCodec codec, NameDictionary names) {
+        this.codec = codec;
+        this.names = names;
+    }
+
+    /**
+     * Se posiciona sobre el registro [offset, offset + length) del buffer.
+     * Devuelve false si no es un registro de mensaje válido.
+     */
+    public boolean reset(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.legacy = null;
+        if (length <= 0) return false;
+
+        byte version = buffer.get(offset);
+        if (version != MessageCodec.MESSAGE_V1) {
+            if (version >= MessageCodec.MESSAGE_V1 && version <= MessageCodec.AUDIO_V1) return false;
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes);
+            legacy = codec.decode(bytes);
+            return legacy != null;
+        }
+
+        try {
+            int position = offset + 1;
+            flags = buffer.get(position++) & 0xFF;
+            idPosition = position;
+            if ((flags & MessageCodec.FLAG_UUID_ID) != 0) {
+                position += 16;
+            } else {
+                long idLength = varLongAt(position);
+                position = nextPosition + (int) idLength;
+            }
+            timestamp = varLongAt(position);
+            fromId = (int) varLongAt(nextPosition) - 1;
+            toId = (int) varLongAt(nextPosition) - 1;
+            contentLength = (int) varLongAt(nextPosition);
+            contentPosition = nextPosition;
+            return contentPosition + contentLength <= offset + length;
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    public long getTimestamp() {
+        return legacy != null ? legacy.getTimestamp().getTime() : timestamp;
+    }
+
+    public boolean isGroup() {
+        return legacy != null ? legacy.isGroupMessage() : (flags & MessageCodec.FLAG_GROUP) != 0;
+    }
+
+    public String getFrom() {
+        return legacy != null ? legacy.getFrom() : (fromId < 0 ? null : names.nameOf(fromId));
+    }
+
+    public String getTo() {
+        return legacy != null ? legacy.getTo() : (toId < 0 ? null : names.nameOf(toId));
+    }
+
+    public String getId() {
+        if (legacy != null) return legacy.getId();
+        if ((flags & MessageCodec.FLAG_UUID_ID) != 0) {
+            return new UUID(buffer.getLong(idPosition), buffer.getLong(idPosition + 8)).toString();
+        }
+        int length = (int) varLongAt(idPosition);
+        return decodeString(nextPosition, length);
+    }
+
+    /**
+     * Compara el id sin convertirlo a String.
+     *
+     * @param uuid el id buscado ya convertido a UUID, o null si no es un UUID
+     */
+    public boolean idEquals(String id, UUID uuid) {
+        if (legacy != null || (flags & MessageCodec.FLAG_UUID_ID) == 0) {
+            return id.equals(getId());
+        }
+        return uuid != null
+                && buffer.getLong(idPosition) == uuid.getMostSignificantBits()
+                && buffer.getLong(idPosition + 8) == uuid.getLeastSignificantBits();
+    }
+
+    public String getContent() {
+        if (legacy != null) return legacy.getContent();
+        return decodeString(contentPosition, contentLength);
+    }
+
+    /**
+     * Agrega el contenido al StringBuilder decodificando el UTF-8 del buffer, escapado con
+     * {@link KeyValueLine#appendEscaped} (el formato de la respuesta "history").
+     */
+    public void appendEscapedContent(StringBuilder out) {
+        if (legacy != null) {
+            KeyValueLine.appendEscaped(out, legacy.getContent());
+            return;
+        }
+        int position = contentPosition;
+        int end = contentPosition + contentLength;
+        while (position < end) {
+            int b = buffer.get(position++) & 0xFF;
+            if (b < 0x80) {
+                // Los caracteres a escapar son todos ASCII
+                KeyValueLine.appendEscaped(out, (char) b);
+            } else if (b < 0xE0 && position < end) {
+                out.append((char) (((b & 0x1F) << 6) | (buffer.get(position++) & 0x3F)));
+            } else if (b < 0xF0 && position + 1 < end) {
+                out.append((char) (((b & 0x0F) << 12) | ((buffer.get(position++) & 0x3F) << 6)
+                        | (buffer.get(position++) & 0x3F)));
+            } else if (position + 2 < end) {
+                int cp = ((b & 0x07) << 18) | ((buffer.get(position++) & 0x3F) << 12)
+                        | ((buffer.get(position++) & 0x3F) << 6) | (buffer.get(position++) & 0x3F);
+                out.appendCodePoint(cp);
+            } else {
+                out.append('\uFFFD');
+                position = end;
+            }
+        }
+    }
+
+    public Message toMessage() {
+        if (legacy != null) return legacy;
+        return new Message(getId(), getFrom(), getTo(), getContent(), isGroup(), timestamp);
+    }
+
+    private String decodeString(int position, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long varLongAt(int position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get(position++);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                nextPosition = position;
+                return value;
+            }
+        }
+        throw new IndexOutOfBoundsException("varint demasiado largo");
+    }
+}
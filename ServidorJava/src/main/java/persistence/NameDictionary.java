@@ -0,0 +1,139 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Diccionario global de nombres (usuarios y grupos) para el formato binario del historial.
+ *
+ * Cada nombre recibe un número la primera vez que aparece y los registros guardan solo ese
+ * número. El archivo es de solo-anexado: cada entrada es [varint longitud][UTF-8], y el
+ * número de un nombre es su posición en el archivo. Una entrada nueva se escribe y se hace
+ * fsync antes de devolver su número, para que ningún registro en disco apunte a un nombre
+ * que se pueda perder.
+ */
+public class NameDictionary implements Closeable {
+    private final Path file;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    // Se publican con la escritura volátil de count: quien lee count ve el arreglo y la entrada
+    private volatile String[] names = new String[64];
+    private volatile int count;
+
+    private FileChannel channel;
+
+    public NameDictionary(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.getParent());
+        load();
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Número del nombre; si es nuevo, lo agrega al archivo.
+     */
+    public int idOf(String name) throws IOException {
+        Integer id = ids.get(name);
+        return id != null ? id : add(name);
+    }
+
+    /**
+     * Nombre con ese número, o null si no existe.
+     */
+    public String nameOf(int id) {
+        int size = count;
+        String[] snapshot = names;
+        return id >= 0 && id < size ? snapshot[id] : null;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private synchronized int add(String name) throws IOException {
+        Integer existing = ids.get(name);
+        if (existing != null) return existing;
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(5 + bytes.length);
+        putVarInt(entry, bytes.length);
+        entry.put(bytes).flip();
+        while (entry.hasRemaining()) {
+            channel.write(entry);
+        }
+        channel.force(false);
+
+        return register(name);
+    }
+
+    private int register(String name) {
+        int id = count;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, id * 2);
+        }
+        names[id] = name;
+        ids.put(name, id);
+        count = id + 1;
+        return id;
+    }
+
+    /**
+     * Carga las entradas del archivo y trunca una entrada incompleta al final.
+     */
+    private void load() throws IOException {
+        if (!Files.exists(file)) return;
+
+        byte[] data = Files.readAllBytes(file);
+        int pos = 0;
+        while (pos < data.length) {
+            int length = 0;
+            int shift = 0;
+            int cursor = pos;
+            boolean complete = false;
+            while (cursor < data.length && shift < 35) {
+                byte b = data[cursor++];
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+                if ((b & 0x80) == 0) {
+                    complete = true;
+                    break;
+                }
+            }
+            if (!complete || length < 0 || cursor + length > data.length) break;
+
+            register(new String(data, cursor, length, StandardCharsets.UTF_8));
+            pos = cursor + length;
+        }
+
+        if (pos < data.length) {
+            System.err.println("⚠️ Entrada incompleta al final de " + file + ": se descartan "
+                    + (data.length - pos) + " bytes");
+            try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncate.truncate(pos);
+                truncate.force(true);
+            }
+        }
+    }
+
+    private static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,558 @@
+package persistence;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Log de solo-anexado (append-only) para una conversación.
+ *
+ * Cada conversación tiene un directorio con segmentos numerados (00000000.seg, 00000001.seg, ...).
+ * Cada registro tiene una cabecera de tamaño fijo seguida del payload:
+ *
+ *   [int longitud][int crc32 del payload][long timestamp][payload...]
+ *
+ * Escribir un mensaje cuesta lo mismo sin importar cuántos mensajes tenga la conversación:
+ * solo se anexa al segmento activo, y cuando éste supera el tamaño máximo se abre uno nuevo.
+ *
+ * Al abrir el log se construye un índice en memoria (posición y timestamp de cada registro)
+ * leyendo solo las cabeceras, de modo que se puede leer cualquier rango de registros
+ * sin recorrer los archivos desde el principio.
+ *
+ * Recuperación: solo el último segmento recibe escrituras, así que un corte a mitad de
+ * escritura solo puede dejar un registro roto al final de ese segmento. Al abrir el log se
+ * verifica el CRC de cada registro del último segmento y se trunca el archivo en el primer
+ * registro incompleto o dañado. Los demás segmentos solo se revisan por estructura, salvo
+ * con -Dchat.history.verifyAll=true.
+ *
+ * Si una escritura falla a mitad de un lote (disco lleno, error de E/S), el lote se deshace:
+ * se trunca el segmento al tamaño que tenía antes y se borran los segmentos que el lote haya
+ * abierto, así no quedan registros a medias que otro lote posterior deje en el medio del log.
+ * Si ni eso se puede, el log rechaza nuevas escrituras hasta que se vuelva a abrir.
+ */
+public class SegmentedLog implements Closeable {
+    public static final int HEADER_SIZE = 16;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final boolean VERIFY_ALL = Boolean.getBoolean("chat.history.verifyAll");
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMs;
+
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    // Se abre con la primera escritura: un log que solo se lee no ocupa descriptores
+    private FileChannel activeChannel;
+    private int activeSegment;
+    private long lastFsync;
+    private long truncatedBytes;
+    // Error que dejó el log en un estado que no se pudo deshacer: no se escribe más
+    private IOException failure;
+
+    // Bytes con registros completos en el segmento activo
+    private long activeBytes;
+
+    // Segmentos cerrados ya mapeados en memoria (no cambian, se pueden compartir entre lecturas)
+    private final Map<Integer, MappedByteBuffer> mappedSegments = new ConcurrentHashMap<>();
+    // Mapeo del segmento activo; se rehace solo cuando hay que leer más allá de lo mapeado
+    private volatile ActiveMapping activeMapping;
+
+    // Índice: posición (segmento << 40 | offset) y timestamp de cada registro.
+    // Los timestamps del índice nunca decrecen (se usa el máximo visto) para poder
+    // hacer búsqueda binaria aunque lleguen mensajes con relojes algo desordenados.
+    private long[] positions = new long[64];
+    private long[] times = new long[64];
+    private int count;
+
+    public SegmentedLog(Path directory, long maxSegmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMs) throws IOException {
+        this.directory = directory;
+        // Un segmento se mapea completo en un solo buffer: no puede pasar de 2 GB
+        this.maxSegmentBytes = Math.min(maxSegmentBytes, Integer.MAX_VALUE);
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+
+        Files.createDirectories(directory);
+        List<Integer> segments = listSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            boolean last = i == segments.size() - 1;
+            long valid = recoverSegment(segments.get(i), last);
+            if (last) activeBytes = valid;
+        }
+        this.activeSegment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Anexa un registro al segmento activo. Si el segmento supera el tamaño máximo,
+     * se cierra y se abre el siguiente.
+     */
+    public void append(byte[] payload, long timestamp) throws IOException {
+        appendBatch(List.of(payload), new long[]{timestamp}, false);
+    }
+
+    /**
+     * Anexa varios registros con escrituras gather (una por segmento tocado) y aplica la
+     * política de fsync una sola vez para todo el lote (group commit).
+     *
+     * @param force fuerza el fsync del lote aunque la política no lo pida
+     */
+    public synchronized void appendBatch(List<byte[]> payloads, long[] timestamps, boolean force) throws IOException {
+        if (failure != null) {
+            throw new IOException("El log " + directory + " no acepta escrituras tras un error anterior", failure);
+        }
+        if (activeChannel == null) {
+            openActiveSegment();
+        }
+        int startSegment = activeSegment;
+        long startOffset = activeChannel.size();
+        int startCount = count;
+        try {
+            int n = payloads.size();
+            ByteBuffer headers = n == 1 ? header : ByteBuffer.allocate(n * HEADER_SIZE);
+            headers.clear();
+
+            int i = 0;
+            while (i < n) {
+                // Registros que caben en el segmento activo (al menos uno si está vacío)
+                long offset = activeChannel.size();
+                long end = offset;
+                int first = i;
+                while (i < n) {
+                    long recordSize = HEADER_SIZE + payloads.get(i).length;
+                    if (end > 0 && end + recordSize > maxSegmentBytes) break;
+                    end += recordSize;
+                    i++;
+                }
+                if (i == first) {
+                    rollSegment();
+                    continue;
+                }
+
+                ByteBuffer[] buffers = new ByteBuffer[(i - first) * 2];
+                long position = offset;
+                for (int r = first; r < i; r++) {
+                    byte[] payload = payloads.get(r);
+                    crc.reset();
+                    crc.update(payload, 0, payload.length);
+
+                    int start = headers.position();
+                    headers.putInt(payload.length);
+                    headers.putInt((int) crc.getValue());
+                    headers.putLong(timestamps[r]);
+                    buffers[(r - first) * 2] = headers.duplicate().position(start).limit(start + HEADER_SIZE);
+                    buffers[(r - first) * 2 + 1] = ByteBuffer.wrap(payload);
+
+                    position += HEADER_SIZE + payload.length;
+                }
+                writeFully(buffers);
+                activeBytes = position;
+
+                // Se indexan solo cuando ya están escritos
+                position = offset;
+                for (int r = first; r < i; r++) {
+                    addToIndex(activeSegment, position, timestamps[r]);
+                    position += HEADER_SIZE + payloads.get(r).length;
+                }
+            }
+
+            if (force) {
+                flush();
+            } else {
+                maybeFsync();
+            }
+        } catch (IOException | RuntimeException e) {
+            rollback(startSegment, startOffset, startCount, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Deshace un lote que falló: saca sus registros del índice, borra los segmentos que abrió
+     * y trunca el segmento donde empezó. Si no se puede, marca el log como fallado.
+     */
+    private void rollback(int startSegment, long startOffset, int startCount, Exception cause) {
+        count = startCount;
+        activeMapping = null;
+        try {
+            if (activeChannel != null) activeChannel.close();
+        } catch (IOException ignored) {
+        }
+        activeChannel = null;
+        try {
+            try (FileChannel channel = FileChannel.open(segmentPath(startSegment), StandardOpenOption.WRITE)) {
+                channel.truncate(startOffset);
+                channel.force(true);
+            }
+            for (int segment = activeSegment; segment > startSegment; segment--) {
+                mappedSegments.remove(segment);
+                Files.deleteIfExists(segmentPath(segment));
+            }
+            activeSegment = startSegment;
+            activeBytes = startOffset;
+            System.err.println("⚠️ Error escribiendo en " + directory + ": se deshizo el lote (" + cause.getMessage() + ")");
+        } catch (IOException e) {
+            failure = e;
+            e.addSuppressed(cause);
+            System.err.println("❌ Error escribiendo en " + directory + " y no se pudo deshacer el lote: "
+                    + e.getMessage() + ". El log no acepta más escrituras.");
+        }
+    }
+
+    private void writeFully(ByteBuffer[] buffers) throws IOException {
+        int first = 0;
+        while (first < buffers.length) {
+            activeChannel.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                first++;
+            }
+        }
+    }
+
+    /**
+     * Recorre todos los registros de la conversación en orden de escritura.
+     */
+    public void forEach(RecordVisitor visitor) throws IOException {
+        read(0, size(), visitor);
+    }
+
+    /**
+     * Lee los registros con índice en [from, to), en orden de escritura.
+     */
+    public void read(int from, int to, RecordVisitor visitor) throws IOException {
+        long[] snapshot;
+        synchronized (this) {
+            to = Math.min(to, count);
+            snapshot = positions;
+        }
+        if (from >= to) return;
+
+        ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE);
+        int openSegment = -1;
+        FileChannel channel = null;
+        try {
+            for (int i = from; i < to; i++) {
+                int segment = (int) (snapshot[i] >>> OFFSET_BITS);
+                long offset = snapshot[i] & OFFSET_MASK;
+                if (segment != openSegment) {
+                    if (channel != null) channel.close();
+                    channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ);
+                    openSegment = segment;
+                }
+
+                head.clear();
+                readFully(channel, head, offset);
+                head.flip();
+                int length = head.getInt();
+                int checksum = head.getInt();
+                long timestamp = head.getLong();
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, offset + HEADER_SIZE);
+                if (checksum(payload.array()) != checksum) {
+                    System.err.println("⚠️ Registro dañado (CRC) en " + segmentPath(segment) + " offset " + offset);
+                    continue;
+                }
+                visitor.visit(timestamp, payload.array());
+            }
+        } finally {
+            if (channel != null) channel.close();
+        }
+    }
+
+    /**
+     * Lee los registros con índice en [from, to) sobre los segmentos mapeados en memoria
+     * ({@link FileChannel#map}): el visitante recibe el buffer del segmento y la posición
+     * del payload, sin copias. Las páginas las gestiona la caché del sistema operativo.
+     */
+    public void readMapped(int from, int to, MappedRecordVisitor visitor) throws IOException {
+        long[] snapshot;
+        int active;
+        long activeEnd;
+        synchronized (this) {
+            to = Math.min(to, count);
+            snapshot = positions;
+            active = activeSegment;
+            activeEnd = activeBytes;
+        }
+        if (from >= to) return;
+
+        CRC32 crc32 = new CRC32();
+        ByteBuffer mapped = null;
+        ByteBuffer checked = null;
+        int openSegment = -1;
+        for (int i = from; i < to; i++) {
+            int segment = (int) (snapshot[i] >>> OFFSET_BITS);
+            int offset = (int) (snapshot[i] & OFFSET_MASK);
+            if (segment != openSegment) {
+                mapped = segment < active ? mapSegment(segment) : mapActive(segment, activeEnd);
+                checked = mapped.duplicate();
+                openSegment = segment;
+            }
+
+            int length = mapped.getInt(offset);
+            int checksum = mapped.getInt(offset + 4);
+            long timestamp = mapped.getLong(offset + 8);
+            int payload = offset + HEADER_SIZE;
+
+            crc32.reset();
+            checked.limit(payload + length).position(payload);
+            crc32.update(checked);
+            if ((int) crc32.getValue() != checksum) {
+                System.err.println("⚠️ Registro dañado (CRC) en " + segmentPath(segment) + " offset " + offset);
+                continue;
+            }
+            visitor.visit(i, timestamp, mapped, payload, length);
+        }
+    }
+
+    /**
+     * Mapea un segmento cerrado completo en modo lectura. Los segmentos cerrados no cambian:
+     * se mapean una vez y se reutilizan.
+     */
+    private MappedByteBuffer mapSegment(int segment) throws IOException {
+        MappedByteBuffer mapped = mappedSegments.get(segment);
+        if (mapped != null) return mapped;
+
+        mapped = map(segment);
+        mappedSegments.put(segment, mapped);
+        return mapped;
+    }
+
+    /**
+     * Mapeo del segmento activo que cubre al menos sus primeros bytes. Se reutiliza mientras
+     * alcance; solo se vuelve a mapear cuando el segmento creció más allá de lo mapeado.
+     */
+    private MappedByteBuffer mapActive(int segment, long bytes) throws IOException {
+        ActiveMapping current = activeMapping;
+        if (current != null && current.segment == segment && current.buffer.capacity() >= bytes) {
+            return current.buffer;
+        }
+        MappedByteBuffer mapped = map(segment);
+        activeMapping = new ActiveMapping(segment, mapped);
+        return mapped;
+    }
+
+    private MappedByteBuffer map(int segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private record ActiveMapping(int segment, MappedByteBuffer buffer) {
+    }
+
+    /**
+     * Número de registros en el log.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Índice del primer registro con timestamp >= el indicado (o size() si no hay).
+     */
+    public synchronized int lowerBound(long timestamp) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < timestamp) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Índice del primer registro con timestamp > el indicado (o size() si no hay).
+     */
+    public synchronized int upperBound(long timestamp) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= timestamp) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Bytes descartados al abrir el log por registros incompletos o dañados.
+     */
+    public synchronized long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    public synchronized void flush() throws IOException {
+        if (activeChannel == null) return;
+        activeChannel.force(false);
+        lastFsync = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (activeChannel != null && activeChannel.isOpen()) {
+            if (fsyncPolicy != FsyncPolicy.NEVER) {
+                activeChannel.force(false);
+            }
+            activeChannel.close();
+        }
+        activeChannel = null;
+        mappedSegments.clear();
+        activeMapping = null;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private void maybeFsync() throws IOException {
+        switch (fsyncPolicy) {
+            case ALWAYS -> flush();
+            case INTERVAL -> {
+                if (System.currentTimeMillis() - lastFsync >= fsyncIntervalMs) {
+                    flush();
+                }
+            }
+            case NEVER -> { }
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            activeChannel.force(false);
+        }
+        activeChannel.close();
+        activeSegment++;
+        activeBytes = 0;
+        openActiveSegment();
+    }
+
+    private void openActiveSegment() throws IOException {
+        activeChannel = FileChannel.open(segmentPath(activeSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        lastFsync = System.currentTimeMillis();
+    }
+
+    /**
+     * Agrega al índice los registros válidos de un segmento.
+     *
+     * @param tail true para el último segmento: se verifica el CRC de cada registro y se
+     *             trunca el archivo en el primer registro incompleto o dañado
+     */
+    private long recoverSegment(int segment, boolean tail) throws IOException {
+        boolean verify = tail || VERIFY_ALL;
+        Path path = segmentPath(segment);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long offset = 0;
+            ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE);
+            ByteBuffer payload = ByteBuffer.allocate(4096);
+            while (offset + HEADER_SIZE <= size) {
+                head.clear();
+                readFully(channel, head, offset);
+                head.flip();
+                int length = head.getInt();
+                int checksum = head.getInt();
+                long timestamp = head.getLong();
+                // length 0 no es válido: un bloque rellenado con ceros tras un corte tendría CRC 0
+                if (length <= 0 || length > size - offset - HEADER_SIZE) {
+                    break;
+                }
+                if (verify) {
+                    if (payload.capacity() < length) {
+                        payload = ByteBuffer.allocate(Math.max(length, payload.capacity() * 2));
+                    }
+                    payload.clear().limit(length);
+                    readFully(channel, payload, offset + HEADER_SIZE);
+                    if (checksum(payload.array(), length) != checksum) {
+                        break;
+                    }
+                }
+                addToIndex(segment, offset, timestamp);
+                offset += HEADER_SIZE + length;
+            }
+
+            if (offset < size) {
+                long discarded = size - offset;
+                if (tail) {
+                    System.err.println("⚠️ Registro incompleto o dañado al final de " + path
+                            + ": se descartan " + discarded + " bytes");
+                    channel.truncate(offset);
+                    channel.force(true);
+                    truncatedBytes += discarded;
+                } else {
+                    // Un segmento cerrado no debería estar dañado: se conserva para revisarlo a mano
+                    System.err.println("⚠️ Segmento dañado " + path + " en offset " + offset
+                            + ": se ignoran " + discarded + " bytes");
+                }
+            }
+            return offset;
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        return checksum(payload, payload.length);
+    }
+
+    private static int checksum(byte[] payload, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload, 0, length);
+        return (int) crc32.getValue();
+    }
+
+    private void addToIndex(int segment, long offset, long timestamp) {
+        if (count == positions.length) {
+            positions = Arrays.copyOf(positions, count * 2);
+            times = Arrays.copyOf(times, count * 2);
+        }
+        positions[count] = ((long) segment << OFFSET_BITS) | offset;
+        times[count] = count > 0 ? Math.max(times[count - 1], timestamp) : timestamp;
+        count++;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new EOFException("Registro incompleto en el historial");
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%08d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private List<Integer> listSegments() throws IOException {
+        List<Integer> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    segments.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    public interface RecordVisitor {
+        void visit(long timestamp, byte[] payload);
+    }
+
+    /**
+     * Visitante de lecturas mapeadas: recibe la posición del registro en el log y su payload,
+     * que ocupa [offset, offset + length) del buffer y solo es válido durante la llamada.
+     */
+    public interface MappedRecordVisitor {
+        void visit(int index, long timestamp, ByteBuffer buffer, int offset, int length);
+    }
+}
@@ -0,0 +1,230 @@
+package persistence;
+
+import model.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Persistencia asíncrona del historial con group commit.
+ *
+ * Los hilos que atienden a los clientes solo encolan la escritura (cola acotada: si se
+ * llena, quien envía espera). Un único hilo escritor toma lo que haya en la cola, lo agrupa
+ * por conversación y lo escribe de una vez, con un solo fsync por lote. Un lote se cierra
+ * al llegar a {@code maxBatch} escrituras o tras {@code maxDelayMs} desde la primera.
+ *
+ * Cada escritura devuelve un {@link CompletableFuture} que se completa cuando sus bytes
+ * están en el log (y en disco, si se pidió una escritura durable). Quien no necesite esperar
+ * puede ignorarlo. Para leer una conversación viendo lo ya encolado, {@link #awaitWritten}
+ * espera a que se escriba todo lo que había pendiente para ella.
+ */
+public class WriteBehindQueue implements Closeable {
+    public static final int CAPACITY = Integer.getInteger("chat.history.queueCapacity", 10_000);
+    public static final int MAX_BATCH = Integer.getInteger("chat.history.maxBatch", 512);
+    public static final long MAX_DELAY_MS = Long.getLong("chat.history.maxBatchDelayMs", 5);
+
+    /**
+     * Escribe en el log de una conversación las escrituras de un lote.
+     */
+    public interface BatchWriter {
+        void write(String filename, List<Write> writes, boolean durable) throws IOException;
+    }
+
+    /**
+     * Una escritura pendiente: un registro para el log de una conversación.
+     */
+    public static final class Write {
+        final String filename;
+        final byte[] payload;
+        final long timestamp;
+        final Message message;
+        final boolean durable;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        /**
+         * @param message mensaje a añadir a la caché una vez escrito (puede ser null)
+         * @param durable si la escritura debe estar en disco (fsync) antes de confirmarse
+         */
+        public Write(String filename, byte[] payload, long timestamp, Message message, boolean durable) {
+            this.filename = filename;
+            this.payload = payload;
+            this.timestamp = timestamp;
+            this.message = message;
+            this.durable = durable;
+        }
+    }
+
+    private final BlockingQueue<Write> queue;
+    private final BatchWriter writer;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final Thread thread;
+    private volatile boolean closed;
+    // submit encola con el candado de lectura y close lo toma de escritura: después de close
+    // ya no entra nada en la cola, así el escritor no termina dejando escrituras sin confirmar
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    // Última escritura encolada de cada conversación. Las de una misma conversación se
+    // escriben en el orden de la cola, así que cuando termina la última terminaron todas
+    private final Map<String, Tail> tails = new ConcurrentHashMap<>();
+
+    private static final class Tail {
+        volatile CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+    }
+
+    public WriteBehindQueue(BatchWriter writer) {
+        this(writer, CAPACITY, MAX_BATCH, MAX_DELAY_MS);
+    }
+
+    public WriteBehindQueue(BatchWriter writer, int capacity, int maxBatch, long maxDelayMs) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = writer;
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.thread = new Thread(this::run, "history-writer");
+        // Daemon: el cierre ordenado (que vacía la cola) lo hace close() desde el shutdown hook
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Encola una escritura; espera si la cola está llena.
+     */
+    public CompletableFuture<Void> submit(Write write) {
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                write.done.completeExceptionally(new IOException("El historial está cerrado"));
+                return write.done;
+            }
+            Tail tail = tails.computeIfAbsent(write.filename, key -> new Tail());
+            // Encolar y anotar como última van juntos: si no, una escritura más vieja podría
+            // quedar anotada como la última y la lectura no esperaría a la más nueva
+            synchronized (tail) {
+                queue.put(write);
+                tail.last = write.done;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.done.completeExceptionally(e);
+        } finally {
+            closing.readLock().unlock();
+        }
+        return write.done;
+    }
+
+    /**
+     * Espera a que estén escritas todas las escrituras de la conversación encoladas hasta
+     * ahora (las que fallaron también cuentan como terminadas).
+     */
+    public void awaitWritten(String filename) {
+        Tail tail = tails.get(filename);
+        if (tail == null) return;
+        try {
+            tail.last.get();
+        } catch (ExecutionException e) {
+            // El error ya lo registró el escritor; se lee lo que haya
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPending() {
+        return queue.size();
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>(maxBatch);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || remaining <= 0 || closed) break;
+                    Write next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+
+        // Solo si se interrumpió al escritor: lo que quedó (en el lote o en la cola) no se va a escribir
+        queue.drainTo(batch);
+        for (Write write : batch) {
+            write.done.completeExceptionally(new IOException("El escritor del historial se detuvo"));
+        }
+    }
+
+    /**
+     * Escribe un lote agrupado por conversación, respetando el orden de llegada dentro
+     * de cada una.
+     */
+    private void commit(List<Write> batch) {
+        Map<String, List<Write>> byConversation = new LinkedHashMap<>();
+        for (Write write : batch) {
+            byConversation.computeIfAbsent(write.filename, key -> new ArrayList<>()).add(write);
+        }
+
+        for (Map.Entry<String, List<Write>> entry : byConversation.entrySet()) {
+            List<Write> writes = entry.getValue();
+            boolean durable = false;
+            for (Write write : writes) {
+                durable |= write.durable;
+            }
+            try {
+                writer.write(entry.getKey(), writes, durable);
+                for (Write write : writes) {
+                    write.done.complete(null);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error guardando mensajes: " + e.getMessage());
+                for (Write write : writes) {
+                    write.done.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deja de aceptar escrituras y espera a que se escriban las pendientes. No vuelve antes:
+     * quien cierra los logs después cuenta con que el escritor ya no los usa.
+     */
+    @Override
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        // Sin interrupt(): interrumpir al hilo en plena escritura cerraría el FileChannel
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join(10_000);
+                if (thread.isAlive()) {
+                    System.err.println("Esperando al escritor del historial: " + queue.size() + " escrituras pendientes");
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,259 @@
+package service;
+
+import model.AudioMessage;
+import persistence.AudioBlob;
+import persistence.AudioBlobStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subida y descarga de notas de voz por partes.
+ *
+ * Subida: audio_begin -> audio_chunk (seq, offset, datos) ... -> audio_commit.
+ * Cada parte se escribe directamente en el archivo parcial del {@link AudioBlobStore}, así que
+ * la nota nunca está completa en memoria. El archivo parcial sobrevive a una desconexión: al
+ * repetir audio_begin con el mismo uploadId el servidor responde desde qué byte continuar.
+ *
+ * En memoria solo quedan las subidas de usuarios conectados: al desconectarse se olvidan
+ * (el archivo parcial se queda para retomarla) y las que nadie toca en
+ * {@link AudioBlobStore#UPLOAD_TTL_MS} se descartan con su archivo.
+ *
+ * Descarga: audio_get con offset y longitud; el servidor lee ese rango del blob por partes.
+ */
+public class AudioTransferService {
+    /** Bytes de audio por parte (antes de codificar en base64). */
+    public static final int CHUNK_SIZE = 32 * 1024;
+    /** Máximo de bytes que devuelve un audio_get (el cliente pide el siguiente rango). */
+    public static final int MAX_RANGE_BYTES = Integer.getInteger("chat.audio.maxRangeBytes", 256 * 1024);
+    public static final long MAX_NOTE_BYTES = Long.getLong("chat.audio.maxNoteBytes", 50L * 1024 * 1024);
+
+    private final ChatManager chatManager;
+    private final AudioBlobStore blobs;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final long uploadTtlMs;
+    private volatile long nextSweep;
+
+    /**
+     * Recibe las partes de una descarga.
+     */
+    public interface ChunkSink {
+        void chunk(int seq, long offset, ByteBuffer data);
+    }
+
+    private static final class Upload {
+        final String id;
+        final String from;
+        final String to;
+        final boolean isGroup;
+        final int duration;
+        final long size;
+        long received;
+        volatile long lastActive = System.currentTimeMillis();
+
+        Upload(String id, String from, String to, boolean isGroup, int duration, long size, long received) {
+            this.id = id;
+            this.from = from;
+            this.to = to;
+            this.isGroup = isGroup;
+            this.duration = duration;
+            this.size = size;
+            this.received = received;
+        }
+    }
+
+    public AudioTransferService(ChatManager chatManager) {
+        this(chatManager, AudioBlobStore.UPLOAD_TTL_MS);
+    }
+
+    AudioTransferService(ChatManager chatManager, long uploadTtlMs) {
+        this.chatManager = chatManager;
+        this.blobs = chatManager.getAudioBlobs();
+        this.uploadTtlMs = uploadTtlMs;
+    }
+
+    /**
+     * Empieza (o retoma) una subida. Devuelve cuántos bytes ya tiene el servidor, es decir,
+     * desde dónde debe seguir enviando el cliente.
+     */
+    public long begin(String uploadId, String from, String to, boolean isGroup, int duration, long size) throws IOException {
+        if (uploadId == null || !uploadId.matches("[A-Za-z0-9-]{1,64}")) {
+            throw new IllegalArgumentException("uploadId inválido");
+        }
+        if (size < 0 || size > MAX_NOTE_BYTES) {
+            throw new IllegalArgumentException("Tamaño de nota inválido: " + size);
+        }
+        expireIdleUploads();
+        // Sincronizado: dos begin con el mismo id no pueden reclamar la subida a la vez
+        synchronized (uploads) {
+            // El dueño se guarda junto al archivo parcial: así se respeta también después de
+            // un reinicio, cuando la subida ya no está en memoria
+            String owner = blobs.getUploadOwner(uploadId);
+            if (owner != null && !owner.equals(from)) {
+                throw new IllegalArgumentException("La subida pertenece a otro usuario");
+            }
+
+            // El archivo parcial puede venir de antes de una desconexión (o de un reinicio)
+            Path part = blobs.uploadPath(uploadId);
+            long received = Files.exists(part) ? Files.size(part) : 0;
+            if (received > size || (owner == null && received > 0)) {
+                // Demasiado grande, o sin dueño registrado: no se sabe de quién es, se descarta
+                blobs.abortUpload(uploadId);
+                received = 0;
+                owner = null;
+            }
+            if (owner == null) {
+                blobs.setUploadOwner(uploadId, from);
+            }
+            uploads.put(uploadId, new Upload(uploadId, from, to, isGroup, duration, size, received));
+            return received;
+        }
+    }
+
+    /**
+     * Escribe una parte en su posición. Si el offset no coincide con lo recibido (partes
+     * perdidas o repetidas) no se escribe nada. Devuelve los bytes recibidos hasta ahora.
+     */
+    public long writeChunk(String uploadId, String from, long offset, ByteBuffer data) throws IOException {
+        Upload upload = owned(uploadId, from);
+        synchronized (upload) {
+            upload.lastActive = System.currentTimeMillis();
+            if (offset != upload.received) {
+                return upload.received;
+            }
+            if (upload.received + data.remaining() > upload.size) {
+                throw new IllegalArgumentException("La nota supera el tamaño anunciado");
+            }
+            try (FileChannel channel = FileChannel.open(blobs.uploadPath(uploadId),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                long position = offset;
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position);
+                }
+                upload.received = position;
+            }
+            return upload.received;
+        }
+    }
+
+    /**
+     * Termina la subida: mueve el audio al almacén y guarda la nota en el historial.
+     * Devuelve null si todavía faltan bytes.
+     */
+    public AudioMessage commit(String uploadId, String from) throws IOException {
+        Upload upload = owned(uploadId, from);
+        synchronized (upload) {
+            if (upload.received != upload.size) {
+                return null;
+            }
+            blobs.commitUpload(upload.id, upload.id);
+            uploads.remove(uploadId);
+
+            AudioMessage audioMessage = new AudioMessage(upload.id, upload.from, upload.to, upload.isGroup,
+                    System.currentTimeMillis(), (int) upload.size, upload.duration);
+            chatManager.saveAudioMessage(audioMessage);
+            return audioMessage;
+        }
+    }
+
+    /**
+     * Olvida las subidas en curso de un usuario que se desconectó. El archivo parcial y su
+     * dueño quedan en disco: al reconectar, audio_begin la retoma desde lo recibido.
+     */
+    public void dropUploadsOf(String user) {
+        uploads.values().removeIf(upload -> upload.from.equals(user));
+    }
+
+    /**
+     * Descarta (con su archivo parcial) las subidas que nadie tocó en uploadTtlMs. Recorre
+     * el mapa como mucho una vez por décima parte del plazo.
+     */
+    private void expireIdleUploads() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now < nextSweep) return;
+        nextSweep = now + uploadTtlMs / 10;
+        for (Upload upload : uploads.values()) {
+            synchronized (upload) {
+                if (now - upload.lastActive > uploadTtlMs && uploads.remove(upload.id, upload)) {
+                    blobs.abortUpload(upload.id);
+                    System.out.println("🗑️ Subida de audio abandonada: " + upload.id + " (" + upload.from + ")");
+                }
+            }
+        }
+    }
+
+    /**
+     * Subidas en curso en memoria.
+     */
+    public int getActiveUploads() {
+        return uploads.size();
+    }
+
+    /**
+     * Indica si la subida ya terminó antes (p. ej. el cliente se desconectó sin recibir
+     * audio_committed y la repite al reconectar).
+     */
+    public boolean isCommitted(String uploadId) throws IOException {
+        return !uploads.containsKey(uploadId) && !Files.exists(blobs.uploadPath(uploadId))
+                && blobs.open(uploadId) != null;
+    }
+
+    /**
+     * Bytes recibidos de una subida en curso, o -1 si no existe.
+     */
+    public long getReceived(String uploadId) {
+        Upload upload = uploads.get(uploadId);
+        return upload != null ? upload.received : -1;
+    }
+
+    /**
+     * Lee el rango [offset, offset + length) de una nota en partes de {@link #CHUNK_SIZE},
+     * limitado a {@link #MAX_RANGE_BYTES}. Devuelve el offset siguiente al último byte
+     * enviado, o -1 si la nota no existe.
+     */
+    public long readRange(String audioId, long offset, long length, ChunkSink sink) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Rango inválido: offset " + offset + ", longitud " + length);
+        }
+        AudioBlob blob = blobs.open(audioId);
+        if (blob == null) return -1;
+
+        long end = Math.min(blob.getSize(), offset + Math.min(length, MAX_RANGE_BYTES));
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        try (FileChannel channel = blob.openChannel()) {
+            int seq = 0;
+            long position = offset;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(CHUNK_SIZE, end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) break;
+                buffer.flip();
+                sink.chunk(seq++, position, buffer);
+                position += read;
+            }
+            return position;
+        }
+    }
+
+    public long getSize(String audioId) throws IOException {
+        AudioBlob blob = blobs.open(audioId);
+        return blob != null ? blob.getSize() : -1;
+    }
+
+    private Upload owned(String uploadId, String from) {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null) {
+            throw new IllegalArgumentException("Subida desconocida: " + uploadId);
+        }
+        if (!upload.from.equals(from)) {
+            throw new IllegalArgumentException("La subida pertenece a otro usuario");
+        }
+        return upload;
+    }
+}
@@ -0,0 +1,54 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Agrupa eventos que llegan en ráfaga (por ejemplo, muchos logins seguidos) y los
+ * entrega juntos tras una pequeña espera, para enviar un solo aviso en lugar de uno
+ * por evento.
+ */
+public class BroadcastCoalescer {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "broadcast-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long delayMs;
+    private final Consumer<List<String>> flusher;
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public BroadcastCoalescer(long delayMs, Consumer<List<String>> flusher) {
+        this.delayMs = delayMs;
+        this.flusher = flusher;
+    }
+
+    public void add(String item) {
+        pending.add(item);
+        if (scheduled.compareAndSet(false, true)) {
+            SCHEDULER.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        scheduled.set(false);
+        List<String> items = new ArrayList<>();
+        String item;
+        while ((item = pending.poll()) != null) {
+            items.add(item);
+        }
+        if (!items.isEmpty()) {
+            try {
+                flusher.accept(items);
+            } catch (RuntimeException e) {
+                System.err.println("⚠️ Error enviando aviso agrupado: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,15 +1,22 @@
 package service;
 
+import network.PacketBuffer;
+import network.RtpPacket;
 import network.UDPConnection;
 import network.UDPAudioListener;
+import util.AudioCodec;
 import util.AudioRecorder;
 import util.AudioPlayer;
+import util.PcmCodec;
 
+import java.io.IOException;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class CallService implements UDPAudioListener {
     private AudioRecorder audioRecorder;
@@ -19,6 +26,14 @@ public class CallService implements UDPAudioListener {
 
     private InetAddress peerAddress;
     private int peerPort;
+    private InetSocketAddress peerSocketAddress;
+
+    // Estado RTP del flujo que enviamos; solo lo usa el hilo de grabación
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(RtpPacket.HEADER_BYTES + 4096);
+    private int sendSsrc;
+    private int sendSequence;
+    private long sendTimestamp;
+    private AudioCodec codec = PcmCodec.INSTANCE;
 
     private Map<String, CallSession> activeCalls = new HashMap<>();
     private boolean isInCall = false;
@@ -39,7 +54,7 @@ public class CallService implements UDPAudioListener {
         void onAudioPacketReceived(String callId);
     }
 
-    public CallService(int udpPort, CallServiceListener listener) throws SocketException {
+    public CallService(int udpPort, CallServiceListener listener) throws IOException {
         this.audioRecorder = new AudioRecorder();
         this.audioPlayer = new AudioPlayer();
         this.listener = listener;
@@ -54,10 +69,19 @@ public class CallService implements UDPAudioListener {
     public void setPeerAddress(String host, int port) throws UnknownHostException {
         this.peerAddress = InetAddress.getByName(host);
         this.peerPort = port;
+        this.peerSocketAddress = new InetSocketAddress(peerAddress, port);
         System.out.println("[CallService] Peer configurado: " + host + ":" + port);
     }
 
     public boolean startCall(String callId, String targetUser) {
+        return startCall(callId, targetUser, PcmCodec.INSTANCE);
+    }
+
+    /**
+     * Inicia la llamada con el codec negociado en call_start/call_accept (ver
+     * {@link util.AudioCodecs#negotiate(String)}).
+     */
+    public boolean startCall(String callId, String targetUser, AudioCodec codec) {
         if (isInCall) {
             if (listener != null) {
                 listener.onCallError("Ya hay una llamada activa: " + currentCallId);
@@ -76,14 +100,22 @@ public class CallService implements UDPAudioListener {
             currentCallId = callId;
             currentTarget = targetUser;
             currentState = CallState.CALLING;
+            this.codec = codec;
             isInCall = true;
 
+            // Valores iniciales al azar, como en RTP; el SSRC identifica esta llamada
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            sendSsrc = random.nextInt();
+            sendSequence = random.nextInt(0x10000);
+            sendTimestamp = random.nextInt() & 0xFFFFFFFFL;
+
             CallSession session = new CallSession(callId, targetUser);
             activeCalls.put(callId, session);
 
             System.out.println("[CallService] Iniciando llamada con " + targetUser);
             System.out.println("   Local UDP: " + udpConnection.getLocalPort());
             System.out.println("   Peer UDP: " + peerAddress.getHostAddress() + ":" + peerPort);
+            System.out.println("   Codec: " + codec.getName());
 
             audioPlayer.startPlayingForCall();
             System.out.println("[CallService] Reproducción iniciada");
@@ -123,6 +155,7 @@ public class CallService implements UDPAudioListener {
         try {
             currentState = CallState.ENDING;
             audioRecorder.stopRecording();
+            System.out.println("[CallService] Audio recibido: " + audioPlayer.getStats());
             audioPlayer.stopPlaying();
             activeCalls.remove(callId);
 
@@ -143,12 +176,23 @@ public class CallService implements UDPAudioListener {
         }
     }
 
+    /**
+     * Envía un bloque de audio, codificado con el codec de la llamada, con su cabecera RTP
+     * (secuencia y timestamp en muestras) para que el otro lado pueda ordenarlo y medir el jitter.
+     */
     private void sendAudioPacketToPeer(byte[] audioData) {
         if (udpConnection != null && isInCall && peerAddress != null) {
             try {
-                udpConnection.sendAudio(audioData, peerAddress, peerPort);
+                int length = Math.min(audioData.length, sendBuffer.capacity() - RtpPacket.HEADER_BYTES) & ~1;
+                sendBuffer.clear();
+                RtpPacket.writeHeader(sendBuffer, codec.getPayloadType(), sendSequence, sendTimestamp, sendSsrc);
+                codec.encode(audioData, 0, length, sendBuffer);
+                sendBuffer.flip();
+                udpConnection.send(sendBuffer, peerSocketAddress);
+                sendSequence = (sendSequence + 1) & 0xFFFF;
+                sendTimestamp = (sendTimestamp + length / 2) & 0xFFFFFFFFL;
                 if (System.currentTimeMillis() % 100 < 10) {
-                    System.out.println("[CallService] Enviando audio: " + audioData.length + " bytes a " +
+                    System.out.println("[CallService] Enviando audio: " + sendBuffer.limit() + " bytes a " +
                             peerAddress.getHostAddress() + ":" + peerPort);
                 }
             } catch (Exception e) {
@@ -157,17 +201,19 @@ public class CallService implements UDPAudioListener {
         }
     }
 
+    /**
+     * El paquete pasa al reproductor, que lo devuelve al pool después de reproducirlo. No se
+     * registra cada paquete: armar la línea de log crearía objetos en cada recepción.
+     */
     @Override
-    public void onAudioReceived(byte[] audioData, InetAddress from, int port) {
+    public void onAudioReceived(PacketBuffer packet) {
         if (isInCall && audioPlayer != null) {
-            System.out.println("[CallService] Audio recibido: " + audioData.length + " bytes desde " +
-                    from.getHostAddress() + ":" + port);
-            audioPlayer.addAudioData(audioData);
+            audioPlayer.addAudioPacket(packet);
             if (listener != null && currentCallId != null) {
                 listener.onAudioPacketReceived(currentCallId);
             }
         } else {
-            System.out.println("[CallService] Audio recibido pero no en llamada o player nulo");
+            packet.release();
         }
     }
 
@@ -192,6 +238,10 @@ public class CallService implements UDPAudioListener {
         return currentCallId;
     }
 
+    public AudioCodec getCodec() {
+        return codec;
+    }
+
     public String getCurrentTarget() {
         return currentTarget;
     }
@@ -4,20 +4,37 @@ import model.User;
 import model.Group;
 import model.Message;
 import model.AudioMessage;
+import persistence.AudioBlob;
+import persistence.AudioBlobStore;
 import persistence.ChatHistory;
+import persistence.ConversationCache;
+import persistence.HistoryPage;
 
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ChatManager {
     private Map<String, User> onlineUsers;
-    private Map<String, Group> groups;
+    private GroupMembership membership;
     private ChatHistory chatHistory;
 
     public ChatManager() {
+        this(new ChatHistory());
+    }
+
+    /**
+     * Con el historial (y el audio) guardados bajo dataDir; ver {@link ChatHistory#ChatHistory(Path)}.
+     */
+    public ChatManager(Path dataDir) {
+        this(new ChatHistory(dataDir));
+    }
+
+    private ChatManager(ChatHistory chatHistory) {
         this.onlineUsers = new ConcurrentHashMap<>();
-        this.groups = new ConcurrentHashMap<>();
-        this.chatHistory = new ChatHistory();
+        this.membership = new GroupMembership();
+        this.chatHistory = chatHistory;
     }
 
     public boolean loginUser(String username) {
@@ -27,12 +44,10 @@ public class ChatManager {
 
         String cleanUsername = username.trim();
 
-        if (onlineUsers.containsKey(cleanUsername)) {
+        User user = new User(cleanUsername);
+        if (onlineUsers.putIfAbsent(cleanUsername, user) != null) {
             return false;
         }
-
-        User user = new User(cleanUsername);
-        onlineUsers.put(cleanUsername, user);
         System.out.println("Usuario conectado: " + cleanUsername);
         return true;
     }
@@ -63,18 +78,16 @@ public class ChatManager {
 
         String cleanGroupName = groupName.trim();
 
-        if (groups.containsKey(cleanGroupName)) {
-            System.out.println("Grupo ya existe: " + cleanGroupName);
-            return false;
-        }
-
         if (!isUserOnline(creator)) {
             System.out.println("Creador no está online: " + creator);
             return false;
         }
 
         Group group = new Group(cleanGroupName, creator);
-        groups.put(cleanGroupName, group);
+        if (!membership.createGroup(group)) {
+            System.out.println("Grupo ya existe: " + cleanGroupName);
+            return false;
+        }
         System.out.println("Grupo creado: " + cleanGroupName + " por " + creator);
         return true;
     }
@@ -84,8 +97,7 @@ public class ChatManager {
             return false;
         }
 
-        Group group = groups.get(groupName);
-        if (group == null) {
+        if (!membership.exists(groupName)) {
             System.out.println("Grupo no existe: " + groupName);
             return false;
         }
@@ -95,7 +107,7 @@ public class ChatManager {
             return false;
         }
 
-        boolean success = group.addMember(username);
+        boolean success = membership.join(groupName, username);
         if (success) {
             System.out.println("Usuario " + username + " se unió al grupo " + groupName);
         } else {
@@ -109,56 +121,55 @@ public class ChatManager {
             return false;
         }
 
-        Group group = groups.get(groupName);
-        if (group == null) {
+        GroupMembership.LeaveResult result = membership.leave(groupName, username);
+        if (result == GroupMembership.LeaveResult.NOT_MEMBER) {
             return false;
         }
 
-        boolean success = group.removeMember(username);
-        if (success) {
-            System.out.println("Usuario " + username + " abandonó el grupo " + groupName);
-
-            if (group.getMemberCount() == 0) {
-                groups.remove(groupName);
-                System.out.println("Grupo eliminado por estar vacío: " + groupName);
-            }
+        System.out.println("Usuario " + username + " abandonó el grupo " + groupName);
+        if (result == GroupMembership.LeaveResult.LEFT_AND_DELETED) {
+            System.out.println("Grupo eliminado por estar vacío: " + groupName);
         }
-        return success;
+        return true;
     }
 
-    public List<String> getGroupMembers(String groupName) {
-        Group group = groups.get(groupName);
-        if (group != null) {
-            return new ArrayList<>(group.getMembers());
-        }
-        return new ArrayList<>();
+    /**
+     * Foto inmutable de los miembros del grupo; no se copia en cada llamada.
+     */
+    public Set<String> getGroupMembers(String groupName) {
+        return membership.getMembers(groupName);
     }
 
     public List<String> getAllGroups() {
-        return new ArrayList<>(groups.keySet());
+        return new ArrayList<>(membership.getGroupNames());
     }
 
     public boolean groupExists(String groupName) {
-        return groups.containsKey(groupName);
+        return membership.exists(groupName);
     }
 
     public Group getGroup(String groupName) {
-        return groups.get(groupName);
+        return membership.getGroup(groupName);
     }
 
-    public void saveTextMessage(Message message) {
-        if (message != null) {
-            chatHistory.saveMessage(message);
-            System.out.println("Mensaje guardado: " + message.getFrom() + " -> " + message.getTo());
+    /**
+     * Encola el mensaje para guardarlo; el futuro indica cuándo quedó escrito.
+     */
+    public CompletableFuture<Void> saveTextMessage(Message message) {
+        if (message == null) {
+            return CompletableFuture.completedFuture(null);
         }
+        System.out.println("Guardando mensaje: " + message.getFrom() + " -> " + message.getTo());
+        return chatHistory.saveMessage(message);
     }
 
-    public void saveAudioMessage(AudioMessage audioMessage) {
-        if (audioMessage != null) {
-            chatHistory.saveAudioMessage(audioMessage);
-            System.out.println("Audio guardado: " + audioMessage.getFrom() + " -> " + audioMessage.getTo() +
-                    " (" + audioMessage.getAudioSize() + " bytes)");
+    public CompletableFuture<Void> saveAudioMessage(AudioMessage audioMessage) {
+        if (audioMessage == null) {
+            return CompletableFuture.completedFuture(null);
         }
+        System.out.println("Guardando audio: " + audioMessage.getFrom() + " -> " + audioMessage.getTo() +
+                " (" + audioMessage.getAudioSize() + " bytes)");
+        return chatHistory.saveAudioMessage(audioMessage);
     }
 
     public List<Message> getMessageHistory(String target, boolean isGroup) {
@@ -168,6 +179,25 @@ public class ChatManager {
         return chatHistory.loadMessages(target, isGroup);
     }
 
+    /**
+     * Escribe el historial completo en formato de respuesta; ver {@link ChatHistory#appendHistory}.
+     */
+    public void appendMessageHistory(String target, boolean isGroup, StringBuilder out) {
+        if (target != null) {
+            chatHistory.appendHistory(target, isGroup, out);
+        }
+    }
+
+    /**
+     * Página del historial; ver {@link ChatHistory#loadPage}.
+     */
+    public HistoryPage getMessageHistoryPage(String target, boolean isGroup, int limit, String before, String since) {
+        if (target == null) {
+            return new HistoryPage(new ArrayList<>(), false);
+        }
+        return chatHistory.loadPage(target, isGroup, limit, before, since);
+    }
+
     public List<AudioMessage> getAudioMessageHistory(String target, boolean isGroup) {
         if (target == null) {
             return new ArrayList<>();
@@ -175,7 +205,11 @@ public class ChatManager {
         return chatHistory.loadAudioMessages(target, isGroup);
     }
 
-    public byte[] getAudioData(String audioId) {
+    public AudioBlobStore getAudioBlobs() {
+        return chatHistory.getAudioBlobs();
+    }
+
+    public AudioBlob getAudioData(String audioId) {
         return chatHistory.loadAudioData(audioId);
     }
 
@@ -184,7 +218,7 @@ public class ChatManager {
     }
 
     public int getGroupCount() {
-        return groups.size();
+        return membership.size();
     }
 
     public Map<String, Object> getSystemStatus() {
@@ -192,40 +226,41 @@ public class ChatManager {
         status.put("onlineUsers", getOnlineUserCount());
         status.put("activeGroups", getGroupCount());
         status.put("totalUsers", onlineUsers.size());
-        status.put("totalGroups", groups.size());
+        status.put("totalGroups", membership.size());
+
+        ConversationCache cache = chatHistory.getCache();
+        status.put("historyCacheHitRate", cache.getHitRate());
+        status.put("historyCacheHits", cache.getHits());
+        status.put("historyCacheMisses", cache.getMisses());
+        status.put("historyCacheEvictions", cache.getEvictions());
+        status.put("historyPendingWrites", chatHistory.getPendingWrites());
         return status;
     }
 
     public void clearAllData() {
         onlineUsers.clear();
-        groups.clear();
+        membership.clear();
         System.out.println("Todos los datos han sido limpiados");
     }
 
     public boolean isUserInGroup(String username, String groupName) {
-        Group group = groups.get(groupName);
-        return group != null && group.hasMember(username);
+        return membership.isMember(username, groupName);
     }
 
-    public List<String> getUserGroups(String username) {
-        List<String> userGroups = new ArrayList<>();
-        for (Map.Entry<String, Group> entry : groups.entrySet()) {
-            if (entry.getValue().hasMember(username)) {
-                userGroups.add(entry.getKey());
-            }
-        }
-        return userGroups;
+    /**
+     * Foto inmutable de los grupos del usuario, sin recorrer todos los grupos.
+     */
+    public Set<String> getUserGroups(String username) {
+        return membership.getGroupsOf(username);
     }
 
     public void showGroups() {
         System.out.println("\n=== GRUPOS DISPONIBLES ===");
-        if (groups.isEmpty()) {
+        if (membership.size() == 0) {
             System.out.println("No hay grupos creados");
         } else {
-            for (Map.Entry<String, Group> entry : groups.entrySet()) {
-                String groupName = entry.getKey();
-                Group group = entry.getValue();
-                System.out.println(" " + groupName + " (" + group.getMemberCount() + " miembros)");
+            for (Group group : membership.getGroups()) {
+                System.out.println(" " + group.getName() + " (" + group.getMemberCount() + " miembros)");
             }
         }
         System.out.println("========================\n");
@@ -268,4 +303,8 @@ public class ChatManager {
             System.out.println("Grupo no existe");
         }
     }
-}
\ No newline at end of file
+
+    public void close() {
+        chatHistory.close();
+    }
+}
@@ -0,0 +1,127 @@
+package service;
+
+import model.Group;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice bidireccional de pertenencia a grupos: grupo -> miembros y usuario -> grupos.
+ *
+ * Los cambios (crear, unirse, salir, borrar grupo vacío) se hacen bajo un mismo candado,
+ * así ambos lados quedan siempre consistentes. Las lecturas no bloquean: devuelven
+ * conjuntos inmutables que se reemplazan en cada cambio, por lo que consultar "mis grupos"
+ * o los destinatarios de un grupo cuesta lo que mide la respuesta y no exige copiar.
+ */
+public class GroupMembership {
+    public enum LeaveResult { NOT_MEMBER, LEFT, LEFT_AND_DELETED }
+
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> groupsByUser = new ConcurrentHashMap<>();
+
+    public synchronized boolean createGroup(Group group) {
+        if (groups.putIfAbsent(group.getName(), group) != null) {
+            return false;
+        }
+        for (String member : group.getMembers()) {
+            groupsByUser.put(member, with(groupsByUser.get(member), group.getName()));
+        }
+        return true;
+    }
+
+    /**
+     * Devuelve false si el grupo no existe o el usuario ya era miembro.
+     */
+    public synchronized boolean join(String groupName, String username) {
+        Group group = groups.get(groupName);
+        if (group == null || !group.addMember(username)) {
+            return false;
+        }
+        groupsByUser.put(username, with(groupsByUser.get(username), groupName));
+        return true;
+    }
+
+    /**
+     * Saca al usuario del grupo y borra el grupo si queda vacío.
+     */
+    public synchronized LeaveResult leave(String groupName, String username) {
+        Group group = groups.get(groupName);
+        if (group == null || !group.removeMember(username)) {
+            return LeaveResult.NOT_MEMBER;
+        }
+
+        Set<String> remaining = without(groupsByUser.get(username), groupName);
+        if (remaining.isEmpty()) {
+            groupsByUser.remove(username);
+        } else {
+            groupsByUser.put(username, remaining);
+        }
+
+        if (group.getMemberCount() == 0) {
+            groups.remove(groupName);
+            return LeaveResult.LEFT_AND_DELETED;
+        }
+        return LeaveResult.LEFT;
+    }
+
+    public synchronized void clear() {
+        groups.clear();
+        groupsByUser.clear();
+    }
+
+    public Group getGroup(String groupName) {
+        return groups.get(groupName);
+    }
+
+    public boolean exists(String groupName) {
+        return groups.containsKey(groupName);
+    }
+
+    /**
+     * Foto inmutable de los miembros del grupo (vacía si no existe).
+     */
+    public Set<String> getMembers(String groupName) {
+        Group group = groups.get(groupName);
+        return group != null ? group.getMembers() : Collections.emptySet();
+    }
+
+    /**
+     * Foto inmutable de los grupos del usuario.
+     */
+    public Set<String> getGroupsOf(String username) {
+        return groupsByUser.getOrDefault(username, Collections.emptySet());
+    }
+
+    public boolean isMember(String username, String groupName) {
+        return getGroupsOf(username).contains(groupName);
+    }
+
+    public Collection<String> getGroupNames() {
+        return Collections.unmodifiableSet(groups.keySet());
+    }
+
+    public Collection<Group> getGroups() {
+        return Collections.unmodifiableCollection(groups.values());
+    }
+
+    public int size() {
+        return groups.size();
+    }
+
+    private static Set<String> with(Set<String> set, String value) {
+        Set<String> updated = set == null ? new HashSet<>() : new HashSet<>(set);
+        updated.add(value);
+        return Collections.unmodifiableSet(updated);
+    }
+
+    private static Set<String> without(Set<String> set, String value) {
+        if (set == null) return Collections.emptySet();
+        Set<String> updated = new HashSet<>(set);
+        updated.remove(value);
+        return Collections.unmodifiableSet(updated);
+    }
+}
@@ -0,0 +1,145 @@
+package service;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Despachador con buzones (mailboxes) por clave.
+ *
+ * Las tareas con la misma clave se ejecutan una detrás de otra y en el orden en que
+ * llegaron; tareas de claves distintas se ejecutan en paralelo. Así los comandos de
+ * un mismo usuario mantienen su orden sin que un usuario bloquee a los demás.
+ *
+ * Las tareas encoladas con {@link #executeConcurrent} respetan el orden respecto de las
+ * anteriores de su clave, pero se ejecutan en paralelo con el resto.
+ */
+public class OrderedDispatcher {
+    // Máximo de tareas que un buzón ejecuta seguidas antes de ceder el hilo
+    private static final int BATCH = 64;
+    // Tope de hilos del pool cuando no hay hilos virtuales (-Dchat.dispatcher.maxThreads)
+    private static final int MAX_THREADS = Math.max(Runtime.getRuntime().availableProcessors() * 2,
+            Integer.getInteger("chat.dispatcher.maxThreads", 256));
+
+    private final ExecutorService executor;
+    private final Map<Object, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    public OrderedDispatcher() {
+        this(createDefaultExecutor());
+    }
+
+    public OrderedDispatcher(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Encola una tarea en el buzón de la clave indicada.
+     */
+    public void execute(Object key, Runnable task) {
+        mailboxes.computeIfAbsent(key, k -> new Mailbox()).enqueue(task);
+    }
+
+    /**
+     * Encola una tarea que no necesita exclusión con las demás de su clave (por ejemplo, una
+     * lectura). Empieza cuando terminaron las tareas ordenadas encoladas antes que ella, pero
+     * no retiene a las siguientes: varias de estas tareas pueden correr a la vez entre sí y
+     * con las tareas ordenadas que llegaron después.
+     */
+    public void executeConcurrent(Object key, Runnable task) {
+        execute(key, () -> executor.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("💥 Error procesando tarea: " + e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * Encola una última tarea y elimina el buzón de la clave cuando ésta termine.
+     */
+    public void executeAndRemove(Object key, Runnable task) {
+        Mailbox mailbox = mailboxes.computeIfAbsent(key, k -> new Mailbox());
+        mailbox.enqueue(() -> {
+            try {
+                task.run();
+            } finally {
+                mailboxes.remove(key, mailbox);
+            }
+        });
+    }
+
+    public int getMailboxCount() {
+        return mailboxes.size();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Usa hilos virtuales si la JVM los soporta (Java 21+); si no, un pool fijo
+     * dimensionado para trabajo con E/S.
+     */
+    private static ExecutorService createDefaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Sin hilos virtuales (Java 17): algunas tareas se bloquean esperando al disco
+            // (awaitWritten al leer historial, la cola de escritura llena). Con un pool fijo
+            // pocas de ellas bastan para frenar los buzones de todos; este crece hasta
+            // chat.dispatcher.maxThreads y los hilos ociosos terminan a los 30 s.
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "dispatcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    private final class Mailbox implements Runnable {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void enqueue(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    System.err.println("⚠️ Despachador detenido, tarea descartada");
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < BATCH; i++) {
+                    Runnable task = tasks.poll();
+                    if (task == null) break;
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("💥 Error procesando tarea: " + e.getMessage());
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                // Si llegaron tareas mientras terminábamos, volver a agendar
+                if (!tasks.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
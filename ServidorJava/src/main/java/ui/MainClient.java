@@ -1,20 +1,49 @@
 package ui;
 
 import model.AudioMessage;
+import network.Frame;
 import network.TCPConnection;
 import network.TCPConnectionListener;
+import network.WireMessage;
 import service.CallService;
+import util.AudioCodec;
+import util.AudioCodecs;
 import util.AudioPlayer;
 import util.AudioRecorder;
+import util.Fields;
+import util.KeyValueLine;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class MainClient implements TCPConnectionListener, CallService.CallServiceListener {
 
+    private static final String AUDIO_DIR = "data/audio/";
+    // Notas de voz cuya subida no terminó; se retoman al volver a iniciar sesión
+    private static final String OUTGOING_DIR = AUDIO_DIR + "outgoing/";
+    private static final String PENDING_SUFFIX = ".pending";
+    private static final String PART_SUFFIX = ".part";
+    private static final int UPLOAD_ATTEMPTS = 3;
+    private static final long UPLOAD_REPLY_TIMEOUT_MS = 10000;
+    // Mientras se sube una nota, no se encolan más partes si la cola de salida supera esto
+    private static final long UPLOAD_QUEUE_BYTES = 512 * 1024;
+    // Espera de la respuesta al hello; un servidor antiguo no responde y se sigue en texto
+    private static final long HELLO_TIMEOUT_MS = 2000;
+
     private TCPConnection connection;
     private CallService callService;
     private AudioRecorder audioRecorder;
@@ -31,6 +60,16 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
     private volatile String pendingCallerIp = null;
     private volatile int pendingCallerUdpPort = 0;
     private volatile boolean pendingIsGroup = false;
+    private volatile String pendingCallCodecs = null;
+    // Llamada grupal con relay: id asignado por el servidor (null en llamadas directas)
+    private volatile String pendingRelayCallId = null;
+    private volatile String outgoingRelayCallId = null;
+
+    // Respuestas del servidor (audio_ready / audio_committed / audio_error) por uploadId
+    private final Map<String, CompletableFuture<UploadReply>> uploadReplies = new ConcurrentHashMap<>();
+
+    private record UploadReply(String type, long offset, int chunkSize, String message) {
+    }
 
     public static void main(String[] args) {
         String serverIP = "127.0.0.1";
@@ -48,6 +87,11 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
             System.out.println("=== CHAT MULTIMEDIA - Cliente ===");
             initializeAudioSystem();
             connection = new TCPConnection(this, serverIP, serverPort);
+            // -Dchat.client.framing=text fuerza el protocolo de texto
+            if (!"text".equalsIgnoreCase(System.getProperty("chat.client.framing"))
+                    && connection.requestBinaryFraming(HELLO_TIMEOUT_MS)) {
+                System.out.println("Protocolo binario activado.");
+            }
             if (!performLogin()) {
                 System.out.println("No se pudo iniciar sesión.");
                 cleanup();
@@ -91,6 +135,7 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
 
         if (isLoggedIn) {
             System.out.println("¡Bienvenido, " + username + "!");
+            resumePendingTransfers();
             return true;
         } else {
             System.out.println("Error: servidor no respondió o nombre en uso.");
@@ -184,9 +229,9 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
         String msg = console.readLine();
 
         if ("1".equals(type)) {
-            connection.sendObject(String.format("type:private_message|from:%s|to:%s|content:%s", username, to, msg));
+            connection.send(WireMessage.of("private_message").put("from", username).put("to", to).put("content", msg));
         } else if ("2".equals(type)) {
-            connection.sendObject(String.format("type:group_message|from:%s|group:%s|content:%s", username, to, msg));
+            connection.send(WireMessage.of("group_message").put("from", username).put("group", to).put("content", msg));
         }
         System.out.println("Mensaje enviado.");
     }
@@ -207,11 +252,179 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
             return;
         }
 
-        byte[] data = Files.readAllBytes(file.toPath());
         boolean isGroup = "2".equals(type);
-        AudioMessage am = new AudioMessage(username, to, isGroup, data, dur);
-        connection.sendObject(am);
-        System.out.println("Nota de voz enviada.");
+        String uploadId = UUID.randomUUID().toString();
+        Path pending = Paths.get(OUTGOING_DIR, uploadId + PENDING_SUFFIX);
+        Files.createDirectories(pending.getParent());
+        Files.writeString(pending, String.format("file:%s|to:%s|isGroup:%b|duration:%d",
+                file.getPath(), to, isGroup, dur));
+
+        System.out.println("Enviando nota de voz...");
+        startUpload(uploadId, file, to, isGroup, dur);
+    }
+
+    // =====================================================
+    // Notas de voz por partes
+    // =====================================================
+
+    private void startUpload(String uploadId, File file, String to, boolean isGroup, int duration) {
+        Thread uploader = new Thread(() -> {
+            try {
+                if (uploadVoiceNote(uploadId, file, to, isGroup, duration)) {
+                    System.out.println("\nNota de voz enviada.");
+                } else {
+                    System.out.println("\nNo se pudo enviar la nota de voz; se reintentará al volver a conectar.");
+                }
+            } catch (IOException e) {
+                System.err.println("Error al enviar nota de voz: " + e.getMessage());
+            }
+        }, "voice-upload");
+        uploader.setDaemon(true);
+        uploader.start();
+    }
+
+    /**
+     * Sube el archivo en partes. El servidor indica en audio_ready desde qué byte seguir, así que
+     * una subida interrumpida continúa donde quedó en lugar de empezar de nuevo.
+     */
+    private boolean uploadVoiceNote(String uploadId, File file, String to, boolean isGroup, int duration)
+            throws IOException {
+        long size = file.length();
+        for (int attempt = 0; attempt < UPLOAD_ATTEMPTS && connection.isConnected(); attempt++) {
+            UploadReply reply = request(uploadId, WireMessage.of("audio_begin").put("uploadId", uploadId)
+                    .put("to", to).put("isGroup", isGroup).put("duration", duration).put("size", size));
+            if (reply == null) continue;
+            if ("audio_committed".equals(reply.type())) {
+                finishUpload(uploadId);
+                return true;
+            }
+            if (!"audio_ready".equals(reply.type())) {
+                System.out.println("\n[Error] " + reply.message());
+                return false;
+            }
+
+            sendChunks(uploadId, file, reply.offset(), reply.chunkSize(), size);
+
+            // Si faltan bytes el servidor responde audio_ready y se vuelve a empezar desde ahí
+            reply = request(uploadId, WireMessage.of("audio_commit").put("uploadId", uploadId));
+            if (reply != null && "audio_committed".equals(reply.type())) {
+                finishUpload(uploadId);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sendChunks(String uploadId, File file, long offset, int chunkSize, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+            int seq = 0;
+            while (offset < size && connection.isConnected()) {
+                buffer.clear();
+                int read = channel.read(buffer, offset);
+                if (read < 0) break;
+                buffer.flip();
+                // En modo binario la parte viaja sin base64
+                connection.send(WireMessage.of("audio_chunk").put("uploadId", uploadId).put("seq", seq++)
+                        .put("offset", offset).putBytes("data", buffer));
+                offset += read;
+                if (connection.getQueuedBytes() > UPLOAD_QUEUE_BYTES) {
+                    connection.flush(UPLOAD_REPLY_TIMEOUT_MS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Envía un comando de la subida y espera la respuesta del servidor (null si no llega).
+     */
+    private UploadReply request(String uploadId, WireMessage command) {
+        CompletableFuture<UploadReply> reply = new CompletableFuture<>();
+        uploadReplies.put(uploadId, reply);
+        connection.send(command);
+        try {
+            return reply.get(UPLOAD_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            return null;
+        } finally {
+            uploadReplies.remove(uploadId, reply);
+        }
+    }
+
+    private void finishUpload(String uploadId) throws IOException {
+        Files.deleteIfExists(Paths.get(OUTGOING_DIR, uploadId + PENDING_SUFFIX));
+    }
+
+    /**
+     * Retoma las subidas y descargas que quedaron a medias en una sesión anterior.
+     */
+    private void resumePendingTransfers() {
+        File[] pending = new File(OUTGOING_DIR).listFiles((dir, name) -> name.endsWith(PENDING_SUFFIX));
+        if (pending != null) {
+            for (File entry : pending) {
+                try {
+                    KeyValueLine line = KeyValueLine.parse(Files.readString(entry.toPath()).trim());
+                    File file = new File(getVal(line, "file"));
+                    String uploadId = entry.getName().substring(0, entry.getName().length() - PENDING_SUFFIX.length());
+                    if (!file.exists()) {
+                        Files.delete(entry.toPath());
+                        continue;
+                    }
+                    System.out.println("Retomando envío de " + file.getName() + "...");
+                    startUpload(uploadId, file, getVal(line, "to"), "true".equals(getVal(line, "isGroup")),
+                            Integer.parseInt(getVal(line, "duration")));
+                } catch (IOException | NumberFormatException e) {
+                    System.err.println("No se pudo retomar " + entry.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        File[] parts = new File(AUDIO_DIR).listFiles((dir, name) -> name.startsWith("received_")
+                && name.endsWith(".wav" + PART_SUFFIX));
+        if (parts != null) {
+            for (File part : parts) {
+                String name = part.getName();
+                requestAudioRange(name.substring("received_".length(), name.length() - (".wav" + PART_SUFFIX).length()),
+                        part.length());
+            }
+        }
+    }
+
+    private Path receivedPath(String audioId, boolean partial) {
+        return Paths.get(AUDIO_DIR, "received_" + audioId.replaceAll("[^a-zA-Z0-9-]", "_")
+                + ".wav" + (partial ? PART_SUFFIX : ""));
+    }
+
+    private void requestAudioRange(String audioId, long offset) {
+        connection.sendObject("type:audio_get|audioId:" + audioId + "|offset:" + offset);
+    }
+
+    private void writeReceivedChunk(String audioId, long offset, ByteBuffer bytes) {
+        Path part = receivedPath(audioId, true);
+        try {
+            Files.createDirectories(part.getParent());
+            try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                while (bytes.hasRemaining()) {
+                    offset += channel.write(bytes, offset);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error al guardar audio: " + e.getMessage());
+        }
+    }
+
+    private void finishDownload(String audioId, long offset, long size) {
+        if (offset < size) {
+            requestAudioRange(audioId, offset);
+            return;
+        }
+        try {
+            Path target = receivedPath(audioId, false);
+            Files.move(receivedPath(audioId, true), target, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("   Guardada como: " + target.getFileName());
+        } catch (IOException e) {
+            System.err.println("   Error al guardar audio: " + e.getMessage());
+        }
     }
 
     private void makeCall() throws IOException {
@@ -234,8 +447,8 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
         int localUdpPort = callService.getUDPPort();
 
         connection.sendObject(String.format(
-                "type:call_start|from:%s|to:%s|isGroup:%s|udpPort:%d",
-                username, to, isGroup, localUdpPort
+                "type:call_start|from:%s|to:%s|isGroup:%s|udpPort:%d|codecs:%s",
+                username, to, isGroup, localUdpPort, AudioCodecs.callCodecs()
         ));
         System.out.println("Llamando a " + to + "...");
         System.out.println("Esperando que acepte la llamada...");
@@ -258,16 +471,19 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
                 return;
             }
 
-            String callId = "call_" + System.currentTimeMillis();
-            if (callService.startCall(callId, pendingCallFrom)) {
+            // Se elige el primero de los codecs que ofreció quien llama
+            AudioCodec codec = AudioCodecs.negotiate(pendingCallCodecs);
+            String relayCallId = pendingRelayCallId;
+            String callId = relayCallId != null ? relayCallId : "call_" + System.currentTimeMillis();
+            if (callService.startCall(callId, pendingCallFrom, codec)) {
                 System.out.println("Llamada activa con " + pendingCallFrom + ". Habla ahora.");
                 System.out.println("Escribe 'colgar' en el menú para terminar la llamada.");
 
                 int myUdpPort = callService.getUDPPort();
                 connection.sendObject(String.format(
-                        "type:call_accept|from:%s|to:%s|udpPort:%d",
-                        username, pendingCallFrom, myUdpPort
-                ));
+                        "type:call_accept|from:%s|to:%s|udpPort:%d|codec:%s",
+                        username, pendingCallFrom, myUdpPort, codec.getName()
+                ) + (relayCallId != null ? "|callId:" + relayCallId : ""));
 
                 waitingForCallResponse = false;
             } else {
@@ -295,6 +511,7 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
         if (callService.isInCall()) {
             String callId = callService.getCurrentCallId();
             callService.endCall(callId);
+            outgoingRelayCallId = null;
             connection.sendObject(String.format("type:call_end|from:%s|callId:%s", username, callId));
             System.out.println("Llamada finalizada.");
         }
@@ -400,6 +617,7 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
     private void logout() {
         System.out.println("Cerrando sesión...");
         connection.sendObject("type:logout|username:" + username);
+        connection.flush(1000);
         cleanup();
         isLoggedIn = false;
         System.out.println("¡Hasta pronto!");
@@ -419,7 +637,9 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
     @Override
     public void onReceiveObject(TCPConnection conn, Object obj) {
         if (obj instanceof String str) {
-            processServerMessage(str);
+            processServerMessage(KeyValueLine.parse(str));
+        } else if (obj instanceof Frame frame) {
+            processServerMessage(frame);
         } else if (obj instanceof AudioMessage am) {
             handleReceivedAudioMessage(am);
         }
@@ -465,14 +685,12 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
         }
     }
 
-    private void processServerMessage(String msg) {
-        String[] parts = msg.split("\\|", 2);
-        if (parts.length == 0) return;
-        String typePart = parts[0];
-        String payload = parts.length > 1 ? parts[1] : "";
-
-        if (!typePart.startsWith("type:")) return;
-        String type = typePart.substring(5);
+    /**
+     * Atiende un mensaje del servidor, llegue como línea de texto o como frame binario.
+     */
+    private void processServerMessage(Fields payload) {
+        String type = payload.get("type");
+        if (type == null) return;
 
         switch (type) {
             case "login_success" -> {
@@ -504,6 +722,15 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
                 pendingCallerIp = callerIp;
                 pendingCallerUdpPort = Integer.parseInt(callerUdpPortStr);
                 pendingIsGroup = isGroup;
+                pendingCallCodecs = getVal(payload, "codecs");
+                // Con relay el audio va y viene del servidor, no de quien llama
+                String relayPort = getVal(payload, "relayPort");
+                pendingRelayCallId = null;
+                if (!relayPort.isEmpty()) {
+                    pendingCallerIp = connection.getSocket().getInetAddress().getHostAddress();
+                    pendingCallerUdpPort = Integer.parseInt(relayPort);
+                    pendingRelayCallId = getVal(payload, "callId");
+                }
                 waitingForCallResponse = true;
 
                 System.out.println("\n" + "=".repeat(50));
@@ -519,6 +746,18 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
                 String from = getVal(payload, "from");
                 String receiverIp = getVal(payload, "receiverIp");
                 String receiverUdpPortStr = getVal(payload, "receiverUdpPort");
+                String relayCallId = getVal(payload, "callId");
+
+                if (!relayCallId.isEmpty()) {
+                    // Llamada grupal: el audio va al relay; después del primero, los demás solo se suman
+                    if (callService.isInCall() && relayCallId.equals(callService.getCurrentCallId())) {
+                        System.out.println(from + " se unió a la llamada.");
+                        return;
+                    }
+                    if (!relayCallId.equals(outgoingRelayCallId)) return;
+                    receiverIp = connection.getSocket().getInetAddress().getHostAddress();
+                    receiverUdpPortStr = getVal(payload, "relayPort");
+                }
 
                 if (receiverIp.isEmpty() || receiverUdpPortStr.isEmpty()) {
                     System.out.println("Datos de conexión del receptor incompletos.");
@@ -532,8 +771,10 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
                 try {
                     callService.setPeerAddress(receiverIp, receiverUdpPort);
 
-                    String callId = "call_" + System.currentTimeMillis();
-                    if (callService.startCall(callId, from)) {
+                    // Sin campo codec el otro cliente no negocia: PCM
+                    AudioCodec codec = AudioCodecs.negotiate(getVal(payload, "codec"));
+                    String callId = !relayCallId.isEmpty() ? relayCallId : "call_" + System.currentTimeMillis();
+                    if (callService.startCall(callId, from, codec)) {
                         System.out.println("Llamada activa con " + from + ". Habla ahora.");
                         System.out.println("   Escribe 'colgar' en el menú para terminar.");
                     } else {
@@ -544,6 +785,8 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
                 }
             }
             case "call_waiting" -> {
+                String relayCallId = getVal(payload, "callId");
+                outgoingRelayCallId = relayCallId.isEmpty() ? null : relayCallId;
                 System.out.println("Esperando respuesta...");
             }
             case "system_message" ->
@@ -554,16 +797,40 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
                     System.out.println("Grupos: " + getVal(payload, "groups"));
             case "error" ->
                     System.out.println("\n[Error] " + getVal(payload, "message"));
+            case "audio_ready", "audio_committed" -> {
+                String uploadId = "audio_ready".equals(type) ? getVal(payload, "uploadId") : getVal(payload, "audioId");
+                CompletableFuture<UploadReply> reply = uploadReplies.get(uploadId);
+                if (reply != null) reply.complete(toUploadReply(type, payload));
+            }
+            case "audio_available" -> {
+                String audioId = getVal(payload, "audioId");
+                System.out.println("\n\nNota de voz recibida de: " + getVal(payload, "from"));
+                requestAudioRange(audioId, 0);
+            }
+            case "audio_data" ->
+                    writeReceivedChunk(getVal(payload, "audioId"), payload.getLong("offset", 0),
+                            payload.getBytes("data"));
+            case "audio_end" ->
+                    finishDownload(getVal(payload, "audioId"), payload.getLong("offset", 0),
+                            payload.getLong("size", 0));
+            case "audio_error" -> {
+                CompletableFuture<UploadReply> reply = uploadReplies.get(getVal(payload, "uploadId"));
+                if (reply != null) {
+                    reply.complete(toUploadReply(type, payload));
+                } else {
+                    System.out.println("\n[Error] " + getVal(payload, "message"));
+                }
+            }
         }
     }
 
-    private String getVal(String payload, String key) {
-        for (String pair : payload.split("\\|")) {
-            String[] kv = pair.split(":", 2);
-            if (kv.length == 2 && kv[0].equals(key)) {
-                return kv[1];
-            }
-        }
-        return "";
+    private UploadReply toUploadReply(String type, Fields payload) {
+        return new UploadReply(type, payload.getLong("offset", 0), payload.getInt("chunkSize", 32 * 1024),
+                getVal(payload, "message"));
+    }
+
+    private String getVal(Fields payload, String key) {
+        String value = payload.get(key);
+        return value != null ? value : "";
     }
-}
\ No newline at end of file
+}
@@ -2,14 +2,31 @@ package ui;
 
 import model.AudioMessage;
 import model.Message;
+import network.CommandType;
+import network.EncodedMessage;
+import network.Frame;
+import network.MediaRelay;
+import network.NioServer;
 import network.TCPConnection;
 import network.TCPConnectionListener;
+import network.WebGateway;
+import network.WireMessage;
+import persistence.ChatHistory;
+import persistence.HistoryPage;
+import service.BroadcastCoalescer;
+import service.AudioTransferService;
 import service.ChatManager;
+import service.OrderedDispatcher;
+import util.AudioCodecs;
+import util.Fields;
+import util.KeyValueLine;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -21,20 +38,85 @@ import java.util.concurrent.ConcurrentHashMap;
 public class MainServer implements TCPConnectionListener {
 
     private final ChatManager chatManager;
+    private final AudioTransferService audioTransfers;
     private final Map<String, TCPConnection> userConnections = new ConcurrentHashMap<>();
+    // Comandos de una misma conexión en orden; conexiones distintas en paralelo
+    private final OrderedDispatcher dispatcher = new OrderedDispatcher();
+
+    // Avisos de conexión/desconexión agrupados cuando llegan en ráfaga
+    private static final long PRESENCE_COALESCE_MS = Long.getLong("chat.presence.coalesceMs", 50);
+    private static final int PRESENCE_MAX_NAMES = 20;
+    private static final int DEFAULT_HISTORY_PAGE = Integer.getInteger("chat.history.pageSize", 50);
+    // Gateway WebSocket/SSE para navegadores; 0 lo desactiva
+    private static final int GATEWAY_PORT = Integer.getInteger("chat.gateway.port", 5080);
+    // Relay UDP del audio de las llamadas grupales; 0 lo desactiva (cada miembro recibe la IP de quien llama)
+    private static final int RELAY_PORT = Integer.getInteger("chat.relay.port", 5090);
+    private MediaRelay mediaRelay;
+    private final BroadcastCoalescer connectedNotices =
+            new BroadcastCoalescer(PRESENCE_COALESCE_MS, users -> broadcastPresence(users, "se ha conectado.", "se han conectado."));
+    private final BroadcastCoalescer disconnectedNotices =
+            new BroadcastCoalescer(PRESENCE_COALESCE_MS, users -> broadcastPresence(users, "se ha desconectado.", "se han desconectado."));
 
+    /**
+     * Uso: MainServer [puerto] [blocking|nio]
+     * El modo también se puede elegir con -Dchat.server.mode=nio y el número de
+     * event loops con -Dchat.server.loops=N.
+     */
     public static void main(String[] args) {
         int port = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
-        new MainServer(port);
+        String mode = args.length > 1 ? args[1] : System.getProperty("chat.server.mode", "blocking");
+        new MainServer(port, mode);
     }
 
     /**
      * Inicializa el servidor y escucha conexiones entrantes.
      */
-    private MainServer(int port) {
+    private MainServer(int port, String mode) {
         this.chatManager = new ChatManager();
-        System.out.println("💬 SERVIDOR DE CHAT INICIADO EN PUERTO " + port);
+        this.audioTransfers = new AudioTransferService(chatManager);
+        System.out.println("💬 SERVIDOR DE CHAT INICIADO EN PUERTO " + port + " (modo " + mode + ")");
+        startGateway();
+        startMediaRelay();
+
+        if ("nio".equalsIgnoreCase(mode)) {
+            runNio(port);
+        } else {
+            runBlocking(port);
+        }
+    }
+
+    /**
+     * Abre el gateway web. Si el puerto está ocupado el servidor sigue sin él.
+     */
+    private void startGateway() {
+        if (GATEWAY_PORT <= 0) return;
+        try {
+            WebGateway.start(GATEWAY_PORT, this);
+            System.out.println("🌐 Gateway web (WebSocket/SSE) en puerto " + GATEWAY_PORT);
+        } catch (IOException e) {
+            System.err.println("⚠️ No se pudo abrir el gateway web en el puerto " + GATEWAY_PORT + ": " + e.getMessage());
+        }
+    }
 
+    /**
+     * Abre el relay de audio de las llamadas grupales. Si el puerto está ocupado, las llamadas
+     * grupales siguen como antes (audio directo entre clientes).
+     */
+    private void startMediaRelay() {
+        if (RELAY_PORT <= 0) return;
+        try {
+            mediaRelay = MediaRelay.start(RELAY_PORT, chatManager::isUserInGroup);
+            System.out.println("🔁 Relay de audio (llamadas grupales) en puerto UDP " + RELAY_PORT
+                    + (mediaRelay.isMixing() ? " (modo mezcla)" : ""));
+        } catch (IOException e) {
+            System.err.println("⚠️ No se pudo abrir el relay de audio en el puerto " + RELAY_PORT + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Modo clásico: un hilo por conexión.
+     */
+    private void runBlocking(int port) {
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             while (true) {
                 try {
@@ -48,39 +130,89 @@ public class MainServer implements TCPConnectionListener {
         }
     }
 
+    /**
+     * Modo NIO: pocos event loops atienden todas las conexiones.
+     */
+    private void runNio(int port) {
+        int loops = Integer.getInteger("chat.server.loops", Runtime.getRuntime().availableProcessors());
+        try {
+            new NioServer(port, loops, this).run();
+        } catch (IOException e) {
+            throw new RuntimeException("❌ No se pudo iniciar el servidor en el puerto " + port, e);
+        }
+    }
+
     // =====================================================
     // 🔌 Eventos de conexión
     // =====================================================
 
     @Override
-    public synchronized void onConnectionReady(TCPConnection connection) {
+    public void onConnectionReady(TCPConnection connection) {
         System.out.println("🔗 Nueva conexión desde: " + connection.getRemoteAddress());
     }
 
     @Override
-    public synchronized void onDisconnect(TCPConnection connection) {
-        String user = findUserByConnection(connection);
+    public void onDisconnect(TCPConnection connection) {
+        // Se encola detrás de los comandos pendientes de la conexión y libera su buzón
+        dispatcher.executeAndRemove(connection, () -> handleDisconnect(connection));
+    }
+
+    private void handleDisconnect(TCPConnection connection) {
+        // El usuario viaja con la conexión: no hace falta recorrer userConnections
+        String user = connection.detachUsername();
         if (user != null) {
-            userConnections.remove(user);
+            userConnections.remove(user, connection);
             chatManager.logoutUser(user);
-            broadcastObject("type:system_message|content:El usuario " + user + " se ha desconectado.");
+            if (mediaRelay != null) mediaRelay.leave(user);
+            audioTransfers.dropUploadsOf(user);
+            disconnectedNotices.add(user);
             System.out.println("👋 Usuario desconectado: " + user);
         }
     }
 
+    /**
+     * Los comandos de una conexión pueden llegar en pipeline (varios sin esperar respuesta).
+     * Los que modifican estado se ejecutan de a uno y en orden; las consultas empiezan cuando
+     * terminaron los anteriores, pero corren en paralelo con lo que venga después. Cada
+     * respuesta lleva el reqId de su comando, así que pueden llegar en otro orden.
+     */
     @Override
-    public synchronized void onReceiveObject(TCPConnection connection, Object object) {
-        if (object instanceof String command) {
-            processCommand(connection, command.trim());
-        } else if (object instanceof AudioMessage audioMessage) {
-            handleAudioMessage(audioMessage);
+    public void onReceiveObject(TCPConnection connection, Object object) {
+        // La línea se analiza una sola vez, aquí: el comando recibe una copia de las posiciones
+        // de sus campos (la instancia del hilo se pisa con la próxima línea)
+        Fields fields;
+        try {
+            fields = object instanceof String text ? KeyValueLine.parseThreadLocal(text.trim()).detach()
+                    : object instanceof Frame frame ? frame : null;
+        } catch (IllegalArgumentException e) {
+            connection.send(WireMessage.of("error").put("message", e.getMessage()));
+            return;
+        }
+        CommandType type = fields != null ? CommandType.of(fields) : null;
+        connection.commandAccepted();
+        Runnable task = () -> {
+            try {
+                if (fields != null) {
+                    processCommand(connection, type, fields);
+                } else if (object instanceof AudioMessage audioMessage) {
+                    handleAudioMessage(audioMessage);
+                } else {
+                    System.out.println("⚠️ Objeto recibido desconocido: " + object);
+                }
+            } finally {
+                connection.commandCompleted();
+            }
+        };
+
+        if (type != null && type.isReadOnly()) {
+            dispatcher.executeConcurrent(connection, task);
         } else {
-            System.out.println("⚠️ Objeto recibido desconocido: " + object);
+            dispatcher.execute(connection, task);
         }
     }
 
     @Override
-    public synchronized void onException(TCPConnection connection, Exception e) {
+    public void onException(TCPConnection connection, Exception e) {
         System.err.println("💥 Excepción en " + connection.getRemoteAddress() + ": " + e.getMessage());
         onDisconnect(connection);
     }
@@ -89,25 +221,30 @@ public class MainServer implements TCPConnectionListener {
     // 🧩 Procesamiento de comandos
     // =====================================================
 
-    private void processCommand(TCPConnection connection, String command) {
-        Map<String, String> data = parseCommand(command);
-        String type = data.get("type");
+    /**
+     * Atiende un comando, llegue como línea de texto o como frame binario.
+     */
+    private void processCommand(TCPConnection connection, CommandType type, Fields data) {
         if (type == null) return;
 
         switch (type) {
-            case "login" -> handleLogin(connection, data);
-            case "logout" -> onDisconnect(connection);
-            case "private_message" -> handlePrivateMessage(connection, data);
-            case "group_message" -> handleGroupMessage(data);
-            case "create_group" -> handleCreateGroup(connection, data);
-            case "join_group" -> handleJoinGroup(connection, data);
-            case "get_online_users" -> handleGetOnlineUsers(connection, data);
-            case "get_groups" -> handleGetGroups(connection, data);
-            case "get_history" -> handleGetHistory(connection, data);
-            case "call_start" -> handleCallStart(data);
-            case "call_accept" -> handleCallAccept(data);
-            case "call_end" -> handleCallEnd(data);
-            default -> System.out.println("❓ Comando desconocido: " + type);
+            case LOGIN -> handleLogin(connection, data);
+            case LOGOUT -> handleDisconnect(connection);
+            case PRIVATE_MESSAGE -> handlePrivateMessage(connection, data);
+            case GROUP_MESSAGE -> handleGroupMessage(connection, data);
+            case CREATE_GROUP -> handleCreateGroup(connection, data);
+            case JOIN_GROUP -> handleJoinGroup(connection, data);
+            case GET_ONLINE_USERS -> handleGetOnlineUsers(connection, data);
+            case GET_GROUPS -> handleGetGroups(connection, data);
+            case GET_HISTORY -> handleGetHistory(connection, data);
+            case CALL_START -> handleCallStart(connection, data);
+            case CALL_ACCEPT -> handleCallAccept(connection, data);
+            case CALL_END -> handleCallEnd(connection, data);
+            case AUDIO_BEGIN -> handleAudioBegin(connection, data);
+            case AUDIO_CHUNK -> handleAudioChunk(connection, data);
+            case AUDIO_COMMIT -> handleAudioCommit(connection, data);
+            case AUDIO_GET -> handleAudioGet(connection, data);
+            case UNKNOWN -> System.out.println("❓ Comando desconocido: " + data.get("type"));
         }
     }
 
@@ -115,16 +252,17 @@ public class MainServer implements TCPConnectionListener {
     // 👤 Manejo de login / logout
     // =====================================================
 
-    private void handleLogin(TCPConnection connection, Map<String, String> data) {
+    private void handleLogin(TCPConnection connection, Fields data) {
         String username = data.get("username");
         if (username != null && chatManager.loginUser(username)) {
             userConnections.put(username, connection);
-            sendObjectToUser(username, "type:login_success|message:Bienvenido " + username);
-            broadcastObject("type:system_message|content:" + username + " se ha conectado.");
+            connection.setUsername(username);
+            connection.send(WireMessage.replyTo(data, "login_success").put("message", "Bienvenido " + username));
+            connectedNotices.add(username);
             System.out.println("✅ Usuario conectado: " + username);
         } else {
-            connection.sendObject("type:login_error|message:Nombre de usuario inválido o en uso.");
-            connection.disconnect();
+            connection.send(WireMessage.replyTo(data, "login_error").put("message", "Nombre de usuario inválido o en uso."));
+            connection.disconnectWhenDrained(1000);
         }
     }
 
@@ -132,7 +270,7 @@ public class MainServer implements TCPConnectionListener {
     // 💬 Mensajería
     // =====================================================
 
-    private void handlePrivateMessage(TCPConnection connection, Map<String, String> data) {
+    private void handlePrivateMessage(TCPConnection connection, Fields data) {
         String from = data.get("from");
         String to = data.get("to");
         String content = data.get("content");
@@ -141,56 +279,57 @@ public class MainServer implements TCPConnectionListener {
 
         chatManager.saveTextMessage(new Message(from, to, content, false));
 
-        String msg = String.format("type:private_message|from:%s|to:%s|content:%s", from, to, content);
-        sendObjectToUser(to, msg);
-        sendObjectToUser(from, "type:message_sent|to:" + to + "|status:ok|content:" + content);
+        sendToUser(to, WireMessage.push("private_message").put("from", from).put("to", to).put("content", content));
+        connection.send(WireMessage.replyTo(data, "message_sent").put("to", to).put("status", "ok").put("content", content));
     }
 
     // =====================================================
     // 👥 Grupos
     // =====================================================
 
-    private void handleCreateGroup(TCPConnection connection, Map<String, String> data) {
+    private void handleCreateGroup(TCPConnection connection, Fields data) {
         String groupName = data.get("group_name");
         String creator = data.get("creator");
 
         if (groupName != null && creator != null && chatManager.createGroup(groupName, creator)) {
-            sendObjectToUser(creator, "type:group_created|group_name:" + groupName + "|status:ok");
-            broadcastObject("type:system_message|content:Grupo '" + groupName + "' creado por " + creator);
+            connection.send(WireMessage.replyTo(data, "group_created").put("group_name", groupName).put("status", "ok"));
+            broadcast(EncodedMessage.notification("group:" + groupName,
+                    WireMessage.push("system_message").put("content", "Grupo '" + groupName + "' creado por " + creator)));
         } else {
-            sendObjectToUser(creator, "type:error|message:No se pudo crear el grupo '" + groupName + "'.");
+            connection.send(WireMessage.replyTo(data, "error").put("message", "No se pudo crear el grupo '" + groupName + "'."));
         }
     }
 
-    private void handleJoinGroup(TCPConnection connection, Map<String, String> data) {
+    private void handleJoinGroup(TCPConnection connection, Fields data) {
         String groupName = data.get("group_name");
         String username = data.get("username");
 
         if (groupName != null && username != null && chatManager.joinGroup(groupName, username)) {
-            sendObjectToUser(username, "type:join_group_success|group:" + groupName + "|status:ok");
-            broadcastObject("type:system_message|content:" + username + " se unió al grupo " + groupName);
+            connection.send(WireMessage.replyTo(data, "join_group_success").put("group", groupName).put("status", "ok"));
+            broadcast(EncodedMessage.notification("group:" + groupName,
+                    WireMessage.push("system_message").put("content", username + " se unió al grupo " + groupName)));
         } else {
-            sendObjectToUser(username, "type:error|message:No se pudo unir al grupo '" + groupName + "'.");
+            connection.send(WireMessage.replyTo(data, "error").put("message", "No se pudo unir al grupo '" + groupName + "'."));
         }
     }
 
-    private void handleGetOnlineUsers(TCPConnection connection, Map<String, String> data) {
+    private void handleGetOnlineUsers(TCPConnection connection, Fields data) {
         String user = data.get("username");
         if (user != null) {
             String list = String.join(",", chatManager.getOnlineUsers());
-            sendObjectToUser(user, "type:online_users|users:" + list);
+            connection.send(WireMessage.replyTo(data, "online_users").put("users", list));
         }
     }
 
-    private void handleGetGroups(TCPConnection connection, Map<String, String> data) {
+    private void handleGetGroups(TCPConnection connection, Fields data) {
         String user = data.get("username");
         if (user != null) {
             String list = String.join(",", chatManager.getAllGroups());
-            sendObjectToUser(user, "type:groups_list|groups:" + list);
+            connection.send(WireMessage.replyTo(data, "groups_list").put("groups", list));
         }
     }
 
-    private void handleGetHistory(TCPConnection connection, Map<String, String> data) {
+    private void handleGetHistory(TCPConnection connection, Fields data) {
         String target = data.get("target");
         String username = data.get("username");
         String isGroupStr = data.get("isGroup");
@@ -198,23 +337,45 @@ public class MainServer implements TCPConnectionListener {
         if (target == null || username == null) return;
 
         boolean isGroup = "true".equalsIgnoreCase(isGroupStr);
-        var messages = chatManager.getMessageHistory(target, isGroup);
-
-        StringBuilder historyStr = new StringBuilder();
-        for (Message msg : messages) {
-            if (historyStr.length() > 0) historyStr.append("|");
-            historyStr.append(msg.getFrom()).append(":").append(msg.getContent());
+        String before = data.get("before");
+        String since = data.get("since");
+        int limit = data.getInt("limit", -1);
+        // La respuesta (con el reqId) se arma antes de leer el historial: desde aquí no se
+        // vuelve a mirar data
+        WireMessage response = WireMessage.replyTo(data, "history").put("target", target);
+
+        // Los dos caminos escriben "messages" igual: cada remitente y contenido escapado
+        // (ver ChatHistory.appendEntry), y el campo se pasa tal cual a la respuesta.
+        // Sin límite ni cursores se mantiene la respuesta original (historial completo)
+        if (limit < 0 && before == null && since == null) {
+            StringBuilder messages = new StringBuilder();
+            chatManager.appendMessageHistory(target, isGroup, messages);
+            connection.send(response.put("messages", messages));
+            return;
         }
 
-        sendObjectToUser(username, "type:history|target:" + target + "|messages:" + historyStr.toString());
+        HistoryPage page = chatManager.getMessageHistoryPage(target, isGroup,
+                limit < 0 ? DEFAULT_HISTORY_PAGE : limit, before, since);
+        response.put("count", page.getMessages().size())
+                .put("hasMore", page.hasMore());
+        if (page.getOldest() != null) {
+            response.put("oldest", page.getOldest().getTimestamp().getTime())
+                    .put("oldestId", page.getOldest().getId())
+                    .put("newest", page.getNewest().getTimestamp().getTime())
+                    .put("newestId", page.getNewest().getId());
+        }
+        StringBuilder messages = new StringBuilder();
+        ChatHistory.appendMessages(page.getMessages(), messages);
+        connection.send(response.put("messages", messages));
     }
 
     // =====================================================
     // 📞 Llamadas simuladas
     // =====================================================
 
-    private void handleCallStart(Map<String, String> data) {
-        String from = data.get("from");
+    private void handleCallStart(TCPConnection connection, Fields data) {
+        // Quien llama es el usuario de la conexión, no el campo from (que cualquiera puede poner)
+        String from = connection.getUsername();
         String to = data.get("to");
         String isGroupStr = data.get("isGroup");
         String udpPortStr = data.get("udpPort");
@@ -224,53 +385,79 @@ public class MainServer implements TCPConnectionListener {
         boolean isGroup = "true".equalsIgnoreCase(isGroupStr);
         int callerUdpPort = Integer.parseInt(udpPortStr);
 
-        TCPConnection callerConn = userConnections.get(from);
-        if (callerConn == null) return;
-        String callerIp = callerConn.getSocket().getInetAddress().getHostAddress();
+        String callerIp = connection.getSocket().getInetAddress().getHostAddress();
 
         System.out.println("📞 Llamada de " + from + " a " + to + " | UDP: " + callerIp + ":" + callerUdpPort);
 
-        String incomingCallMsg = String.format(
-                "type:incoming_call|from:%s|to:%s|isGroup:%s|callerIp:%s|callerUdpPort:%d",
-                from, to, isGroup, callerIp, callerUdpPort
-        );
+        WireMessage incomingCall = WireMessage.push("incoming_call")
+                .put("from", from).put("to", to).put("isGroup", isGroup)
+                .put("callerIp", callerIp).put("callerUdpPort", callerUdpPort);
+        // Codecs que ofrece quien llama; los clientes anteriores no los envían
+        String codecs = data.get("codecs");
+        if (codecs != null) incomingCall.put("codecs", codecs);
+
+        // Llamada grupal con relay: todos envían su audio al servidor, que lo reenvía al resto
+        String relayCallId = null;
+        if (isGroup && mediaRelay != null && chatManager.isUserInGroup(from, to)) {
+            relayCallId = mediaRelay.createCall(to);
+            // Quien llama recibe con cualquiera de los codecs que ofreció: el primero habilitado aquí
+            mediaRelay.join(relayCallId, from, new InetSocketAddress(callerIp, callerUdpPort),
+                    AudioCodecs.negotiate(codecs));
+            incomingCall.put("callId", relayCallId).put("relayPort", RELAY_PORT);
+        }
+        EncodedMessage incomingCallMsg = EncodedMessage.of(incomingCall);
 
         if (isGroup && chatManager.groupExists(to)) {
             for (String member : chatManager.getGroupMembers(to)) {
-                if (!member.equals(from)) sendObjectToUser(member, incomingCallMsg);
+                if (!member.equals(from)) sendEncodedToUser(member, incomingCallMsg);
             }
         } else {
-            sendObjectToUser(to, incomingCallMsg);
+            sendEncodedToUser(to, incomingCallMsg);
         }
 
-        sendObjectToUser(from, "type:call_waiting|to:" + to);
+        WireMessage waiting = WireMessage.replyTo(data, "call_waiting").put("to", to);
+        if (relayCallId != null) waiting.put("callId", relayCallId).put("relayPort", RELAY_PORT);
+        connection.send(waiting);
     }
 
-    private void handleCallAccept(Map<String, String> data) {
-        String from = data.get("from");
+    private void handleCallAccept(TCPConnection connection, Fields data) {
+        String from = connection.getUsername();
         String to = data.get("to");
         String udpPortStr = data.get("udpPort");
 
         if (from == null || to == null || udpPortStr == null) return;
 
         int receiverUdpPort = Integer.parseInt(udpPortStr);
-        TCPConnection receiverConn = userConnections.get(from);
-        if (receiverConn == null) return;
-
-        String receiverIp = receiverConn.getSocket().getInetAddress().getHostAddress();
-
-        System.out.println("📲 Llamada aceptada: " + from + " ↔ " + to);
+        String receiverIp = connection.getSocket().getInetAddress().getHostAddress();
 
-        sendObjectToUser(to, String.format(
-                "type:call_accepted|from:%s|receiverIp:%s|receiverUdpPort:%d",
-                from, receiverIp, receiverUdpPort
-        ));
+        WireMessage accepted = WireMessage.push("call_accepted").put("from", from)
+                .put("receiverIp", receiverIp).put("receiverUdpPort", receiverUdpPort);
+        String callId = data.get("callId");
+        if (callId != null && mediaRelay != null) {
+            // Solo las llamadas grupales con relay llevan callId en call_accept
+            MediaRelay.JoinResult joined = mediaRelay.join(callId, from,
+                    new InetSocketAddress(receiverIp, receiverUdpPort), AudioCodecs.negotiate(data.get("codec")));
+            if (joined != MediaRelay.JoinResult.JOINED) {
+                connection.send(WireMessage.push("system_message").put("content",
+                        joined == MediaRelay.JoinResult.NO_CALL ? "La llamada grupal ya terminó."
+                                : "No eres miembro del grupo de esa llamada."));
+                return;
+            }
+            System.out.println("📲 " + from + " se unió a la llamada grupal " + callId);
+            accepted.put("callId", callId).put("relayPort", RELAY_PORT);
+        } else {
+            System.out.println("📲 Llamada aceptada: " + from + " ↔ " + to);
+        }
+        String codec = data.get("codec");
+        if (codec != null) accepted.put("codec", codec);
+        sendToUser(to, accepted);
     }
 
-    private void handleCallEnd(Map<String, String> data) {
-        String from = data.get("from");
+    private void handleCallEnd(TCPConnection connection, Fields data) {
+        String from = connection.getUsername();
         String callId = data.get("callId");
         System.out.println("🛑 Llamada finalizada por " + from + " (ID: " + callId + ")");
+        if (from != null && mediaRelay != null) mediaRelay.leave(from);
     }
 
     // =====================================================
@@ -287,11 +474,114 @@ public class MainServer implements TCPConnectionListener {
         System.out.println("🎵 Mensaje de audio de " + from + " a " + to);
     }
 
+    private void handleAudioBegin(TCPConnection connection, Fields data) {
+        String from = connection.getUsername();
+        String uploadId = data.get("uploadId");
+        String to = data.get("to");
+        if (from == null || uploadId == null || to == null) return;
+
+        try {
+            if (audioTransfers.isCommitted(uploadId)) {
+                connection.send(WireMessage.replyTo(data, "audio_committed").put("audioId", uploadId)
+                        .put("size", audioTransfers.getSize(uploadId)));
+                return;
+            }
+            long offset = audioTransfers.begin(uploadId, from, to, data.valueEquals("isGroup", "true"),
+                    data.getInt("duration", 0), data.getLong("size", -1));
+            connection.send(WireMessage.replyTo(data, "audio_ready").put("uploadId", uploadId).put("offset", offset)
+                    .put("chunkSize", AudioTransferService.CHUNK_SIZE));
+        } catch (IOException | IllegalArgumentException e) {
+            sendAudioError(connection, data, "uploadId", uploadId, e.getMessage());
+        }
+    }
+
+    private void handleAudioChunk(TCPConnection connection, Fields data) {
+        String from = connection.getUsername();
+        String uploadId = data.get("uploadId");
+        if (from == null || uploadId == null) return;
+
+        try {
+            // La parte (en base64 en modo texto, tal cual en binario) se escribe al archivo
+            // parcial; no se acumula en memoria
+            ByteBuffer bytes = data.getBytes("data");
+            if (bytes == null) return;
+            long offset = data.getLong("offset", -1);
+            long expected = offset + bytes.remaining();
+            long received = audioTransfers.writeChunk(uploadId, from, offset, bytes);
+            if (received != expected) {
+                // Parte fuera de orden: el cliente debe seguir desde lo que ya tiene el servidor
+                connection.send(WireMessage.replyTo(data, "audio_ready").put("uploadId", uploadId).put("offset", received)
+                        .put("seq", data.getInt("seq", -1)));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            sendAudioError(connection, data, "uploadId", uploadId, e.getMessage());
+        }
+    }
+
+    private void handleAudioCommit(TCPConnection connection, Fields data) {
+        String from = connection.getUsername();
+        String uploadId = data.get("uploadId");
+        if (from == null || uploadId == null) return;
+
+        try {
+            AudioMessage audioMessage = audioTransfers.commit(uploadId, from);
+            if (audioMessage == null) {
+                connection.send(WireMessage.replyTo(data, "audio_ready").put("uploadId", uploadId)
+                        .put("offset", audioTransfers.getReceived(uploadId)));
+                return;
+            }
+            connection.send(WireMessage.replyTo(data, "audio_committed").put("audioId", audioMessage.getId())
+                    .put("size", audioMessage.getAudioSize()));
+
+            EncodedMessage notice = EncodedMessage.of(WireMessage.push("audio_available")
+                    .put("audioId", audioMessage.getId()).put("from", from).put("to", audioMessage.getTo())
+                    .put("isGroup", audioMessage.isGroupMessage()).put("duration", audioMessage.getDuration())
+                    .put("size", audioMessage.getAudioSize()));
+            if (audioMessage.isGroupMessage()) {
+                for (String member : chatManager.getGroupMembers(audioMessage.getTo())) {
+                    if (!member.equals(from)) {
+                        sendEncodedToUser(member, notice);
+                    }
+                }
+            } else {
+                sendEncodedToUser(audioMessage.getTo(), notice);
+            }
+            System.out.println("🎵 Nota de voz de " + from + " a " + audioMessage.getTo()
+                    + " (" + audioMessage.getAudioSize() + " bytes)");
+        } catch (IOException | IllegalArgumentException e) {
+            sendAudioError(connection, data, "uploadId", uploadId, e.getMessage());
+        }
+    }
+
+    private void handleAudioGet(TCPConnection connection, Fields data) {
+        String audioId = data.get("audioId");
+        if (connection.getUsername() == null || audioId == null) return;
+
+        try {
+            long size = audioTransfers.getSize(audioId);
+            if (size < 0) {
+                sendAudioError(connection, data, "audioId", audioId, "La nota de voz no existe");
+                return;
+            }
+            long next = audioTransfers.readRange(audioId, data.getLong("offset", 0),
+                    data.getLong("length", AudioTransferService.MAX_RANGE_BYTES),
+                    (seq, offset, chunk) -> connection.send(WireMessage.replyTo(data, "audio_data").put("audioId", audioId)
+                            .put("seq", seq).put("offset", offset).putBytes("data", chunk)));
+            connection.send(WireMessage.replyTo(data, "audio_end").put("audioId", audioId).put("offset", next).put("size", size));
+        } catch (IOException | IllegalArgumentException e) {
+            sendAudioError(connection, data, "audioId", audioId, e.getMessage());
+        }
+    }
+
+    private void sendAudioError(TCPConnection connection, Fields request, String idField, String id, String message) {
+        connection.send(WireMessage.replyTo(request, "audio_error").put(idField, id).put("message", message));
+    }
+
     // =====================================================
     // 👥 Mensajes de grupo
     // =====================================================
 
-    private void handleGroupMessage(Map<String, String> data) {
+    private void handleGroupMessage(TCPConnection connection, Fields data) {
         String from = data.get("from");
         String groupName = data.get("group_name");
         String content = data.get("content");
@@ -301,13 +591,15 @@ public class MainServer implements TCPConnectionListener {
         if (chatManager.groupExists(groupName)) {
             chatManager.saveTextMessage(new Message(from, groupName, content, true));
 
-            String msg = String.format("type:group_message|from:%s|group:%s|content:%s", from, groupName, content);
+            // Se codifica una sola vez y se reparte el mismo buffer a todos los miembros
+            EncodedMessage msg = EncodedMessage.of(WireMessage.push("group_message")
+                    .put("from", from).put("group", groupName).put("content", content));
             for (String member : chatManager.getGroupMembers(groupName)) {
                 if (!member.equals(from)) {
-                    sendObjectToUser(member, msg);
+                    sendEncodedToUser(member, msg);
                 }
             }
-            sendObjectToUser(from, "type:message_sent|group:" + groupName + "|status:ok|content:" + content);
+            connection.send(WireMessage.replyTo(data, "message_sent").put("group", groupName).put("status", "ok").put("content", content));
         }
     }
 
@@ -322,27 +614,46 @@ public class MainServer implements TCPConnectionListener {
         }
     }
 
-    private void broadcastObject(Object object) {
-        for (TCPConnection conn : userConnections.values()) {
-            if (conn.isConnected()) {
-                conn.sendObject((Serializable) object);
-            }
+    private void sendToUser(String username, WireMessage message) {
+        sendEncodedToUser(username, EncodedMessage.of(message));
+    }
+
+    private void sendEncodedToUser(String username, EncodedMessage message) {
+        TCPConnection conn = userConnections.get(username);
+        if (conn != null && conn.isConnected()) {
+            conn.sendEncoded(message);
         }
     }
 
-    private String findUserByConnection(TCPConnection connection) {
-        for (Map.Entry<String, TCPConnection> entry : userConnections.entrySet()) {
-            if (entry.getValue().equals(connection)) return entry.getKey();
+    /**
+     * Envía un aviso de sistema (no crítico, ver {@link EncodedMessage#notification}) a todos:
+     * un cliente lento puede descartarlo o agruparlo con los de la misma clave en lugar de
+     * acumularlo.
+     */
+    private void broadcast(EncodedMessage message) {
+        for (TCPConnection conn : userConnections.values()) {
+            if (conn.isConnected()) {
+                conn.sendEncoded(message);
+            }
         }
-        return null;
     }
 
-    private Map<String, String> parseCommand(String command) {
-        Map<String, String> result = new HashMap<>();
-        for (String part : command.split("\\|")) {
-            String[] kv = part.split(":", 2);
-            if (kv.length == 2) result.put(kv[0], kv[1]);
+    /**
+     * Envía un único aviso de sistema para todos los usuarios acumulados en la ráfaga.
+     */
+    private void broadcastPresence(List<String> users, String singular, String plural) {
+        String content;
+        if (users.size() == 1) {
+            content = users.get(0) + " " + singular;
+        } else if (users.size() <= PRESENCE_MAX_NAMES) {
+            content = String.join(", ", users.subList(0, users.size() - 1))
+                    + " y " + users.get(users.size() - 1) + " " + plural;
+        } else {
+            content = users.size() + " usuarios " + plural;
         }
-        return result;
+        // Si un cliente lento junta varios avisos de presencia recibe la lista de conectados
+        // del momento en que se le envía, no solo el último aviso
+        broadcast(EncodedMessage.notification("presence", WireMessage.push("system_message").put("content", content),
+                () -> WireMessage.push("online_users").put("users", String.join(",", chatManager.getOnlineUsers()))));
     }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codec de audio para llamadas y notas de voz.
+ *
+ * Del lado sin comprimir siempre es PCM lineal de 16 bits little-endian, 16 kHz, mono (el
+ * formato de {@link AudioRecorder} y {@link AudioPlayer}). Cada bloque codificado se puede
+ * decodificar solo, sin los anteriores: si se pierde un paquete de la llamada, los siguientes
+ * se escuchan bien.
+ *
+ * encode() puede guardar estado entre bloques (ADPCM conserva el predictor para no perder
+ * calidad al comienzo de cada bloque), así que se usa una instancia por flujo; ver
+ * {@link AudioCodecs#create(String)}. decode() no depende de estado.
+ */
+public interface AudioCodec {
+
+    /** Nombre usado en la negociación ("pcm16", "pcmu", "pcma", "ima-adpcm"). */
+    String getName();
+
+    /** Tipo de payload de la cabecera RTP de las llamadas. */
+    int getPayloadType();
+
+    /** Cota superior de bytes codificados para pcmBytes bytes de audio. */
+    int maxEncodedBytes(int pcmBytes);
+
+    /** Bytes de audio que produce decodificar encodedBytes bytes. */
+    int decodedBytes(int encodedBytes);
+
+    /**
+     * Codifica length bytes de PCM (un número par) escribiendo en out desde su posición, y
+     * devuelve cuántos bytes escribió.
+     */
+    int encode(byte[] pcm, int offset, int length, ByteBuffer out);
+
+    /**
+     * Decodifica el contenido de in (de position a limit, sin moverla) en pcm desde offset, y
+     * devuelve cuántos bytes de audio escribió. Si no entran, se escribe lo que entra.
+     */
+    int decode(ByteBuffer in, byte[] pcm, int offset);
+}
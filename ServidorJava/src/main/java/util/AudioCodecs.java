@@ -0,0 +1,94 @@
+package util;
+
+import network.RtpPacket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Codecs disponibles y negociación.
+ *
+ * Quien llama ofrece en call_start la lista de codecs que acepta, en orden de preferencia
+ * (campo codecs); quien atiende elige el primero que también tiene habilitado y lo indica en
+ * call_accept (campo codec). Si alguno de los dos no envía esos campos (un cliente anterior),
+ * la llamada usa PCM sin comprimir.
+ *
+ * Propiedades:
+ * - chat.call.codecs: codecs habilitados para llamadas, en orden de preferencia.
+ * - chat.audio.codec: codec de las notas de voz que se graban.
+ */
+public final class AudioCodecs {
+    public static final String DEFAULT_CALL_CODECS = "ima-adpcm,pcmu,pcma,pcm16";
+    public static final String DEFAULT_VOICE_NOTE_CODEC = "ima-adpcm";
+
+    private AudioCodecs() {
+    }
+
+    /**
+     * Instancia nueva del codec (ver {@link AudioCodec}: una por flujo), o null si el nombre no
+     * es conocido.
+     */
+    public static AudioCodec create(String name) {
+        if (name == null) return null;
+        return switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "pcm16" -> PcmCodec.INSTANCE;
+            case "pcmu" -> G711Codec.ULAW;
+            case "pcma" -> G711Codec.ALAW;
+            case "ima-adpcm" -> new ImaAdpcmCodec();
+            default -> null;
+        };
+    }
+
+    /**
+     * Codec para decodificar un paquete según el tipo de payload de su cabecera RTP, o null si
+     * no es conocido. Los decodificadores no guardan estado, así que se puede reutilizar.
+     */
+    public static AudioCodec forPayloadType(int payloadType) {
+        return switch (payloadType) {
+            case RtpPacket.PAYLOAD_PCM16 -> PcmCodec.INSTANCE;
+            case RtpPacket.PAYLOAD_PCMU -> G711Codec.ULAW;
+            case RtpPacket.PAYLOAD_PCMA -> G711Codec.ALAW;
+            case RtpPacket.PAYLOAD_DVI4 -> new ImaAdpcmCodec();
+            default -> null;
+        };
+    }
+
+    /**
+     * Codecs habilitados para llamadas, en orden de preferencia, separados por comas (el valor
+     * del campo codecs de call_start).
+     */
+    public static String callCodecs() {
+        List<String> names = new ArrayList<>();
+        for (String name : System.getProperty("chat.call.codecs", DEFAULT_CALL_CODECS).split(",")) {
+            AudioCodec codec = create(name);
+            if (codec != null && !names.contains(codec.getName())) names.add(codec.getName());
+        }
+        if (!names.contains(PcmCodec.INSTANCE.getName())) names.add(PcmCodec.INSTANCE.getName());
+        return String.join(",", names);
+    }
+
+    /**
+     * Elige el codec de la llamada: el primero de la lista ofrecida que está habilitado aquí.
+     * Sin oferta, o sin ninguno en común, PCM.
+     */
+    public static AudioCodec negotiate(String offered) {
+        if (offered != null && !offered.isEmpty()) {
+            List<String> enabled = List.of(callCodecs().split(","));
+            for (String name : offered.split(",")) {
+                AudioCodec codec = create(name);
+                if (codec != null && enabled.contains(codec.getName())) return codec;
+            }
+        }
+        return PcmCodec.INSTANCE;
+    }
+
+    /**
+     * Codec para guardar las notas de voz grabadas; PCM si la propiedad tiene un nombre
+     * desconocido.
+     */
+    public static AudioCodec voiceNoteCodec() {
+        AudioCodec codec = create(System.getProperty("chat.audio.codec", DEFAULT_VOICE_NOTE_CODEC));
+        return codec != null ? codec : PcmCodec.INSTANCE;
+    }
+}
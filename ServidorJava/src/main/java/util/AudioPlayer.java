@@ -1,11 +1,13 @@
 package util;
 
+import network.PacketBuffer;
+import network.RtpPacket;
+
 import javax.sound.sampled.*;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Arrays;
 
 public class AudioPlayer {
     private static final int BUFFER_SIZE = 1024;
@@ -14,28 +16,36 @@ public class AudioPlayer {
     private SourceDataLine speakers;
     private boolean isPlaying = false;
     private Thread playbackThread;
-    private BlockingQueue<byte[]> audioBuffer;
+    // Audio decodificado de un paquete: ADPCM se expande 4 veces
+    private static final int PACKET_BYTES = 8192;
+    // Buffer de la línea de salida en llamadas: chico para no sumar latencia; la
+    // variación de la red la absorbe el jitter buffer
+    private static final int CALL_LINE_BUFFER_BYTES = 3072;
+
+    // En una llamada grupal llega un flujo por participante (cada uno con su SSRC), reenviado
+    // por el relay del servidor: cada flujo tiene su jitter buffer y se mezclan al reproducir
+    private static final int MAX_STREAMS = 8;
+    private final JitterBuffer[] streams = new JitterBuffer[MAX_STREAMS];
+    // Último paquete de cada flujo (System.nanoTime), para reutilizar el más inactivo
+    private final long[] lastPacketNanos = new long[MAX_STREAMS];
+    // Un flujo que no envía hace este tiempo puede ceder su lugar; antes no, para no cortar
+    // a alguien que habla cada vez que aparece otro SSRC
+    private static final long STREAM_IDLE_NANOS = 500_000_000L;
 
     public AudioPlayer() {
-        this.audioBuffer = new LinkedBlockingQueue<>(50); // Buffer de 50 paquetes
+        for (int i = 0; i < MAX_STREAMS; i++) {
+            streams[i] = new JitterBuffer();
+        }
     }
 
     public void saveVoiceNote(byte[] audioData, String fileName) throws IOException {
-        File audioDir = new File("data/audio");
-        if (!audioDir.exists()) {
-            audioDir.mkdirs();
-        }
-
-        ByteArrayInputStream byteStream = new ByteArrayInputStream(audioData);
-        AudioInputStream audioStream = new AudioInputStream(byteStream, AUDIO_FORMAT, audioData.length / AUDIO_FORMAT.getFrameSize());
-
-        File outputFile = new File("data/audio/" + fileName + ".wav");
-        AudioSystem.write(audioStream, AudioFileFormat.Type.WAVE, outputFile);
-
-        audioStream.close();
-        byteStream.close();
+        WavFile.write(new File("data/audio/" + fileName + ".wav"), AudioCodecs.voiceNoteCodec(), audioData);
     }
 
+    /**
+     * Reproduce una nota de voz guardada. Se decodifica con {@link WavFile}, que entiende todos
+     * los codecs de las notas (javax.sound no lee IMA ADPCM).
+     */
     public void playVoiceNote(String fileName) {
         try {
             File audioFile = new File("data/audio/" + fileName + ".wav");
@@ -44,24 +54,9 @@ public class AudioPlayer {
                 return;
             }
 
-            AudioInputStream audioStream = AudioSystem.getAudioInputStream(audioFile);
-            DataLine.Info info = new DataLine.Info(SourceDataLine.class, AUDIO_FORMAT);
-            speakers = (SourceDataLine) AudioSystem.getLine(info);
-            speakers.open(AUDIO_FORMAT);
-            speakers.start();
-
+            byte[] pcm = WavFile.readPcm(audioFile);
             System.out.println("Reproduciendo nota de voz: " + fileName);
-
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-            while ((bytesRead = audioStream.read(buffer)) != -1) {
-                speakers.write(buffer, 0, bytesRead);
-            }
-
-            speakers.drain();
-            speakers.close();
-            audioStream.close();
-
+            playRawAudio(pcm);
             System.out.println("Reproduccion terminada.");
 
         } catch (Exception e) {
@@ -69,6 +64,10 @@ public class AudioPlayer {
         }
     }
 
+    /**
+     * Empieza a reproducir el audio de una llamada. Cada paquete se decodifica según el tipo de
+     * payload de su cabecera, así que cada participante puede usar un codec distinto.
+     */
     public void startPlayingForCall() {
         if (isPlaying) return;
 
@@ -77,19 +76,61 @@ public class AudioPlayer {
             try {
                 DataLine.Info info = new DataLine.Info(SourceDataLine.class, AUDIO_FORMAT);
                 speakers = (SourceDataLine) AudioSystem.getLine(info);
-                speakers.open(AUDIO_FORMAT);
+                speakers.open(AUDIO_FORMAT, CALL_LINE_BUFFER_BYTES);
                 speakers.start();
 
                 System.out.println("Reproduccion de llamada iniciada...");
 
-                while (isPlaying) {
-                    try {
-                        byte[] audioData = audioBuffer.take();
-                        speakers.write(audioData, 0, audioData.length);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
+                // La escritura bloquea mientras la línea está llena, así que el ritmo lo marca
+                // la placa de audio: se pide un paquete a cada flujo por cada paquete
+                // reproducido y, si ninguno tiene (llenando, perdido o underrun), se reproduce
+                // silencio del mismo largo.
+                // SourceDataLine solo acepta arreglos: los paquetes se decodifican en uno
+                // reutilizado y se suman muestra a muestra
+                byte[] frame = new byte[PACKET_BYTES];
+                int[] mix = new int[PACKET_BYTES / 2];
+                AudioCodec[] decoders = new AudioCodec[MAX_STREAMS];
+                int[] decoderTypes = new int[MAX_STREAMS];
+                while (isPlaying && !Thread.currentThread().isInterrupted()) {
+                    int mixedSamples = 0;
+                    int silenceBytes = 0;
+                    for (int i = 0; i < MAX_STREAMS; i++) {
+                        JitterBuffer stream = streams[i];
+                        if (!stream.isStarted()) continue;
+                        if (silenceBytes == 0) silenceBytes = stream.getPacketBytes();
+                        PacketBuffer packet = stream.poll();
+                        if (packet == null) continue;
+
+                        int payloadType = stream.getPayloadType();
+                        if (decoders[i] == null || decoderTypes[i] != payloadType) {
+                            decoders[i] = AudioCodecs.forPayloadType(payloadType);
+                            decoderTypes[i] = payloadType;
+                        }
+                        int samples = decoders[i] != null ? decoders[i].decode(packet.data(), frame, 0) / 2 : 0;
+                        packet.release();
+                        if (samples > mixedSamples) {
+                            Arrays.fill(mix, mixedSamples, samples, 0);
+                        }
+                        for (int s = 0; s < samples; s++) {
+                            int value = (short) ((frame[2 * s] & 0xFF) | (frame[2 * s + 1] << 8));
+                            mix[s] += value;
+                        }
+                        mixedSamples = Math.max(mixedSamples, samples);
+                    }
+
+                    int length;
+                    if (mixedSamples > 0) {
+                        for (int s = 0; s < mixedSamples; s++) {
+                            int value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[s]));
+                            frame[2 * s] = (byte) value;
+                            frame[2 * s + 1] = (byte) (value >> 8);
+                        }
+                        length = mixedSamples * 2;
+                    } else {
+                        length = Math.min(frame.length, silenceBytes > 0 ? silenceBytes : BUFFER_SIZE);
+                        Arrays.fill(frame, 0, length, (byte) 0);
                     }
+                    speakers.write(frame, 0, length);
                 }
             } catch (Exception e) {
                 // No mostramos error si fue una interrupción normal.
@@ -109,13 +150,53 @@ public class AudioPlayer {
         playbackThread.start();
     }
 
-    public void addAudioData(byte[] audioData) {
-        if (isPlaying && audioData != null) {
-            if (!audioBuffer.offer(audioData)) {
-                audioBuffer.poll();
-                audioBuffer.offer(audioData);
+    /**
+     * Pasa un paquete recibido (con cabecera RTP) al jitter buffer de su flujo; el reproductor
+     * lo devuelve a su pool después de reproducirlo. Lo llama solo el hilo receptor UDP.
+     */
+    public void addAudioPacket(PacketBuffer packet) {
+        if (!isPlaying || !RtpPacket.isValid(packet.data())) {
+            packet.release();
+            return;
+        }
+        int ssrc = RtpPacket.ssrc(packet.data());
+        long now = System.nanoTime();
+        int slot = -1;
+        int oldest = 0;
+        for (int i = 0; i < MAX_STREAMS; i++) {
+            if (!streams[i].isStarted()) {
+                if (slot < 0) slot = i;
+            } else if (streams[i].getSsrc() == ssrc) {
+                slot = i;
+                break;
             }
+            if (lastPacketNanos[i] - lastPacketNanos[oldest] < 0) oldest = i;
         }
+        // Sin lugar libre se reemplaza el flujo que hace más tiempo no envía (el jitter buffer
+        // se reinicia solo al ver otro SSRC), si ya está inactivo. Si todos siguen activos, el
+        // flujo nuevo se ignora: el relay reenvía a lo sumo 8, así que no debería pasar
+        if (slot < 0) {
+            if (now - lastPacketNanos[oldest] < STREAM_IDLE_NANOS) {
+                packet.release();
+                return;
+            }
+            slot = oldest;
+        }
+        lastPacketNanos[slot] = now;
+        streams[slot].offer(packet);
+    }
+
+    /**
+     * Estadísticas de recepción de cada flujo de la llamada.
+     */
+    public String getStats() {
+        StringBuilder stats = new StringBuilder();
+        for (JitterBuffer stream : streams) {
+            if (!stream.isStarted()) continue;
+            if (stats.length() > 0) stats.append("; ");
+            stats.append(String.format("SSRC %08x: ", stream.getSsrc())).append(stream);
+        }
+        return stats.length() > 0 ? stats.toString() : "sin audio";
     }
 
     public void playRawAudio(byte[] audioData) {
@@ -151,7 +232,9 @@ public class AudioPlayer {
         if (playbackThread != null) {
             playbackThread.interrupt();
         }
-        audioBuffer.clear();
+        for (JitterBuffer stream : streams) {
+            stream.clear();
+        }
     }
 
     public boolean isPlaying() {
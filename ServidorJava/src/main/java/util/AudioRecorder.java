@@ -99,18 +99,9 @@ public class AudioRecorder {
         }
     }
 
+    // Se guarda comprimido con el codec de notas de voz (chat.audio.codec)
     private void saveVoiceNote(byte[] audioData, String fileName) throws IOException {
-        // Crear directorio si no existe
-        File audioDir = new File("data/audio");
-        if (!audioDir.exists()) {
-            audioDir.mkdirs();
-        }
-
-        ByteArrayInputStream byteStream = new ByteArrayInputStream(audioData);
-        AudioInputStream audioStream = new AudioInputStream(byteStream, AUDIO_FORMAT, audioData.length / AUDIO_FORMAT.getFrameSize());
-
-        File outputFile = new File("data/audio/" + fileName + ".wav");
-        AudioSystem.write(audioStream, AudioFileFormat.Type.WAVE, outputFile);
+        WavFile.write(new File("data/audio/" + fileName + ".wav"), AudioCodecs.voiceNoteCodec(), audioData);
     }
 
     public boolean isRecording() {
@@ -0,0 +1,43 @@
+package util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Campos de un comando recibido, sin importar cómo llegó: como línea de texto
+ * ({@link KeyValueLine}) o como frame binario ({@code network.Frame}).
+ *
+ * El campo "type" siempre está disponible, aunque en los frames binarios viaje como etiqueta.
+ */
+public interface Fields {
+    int size();
+
+    boolean has(String key);
+
+    /**
+     * Valor de la clave como texto, o null si no existe.
+     */
+    String get(String key);
+
+    /**
+     * Vista del valor sin copiarlo (si la representación lo permite), o null si no existe.
+     */
+    CharSequence view(String key);
+
+    boolean valueEquals(String key, CharSequence expected);
+
+    int getInt(String key, int defaultValue);
+
+    long getLong(String key, long defaultValue);
+
+    /**
+     * Hash (mismo algoritmo que String.hashCode) del valor de la clave; 0 si no existe.
+     */
+    int valueHash(String key);
+
+    /**
+     * Datos binarios de la clave, o null si no existe. En texto viajan en base64 y se
+     * decodifican aquí (lanza IllegalArgumentException si no son base64 válido); en los
+     * frames binarios se devuelven tal cual, sin copia.
+     */
+    ByteBuffer getBytes(String key);
+}
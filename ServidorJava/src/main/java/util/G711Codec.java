@@ -0,0 +1,131 @@
+package util;
+
+import network.RtpPacket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * G.711: cada muestra de 16 bits se guarda en un byte con escala logarítmica (μ-law o A-law).
+ * La mitad del tamaño de PCM (128 kbit/s a 16 kHz) y prácticamente sin costo de CPU.
+ *
+ * La codificación sigue la implementación de referencia de Sun (g711.c); la decodificación
+ * usa una tabla de 256 entradas.
+ */
+public final class G711Codec implements AudioCodec {
+    public static final G711Codec ULAW = new G711Codec("pcmu", RtpPacket.PAYLOAD_PCMU, true);
+    public static final G711Codec ALAW = new G711Codec("pcma", RtpPacket.PAYLOAD_PCMA, false);
+
+    private static final int ULAW_BIAS = 0x84;
+    private static final int ULAW_CLIP = 32635;
+
+    private final String name;
+    private final int payloadType;
+    private final boolean ulaw;
+    private final short[] decodeTable = new short[256];
+
+    private G711Codec(String name, int payloadType, boolean ulaw) {
+        this.name = name;
+        this.payloadType = payloadType;
+        this.ulaw = ulaw;
+        for (int i = 0; i < 256; i++) {
+            decodeTable[i] = (short) (ulaw ? ulawToLinear(i) : alawToLinear(i));
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getPayloadType() {
+        return payloadType;
+    }
+
+    /** Código de formato WAV (7 = μ-law, 6 = A-law). */
+    public int getWavFormatTag() {
+        return ulaw ? 7 : 6;
+    }
+
+    @Override
+    public int maxEncodedBytes(int pcmBytes) {
+        return pcmBytes / 2;
+    }
+
+    @Override
+    public int decodedBytes(int encodedBytes) {
+        return encodedBytes * 2;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int offset, int length, ByteBuffer out) {
+        int samples = length / 2;
+        for (int i = 0, p = offset; i < samples; i++, p += 2) {
+            int sample = (short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8));
+            out.put((byte) (ulaw ? linearToUlaw(sample) : linearToAlaw(sample)));
+        }
+        return samples;
+    }
+
+    @Override
+    public int decode(ByteBuffer in, byte[] pcm, int offset) {
+        int samples = Math.min(in.remaining(), (pcm.length - offset) / 2);
+        int position = in.position();
+        for (int i = 0, p = offset; i < samples; i++, p += 2) {
+            short sample = decodeTable[in.get(position + i) & 0xFF];
+            pcm[p] = (byte) sample;
+            pcm[p + 1] = (byte) (sample >> 8);
+        }
+        return samples * 2;
+    }
+
+    static int linearToUlaw(int sample) {
+        int sign = 0;
+        if (sample < 0) {
+            sign = 0x80;
+            sample = -sample;
+        }
+        if (sample > ULAW_CLIP) sample = ULAW_CLIP;
+        sample += ULAW_BIAS;
+        // Con el bias la muestra tiene entre 8 y 15 bits: el segmento es la posición del bit alto
+        int exponent = 24 - Integer.numberOfLeadingZeros(sample);
+        int mantissa = (sample >> (exponent + 3)) & 0x0F;
+        return ~(sign | (exponent << 4) | mantissa) & 0xFF;
+    }
+
+    static int ulawToLinear(int code) {
+        code = ~code & 0xFF;
+        int exponent = (code >> 4) & 0x07;
+        int sample = ((((code & 0x0F) << 3) + ULAW_BIAS) << exponent) - ULAW_BIAS;
+        return (code & 0x80) != 0 ? -sample : sample;
+    }
+
+    static int linearToAlaw(int sample) {
+        // A-law trabaja con 13 bits
+        int value = sample >> 3;
+        int mask;
+        if (value >= 0) {
+            mask = 0xD5;
+        } else {
+            mask = 0x55;
+            value = -value - 1;
+        }
+        int segment = value <= 0x1F ? 0 : 27 - Integer.numberOfLeadingZeros(value);
+        if (segment >= 8) return 0x7F ^ mask;
+        int code = segment << 4;
+        code |= (segment < 2 ? value >> 1 : value >> segment) & 0x0F;
+        return code ^ mask;
+    }
+
+    static int alawToLinear(int code) {
+        code ^= 0x55;
+        int sample = (code & 0x0F) << 4;
+        int segment = (code & 0x70) >> 4;
+        if (segment == 0) {
+            sample += 8;
+        } else {
+            sample = (sample + 0x108) << (segment - 1);
+        }
+        return (code & 0x80) != 0 ? sample : -sample;
+    }
+}
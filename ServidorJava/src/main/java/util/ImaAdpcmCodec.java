@@ -0,0 +1,155 @@
+package util;
+
+import network.RtpPacket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * IMA ADPCM: 4 bits por muestra (64 kbit/s a 16 kHz, un cuarto de PCM). Cada muestra se
+ * guarda como la diferencia con la predicción, cuantizada con un paso que se adapta solo.
+ *
+ * En las llamadas usa el formato DVI4 de RTP (RFC 3551, 4.5.1): cada paquete empieza con el
+ * estado del decodificador (predicción de 16 bits big-endian, índice del paso y un byte
+ * reservado) y sigue con las muestras, la primera en el nibble alto. Con ese encabezado cada
+ * paquete se decodifica solo. Las notas de voz usan los bloques del formato WAV de IMA ADPCM
+ * (ver {@link WavFile}).
+ *
+ * El codificador conserva la predicción entre bloques: una instancia por flujo.
+ */
+public final class ImaAdpcmCodec implements AudioCodec {
+    static final int HEADER_BYTES = 4;
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+            19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+            130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+            876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    // Estado del codificador (o del decodificador, en las instancias de WavFile)
+    int predicted;
+    int index;
+
+    @Override
+    public String getName() {
+        return "ima-adpcm";
+    }
+
+    @Override
+    public int getPayloadType() {
+        return RtpPacket.PAYLOAD_DVI4;
+    }
+
+    @Override
+    public int maxEncodedBytes(int pcmBytes) {
+        return HEADER_BYTES + (pcmBytes / 2 + 1) / 2;
+    }
+
+    @Override
+    public int decodedBytes(int encodedBytes) {
+        return Math.max(0, encodedBytes - HEADER_BYTES) * 4;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int offset, int length, ByteBuffer out) {
+        int samples = length / 2;
+        out.putShort((short) predicted);
+        out.put((byte) index);
+        out.put((byte) 0);
+        int written = HEADER_BYTES;
+        for (int i = 0, p = offset; i < samples; i += 2, p += 4) {
+            int high = encodeSample((short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8)));
+            // Con un número impar de muestras el último nibble queda en 0
+            int low = i + 1 < samples ? encodeSample((short) ((pcm[p + 2] & 0xFF) | (pcm[p + 3] << 8))) : 0;
+            out.put((byte) ((high << 4) | low));
+            written++;
+        }
+        return written;
+    }
+
+    @Override
+    public int decode(ByteBuffer in, byte[] pcm, int offset) {
+        int position = in.position();
+        int length = in.remaining();
+        if (length < HEADER_BYTES) return 0;
+
+        int value = in.getShort(position);
+        int step = Math.min(88, in.get(position + 2) & 0xFF);
+        int limit = Math.min(length - HEADER_BYTES, (pcm.length - offset) / 4);
+        int p = offset;
+        for (int i = 0; i < limit; i++) {
+            int codes = in.get(position + HEADER_BYTES + i);
+            for (int shift = 4; shift >= 0; shift -= 4) {
+                int code = (codes >> shift) & 0x0F;
+                value = clamp(value + delta(code, STEP_TABLE[step]));
+                step = nextIndex(step, code);
+                pcm[p++] = (byte) value;
+                pcm[p++] = (byte) (value >> 8);
+            }
+        }
+        return p - offset;
+    }
+
+    /**
+     * Codifica una muestra con el estado actual y lo actualiza; devuelve el nibble.
+     */
+    int encodeSample(int sample) {
+        int step = STEP_TABLE[index];
+        int diff = sample - predicted;
+        int code = 0;
+        if (diff < 0) {
+            code = 8;
+            diff = -diff;
+        }
+        if (diff >= step) {
+            code |= 4;
+            diff -= step;
+        }
+        if (diff >= step >> 1) {
+            code |= 2;
+            diff -= step >> 1;
+        }
+        if (diff >= step >> 2) {
+            code |= 1;
+        }
+        // Se avanza con el mismo cálculo que el decodificador para no desincronizarse
+        predicted = clamp(predicted + delta(code, step));
+        index = nextIndex(index, code);
+        return code;
+    }
+
+    /**
+     * Decodifica un nibble con el estado actual y lo actualiza; devuelve la muestra.
+     */
+    int decodeSample(int code) {
+        predicted = clamp(predicted + delta(code, STEP_TABLE[index]));
+        index = nextIndex(index, code);
+        return predicted;
+    }
+
+    private static int delta(int code, int step) {
+        int delta = step >> 3;
+        if ((code & 4) != 0) delta += step;
+        if ((code & 2) != 0) delta += step >> 1;
+        if ((code & 1) != 0) delta += step >> 2;
+        return (code & 8) != 0 ? -delta : delta;
+    }
+
+    private static int nextIndex(int index, int code) {
+        return Math.max(0, Math.min(88, index + INDEX_TABLE[code]));
+    }
+
+    private static int clamp(int value) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
+}
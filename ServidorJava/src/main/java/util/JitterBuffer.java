@@ -0,0 +1,270 @@
+package util;
+
+import network.PacketBuffer;
+import network.RtpPacket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer de reproducción adaptativo para el audio de una llamada.
+ *
+ * Los paquetes (con cabecera {@link RtpPacket}) se ubican por número de secuencia, así que
+ * se reproducen en orden aunque lleguen desordenados. La demora de reproducción se ajusta a
+ * la variación medida en los tiempos de llegada (jitter, calculado como en RFC 3550): con un
+ * enlace estable se reproduce casi sin esperar y con uno irregular se espera un poco más.
+ * Si se acumula más audio que el necesario se descartan paquetes viejos, de modo que la
+ * latencia no crece hasta llenar el buffer.
+ *
+ * Estadísticas:
+ * - underruns: el reproductor necesitaba audio y no había nada (vuelve a llenar el buffer).
+ * - perdidos: faltaba el paquete que tocaba reproducir (se reproduce silencio).
+ * - tardíos: el paquete llegó después de su turno y se descartó.
+ * - recortes: paquetes descartados para bajar la latencia.
+ *
+ * offer() y poll() pueden llamarse desde hilos distintos (receptor UDP y reproductor).
+ */
+public class JitterBuffer {
+    // Ventana de paquetes (~2 s con paquetes de 32 ms); debe ser potencia de 2
+    private static final int SLOTS = 64;
+    private static final int NANOS_PER_TICK = 1_000_000_000 / RtpPacket.CLOCK_RATE;
+    private static final double JITTER_FACTOR = 3.0;
+    // Paquetes de más sobre el objetivo antes de recortar
+    private static final int MARGIN_PACKETS = 2;
+
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final PacketBuffer[] slots = new PacketBuffer[SLOTS];
+
+    private boolean started;
+    private boolean playing;
+    private int ssrc;
+    private int payloadType;
+    private int nextSequence;
+    private int highestSequence;
+    private long highestTimestamp;
+
+    // Jitter y tamaño de paquete estimados, en ticks del reloj de los timestamps
+    private double jitter;
+    private int lastTransit;
+    private boolean hasTransit;
+    private double packetTicks = 512;
+
+    private long received;
+    private long played;
+    private long underruns;
+    private long lost;
+    private long lateDrops;
+    private long trimmed;
+    private long invalid;
+
+    public JitterBuffer() {
+        this(Long.getLong("chat.call.jitterMinMs", 40), Long.getLong("chat.call.jitterMaxMs", 300));
+    }
+
+    public JitterBuffer(long minDelayMs, long maxDelayMs) {
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = Math.max(minDelayMs, maxDelayMs);
+    }
+
+    /**
+     * Recibe un paquete. El buffer queda a cargo del jitter buffer hasta que poll() lo
+     * devuelve, o lo libera si lo descarta.
+     */
+    public synchronized void offer(PacketBuffer packet) {
+        ByteBuffer data = packet.data();
+        if (!RtpPacket.isValid(data)) {
+            invalid++;
+            packet.release();
+            return;
+        }
+        int sequence = RtpPacket.sequence(data);
+        long timestamp = RtpPacket.timestamp(data);
+        int packetSsrc = RtpPacket.ssrc(data);
+
+        if (!started || packetSsrc != ssrc) {
+            // Primer paquete o nuevo flujo (el otro lado reinició la llamada)
+            clear();
+            started = true;
+            ssrc = packetSsrc;
+            nextSequence = sequence;
+            highestSequence = sequence;
+            highestTimestamp = timestamp;
+        }
+        received++;
+        payloadType = RtpPacket.payloadType(data);
+        updateJitter(timestamp);
+
+        int newer = RtpPacket.sequenceDelta(highestSequence, sequence);
+        if (newer > 0) {
+            int ticks = (int) (timestamp - highestTimestamp);
+            if (newer == 1 && ticks > 0 && ticks <= RtpPacket.CLOCK_RATE) {
+                packetTicks += (ticks - packetTicks) / 8;
+            }
+            highestSequence = sequence;
+            highestTimestamp = timestamp;
+        }
+
+        int ahead = RtpPacket.sequenceDelta(nextSequence, sequence);
+        if (ahead < 0) {
+            lateDrops++;
+            packet.release();
+            return;
+        }
+        if (ahead >= SLOTS) {
+            // Salto mayor que la ventana: se descarta lo pendiente y se sigue desde aquí
+            releaseAll();
+            nextSequence = sequence;
+            playing = false;
+        }
+
+        int slot = sequence & (SLOTS - 1);
+        if (slots[slot] != null) {
+            packet.release(); // duplicado
+            return;
+        }
+        data.position(data.position() + RtpPacket.HEADER_BYTES);
+        slots[slot] = packet;
+    }
+
+    /**
+     * Siguiente paquete a reproducir (con la posición en el audio, sin la cabecera), o null si
+     * toca silencio: el buffer se está llenando, hubo un underrun o el paquete se perdió.
+     * Quien lo recibe lo devuelve al pool después de reproducirlo.
+     */
+    public synchronized PacketBuffer poll() {
+        if (!started) return null;
+
+        int buffered = RtpPacket.sequenceDelta(nextSequence, highestSequence) + 1;
+        int target = targetPackets();
+        if (!playing) {
+            if (buffered < target) return null;
+            playing = true;
+        }
+
+        while (buffered > target + MARGIN_PACKETS) {
+            PacketBuffer skipped = take();
+            if (skipped != null) skipped.release();
+            trimmed++;
+            buffered--;
+        }
+
+        if (buffered <= 0) {
+            underruns++;
+            playing = false;
+            return null;
+        }
+
+        PacketBuffer packet = take();
+        if (packet == null) {
+            lost++;
+        } else {
+            played++;
+        }
+        return packet;
+    }
+
+    /** SSRC del flujo actual (válido después del primer paquete). */
+    public synchronized int getSsrc() {
+        return ssrc;
+    }
+
+    /** true si recibió algún paquete desde el último clear(). */
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    /** Tipo de payload del último paquete recibido: indica cómo decodificar el audio. */
+    public synchronized int getPayloadType() {
+        return payloadType;
+    }
+
+    /**
+     * Bytes de audio de un paquete típico (para reproducir silencio del mismo largo).
+     */
+    public synchronized int getPacketBytes() {
+        return Math.max(2, (int) Math.round(packetTicks) * 2);
+    }
+
+    /** Demora de reproducción objetivo según el jitter medido. */
+    public synchronized long getTargetDelayMs() {
+        return Math.round(targetPackets() * ticksToMs(packetTicks));
+    }
+
+    public synchronized double getJitterMs() {
+        return ticksToMs(jitter);
+    }
+
+    public synchronized long getUnderruns() {
+        return underruns;
+    }
+
+    public synchronized long getLateDrops() {
+        return lateDrops;
+    }
+
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    /**
+     * Libera todos los paquetes pendientes y vuelve al estado inicial.
+     */
+    public synchronized void clear() {
+        releaseAll();
+        started = false;
+        playing = false;
+        hasTransit = false;
+        jitter = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("jitter %.1f ms, demora %d ms, %d recibidos, %d reproducidos, %d underruns, "
+                        + "%d perdidos, %d tardíos, %d recortes, %d inválidos",
+                ticksToMs(jitter), Math.round(targetPackets() * ticksToMs(packetTicks)), received, played,
+                underruns, lost, lateDrops, trimmed, invalid);
+    }
+
+    private PacketBuffer take() {
+        int slot = nextSequence & (SLOTS - 1);
+        PacketBuffer packet = slots[slot];
+        slots[slot] = null;
+        nextSequence = (nextSequence + 1) & 0xFFFF;
+        return packet;
+    }
+
+    /**
+     * Jitter entre llegadas según RFC 3550: variación del tiempo de tránsito (llegada menos
+     * timestamp), suavizada con factor 1/16. Se calcula en 32 bits para tolerar la vuelta del
+     * timestamp.
+     */
+    private void updateJitter(long timestamp) {
+        int transit = (int) (System.nanoTime() / NANOS_PER_TICK) - (int) timestamp;
+        if (hasTransit) {
+            int d = Math.abs(transit - lastTransit);
+            jitter += (d - jitter) / 16;
+        }
+        lastTransit = transit;
+        hasTransit = true;
+    }
+
+    private int targetPackets() {
+        double packetMs = ticksToMs(packetTicks);
+        double delayMs = packetMs + JITTER_FACTOR * ticksToMs(jitter);
+        delayMs = Math.max(minDelayMs, Math.min(maxDelayMs, delayMs));
+        return Math.max(1, Math.min(SLOTS / 2, (int) Math.ceil(delayMs / packetMs)));
+    }
+
+    private void releaseAll() {
+        for (int i = 0; i < SLOTS; i++) {
+            if (slots[i] != null) {
+                slots[i].release();
+                slots[i] = null;
+            }
+        }
+    }
+
+    private static double ticksToMs(double ticks) {
+        return ticks * 1000.0 / RtpPacket.CLOCK_RATE;
+    }
+}
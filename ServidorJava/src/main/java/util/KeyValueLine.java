@@ -0,0 +1,347 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Vista de una línea del protocolo "clave:valor|clave:valor|...".
+ *
+ * El análisis se hace en una sola pasada y solo guarda posiciones (inicio/fin) de
+ * cada clave y valor sobre la línea original: no usa expresiones regulares, no crea
+ * arreglos de Strings ni mapas. Los valores se convierten a String únicamente cuando
+ * alguien los pide con {@link #get(String)}; {@link #view(String)} devuelve una vista
+ * sin copia.
+ *
+ * Escapes reconocidos dentro de los valores (los del historial en texto de versiones anteriores,
+ * más la barra y el retorno de carro): "\|" es un '|' literal, "\:" es un ':' literal,
+ * "\\" es una barra, y "\n" y "\r" son un salto de línea y un retorno de carro.
+ * {@link #appendEscaped} hace lo inverso.
+ *
+ * {@link #parse(CharSequence)} devuelve una instancia nueva, que se puede guardar o pasar a
+ * otro hilo. {@link #parseThreadLocal(CharSequence)} reutiliza siempre el mismo objeto del hilo
+ * actual y es solo para el camino caliente (analizar cada comando al leerlo): su resultado
+ * deja de ser válido en la siguiente llamada del mismo hilo, así que para pasarlo a otro hilo
+ * se usa {@link #detach()}, que copia solo las posiciones de los campos que tiene.
+ *
+ * Una línea admite hasta {@link #MAX_FIELDS} campos; con más, el análisis la rechaza con
+ * IllegalArgumentException en lugar de descartar el resto.
+ */
+public final class KeyValueLine implements Fields {
+    public static final int MAX_FIELDS = 32;
+
+    private static final ThreadLocal<KeyValueLine> CURRENT = ThreadLocal.withInitial(KeyValueLine::new);
+
+    private CharSequence source;
+    private int count;
+    // Las copias de detach() tienen arreglos del tamaño justo; reset() los vuelve a agrandar
+    private int[] keyStart;
+    private int[] keyEnd;
+    private int[] valueStart;
+    private int[] valueEnd;
+    private boolean[] escaped;
+    // Vistas de view(), creadas al pedirlas por primera vez
+    private FieldView[] views;
+
+    public KeyValueLine() {
+        this(MAX_FIELDS);
+    }
+
+    private KeyValueLine(int capacity) {
+        keyStart = new int[capacity];
+        keyEnd = new int[capacity];
+        valueStart = new int[capacity];
+        valueEnd = new int[capacity];
+        escaped = new boolean[capacity];
+        views = new FieldView[capacity];
+    }
+
+    /**
+     * Analiza la línea en una instancia nueva.
+     */
+    public static KeyValueLine parse(CharSequence line) {
+        return new KeyValueLine().reset(line);
+    }
+
+    /**
+     * Analiza la línea usando la instancia reutilizable del hilo actual, sin crear objetos.
+     * No se deben guardar referencias al resultado ni usarlo desde otro hilo: la siguiente
+     * llamada del mismo hilo lo pisa.
+     */
+    public static KeyValueLine parseThreadLocal(CharSequence line) {
+        return CURRENT.get().reset(line);
+    }
+
+    /**
+     * Analiza la línea sobre esta instancia, descartando el contenido anterior.
+     *
+     * @throws IllegalArgumentException si la línea tiene más de {@link #MAX_FIELDS} campos
+     */
+    public KeyValueLine reset(CharSequence line) {
+        if (keyStart.length < MAX_FIELDS) {
+            keyStart = Arrays.copyOf(keyStart, MAX_FIELDS);
+            keyEnd = Arrays.copyOf(keyEnd, MAX_FIELDS);
+            valueStart = Arrays.copyOf(valueStart, MAX_FIELDS);
+            valueEnd = Arrays.copyOf(valueEnd, MAX_FIELDS);
+            escaped = Arrays.copyOf(escaped, MAX_FIELDS);
+            views = Arrays.copyOf(views, MAX_FIELDS);
+        }
+        this.source = line;
+        this.count = 0;
+
+        int length = line.length();
+        int pairStart = 0;
+        int colon = -1;
+        boolean hasEscape = false;
+
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? line.charAt(i) : '|';
+            if (c == '\\' && i + 1 < length) {
+                char next = line.charAt(i + 1);
+                if (isEscape(next)) {
+                    hasEscape = true;
+                    i++;
+                    continue;
+                }
+            }
+            if (c == ':' && colon < 0) {
+                colon = i;
+            } else if (c == '|') {
+                if (colon >= 0) {
+                    if (count == MAX_FIELDS) {
+                        count = 0;
+                        throw new IllegalArgumentException("La línea tiene más de " + MAX_FIELDS + " campos");
+                    }
+                    keyStart[count] = pairStart;
+                    keyEnd[count] = colon;
+                    valueStart[count] = colon + 1;
+                    valueEnd[count] = i;
+                    escaped[count] = hasEscape;
+                    count++;
+                }
+                pairStart = i + 1;
+                colon = -1;
+                hasEscape = false;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Copia independiente de esta línea ya analizada, para guardarla o pasarla a otro hilo sin
+     * volver a analizarla. Comparte el texto original (no lo copia) y solo ocupa lo que
+     * necesitan sus campos.
+     */
+    public KeyValueLine detach() {
+        KeyValueLine copy = new KeyValueLine(count);
+        copy.source = source;
+        copy.count = count;
+        System.arraycopy(keyStart, 0, copy.keyStart, 0, count);
+        System.arraycopy(keyEnd, 0, copy.keyEnd, 0, count);
+        System.arraycopy(valueStart, 0, copy.valueStart, 0, count);
+        System.arraycopy(valueEnd, 0, copy.valueEnd, 0, count);
+        System.arraycopy(escaped, 0, copy.escaped, 0, count);
+        return copy;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public boolean has(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Valor de la clave (sin escapes) o null si no existe.
+     */
+    @Override
+    public String get(String key) {
+        int index = indexOf(key);
+        if (index < 0) return null;
+        if (!escaped[index]) {
+            return source.subSequence(valueStart[index], valueEnd[index]).toString();
+        }
+        return unescape(source, valueStart[index], valueEnd[index]);
+    }
+
+    /**
+     * Vista sin copia del valor crudo (con escapes) o null si no existe.
+     * La vista deja de ser válida en el siguiente {@link #reset(CharSequence)}.
+     */
+    @Override
+    public CharSequence view(String key) {
+        int index = indexOf(key);
+        if (index < 0) return null;
+        FieldView view = views[index];
+        if (view == null) views[index] = view = new FieldView();
+        return view.set(valueStart[index], valueEnd[index]);
+    }
+
+    @Override
+    public boolean valueEquals(String key, CharSequence expected) {
+        int index = indexOf(key);
+        return index >= 0 && !escaped[index]
+                && regionEquals(valueStart[index], valueEnd[index], expected);
+    }
+
+    @Override
+    public int getInt(String key, int defaultValue) {
+        long value = getLong(key, Long.MIN_VALUE);
+        if (value == Long.MIN_VALUE || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    @Override
+    public long getLong(String key, long defaultValue) {
+        int index = indexOf(key);
+        if (index < 0) return defaultValue;
+
+        int i = valueStart[index];
+        int end = valueEnd[index];
+        if (i == end) return defaultValue;
+
+        boolean negative = source.charAt(i) == '-';
+        if (negative) i++;
+        if (i == end) return defaultValue;
+
+        // Se acumula en negativo (como Long.parseLong) para que entre Long.MIN_VALUE; un valor
+        // que no entra en un long devuelve el valor por defecto
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (; i < end; i++) {
+            char c = source.charAt(i);
+            if (c < '0' || c > '9') return defaultValue;
+            int digit = c - '0';
+            if (result < (limit + digit) / 10) return defaultValue;
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Hash (mismo algoritmo que String.hashCode) del valor crudo de la clave, sin crear el String.
+     * Devuelve 0 si la clave no existe.
+     */
+    @Override
+    public int valueHash(String key) {
+        int index = indexOf(key);
+        if (index < 0) return 0;
+        int hash = 0;
+        for (int i = valueStart[index]; i < valueEnd[index]; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return hash;
+    }
+
+    @Override
+    public ByteBuffer getBytes(String key) {
+        String value = get(key);
+        return value != null ? ByteBuffer.wrap(Base64.getDecoder().decode(value)) : null;
+    }
+
+    private int indexOf(String key) {
+        int keyLength = key.length();
+        for (int f = 0; f < count; f++) {
+            if (keyEnd[f] - keyStart[f] == keyLength && regionEquals(keyStart[f], keyEnd[f], key)) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionEquals(int start, int end, CharSequence other) {
+        if (end - start != other.length()) return false;
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) != other.charAt(i - start)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Agrega el valor escapado para que no corte la línea ni los campos: lo que lee
+     * {@link #get(String)} es de nuevo el valor original.
+     */
+    public static void appendEscaped(StringBuilder out, CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            appendEscaped(out, value.charAt(i));
+        }
+    }
+
+    /**
+     * Agrega un carácter escapado (para quien decodifica el valor carácter a carácter).
+     */
+    public static void appendEscaped(StringBuilder out, char c) {
+        switch (c) {
+            case '\\', '|', ':' -> out.append('\\').append(c);
+            case '\n' -> out.append("\\n");
+            case '\r' -> out.append("\\r");
+            default -> out.append(c);
+        }
+    }
+
+    /**
+     * true si "\\" seguido de este carácter es un escape reconocido.
+     */
+    public static boolean isEscape(char next) {
+        return next == '|' || next == ':' || next == '\\' || next == 'n' || next == 'r';
+    }
+
+    /**
+     * Carácter que representa el escape "\\" + next.
+     */
+    public static char unescaped(char next) {
+        return next == 'n' ? '\n' : next == 'r' ? '\r' : next;
+    }
+
+    private static String unescape(CharSequence s, int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < end && isEscape(s.charAt(i + 1))) {
+                sb.append(unescaped(s.charAt(++i)));
+                continue;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Vista de un tramo de la línea original. Cada campo tiene la suya y se reutiliza.
+     */
+    private final class FieldView implements CharSequence {
+        private int start;
+        private int end;
+
+        FieldView set(int start, int end) {
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return source.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return source.subSequence(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return source.subSequence(start, end).toString();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package util;
+
+import network.RtpPacket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sin compresión: el audio viaja tal como lo graba el micrófono (256 kbit/s). Es lo que se usa
+ * con un cliente que no negocia codec.
+ */
+public final class PcmCodec implements AudioCodec {
+    public static final PcmCodec INSTANCE = new PcmCodec();
+
+    private PcmCodec() {
+    }
+
+    @Override
+    public String getName() {
+        return "pcm16";
+    }
+
+    @Override
+    public int getPayloadType() {
+        return RtpPacket.PAYLOAD_PCM16;
+    }
+
+    @Override
+    public int maxEncodedBytes(int pcmBytes) {
+        return pcmBytes;
+    }
+
+    @Override
+    public int decodedBytes(int encodedBytes) {
+        return encodedBytes;
+    }
+
+    @Override
+    public int encode(byte[] pcm, int offset, int length, ByteBuffer out) {
+        out.put(pcm, offset, length);
+        return length;
+    }
+
+    @Override
+    public int decode(ByteBuffer in, byte[] pcm, int offset) {
+        int count = Math.min(in.remaining(), pcm.length - offset) & ~1;
+        in.get(in.position(), pcm, offset, count);
+        return count;
+    }
+}
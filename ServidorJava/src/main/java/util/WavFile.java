@@ -0,0 +1,253 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+/**
+ * Archivos WAV de las notas de voz, comprimidos con un {@link AudioCodec}.
+ *
+ * Se usan los formatos estándar de WAV (PCM, μ-law, A-law e IMA ADPCM), así que los archivos se
+ * abren con cualquier reproductor. javax.sound no sabe leer IMA ADPCM, por eso la lectura
+ * también se hace aquí: {@link #readPcm(File)} devuelve el audio como PCM de 16 bits, 16 kHz,
+ * mono, sea cual sea el codec con el que se guardó.
+ */
+public final class WavFile {
+    private static final int SAMPLE_RATE = 16000;
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_ALAW = 6;
+    private static final int FORMAT_ULAW = 7;
+    private static final int FORMAT_IMA_ADPCM = 0x11;
+
+    // Bloques de IMA ADPCM: encabezado de 4 bytes (con la primera muestra) y 2 muestras por byte
+    private static final int ADPCM_BLOCK_BYTES = 512;
+    private static final int ADPCM_BLOCK_SAMPLES = (ADPCM_BLOCK_BYTES - ImaAdpcmCodec.HEADER_BYTES) * 2 + 1;
+
+    private WavFile() {
+    }
+
+    /**
+     * Guarda el audio (PCM 16 bits, 16 kHz, mono) codificado con el codec indicado.
+     */
+    public static void write(File file, AudioCodec codec, byte[] pcm) throws IOException {
+        int samples = pcm.length / 2;
+        int formatTag;
+        int blockAlign;
+        int bitsPerSample;
+        int dataBytes;
+        if (codec instanceof G711Codec g711) {
+            formatTag = g711.getWavFormatTag();
+            blockAlign = 1;
+            bitsPerSample = 8;
+            dataBytes = samples;
+        } else if (codec instanceof ImaAdpcmCodec) {
+            formatTag = FORMAT_IMA_ADPCM;
+            blockAlign = ADPCM_BLOCK_BYTES;
+            bitsPerSample = 4;
+            dataBytes = adpcmBytes(samples);
+        } else {
+            formatTag = FORMAT_PCM;
+            blockAlign = 2;
+            bitsPerSample = 16;
+            dataBytes = samples * 2;
+        }
+
+        // fmt: 16 bytes en PCM; los formatos comprimidos agregan cbSize (y IMA ADPCM las muestras
+        // por bloque) y un chunk fact con la cantidad de muestras
+        boolean compressed = formatTag != FORMAT_PCM;
+        int fmtBytes = formatTag == FORMAT_IMA_ADPCM ? 20 : compressed ? 18 : 16;
+        int factBytes = compressed ? 12 : 0;
+        int dataPadding = dataBytes & 1;
+        int total = 12 + 8 + fmtBytes + factBytes + 8 + dataBytes + dataPadding;
+
+        ByteBuffer out = ByteBuffer.allocate(total).order(ByteOrder.LITTLE_ENDIAN);
+        putTag(out, "RIFF");
+        out.putInt(total - 8);
+        putTag(out, "WAVE");
+
+        putTag(out, "fmt ");
+        out.putInt(fmtBytes);
+        out.putShort((short) formatTag);
+        out.putShort((short) 1);
+        out.putInt(SAMPLE_RATE);
+        out.putInt(formatTag == FORMAT_IMA_ADPCM
+                ? SAMPLE_RATE * ADPCM_BLOCK_BYTES / ADPCM_BLOCK_SAMPLES
+                : SAMPLE_RATE * blockAlign);
+        out.putShort((short) blockAlign);
+        out.putShort((short) bitsPerSample);
+        if (formatTag == FORMAT_IMA_ADPCM) {
+            out.putShort((short) 2);
+            out.putShort((short) ADPCM_BLOCK_SAMPLES);
+        } else if (compressed) {
+            out.putShort((short) 0);
+        }
+
+        if (compressed) {
+            putTag(out, "fact");
+            out.putInt(4);
+            out.putInt(samples);
+        }
+
+        putTag(out, "data");
+        out.putInt(dataBytes);
+        if (formatTag == FORMAT_IMA_ADPCM) {
+            encodeAdpcmBlocks(pcm, samples, out);
+        } else if (compressed) {
+            codec.encode(pcm, 0, samples * 2, out);
+        } else {
+            out.put(pcm, 0, samples * 2);
+        }
+        if (dataPadding != 0) out.put((byte) 0);
+
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        Files.write(file.toPath(), out.array());
+    }
+
+    /**
+     * Lee un WAV de cualquiera de los formatos soportados y devuelve el audio como PCM 16 bits.
+     */
+    public static byte[] readPcm(File file) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < 12 || !tagAt(in, 0, "RIFF") || !tagAt(in, 8, "WAVE")) {
+            throw new IOException("No es un archivo WAV: " + file.getName());
+        }
+
+        int formatTag = -1;
+        int channels = 0;
+        int sampleRate = 0;
+        int blockAlign = 0;
+        int bitsPerSample = 0;
+        int factSamples = -1;
+        ByteBuffer data = null;
+
+        int position = 12;
+        while (position + 8 <= in.limit()) {
+            int size = in.getInt(position + 4);
+            int start = position + 8;
+            if (size < 0 || size > in.limit() - start) size = in.limit() - start;
+            if (tagAt(in, position, "fmt ") && size >= 16) {
+                formatTag = in.getShort(start) & 0xFFFF;
+                channels = in.getShort(start + 2) & 0xFFFF;
+                sampleRate = in.getInt(start + 4);
+                blockAlign = in.getShort(start + 12) & 0xFFFF;
+                bitsPerSample = in.getShort(start + 14) & 0xFFFF;
+            } else if (tagAt(in, position, "fact") && size >= 4) {
+                factSamples = in.getInt(start);
+            } else if (tagAt(in, position, "data")) {
+                data = in.slice(start, size).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            position = start + size + (size & 1);
+        }
+
+        if (data == null || channels != 1 || sampleRate != SAMPLE_RATE) {
+            throw new IOException("Formato WAV no soportado: " + file.getName());
+        }
+        switch (formatTag) {
+            case FORMAT_PCM -> {
+                if (bitsPerSample != 16) throw new IOException("Formato WAV no soportado: " + file.getName());
+                byte[] pcm = new byte[data.remaining() & ~1];
+                data.get(0, pcm);
+                return pcm;
+            }
+            case FORMAT_ULAW, FORMAT_ALAW -> {
+                AudioCodec codec = formatTag == FORMAT_ULAW ? G711Codec.ULAW : G711Codec.ALAW;
+                byte[] pcm = new byte[codec.decodedBytes(data.remaining())];
+                codec.decode(data, pcm, 0);
+                return pcm;
+            }
+            case FORMAT_IMA_ADPCM -> {
+                if (blockAlign <= ImaAdpcmCodec.HEADER_BYTES) {
+                    throw new IOException("Formato WAV no soportado: " + file.getName());
+                }
+                return decodeAdpcmBlocks(data, blockAlign, factSamples);
+            }
+            default -> throw new IOException("Formato WAV no soportado: " + file.getName());
+        }
+    }
+
+    private static int adpcmBytes(int samples) {
+        int fullBlocks = samples / ADPCM_BLOCK_SAMPLES;
+        int rest = samples % ADPCM_BLOCK_SAMPLES;
+        int bytes = fullBlocks * ADPCM_BLOCK_BYTES;
+        if (rest > 0) bytes += ImaAdpcmCodec.HEADER_BYTES + rest / 2;
+        return bytes;
+    }
+
+    /**
+     * Bloques de WAV: la primera muestra va en el encabezado (con el índice del paso) y el resto
+     * de a dos por byte, la primera en el nibble bajo. El último bloque puede ser más corto.
+     */
+    private static void encodeAdpcmBlocks(byte[] pcm, int samples, ByteBuffer out) {
+        ImaAdpcmCodec encoder = new ImaAdpcmCodec();
+        for (int first = 0; first < samples; first += ADPCM_BLOCK_SAMPLES) {
+            int count = Math.min(ADPCM_BLOCK_SAMPLES, samples - first);
+            encoder.predicted = sample(pcm, first);
+            out.putShort((short) encoder.predicted);
+            out.put((byte) encoder.index);
+            out.put((byte) 0);
+            for (int i = 1; i < count; i += 2) {
+                int low = encoder.encodeSample(sample(pcm, first + i));
+                int high = i + 1 < count ? encoder.encodeSample(sample(pcm, first + i + 1)) : 0;
+                out.put((byte) (low | (high << 4)));
+            }
+        }
+    }
+
+    private static byte[] decodeAdpcmBlocks(ByteBuffer data, int blockAlign, int factSamples) {
+        int length = data.remaining();
+        int fullBlocks = length / blockAlign;
+        int rest = length % blockAlign;
+        int samplesPerBlock = (blockAlign - ImaAdpcmCodec.HEADER_BYTES) * 2 + 1;
+        int samples = fullBlocks * samplesPerBlock
+                + (rest >= ImaAdpcmCodec.HEADER_BYTES ? (rest - ImaAdpcmCodec.HEADER_BYTES) * 2 + 1 : 0);
+        if (factSamples >= 0 && factSamples < samples) samples = factSamples;
+
+        byte[] pcm = new byte[samples * 2];
+        ImaAdpcmCodec decoder = new ImaAdpcmCodec();
+        int written = 0;
+        for (int block = 0; block < length && written < samples; block += blockAlign) {
+            int end = Math.min(length, block + blockAlign);
+            if (end - block < ImaAdpcmCodec.HEADER_BYTES) break;
+            decoder.predicted = data.getShort(block);
+            decoder.index = Math.min(88, data.get(block + 2) & 0xFF);
+            written = putSample(pcm, written, decoder.predicted);
+            for (int i = block + ImaAdpcmCodec.HEADER_BYTES; i < end && written < samples; i++) {
+                int codes = data.get(i);
+                written = putSample(pcm, written, decoder.decodeSample(codes & 0x0F));
+                if (written < samples) {
+                    written = putSample(pcm, written, decoder.decodeSample((codes >> 4) & 0x0F));
+                }
+            }
+        }
+        return pcm;
+    }
+
+    private static int sample(byte[] pcm, int index) {
+        return (short) ((pcm[index * 2] & 0xFF) | (pcm[index * 2 + 1] << 8));
+    }
+
+    private static int putSample(byte[] pcm, int index, int sample) {
+        pcm[index * 2] = (byte) sample;
+        pcm[index * 2 + 1] = (byte) (sample >> 8);
+        return index + 1;
+    }
+
+    private static void putTag(ByteBuffer out, String tag) {
+        for (int i = 0; i < 4; i++) {
+            out.put((byte) tag.charAt(i));
+        }
+    }
+
+    private static boolean tagAt(ByteBuffer in, int position, String tag) {
+        for (int i = 0; i < 4; i++) {
+            if (in.get(position + i) != tag.charAt(i)) return false;
+        }
+        return true;
+    }
+}
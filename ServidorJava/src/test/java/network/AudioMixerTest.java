@@ -0,0 +1,85 @@
+package network;
+
+import org.junit.jupiter.api.Test;
+import util.AudioCodec;
+import util.AudioCodecs;
+import util.G711Codec;
+import util.PcmCodec;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioMixerTest {
+    private static final int SAMPLES = AudioMixer.FRAME_SAMPLES;
+
+    private final PacketBufferPool pool = new PacketBufferPool(64, 2048);
+    private int sequence;
+
+    /**
+     * Un paquete PCM de 20 ms con un tono de la amplitud indicada.
+     */
+    private void offerTone(AudioMixer.Channel channel, int amplitude) {
+        PacketBuffer packet = pool.acquire();
+        ByteBuffer data = packet.data();
+        RtpPacket.writeHeader(data, RtpPacket.PAYLOAD_PCM16, sequence, (long) sequence * SAMPLES, 7);
+        for (int s = 0; s < SAMPLES; s++) {
+            int sample = (int) (amplitude * Math.sin(2 * Math.PI * 440 * (sequence * SAMPLES + s) / 16000.0));
+            data.put((byte) sample).put((byte) (sample >> 8));
+        }
+        data.flip();
+        sequence++;
+        channel.offer(packet);
+    }
+
+    /**
+     * Decodifica el paquete mezclado y devuelve el pico de su audio; verifica el codec.
+     */
+    private static int peak(ByteBuffer output, AudioCodec expected) {
+        assertNotNull(output);
+        assertEquals(expected.getPayloadType(), RtpPacket.payloadType(output));
+        ByteBuffer payload = output.duplicate().position(output.position() + RtpPacket.HEADER_BYTES);
+        byte[] pcm = new byte[SAMPLES * 2];
+        int samples = AudioCodecs.forPayloadType(expected.getPayloadType()).decode(payload, pcm, 0) / 2;
+        assertEquals(SAMPLES, samples);
+        int peak = 0;
+        for (int s = 0; s < samples; s++) {
+            peak = Math.max(peak, Math.abs((short) ((pcm[2 * s] & 0xFF) | (pcm[2 * s + 1] << 8))));
+        }
+        return peak;
+    }
+
+    @Test
+    void listenOnlyParticipantHearsTheMixInItsCodec() {
+        AudioMixer mixer = new AudioMixer(3);
+        AudioMixer.Channel speaker = mixer.newChannel(PcmCodec.INSTANCE);
+        AudioMixer.Channel listener = mixer.newChannel(G711Codec.ULAW);
+        AudioMixer.Channel[] channels = {speaker, listener};
+
+        // Antes de que nadie hable el oyente ya recibe (silencio) en su codec
+        mixer.mix(channels);
+        assertEquals(0, peak(listener.takeOutput(), G711Codec.ULAW));
+
+        // El jitter buffer espera su demora antes de entregar: se mezcla hasta que llega la voz
+        int heard = 0;
+        for (int tick = 0; tick < 100 && heard == 0; tick++) {
+            offerTone(speaker, 10000);
+            mixer.mix(channels);
+            heard = peak(listener.takeOutput(), G711Codec.ULAW);
+            // Quien habla no se escucha a sí mismo
+            assertTrue(peak(speaker.takeOutput(), PcmCodec.INSTANCE) < 100);
+        }
+        assertTrue(heard > 9000, "pico " + heard);
+
+        speaker.close();
+        listener.close();
+    }
+
+    @Test
+    void unknownCodecFallsBackToPcm() {
+        AudioMixer mixer = new AudioMixer(3);
+        AudioMixer.Channel listener = mixer.newChannel(null);
+        mixer.mix(new AudioMixer.Channel[]{listener});
+        assertEquals(0, peak(listener.takeOutput(), PcmCodec.INSTANCE));
+    }
+}
@@ -0,0 +1,64 @@
+package network;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EncodedMessageTest {
+
+    private static final OutboundQueue.Listener IGNORE = new OutboundQueue.Listener() {
+        @Override
+        public void onHighWatermark() {
+        }
+
+        @Override
+        public void onLowWatermark() {
+        }
+
+        @Override
+        public void onSlowConsumer(String reason) {
+        }
+    };
+
+    /**
+     * Un envío a muchos destinatarios codifica el mensaje una vez por modo: si se volviera a
+     * codificar por destinatario, el cambio hecho después del primero aparecería en los demás.
+     */
+    @Test
+    void oneEncodingIsSharedAcrossRecipients() {
+        WireMessage wire = WireMessage.push("group_message").put("from", "ana").put("content", "hola a todos");
+        EncodedMessage message = EncodedMessage.of(wire);
+
+        OutboundQueue[] recipients = new OutboundQueue[100];
+        for (int i = 0; i < recipients.length; i++) {
+            recipients[i] = new OutboundQueue(IGNORE);
+            recipients[i].setBinary(i % 2 == 1);
+            assertTrue(recipients[i].offer(message));
+            if (i == 1) wire.put("content", "cambiado");
+        }
+
+        ByteBuffer text = recipients[0].peek();
+        ByteBuffer frame = recipients[1].peek();
+        assertEquals("type:group_message|push:true|from:ana|content:hola a todos\n",
+                StandardCharsets.UTF_8.decode(text.duplicate()).toString());
+        for (int i = 2; i < recipients.length; i++) {
+            assertEquals(i % 2 == 0 ? text : frame, recipients[i].peek(), "destinatario " + i);
+        }
+    }
+
+    @Test
+    void eachRecipientGetsItsOwnPosition() {
+        EncodedMessage message = EncodedMessage.of("type:system_message|content:hola");
+        ByteBuffer first = message.buffer(false);
+        ByteBuffer second = message.buffer(false);
+
+        first.get(new byte[5]);
+        assertEquals(5, first.position());
+        assertEquals(0, second.position());
+        assertTrue(first.isReadOnly());
+        assertEquals(message.length(false), second.remaining());
+    }
+}
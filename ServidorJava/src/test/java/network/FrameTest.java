@@ -0,0 +1,106 @@
+package network;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameTest {
+
+    private static Frame roundTrip(WireMessage message) throws IOException {
+        return Frame.read(new ByteArrayInputStream(message.toFrame()));
+    }
+
+    @Test
+    void encodeAndParseKeepFields() throws IOException {
+        byte[] audio = {0, 1, 2, (byte) 0xFF, '|', '\n'};
+        Frame frame = roundTrip(WireMessage.of("message")
+                .put("from", "ana")
+                .put("text", "hola|chau:\nfin")
+                .put("seq", -42)
+                .putBytes("data", ByteBuffer.wrap(audio)));
+
+        assertEquals("message", frame.getType());
+        assertEquals("ana", frame.get("from"));
+        assertEquals("hola|chau:\nfin", frame.get("text"));
+        assertEquals(-42, frame.getInt("seq", 0));
+        assertEquals("-42", frame.get("seq"));
+        assertTrue(frame.valueEquals("from", "ana"));
+        assertFalse(frame.valueEquals("from", "anb"));
+        ByteBuffer data = frame.getBytes("data");
+        byte[] copy = new byte[data.remaining()];
+        data.get(copy);
+        assertArrayEquals(audio, copy);
+        assertNull(frame.get("missing"));
+    }
+
+    @Test
+    void unknownTypeTravelsByName() throws IOException {
+        Frame frame = roundTrip(WireMessage.of("algo_nuevo").put("x", "1"));
+        assertEquals("algo_nuevo", frame.getType());
+        assertEquals(1, frame.getInt("x", 0));
+    }
+
+    @Test
+    void numbersSentAsTextAreReadAsNumbers() throws IOException {
+        Frame frame = roundTrip(WireMessage.of("get_history").put("limit", "25"));
+        assertEquals(25, frame.getInt("limit", 0));
+        assertEquals(-1, frame.getInt("other", -1));
+    }
+
+    @Test
+    void rejectsTruncatedBody() {
+        byte[] framed = WireMessage.of("message").put("text", "hola").toFrame();
+        // Se descarta el prefijo de largo y el último byte del cuerpo
+        byte[] body = Arrays.copyOfRange(framed, 1, framed.length - 1);
+        assertThrows(IOException.class, () -> Frame.parse(body));
+    }
+
+    @Test
+    void rejectsTrailingBytes() {
+        byte[] framed = WireMessage.of("message").put("text", "hola").toFrame();
+        byte[] body = Arrays.copyOfRange(framed, 1, framed.length + 1);
+        assertThrows(IOException.class, () -> Frame.parse(body));
+    }
+
+    @Test
+    void rejectsFieldCountAboveLimitBeforeAllocating() {
+        // Etiqueta 0, tipo "x" y una cantidad de campos de 2^35
+        byte[] body = {0, 1, 'x', (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        IOException e = assertThrows(IOException.class, () -> Frame.parse(body));
+        assertTrue(e.getMessage().contains("campos"), e.getMessage());
+    }
+
+    @Test
+    void rejectsFieldCountLargerThanBody() {
+        // 1000 campos declarados en un cuerpo de 4 bytes
+        byte[] body = {0, 1, 'x', (byte) 0xE8, 0x07};
+        assertThrows(IOException.class, () -> Frame.parse(body));
+    }
+
+    @Test
+    void rejectsValueLengthBeyondBody() {
+        byte[] key = "k".getBytes(StandardCharsets.UTF_8);
+        // Un campo cuyo valor dice medir 100 bytes
+        byte[] body = {0, 1, 'x', 1, 1, key[0], (byte) (100 << 1 & 0x7F | 0x80), 0x01};
+        assertThrows(IOException.class, () -> Frame.parse(body));
+    }
+
+    @Test
+    void rejectsInvalidFrameLength() {
+        byte[] zero = {0};
+        assertThrows(IOException.class, () -> Frame.read(new ByteArrayInputStream(zero)));
+        byte[] huge = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        assertThrows(IOException.class, () -> Frame.read(new ByteArrayInputStream(huge)));
+    }
+
+    @Test
+    void endOfStreamBetweenFramesIsNull() throws IOException {
+        assertNull(Frame.read(new ByteArrayInputStream(new byte[0])));
+    }
+}
@@ -0,0 +1,170 @@
+package network;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import util.PcmCodec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Carga del relay en loopback: 50 participantes en una llamada, cada uno enviando un paquete
+ * PCM cada 20 ms. Tres hablan fuerte y el resto manda ruido de fondo; a mitad de la prueba
+ * hablan otros tres. Cada participante sube un solo flujo, y debe recibir a lo sumo
+ * chat.relay.maxForwarded flujos (los que hablan, sin perder paquetes) y nunca más de los 8
+ * que mezcla el reproductor del cliente.
+ *
+ * Corre con gradle stressTest; -Dstress.participants y -Dstress.seconds cambian el tamaño.
+ */
+@Tag("stress")
+class MediaRelayLoadTest {
+    private static final int PARTICIPANTS = Integer.getInteger("stress.participants", 50);
+    private static final int SECONDS = Integer.getInteger("stress.seconds", 6);
+    private static final int SAMPLES = 320;
+    private static final long TICK_NANOS = 20_000_000L;
+    // Quiénes hablan fuerte en cada fase (la primera y la segunda mitad de la prueba)
+    private static final int[][] LOUD = {{0, 1, 2}, {10, 11, 12}};
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void fiftyParticipantsInOneCall() throws Exception {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        MediaRelay relay = MediaRelay.start(0, (user, group) -> true);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        InetSocketAddress relayAddress = new InetSocketAddress(loopback, relay.getLocalPort());
+        DatagramChannel[] channels = new DatagramChannel[PARTICIPANTS];
+        Selector selector = Selector.open();
+        try {
+            String callId = relay.createCall("grupo");
+            for (int i = 0; i < PARTICIPANTS; i++) {
+                channels[i] = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+                channels[i].setOption(StandardSocketOptions.SO_RCVBUF, 1 << 20);
+                channels[i].configureBlocking(false);
+                channels[i].register(selector, SelectionKey.OP_READ, i);
+                assertEquals(MediaRelay.JoinResult.JOINED,
+                        relay.join(callId, "p" + i, (InetSocketAddress) channels[i].getLocalAddress(), PcmCodec.INSTANCE));
+            }
+
+            long start = System.nanoTime();
+            long phaseNanos = SECONDS * 1_000_000_000L / 2;
+            Thread sender = new Thread(() -> send(channels, relayAddress, start, phaseNanos), "relay-load-sender");
+            sender.start();
+
+            // Por fase: SSRC que recibió cada participante y paquetes de los que hablan. Se
+            // cuenta solo la segunda mitad de cada fase, cuando la selección ya se asentó
+            Set<Integer>[][] received = new Set[2][PARTICIPANTS];
+            Set<Integer>[] everReceived = new Set[PARTICIPANTS];
+            long[][] loudPackets = new long[2][PARTICIPANTS];
+            for (int i = 0; i < PARTICIPANTS; i++) {
+                received[0][i] = new HashSet<>();
+                received[1][i] = new HashSet<>();
+                everReceived[i] = new HashSet<>();
+            }
+            long totalReceived = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(2048);
+            long end = start + 2 * phaseNanos + 200_000_000L;
+            while (System.nanoTime() < end) {
+                selector.select(50);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    int listener = (Integer) key.attachment();
+                    DatagramChannel channel = (DatagramChannel) key.channel();
+                    while (true) {
+                        buffer.clear();
+                        if (channel.receive(buffer) == null) break;
+                        buffer.flip();
+                        totalReceived++;
+                        int ssrc = RtpPacket.ssrc(buffer);
+                        everReceived[listener].add(ssrc);
+                        long elapsed = System.nanoTime() - start;
+                        int phase = (int) (elapsed / phaseNanos);
+                        if (phase > 1 || elapsed % phaseNanos < phaseNanos / 2) continue;
+                        received[phase][listener].add(ssrc);
+                        if (isLoud(phase, ssrc - 1)) loudPackets[phase][listener]++;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+            sender.join();
+
+            long expectedPerSpeaker = phaseNanos / 2 / TICK_NANOS;
+            for (int phase = 0; phase < 2; phase++) {
+                for (int i = 0; i < PARTICIPANTS; i++) {
+                    Set<Integer> streams = received[phase][i];
+                    assertTrue(streams.size() <= 4, "p" + i + " recibió " + streams.size() + " flujos: " + streams);
+                    for (int loud : LOUD[phase]) {
+                        if (loud != i) assertTrue(streams.contains(loud + 1), "p" + i + " no recibió a p" + loud);
+                    }
+                    int speakers = isLoud(phase, i) ? LOUD[phase].length - 1 : LOUD[phase].length;
+                    long expected = expectedPerSpeaker * speakers;
+                    assertTrue(loudPackets[phase][i] >= expected * 9 / 10,
+                            "p" + i + ": " + loudPackets[phase][i] + " de " + expected + " paquetes de los que hablan");
+                }
+            }
+            for (int i = 0; i < PARTICIPANTS; i++) {
+                assertTrue(everReceived[i].size() <= 8, "p" + i + " recibió " + everReceived[i].size() + " flujos distintos");
+            }
+            assertEquals(0, relay.getDroppedPackets());
+
+            long sent = (long) PARTICIPANTS * (2 * phaseNanos / TICK_NANOS);
+            console.printf("%d participantes, %d s: %d paquetes enviados (1 flujo por participante), %d recibidos "
+                            + "(%.1f flujos por participante), %d retenidos por el tope%n",
+                    PARTICIPANTS, SECONDS, sent, totalReceived,
+                    (double) totalReceived / sent, relay.getUnforwardedPackets());
+        } finally {
+            System.setOut(console);
+            selector.close();
+            for (DatagramChannel channel : channels) {
+                if (channel != null) channel.close();
+            }
+            relay.close();
+        }
+    }
+
+    private static boolean isLoud(int phase, int participant) {
+        for (int loud : LOUD[phase]) {
+            if (loud == participant) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Un paquete por participante cada 20 ms, con el reloj propio de cada llamada RTP.
+     */
+    private static void send(DatagramChannel[] channels, InetSocketAddress relay, long start, long phaseNanos) {
+        ByteBuffer packet = ByteBuffer.allocateDirect(RtpPacket.HEADER_BYTES + SAMPLES * 2);
+        long next = start;
+        for (int tick = 0; next < start + 2 * phaseNanos; tick++, next += TICK_NANOS) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            int phase = (int) ((next - start) / phaseNanos);
+            for (int i = 0; i < channels.length; i++) {
+                int amplitude = isLoud(phase, i) ? 8000 : 30;
+                packet.clear();
+                RtpPacket.writeHeader(packet, RtpPacket.PAYLOAD_PCM16, tick, (long) tick * SAMPLES, i + 1);
+                for (int s = 0; s < SAMPLES; s++) {
+                    int sample = (int) (amplitude * Math.sin(2 * Math.PI * (200 + 20 * i) * (tick * SAMPLES + s) / 16000.0));
+                    packet.put((byte) sample).put((byte) (sample >> 8));
+                }
+                packet.flip();
+                try {
+                    channels[i].send(packet, relay);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package network;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+
+    private static final class Counting implements OutboundQueue.Listener {
+        final AtomicInteger high = new AtomicInteger();
+        final AtomicInteger low = new AtomicInteger();
+        final AtomicInteger slow = new AtomicInteger();
+
+        @Override
+        public void onHighWatermark() {
+            high.incrementAndGet();
+        }
+
+        @Override
+        public void onLowWatermark() {
+            low.incrementAndGet();
+        }
+
+        @Override
+        public void onSlowConsumer(String reason) {
+            slow.incrementAndGet();
+        }
+    }
+
+    @Test
+    void concurrentOffersNeverExceedMaxBytes() throws InterruptedException {
+        Counting listener = new Counting();
+        OutboundQueue queue = new OutboundQueue(listener, SlowConsumerPolicy.DROP_NON_CRITICAL);
+        EncodedMessage message = EncodedMessage.of("x".repeat(64 * 1024 - 1));
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] senders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            senders[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 64; i++) {
+                    queue.offer(message);
+                }
+            });
+            senders[t].start();
+        }
+        start.countDown();
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        assertTrue(queue.getPendingBytes() <= OutboundQueue.MAX_BYTES, "pendientes: " + queue.getPendingBytes());
+        assertEquals(OutboundQueue.MAX_BYTES / (64 * 1024), queue.getDepth());
+        assertTrue(listener.slow.get() > 0);
+        assertEquals(1, listener.high.get());
+    }
+
+    @Test
+    void dropsNonCriticalAboveHighWatermark() {
+        Counting listener = new Counting();
+        OutboundQueue queue = new OutboundQueue(listener, SlowConsumerPolicy.DROP_NON_CRITICAL);
+        assertTrue(queue.offer(EncodedMessage.of("x".repeat((int) OutboundQueue.HIGH_WATERMARK))));
+        assertTrue(queue.isAboveHighWatermark());
+
+        assertFalse(queue.offer(EncodedMessage.notification("presence", "type:presence")));
+        assertEquals(1, queue.getDroppedCount());
+        assertTrue(queue.offer(EncodedMessage.of("type:message")));
+
+        queue.remove();
+        assertFalse(queue.isAboveHighWatermark());
+        assertEquals(1, listener.low.get());
+    }
+
+    @Test
+    void coalesceKeepsLastNotificationPerKind() {
+        Counting listener = new Counting();
+        OutboundQueue queue = new OutboundQueue(listener, SlowConsumerPolicy.COALESCE);
+        queue.offer(EncodedMessage.of("x".repeat((int) OutboundQueue.HIGH_WATERMARK)));
+        queue.offer(EncodedMessage.notification("presence", "type:presence|n:1"));
+        queue.offer(EncodedMessage.notification("presence", "type:presence|n:2"));
+        assertEquals(1, queue.getDepth());
+
+        queue.remove();
+        assertEquals(1, queue.getDepth());
+        assertEquals("type:presence|n:2\n", StandardCharsets.UTF_8.decode(queue.peek()).toString());
+    }
+
+    @Test
+    void coalescedPresenceIsReplacedBySummary() {
+        Counting listener = new Counting();
+        OutboundQueue queue = new OutboundQueue(listener, SlowConsumerPolicy.COALESCE);
+        queue.offer(EncodedMessage.of("x".repeat((int) OutboundQueue.HIGH_WATERMARK)));
+        String[] online = {"ana"};
+        Supplier<WireMessage> summary = () -> WireMessage.push("online_users").put("users", online[0]);
+        queue.offer(EncodedMessage.notification("presence", WireMessage.push("system_message").put("content", "ana se ha conectado."), summary));
+        queue.offer(EncodedMessage.notification("presence", WireMessage.push("system_message").put("content", "beto se ha conectado."), summary));
+        // Otra clave no pisa a la presencia
+        queue.offer(EncodedMessage.notification("group:amigos", "type:system_message|content:Grupo creado"));
+        online[0] = "ana,beto";
+
+        queue.remove();
+        assertEquals(2, queue.getDepth());
+        List<String> lines = new ArrayList<>();
+        queue.iterator().forEachRemaining(buffer -> lines.add(StandardCharsets.UTF_8.decode(buffer.duplicate()).toString()));
+        assertTrue(lines.contains("type:online_users|push:true|users:ana,beto\n"), lines.toString());
+        assertTrue(lines.contains("type:system_message|content:Grupo creado\n"), lines.toString());
+    }
+
+    @Test
+    void singleCoalescedPresenceIsSentAsIs() {
+        OutboundQueue queue = new OutboundQueue(new Counting(), SlowConsumerPolicy.COALESCE);
+        queue.offer(EncodedMessage.of("x".repeat((int) OutboundQueue.HIGH_WATERMARK)));
+        queue.offer(EncodedMessage.notification("presence", WireMessage.push("system_message").put("content", "ana se ha conectado."),
+                () -> WireMessage.push("online_users").put("users", "ana")));
+
+        queue.remove();
+        assertEquals("type:system_message|push:true|content:ana se ha conectado.\n",
+                StandardCharsets.UTF_8.decode(queue.peek()).toString());
+    }
+
+    @Test
+    void removeAfterCloseKeepsCountersAtZero() {
+        OutboundQueue queue = new OutboundQueue(new Counting(), SlowConsumerPolicy.DROP_NON_CRITICAL);
+        queue.offer(EncodedMessage.of("type:a"));
+        queue.offer(EncodedMessage.of("type:b"));
+        queue.close();
+        queue.remove();
+        assertEquals(0, queue.getPendingBytes());
+        assertEquals(0, queue.getDepth());
+    }
+}
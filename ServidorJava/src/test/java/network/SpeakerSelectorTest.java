@@ -0,0 +1,103 @@
+package network;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpeakerSelectorTest {
+    private static final long PACKET_NANOS = 20_000_000L;
+    private static final long LOUD = 1_000_000;
+    private static final long QUIET = 100;
+
+    private static SpeakerSelector.Speaker[] speakers(int count) {
+        SpeakerSelector.Speaker[] speakers = new SpeakerSelector.Speaker[count];
+        for (int i = 0; i < count; i++) {
+            speakers[i] = new SpeakerSelector.Speaker();
+        }
+        return speakers;
+    }
+
+    /**
+     * Un paquete de cada participante cada 20 ms durante el tiempo indicado; devuelve el
+     * instante siguiente.
+     */
+    private static long run(SpeakerSelector selector, SpeakerSelector.Speaker[] speakers, long[] energy,
+                            long from, long nanos) {
+        long now = from;
+        for (; now < from + nanos; now += PACKET_NANOS) {
+            for (int i = 0; i < speakers.length; i++) {
+                if (energy[i] >= 0) selector.accept(speakers[i], energy[i], now);
+            }
+        }
+        return now;
+    }
+
+    private static int forwardedCount(SpeakerSelector.Speaker[] speakers) {
+        int count = 0;
+        for (SpeakerSelector.Speaker speaker : speakers) {
+            if (speaker.isForwarded()) count++;
+        }
+        return count;
+    }
+
+    @Test
+    void forwardsTheFirstOnesUntilFull() {
+        SpeakerSelector selector = new SpeakerSelector(2);
+        SpeakerSelector.Speaker[] speakers = speakers(3);
+        assertTrue(selector.accept(speakers[0], QUIET, 1));
+        assertTrue(selector.accept(speakers[1], QUIET, 1));
+        assertFalse(selector.accept(speakers[2], QUIET, 1));
+        assertTrue(selector.accept(speakers[0], QUIET, 2));
+    }
+
+    @Test
+    void louderSpeakersReplaceTheWeakest() {
+        SpeakerSelector selector = new SpeakerSelector(2);
+        SpeakerSelector.Speaker[] speakers = speakers(5);
+        long[] energy = {QUIET, QUIET, QUIET, LOUD, LOUD};
+        run(selector, speakers, energy, 0, 2_000_000_000L);
+
+        assertFalse(speakers[0].isForwarded());
+        assertFalse(speakers[1].isForwarded());
+        assertTrue(speakers[3].isForwarded());
+        assertTrue(speakers[4].isForwarded());
+    }
+
+    @Test
+    void keepsASpeakerForTheHoldTime() {
+        SpeakerSelector selector = new SpeakerSelector(1);
+        SpeakerSelector.Speaker[] speakers = speakers(2);
+        long[] energy = {QUIET, LOUD};
+        long now = run(selector, speakers, energy, 0, SpeakerSelector.HOLD_NANOS / 2);
+        assertTrue(speakers[0].isForwarded());
+
+        run(selector, speakers, energy, now, SpeakerSelector.HOLD_NANOS);
+        assertFalse(speakers[0].isForwarded());
+        assertTrue(speakers[1].isForwarded());
+    }
+
+    @Test
+    void similarLevelsDoNotAlternate() {
+        SpeakerSelector selector = new SpeakerSelector(2);
+        SpeakerSelector.Speaker[] speakers = speakers(3);
+        long[] energy = {LOUD, LOUD, LOUD * 3 / 2};
+        run(selector, speakers, energy, 0, 5_000_000_000L);
+
+        assertTrue(speakers[0].isForwarded());
+        assertTrue(speakers[1].isForwarded());
+        assertFalse(speakers[2].isForwarded());
+    }
+
+    @Test
+    void aSpeakerThatStopsSendingYieldsItsPlace() {
+        SpeakerSelector selector = new SpeakerSelector(2);
+        SpeakerSelector.Speaker[] speakers = speakers(3);
+        long now = run(selector, speakers, new long[]{LOUD, LOUD, QUIET}, 0, 200_000_000L);
+        assertFalse(speakers[2].isForwarded());
+
+        // El primero sale de la llamada: al rato cede el lugar aunque el otro hable bajo
+        run(selector, speakers, new long[]{-1, LOUD, QUIET}, now, SpeakerSelector.STALE_NANOS + 2 * PACKET_NANOS);
+        assertTrue(speakers[2].isForwarded());
+        assertEquals(2, forwardedCount(speakers));
+    }
+}
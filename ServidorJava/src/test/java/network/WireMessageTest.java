@@ -0,0 +1,39 @@
+package network;
+
+import org.junit.jupiter.api.Test;
+import util.KeyValueLine;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WireMessageTest {
+
+    @Test
+    void textValuesCannotInjectFieldsOrLines() {
+        // Contenido que llegó en un frame binario, donde los valores no se escapan
+        String content = "hola\ntype:private_message|from:admin|to:ana\\";
+        String text = WireMessage.push("private_message").put("from", "beto").put("content", content).toText();
+
+        assertFalse(text.contains("\n"));
+        KeyValueLine line = new KeyValueLine().reset(text);
+        assertEquals(4, line.size());
+        assertEquals("beto", line.get("from"));
+        assertEquals(content, line.get("content"));
+    }
+
+    @Test
+    void fromLineAndToTextRoundTrip() {
+        String original = "type:message|content:10\\:30 \\| sala\\nfin \\\\|n:5";
+        WireMessage message = WireMessage.fromLine(original);
+        assertEquals("message", message.getType());
+        assertEquals(original, message.toText());
+        assertEquals("10:30 | sala\nfin \\", new KeyValueLine().reset(message.toText()).get("content"));
+    }
+
+    @Test
+    void numbersAndBytesAreNotEscaped() {
+        String text = WireMessage.of("audio_data").put("offset", -5).putBytes("data", ByteBuffer.wrap(new byte[]{(byte) 0xfb, (byte) 0xff})).toText();
+        assertEquals("type:audio_data|offset:-5|data:+/8=", text);
+    }
+}
@@ -0,0 +1,71 @@
+package persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioBlobStoreTest {
+    @TempDir
+    Path temp;
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long count(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void relinkingReplacesTheLinkAndReleasesThePreviousContent() throws IOException {
+        AudioBlobStore store = new AudioBlobStore(temp);
+        AudioBlob first = store.store("a1", bytes("primero"));
+        AudioBlob second = store.store("a1", bytes("segundo"));
+
+        assertNotEquals(first.getHash(), second.getHash());
+        assertEquals(0, store.getReferences(first.getHash()));
+        assertEquals(1, store.getReferences(second.getHash()));
+        assertArrayEquals(bytes("segundo"), store.open("a1").readAllBytes());
+        // El enlace se escribe a un temporal que se renombra: no queda nada en tmp/
+        assertEquals(0, count(temp.resolve("tmp")));
+    }
+
+    @Test
+    void leftoverTemporaryLinkDoesNotAffectTheStoredOne() throws IOException {
+        AudioBlob blob = new AudioBlobStore(temp).store("a1", bytes("audio"));
+        // Un corte antes del rename deja el temporal a medias; el enlace sigue siendo el anterior
+        Files.write(temp.resolve("tmp").resolve("corte.tmp"), bytes("abc"));
+
+        AudioBlobStore reopened = new AudioBlobStore(temp);
+        assertEquals(0, count(temp.resolve("tmp")));
+        assertEquals(blob.getHash(), reopened.open("a1").getHash());
+        assertEquals(1, reopened.getReferences(blob.getHash()));
+    }
+
+    @Test
+    void uploadOwnerSurvivesRestartAndIsClearedOnCommit() throws IOException {
+        AudioBlobStore store = new AudioBlobStore(temp);
+        store.setUploadOwner("up1", "ana");
+        Files.write(store.uploadPath("up1"), bytes("parcial"));
+
+        AudioBlobStore reopened = new AudioBlobStore(temp);
+        assertEquals("ana", reopened.getUploadOwner("up1"));
+        assertNull(reopened.getUploadOwner("up2"));
+
+        reopened.commitUpload("a1", "up1");
+        assertNull(reopened.getUploadOwner("up1"));
+        assertArrayEquals(bytes("parcial"), reopened.open("a1").readAllBytes());
+
+        reopened.setUploadOwner("up3", "beto");
+        reopened.abortUpload("up3");
+        assertNull(reopened.getUploadOwner("up3"));
+    }
+}
@@ -0,0 +1,260 @@
+package persistence;
+
+import model.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.KeyValueLine;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatHistoryTest {
+    private static final int COUNT = 100;
+    private static final long FIRST_TIMESTAMP = 1_700_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    private ChatHistory history;
+    private final List<Message> saved = new ArrayList<>();
+
+    @BeforeEach
+    void saveConversation() {
+        history = new ChatHistory(dir);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            Message message = new Message(UUID.randomUUID().toString(), i % 2 == 0 ? "ana" : "carla", "beto",
+                    "m" + i, false, timestamp(i));
+            saved.add(message);
+            writes.add(history.saveMessage(message));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+    }
+
+    @AfterEach
+    void close() {
+        history.close();
+    }
+
+    private static long timestamp(int i) {
+        return FIRST_TIMESTAMP + i * 10L;
+    }
+
+    private String id(int i) {
+        return saved.get(i).getId();
+    }
+
+    /**
+     * Contenidos esperados de los mensajes [from, to).
+     */
+    private static List<String> range(int from, int to) {
+        List<String> result = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            result.add("m" + i);
+        }
+        return result;
+    }
+
+    private static List<String> contents(HistoryPage page) {
+        List<String> result = new ArrayList<>();
+        for (Message message : page.getMessages()) {
+            result.add(message.getContent());
+        }
+        return result;
+    }
+
+    private HistoryPage page(int limit, String before, String since) {
+        return history.loadPage("beto", false, limit, before, since);
+    }
+
+    @Test
+    void latestPageRespectsLimit() {
+        HistoryPage page = page(10, null, null);
+        assertEquals(range(90, 100), contents(page));
+        assertTrue(page.hasMore());
+
+        page = page(COUNT, null, null);
+        assertEquals(range(0, 100), contents(page));
+        assertFalse(page.hasMore());
+
+        page = page(500, null, null);
+        assertEquals(COUNT, page.getMessages().size());
+        assertFalse(page.hasMore());
+    }
+
+    @Test
+    void beforeTimestamp() {
+        HistoryPage page = page(10, String.valueOf(timestamp(50)), null);
+        assertEquals(range(40, 50), contents(page));
+        assertTrue(page.hasMore());
+
+        page = page(10, String.valueOf(timestamp(5)), null);
+        assertEquals(range(0, 5), contents(page));
+        assertFalse(page.hasMore());
+
+        // Un timestamp entre dos mensajes corta en el siguiente
+        page = page(3, String.valueOf(timestamp(50) - 1), null);
+        assertEquals(range(47, 50), contents(page));
+    }
+
+    @Test
+    void sinceTimestamp() {
+        HistoryPage page = page(10, null, String.valueOf(timestamp(10)));
+        assertEquals(range(11, 21), contents(page));
+        assertTrue(page.hasMore());
+
+        page = page(10, null, String.valueOf(timestamp(89)));
+        assertEquals(range(90, 100), contents(page));
+        assertFalse(page.hasMore());
+
+        page = page(10, null, String.valueOf(timestamp(99)));
+        assertTrue(page.getMessages().isEmpty());
+        assertFalse(page.hasMore());
+    }
+
+    @Test
+    void beforeId() {
+        HistoryPage page = page(10, id(50), null);
+        assertEquals(range(40, 50), contents(page));
+        assertTrue(page.hasMore());
+
+        page = page(10, id(3), null);
+        assertEquals(range(0, 3), contents(page));
+        assertFalse(page.hasMore());
+    }
+
+    @Test
+    void sinceId() {
+        HistoryPage page = page(10, null, id(10));
+        assertEquals(range(11, 21), contents(page));
+        assertTrue(page.hasMore());
+
+        page = page(10, null, id(95));
+        assertEquals(range(96, 100), contents(page));
+        assertFalse(page.hasMore());
+    }
+
+    @Test
+    void sinceTakesPriorityOverBefore() {
+        assertEquals(range(21, 24), contents(page(3, id(80), id(20))));
+    }
+
+    @Test
+    void unknownIdCursor() {
+        // "since" desconocido resincroniza desde el principio; "before" parte del final
+        assertEquals(range(0, 5), contents(page(5, null, "no-existe")));
+        assertEquals(range(95, 100), contents(page(5, "no-existe", null)));
+    }
+
+    @Test
+    void pagingBackwardsByIdVisitsEveryMessageOnce() {
+        List<String> all = new ArrayList<>();
+        HistoryPage page = page(7, null, null);
+        int pages = 1;
+        all.addAll(0, contents(page));
+        while (page.hasMore()) {
+            page = page(7, page.getOldest().getId(), null);
+            all.addAll(0, contents(page));
+            pages++;
+        }
+        assertEquals(range(0, 100), all);
+        assertEquals((COUNT + 6) / 7, pages);
+    }
+
+    @Test
+    void pagingForwardByIdVisitsEveryMessageOnce() {
+        List<String> all = new ArrayList<>();
+        HistoryPage page = page(9, null, String.valueOf(FIRST_TIMESTAMP - 1));
+        all.addAll(contents(page));
+        while (page.hasMore()) {
+            List<Message> messages = page.getMessages();
+            page = page(9, null, messages.get(messages.size() - 1).getId());
+            all.addAll(contents(page));
+        }
+        assertEquals(range(0, 100), all);
+    }
+
+    /**
+     * Decodifica el campo "messages" de la respuesta history en pares remitente -> contenido.
+     */
+    private static List<String[]> decodeHistory(CharSequence messages) {
+        List<String[]> entries = new ArrayList<>();
+        StringBuilder from = new StringBuilder();
+        StringBuilder content = new StringBuilder();
+        boolean inContent = false;
+        for (int i = 0; i <= messages.length(); i++) {
+            char c = i < messages.length() ? messages.charAt(i) : '|';
+            if (c == '\\' && i + 1 < messages.length()) {
+                (inContent ? content : from).append(KeyValueLine.unescaped(messages.charAt(++i)));
+            } else if (c == ':' && !inContent) {
+                inContent = true;
+            } else if (c == '|') {
+                if (i < messages.length() || inContent) entries.add(new String[]{from.toString(), content.toString()});
+                from.setLength(0);
+                content.setLength(0);
+                inContent = false;
+            } else {
+                (inContent ? content : from).append(c);
+            }
+        }
+        return entries;
+    }
+
+    private static final List<String> AWKWARD = List.of("a|b", "hora: 10:30", "c:\\tmp\\", "dos\nlíneas\r", "ñandú 🎵|:");
+
+    private void assertHistoryRoundTrips(String target, List<String> expectedTail) {
+        StringBuilder out = new StringBuilder();
+        history.appendHistory(target, false, out);
+        List<String[]> entries = decodeHistory(out);
+        List<String[]> tail = entries.subList(entries.size() - expectedTail.size(), entries.size());
+        for (int i = 0; i < expectedTail.size(); i++) {
+            assertEquals("ana:b", tail.get(i)[0]);
+            assertEquals(expectedTail.get(i), tail.get(i)[1]);
+        }
+
+        // El mismo formato en la respuesta paginada
+        StringBuilder paged = new StringBuilder();
+        ChatHistory.appendMessages(history.loadPage(target, false, expectedTail.size(), null, null).getMessages(), paged);
+        assertEquals(out.substring(out.length() - paged.length()), paged.toString());
+    }
+
+    @Test
+    void historyEscapesSeparatorsInsideMessages() {
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (String content : AWKWARD) {
+            writes.add(history.saveMessage(new Message("ana:b", "eva", content, false)));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        assertHistoryRoundTrips("eva", AWKWARD);
+    }
+
+    @Test
+    void largeHistoryEscapesSeparatorsWhenReadFromTheMappedLog() {
+        // Más mensajes de los que caben en la caché por conversación: appendHistory lee el log
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 2_100; i++) {
+            writes.add(history.saveMessage(new Message("ana:b", "eva", "m" + i, false)));
+        }
+        for (String content : AWKWARD) {
+            writes.add(history.saveMessage(new Message("ana:b", "eva", content, false)));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        assertHistoryRoundTrips("eva", AWKWARD);
+    }
+
+    @Test
+    void pagesKeepSenderAndTimestamp() {
+        Message message = page(1, id(43), null).getMessages().get(0);
+        assertEquals("m42", message.getContent());
+        assertEquals("ana", message.getFrom());
+        assertEquals(id(42), message.getId());
+        assertEquals(timestamp(42), message.getTimestamp().getTime());
+    }
+}
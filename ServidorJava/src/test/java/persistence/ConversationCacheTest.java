@@ -0,0 +1,144 @@
+package persistence;
+
+import model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationCacheTest {
+    private static final long NEVER = Long.MAX_VALUE / 2;
+
+    private static List<Message> messages(int count) {
+        List<Message> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            list.add(new Message("ana", "beto", "m" + i, false));
+        }
+        return list;
+    }
+
+    private static List<String> contents(List<Message> messages) {
+        List<String> result = new ArrayList<>();
+        for (Message message : messages) {
+            result.add(message.getContent());
+        }
+        return result;
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenOverTheByteLimit() {
+        // Cada conversación de 10 mensajes ocupa unos 1,9 KB según la estimación
+        ConversationCache cache = new ConversationCache(5_000, 100, NEVER);
+        cache.put("a", messages(10), true);
+        cache.put("b", messages(10), true);
+        assertNotNull(cache.getAll("a"));   // "b" pasa a ser la menos usada
+
+        cache.put("c", messages(10), true);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getTotalBytes() <= 5_000, "bytes: " + cache.getTotalBytes());
+        assertNotNull(cache.getAll("a"));
+        assertNull(cache.getAll("b"));
+        assertNotNull(cache.getAll("c"));
+    }
+
+    @Test
+    void appendsCanEvictOtherConversations() {
+        ConversationCache cache = new ConversationCache(5_000, 100, NEVER);
+        cache.put("a", messages(10), true);
+        cache.put("b", messages(10), true);
+        for (Message message : messages(10)) {
+            cache.onAppend("b", message);
+        }
+        assertEquals(1, cache.size());
+        assertNull(cache.getAll("a"));
+        assertEquals(20, cache.getAll("b").size());
+    }
+
+    @Test
+    void expiresConversationsNotReadRecently() throws InterruptedException {
+        ConversationCache cache = new ConversationCache(1 << 20, 100, 50);
+        cache.put("a", messages(3), true);
+        cache.put("b", messages(3), true);
+        Thread.sleep(120);
+
+        // La lectura de una vencida cuenta como fallo y la expulsa
+        assertNull(cache.getAll("a"));
+        assertEquals(1, cache.getEvictions());
+        // Al guardar otra se expulsan las demás vencidas
+        cache.put("c", messages(3), true);
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getEvictions());
+        assertNotNull(cache.getAll("c"));
+    }
+
+    @Test
+    void appendOverflowMarksTheEntryIncomplete() {
+        ConversationCache cache = new ConversationCache(1 << 20, 5, NEVER);
+        cache.put("a", messages(5), true);
+        assertEquals(5, cache.getAll("a").size());
+
+        cache.onAppend("a", new Message("beto", "ana", "nuevo", false));
+        // Ya no tiene la conversación entera: getAll debe ir a disco
+        assertNull(cache.getAll("a"));
+        // Pero sigue sirviendo los últimos mensajes que guarda
+        assertEquals(List.of("m2", "m3", "m4", "nuevo"), contents(cache.getLatest("a", 4)));
+        assertEquals(List.of("m1", "m2", "m3", "m4", "nuevo"), contents(cache.getLatest("a", 5)));
+        assertNull(cache.getLatest("a", 6));
+    }
+
+    @Test
+    void putKeepsOnlyTheLatestMessages() {
+        ConversationCache cache = new ConversationCache(1 << 20, 5, NEVER);
+        cache.put("a", messages(8), true);
+        assertNull(cache.getAll("a"));
+        assertEquals(List.of("m3", "m4", "m5", "m6", "m7"), contents(cache.getLatest("a", 5)));
+
+        cache.put("b", messages(3), false);
+        assertNull(cache.getAll("b"));
+        assertEquals(3, cache.getLatest("b", 3).size());
+    }
+
+    @Test
+    void appendToUncachedConversationIsIgnored() {
+        ConversationCache cache = new ConversationCache(1 << 20, 5, NEVER);
+        cache.onAppend("a", new Message("ana", "beto", "hola", false));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    @Test
+    void countsHitsMissesAndEvictions() {
+        ConversationCache cache = new ConversationCache(1 << 20, 100, NEVER);
+        assertEquals(0.0, cache.getHitRate());
+
+        assertNull(cache.getAll("a"));                  // fallo: no está
+        cache.put("a", messages(3), true);
+        assertNotNull(cache.getAll("a"));               // acierto
+        assertNotNull(cache.getLatest("a", 2));         // acierto
+        cache.put("b", messages(3), false);
+        assertNull(cache.getAll("b"));                  // fallo: incompleta
+        assertNull(cache.getLatest("b", 10));           // fallo: no tiene tantos
+
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(0.4, cache.getHitRate(), 1e-9);
+        assertEquals(0, cache.getEvictions());
+
+        // invalidate no es una expulsión
+        cache.invalidate("a");
+        assertEquals(0, cache.getEvictions());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void returnedListsAreCopies() {
+        ConversationCache cache = new ConversationCache(1 << 20, 100, NEVER);
+        cache.put("a", messages(3), true);
+        cache.getAll("a").clear();
+        cache.getLatest("a", 2).clear();
+        assertEquals(3, cache.getAll("a").size());
+    }
+}
@@ -0,0 +1,120 @@
+package persistence;
+
+import model.Message;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Arranque con un historial grande: genera un directorio de datos con muchas conversaciones,
+ * deja un registro a medio escribir al final de una de cada diez (como tras una caída) y mide
+ * cuánto tarda en abrirse, que es lo que hace recoverLogs al arrancar el servidor: leer las
+ * cabeceras de cada segmento, verificar el CRC del último y truncar lo incompleto.
+ *
+ * Corre con gradle stressTest; -Dstress.conversations y -Dstress.perConversation cambian el tamaño.
+ */
+@Tag("stress")
+class HistoryRecoveryStressTest {
+    private static final int CONVERSATIONS = Integer.getInteger("stress.conversations", 2_000);
+    private static final int PER_CONVERSATION = Integer.getInteger("stress.perConversation", 500);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recoversALargeDataDirectory() throws Exception {
+        PrintStream console = System.out;
+        long generateMs = generate();
+        long bytes = directoryBytes(dir.resolve("history"));
+
+        // Registro incompleto al final de una de cada diez conversaciones
+        int damaged = 0;
+        try (Stream<Path> logs = Files.list(dir.resolve("history"))) {
+            for (Path log : (Iterable<Path>) logs.filter(Files::isDirectory).sorted()::iterator) {
+                if (damaged * 10 >= CONVERSATIONS) break;
+                try (Stream<Path> segments = Files.list(log)) {
+                    Path last = segments.max(Path::compareTo).orElseThrow();
+                    Files.write(last, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+                }
+                damaged++;
+            }
+        }
+
+        // recoverLogs informa lo que encontró por System.out
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(report, true, StandardCharsets.UTF_8));
+        ChatHistory history;
+        long recoverNanos;
+        try {
+            long start = System.nanoTime();
+            history = new ChatHistory(dir);
+            recoverNanos = System.nanoTime() - start;
+        } finally {
+            System.setOut(console);
+        }
+        try {
+            String line = report.toString(StandardCharsets.UTF_8).trim();
+            long records = (long) CONVERSATIONS * PER_CONVERSATION;
+            console.printf("%d conversaciones, %d registros, %.1f MB (generados en %d ms), %d con un registro incompleto%n",
+                    CONVERSATIONS, records, bytes / 1e6, generateMs, damaged);
+            console.printf("recuperación: %.0f ms (%.2f µs por registro)%n", recoverNanos / 1e6, recoverNanos / 1e3 / records);
+            console.println(line);
+
+            assertTrue(line.contains(CONVERSATIONS + " conversaciones, " + records + " registros, " + damaged * 7L + " bytes descartados"), line);
+            HistoryPage page = history.loadPage("u0", false, PER_CONVERSATION + 1, null, null);
+            assertEquals(PER_CONVERSATION, page.getMessages().size());
+            assertEquals("m" + (PER_CONVERSATION - 1), page.getMessages().get(PER_CONVERSATION - 1).getContent());
+        } finally {
+            history.close();
+        }
+    }
+
+    /**
+     * Escribe el historial con ChatHistory (mismo formato que el servidor). Devuelve los ms.
+     */
+    private long generate() {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long start = System.nanoTime();
+        ChatHistory history = new ChatHistory(dir);
+        try {
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+            long timestamp = 1_700_000_000_000L;
+            for (int m = 0; m < PER_CONVERSATION; m++) {
+                for (int c = 0; c < CONVERSATIONS; c++) {
+                    writes.add(history.saveMessage(new Message("ana", "u" + c, "m" + m, false)));
+                }
+                if (writes.size() >= 50_000) {
+                    CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+                    writes.clear();
+                }
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        } finally {
+            history.close();
+            System.setOut(console);
+        }
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static long directoryBytes(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package persistence;
+
+import model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.KeyValueLine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+    private static final byte[] LEGACY = ("type:message|id:m1|from:ana|to:beto|content:hola\\: qué tal"
+            + "|isGroup:false|timestamp:1700000000000").getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void binaryRoundTrip() throws IOException {
+        try (NameDictionary names = new NameDictionary(temp.resolve("names.dat"))) {
+            MessageCodec codec = new MessageCodec(names);
+            Message message = new Message("0f8fad5b-d9cb-469f-a165-70867728950e", "ana", "equipo", "hola | chau", true, 1_700_000_000_000L);
+
+            Message decoded = codec.decode(codec.encode(message));
+            assertEquals(message.getId(), decoded.getId());
+            assertEquals("ana", decoded.getFrom());
+            assertEquals("equipo", decoded.getTo());
+            assertEquals("hola | chau", decoded.getContent());
+            assertTrue(decoded.isGroupMessage());
+            assertEquals(message.getTimestamp(), decoded.getTimestamp());
+        }
+    }
+
+    /**
+     * El historial se lee mientras se atiende un comando analizado con KeyValueLine.parseThreadLocal:
+     * decodificar registros de texto no debe pisar los campos de ese comando.
+     */
+    @Test
+    void legacyDecodeKeepsTheCommandBeingHandled() throws IOException {
+        try (NameDictionary names = new NameDictionary(temp.resolve("names.dat"))) {
+            MessageCodec codec = new MessageCodec(names);
+            KeyValueLine command = KeyValueLine.parseThreadLocal("type:get_history|reqId:42|target:beto");
+
+            Message decoded = codec.decode(LEGACY);
+            assertEquals("hola: qué tal", decoded.getContent());
+            assertEquals("m1", codec.readId(LEGACY));
+
+            MessageView view = codec.newView();
+            assertTrue(view.reset(ByteBuffer.wrap(LEGACY), 0, LEGACY.length));
+            assertEquals("ana", view.getFrom());
+
+            assertEquals("42", command.get("reqId"));
+            assertEquals("beto", command.get("target"));
+        }
+    }
+}
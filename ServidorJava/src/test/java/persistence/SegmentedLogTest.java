@@ -0,0 +1,237 @@
+package persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedLogTest {
+    private static final long SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path temp;
+
+    private static SegmentedLog open(Path directory) throws IOException {
+        return new SegmentedLog(directory, SEGMENT_BYTES, FsyncPolicy.NEVER, 1000);
+    }
+
+    private static byte[] record(int n) {
+        // Largo variable, para que los cortes caigan en cabeceras y en payloads
+        return ("registro " + n + " " + "x".repeat(n % 37)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> readAll(SegmentedLog log) throws IOException {
+        List<String> records = new ArrayList<>();
+        log.forEach((timestamp, payload) -> records.add(new String(payload, StandardCharsets.UTF_8)));
+        return records;
+    }
+
+    private static List<String> readAllMapped(SegmentedLog log) throws IOException {
+        List<String> records = new ArrayList<>();
+        log.readMapped(0, log.size(), (index, timestamp, buffer, offset, length) -> {
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes);
+            records.add(new String(bytes, StandardCharsets.UTF_8));
+        });
+        return records;
+    }
+
+    private static void assertPrefix(List<String> records, int expected) {
+        assertEquals(expected, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(new String(record(i), StandardCharsets.UTF_8), records.get(i));
+        }
+    }
+
+    private static Path lastSegment(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".seg")).sorted().reduce((a, b) -> b).orElseThrow();
+        }
+    }
+
+    @Test
+    void appendsRollSegmentsAndReopen() throws IOException {
+        Path directory = temp.resolve("a.log");
+        try (SegmentedLog log = open(directory)) {
+            for (int i = 0; i < 300; i++) {
+                log.append(record(i), 1000 + i);
+            }
+            assertPrefix(readAll(log), 300);
+            assertPrefix(readAllMapped(log), 300);
+        }
+        try (var files = Files.list(directory)) {
+            assertTrue(files.count() > 1, "debería haber varios segmentos");
+        }
+        try (SegmentedLog log = open(directory)) {
+            assertEquals(300, log.size());
+            assertEquals(0, log.getTruncatedBytes());
+            assertEquals(10, log.lowerBound(1010));
+            assertPrefix(readAllMapped(log), 300);
+        }
+    }
+
+    @Test
+    void mappedReadsSeeRecordsAppendedAfterMapping() throws IOException {
+        Path directory = temp.resolve("growing.log");
+        try (SegmentedLog log = open(directory)) {
+            // Lecturas intercaladas con escrituras: el segmento activo ya mapeado tiene que
+            // volver a mapearse al crecer, también cuando se pasa al segmento siguiente
+            for (int i = 0; i < 300; i++) {
+                log.append(record(i), i);
+                assertPrefix(readAllMapped(log), i + 1);
+            }
+        }
+    }
+
+    @Test
+    void recoversFromCutAtRandomOffsets() throws IOException {
+        Random random = new Random(12);
+        for (int round = 0; round < 50; round++) {
+            Path directory = temp.resolve("cut" + round + ".log");
+            int written = 20 + random.nextInt(200);
+            try (SegmentedLog log = open(directory)) {
+                for (int i = 0; i < written; i++) {
+                    log.append(record(i), i);
+                }
+            }
+
+            // Un corte a mitad de escritura deja el último segmento con un largo cualquiera
+            Path segment = lastSegment(directory);
+            long size = Files.size(segment);
+            long cut = random.nextLong(size + 1);
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                channel.truncate(cut);
+            }
+
+            int complete;
+            try (SegmentedLog log = open(directory)) {
+                complete = log.size();
+                assertTrue(complete <= written);
+                assertPrefix(readAll(log), complete);
+                assertEquals(Files.size(segment), cut - log.getTruncatedBytes());
+
+                // El log sigue aceptando escrituras a continuación
+                log.append(record(complete), complete);
+            }
+            try (SegmentedLog log = open(directory)) {
+                assertEquals(0, log.getTruncatedBytes());
+                assertPrefix(readAll(log), complete + 1);
+            }
+        }
+    }
+
+    @Test
+    void recoversFromGarbageAfterLastRecord() throws IOException {
+        Path directory = temp.resolve("garbage.log");
+        try (SegmentedLog log = open(directory)) {
+            for (int i = 0; i < 10; i++) {
+                log.append(record(i), i);
+            }
+        }
+        // Cabecera de un registro que dice tener 20 bytes, con un CRC que no coincide
+        ByteBuffer broken = ByteBuffer.allocate(SegmentedLog.HEADER_SIZE + 20);
+        broken.putInt(20).putInt(12345).putLong(99).position(broken.capacity()).flip();
+        try (FileChannel channel = FileChannel.open(lastSegment(directory), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(broken);
+        }
+        try (SegmentedLog log = open(directory)) {
+            assertEquals(10, log.size());
+            assertEquals(SegmentedLog.HEADER_SIZE + 20, log.getTruncatedBytes());
+        }
+    }
+
+    /**
+     * Mata a un proceso que escribe sin parar, en un momento al azar, y revisa que el log se
+     * recupere con todos los registros completos en orden.
+     */
+    @Test
+    void recoversAfterKillingWriterProcess() throws Exception {
+        Random random = new Random(7);
+        for (int round = 0; round < 3; round++) {
+            Path directory = temp.resolve("kill" + round + ".log");
+            Process writer = new ProcessBuilder(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"),
+                    Writer.class.getName(), directory.toString())
+                    .redirectErrorStream(true)
+                    .start();
+            // Espera a que empiece a escribir y lo mata después de un tiempo al azar
+            assertNotEquals(-1, writer.getInputStream().read(), "el proceso escritor no arrancó");
+            Thread.sleep(50 + random.nextInt(400));
+            writer.destroyForcibly();
+            assertTrue(writer.waitFor(10, TimeUnit.SECONDS));
+
+            try (SegmentedLog log = open(directory)) {
+                assertTrue(log.size() > 0);
+                assertPrefix(readAll(log), log.size());
+            }
+        }
+    }
+
+    @Test
+    void failedBatchIsRolledBack() throws IOException {
+        Path directory = temp.resolve("failed.log");
+        try (SegmentedLog log = open(directory)) {
+            for (int i = 0; i < 5; i++) {
+                log.append(record(i), i);
+            }
+            long before = Files.size(directory.resolve("00000000.seg"));
+
+            // El siguiente segmento no se puede abrir (es un directorio): el lote falla después
+            // de escribir su primera parte en el segmento 0
+            Files.createDirectory(directory.resolve("00000001.seg"));
+
+            List<byte[]> batch = new ArrayList<>();
+            long[] times = new long[200];
+            for (int i = 0; i < 200; i++) {
+                batch.add(record(5 + i));
+                times[i] = 5 + i;
+            }
+            assertThrows(IOException.class, () -> log.appendBatch(batch, times, false));
+            assertEquals(5, log.size());
+            assertEquals(before, Files.size(directory.resolve("00000000.seg")));
+
+            log.append(record(5), 5);
+            assertPrefix(readAll(log), 6);
+        }
+        try (SegmentedLog log = open(directory)) {
+            assertEquals(0, log.getTruncatedBytes());
+            assertPrefix(readAll(log), 6);
+        }
+    }
+
+    /**
+     * Proceso escritor de {@link #recoversAfterKillingWriterProcess()}: avisa por stdout que
+     * empezó y anexa lotes hasta que lo matan.
+     */
+    public static final class Writer {
+        public static void main(String[] args) throws IOException {
+            try (SegmentedLog log = open(Path.of(args[0]))) {
+                System.out.write('.');
+                System.out.flush();
+                List<byte[]> batch = new ArrayList<>();
+                for (int i = 0; ; ) {
+                    batch.clear();
+                    long[] times = new long[16];
+                    for (int r = 0; r < times.length; r++, i++) {
+                        batch.add(record(i));
+                        times[r] = i;
+                    }
+                    log.appendBatch(batch, times, false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindQueueTest {
+
+    private static WriteBehindQueue.Write write(String filename, int n) {
+        return new WriteBehindQueue.Write(filename, new byte[]{(byte) n}, n, null, false);
+    }
+
+    @Test
+    void groupsByConversationKeepingOrder() throws Exception {
+        List<String> written = new ArrayList<>();
+        WriteBehindQueue queue = new WriteBehindQueue((filename, writes, durable) -> {
+            for (WriteBehindQueue.Write w : writes) {
+                written.add(filename + w.payload[0]);
+            }
+        }, 100, 16, 50);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(queue.submit(write(i % 2 == 0 ? "a" : "b", i)));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get();
+        queue.close();
+
+        List<String> a = written.stream().filter(s -> s.startsWith("a")).toList();
+        assertEquals(List.of("a0", "a2", "a4", "a6", "a8"), a);
+        assertEquals(10, written.size());
+    }
+
+    @Test
+    void awaitWrittenWaitsForEverythingQueuedForTheConversation() {
+        List<String> written = new ArrayList<>();
+        WriteBehindQueue queue = new WriteBehindQueue((filename, writes, durable) -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            synchronized (written) {
+                for (WriteBehindQueue.Write w : writes) {
+                    written.add(filename + w.payload[0]);
+                }
+            }
+        }, 100, 2, 1);
+        for (int i = 0; i < 6; i++) {
+            queue.submit(write(i % 2 == 0 ? "a" : "b", i));
+        }
+
+        // Como un get_history que llega justo después de enviar: tiene que ver todo lo de "a"
+        queue.awaitWritten("a");
+        synchronized (written) {
+            assertTrue(written.containsAll(List.of("a0", "a2", "a4")), written.toString());
+        }
+        queue.awaitWritten("sin-escrituras");
+        queue.close();
+    }
+
+    @Test
+    void closeWaitsForSlowWriter() {
+        AtomicInteger written = new AtomicInteger();
+        WriteBehindQueue queue = new WriteBehindQueue((filename, writes, durable) -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            written.addAndGet(writes.size());
+        }, 100, 4, 1);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            futures.add(queue.submit(write("a", i)));
+        }
+        queue.close();
+
+        assertEquals(12, written.get());
+        for (CompletableFuture<Void> future : futures) {
+            assertTrue(future.isDone() && !future.isCompletedExceptionally());
+        }
+        assertTrue(queue.submit(write("a", 99)).isCompletedExceptionally());
+    }
+
+    @Test
+    void everySubmitRacingCloseIsCompleted() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            AtomicInteger written = new AtomicInteger();
+            WriteBehindQueue queue = new WriteBehindQueue((filename, writes, durable) ->
+                    written.addAndGet(writes.size()), 64, 8, 1);
+            int threads = 4;
+            CountDownLatch start = new CountDownLatch(1);
+            List<CompletableFuture<Void>> futures = new java.util.concurrent.CopyOnWriteArrayList<>();
+            Thread[] senders = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                senders[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 200; i++) {
+                        futures.add(queue.submit(write("a", i)));
+                    }
+                });
+                senders[t].start();
+            }
+            start.countDown();
+            queue.close();
+            for (Thread sender : senders) {
+                sender.join();
+            }
+
+            int completed = 0;
+            for (CompletableFuture<Void> future : futures) {
+                assertTrue(future.isDone(), "escritura sin confirmar ni rechazar");
+                if (!future.isCompletedExceptionally()) completed++;
+            }
+            assertEquals(written.get(), completed);
+        }
+    }
+}
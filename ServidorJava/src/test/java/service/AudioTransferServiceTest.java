@@ -0,0 +1,232 @@
+package service;
+
+import model.AudioMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioTransferServiceTest {
+    private static final long NEVER = Long.MAX_VALUE / 2;
+
+    @TempDir
+    Path dir;
+
+    private ChatManager chatManager;
+    private AudioTransferService transfers;
+
+    @BeforeEach
+    void open() {
+        chatManager = new ChatManager(dir);
+        transfers = new AudioTransferService(chatManager, NEVER);
+    }
+
+    @AfterEach
+    void close() {
+        chatManager.close();
+    }
+
+    private static byte[] audio(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+
+    /**
+     * Envía los bytes [start, end) de data como una parte en su offset.
+     */
+    private long write(String uploadId, String from, byte[] data, int start, int end) throws IOException {
+        return transfers.writeChunk(uploadId, from, start, ByteBuffer.wrap(data, start, end - start));
+    }
+
+    private AudioMessage upload(String uploadId, byte[] data) throws IOException {
+        assertEquals(0, transfers.begin(uploadId, "ana", "beto", false, 3, data.length));
+        assertEquals(data.length, write(uploadId, "ana", data, 0, data.length));
+        return transfers.commit(uploadId, "ana");
+    }
+
+    @Test
+    void beginResumesFromTheBytesAlreadyReceived() throws IOException {
+        byte[] data = audio(1000);
+        assertEquals(0, transfers.begin("up-1", "ana", "beto", false, 3, data.length));
+        assertEquals(400, write("up-1", "ana", data, 0, 400));
+
+        // Se desconecta: la subida sale de memoria, el archivo parcial queda
+        transfers.dropUploadsOf("ana");
+        assertEquals(0, transfers.getActiveUploads());
+        assertEquals(-1, transfers.getReceived("up-1"));
+
+        // Al reconectar (o tras un reinicio) sigue desde el byte 400
+        assertEquals(400, new AudioTransferService(chatManager, NEVER).begin("up-1", "ana", "beto", false, 3, data.length));
+        assertEquals(400, transfers.begin("up-1", "ana", "beto", false, 3, data.length));
+        assertEquals(1000, write("up-1", "ana", data, 400, 1000));
+        assertNotNull(transfers.commit("up-1", "ana"));
+        assertTrue(transfers.isCommitted("up-1"));
+    }
+
+    @Test
+    void beginDiscardsAPartialFileLargerThanTheNote() throws IOException {
+        byte[] data = audio(1000);
+        transfers.begin("up-1", "ana", "beto", false, 3, data.length);
+        write("up-1", "ana", data, 0, 600);
+        transfers.dropUploadsOf("ana");
+
+        assertEquals(0, transfers.begin("up-1", "ana", "beto", false, 3, 500));
+        // Sigue siendo de ana
+        assertEquals("ana", chatManager.getAudioBlobs().getUploadOwner("up-1"));
+    }
+
+    @Test
+    void onlyTheOwnerCanContinueAnUpload() throws IOException {
+        byte[] data = audio(100);
+        transfers.begin("up-1", "ana", "beto", false, 3, data.length);
+
+        assertThrows(IllegalArgumentException.class, () -> transfers.begin("up-1", "carla", "beto", false, 3, data.length));
+        assertThrows(IllegalArgumentException.class, () -> write("up-1", "carla", data, 0, 100));
+        assertThrows(IllegalArgumentException.class, () -> transfers.commit("up-1", "carla"));
+
+        // El dueño se guarda en disco: también vale después de desconectarse
+        transfers.dropUploadsOf("ana");
+        assertThrows(IllegalArgumentException.class, () -> transfers.begin("up-1", "carla", "beto", false, 3, data.length));
+        assertEquals(0, transfers.begin("up-1", "ana", "beto", false, 3, data.length));
+    }
+
+    @Test
+    void rejectsInvalidUploads() {
+        assertThrows(IllegalArgumentException.class, () -> transfers.begin("../x", "ana", "beto", false, 3, 10));
+        assertThrows(IllegalArgumentException.class, () -> transfers.begin("up-1", "ana", "beto", false, 3, -1));
+        assertThrows(IllegalArgumentException.class,
+                () -> transfers.begin("up-1", "ana", "beto", false, 3, AudioTransferService.MAX_NOTE_BYTES + 1));
+        assertThrows(IllegalArgumentException.class, () -> transfers.writeChunk("no-existe", "ana", 0, ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    void outOfOrderChunksAreNotWritten() throws IOException {
+        byte[] data = audio(300);
+        transfers.begin("up-1", "ana", "beto", false, 3, data.length);
+
+        // Una parte adelantada o repetida no se escribe; la respuesta dice desde dónde seguir
+        assertEquals(0, write("up-1", "ana", data, 100, 200));
+        assertEquals(100, write("up-1", "ana", data, 0, 100));
+        assertEquals(100, write("up-1", "ana", data, 0, 100));
+        assertEquals(100, write("up-1", "ana", data, 200, 300));
+        assertEquals(200, write("up-1", "ana", data, 100, 200));
+        assertEquals(300, write("up-1", "ana", data, 200, 300));
+
+        // Más de lo anunciado
+        assertThrows(IllegalArgumentException.class,
+                () -> transfers.writeChunk("up-1", "ana", 300, ByteBuffer.allocate(1)));
+
+        assertNotNull(transfers.commit("up-1", "ana"));
+        assertArrayEquals(data, readAll("up-1"));
+    }
+
+    @Test
+    void commitWithMissingBytesReturnsNull() throws IOException {
+        byte[] data = audio(500);
+        transfers.begin("up-1", "ana", "beto", false, 3, data.length);
+        write("up-1", "ana", data, 0, 499);
+
+        assertNull(transfers.commit("up-1", "ana"));
+        assertFalse(transfers.isCommitted("up-1"));
+        assertEquals(499, transfers.getReceived("up-1"));
+
+        write("up-1", "ana", data, 499, 500);
+        AudioMessage message = transfers.commit("up-1", "ana");
+        assertNotNull(message);
+        assertEquals(500, message.getAudioSize());
+        assertEquals(0, transfers.getActiveUploads());
+        assertThrows(IllegalArgumentException.class, () -> transfers.commit("up-1", "ana"));
+    }
+
+    @Test
+    void readRangeStaysWithinTheNoteAndTheLimit() throws IOException {
+        byte[] data = audio(AudioTransferService.CHUNK_SIZE * 2 + 100);
+        upload("nota", data);
+        List<Integer> seqs = new ArrayList<>();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        AudioTransferService.ChunkSink sink = (seq, offset, chunk) -> {
+            seqs.add(seq);
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            received.write(bytes, 0, bytes.length);
+        };
+
+        // Rango que cruza dos partes
+        long next = transfers.readRange("nota", 10, AudioTransferService.CHUNK_SIZE + 20, sink);
+        assertEquals(10 + AudioTransferService.CHUNK_SIZE + 20, next);
+        assertEquals(List.of(0, 1), seqs);
+        assertArrayEquals(Arrays.copyOfRange(data, 10, (int) next), received.toByteArray());
+
+        // Pedir más allá del final devuelve hasta el final
+        seqs.clear();
+        received.reset();
+        assertEquals(data.length, transfers.readRange("nota", data.length - 50, 1_000, sink));
+        assertArrayEquals(Arrays.copyOfRange(data, data.length - 50, data.length), received.toByteArray());
+
+        // Desde el final o más allá: nada
+        seqs.clear();
+        assertEquals(data.length, transfers.readRange("nota", data.length, 10, sink));
+        assertEquals(data.length + 5, transfers.readRange("nota", data.length + 5, 10, sink));
+        assertTrue(seqs.isEmpty());
+
+        assertThrows(IllegalArgumentException.class, () -> transfers.readRange("nota", -1, 10, sink));
+        assertThrows(IllegalArgumentException.class, () -> transfers.readRange("nota", 0, -1, sink));
+        assertEquals(-1, transfers.readRange("no-existe", 0, 10, sink));
+        assertEquals(data.length, transfers.getSize("nota"));
+    }
+
+    @Test
+    void readRangeIsCappedAtMaxRangeBytes() throws IOException {
+        byte[] data = audio(AudioTransferService.MAX_RANGE_BYTES + AudioTransferService.CHUNK_SIZE);
+        upload("grande", data);
+        long next = transfers.readRange("grande", 0, data.length, (seq, offset, chunk) -> { });
+        assertEquals(AudioTransferService.MAX_RANGE_BYTES, next);
+    }
+
+    @Test
+    void idleUploadsExpireWithTheirPartialFile() throws Exception {
+        AudioTransferService shortLived = new AudioTransferService(chatManager, 50);
+        byte[] data = audio(100);
+        shortLived.begin("viejo", "ana", "beto", false, 3, data.length);
+        shortLived.writeChunk("viejo", "ana", 0, ByteBuffer.wrap(data, 0, 40));
+        Path part = chatManager.getAudioBlobs().uploadPath("viejo");
+        assertTrue(Files.exists(part));
+        Thread.sleep(120);
+
+        // La siguiente subida barre las vencidas
+        shortLived.begin("nuevo", "beto", "ana", false, 3, data.length);
+        assertEquals(1, shortLived.getActiveUploads());
+        assertEquals(-1, shortLived.getReceived("viejo"));
+        assertFalse(Files.exists(part));
+        assertNull(chatManager.getAudioBlobs().getUploadOwner("viejo"));
+        assertThrows(IllegalArgumentException.class, () -> shortLived.commit("viejo", "ana"));
+    }
+
+    private byte[] readAll(String audioId) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long offset = 0;
+        long size = transfers.getSize(audioId);
+        while (offset < size) {
+            offset = transfers.readRange(audioId, offset, size - offset, (seq, position, chunk) -> {
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                out.write(bytes, 0, bytes.length);
+            });
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,64 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BroadcastCoalescerTest {
+
+    @Test
+    void burstOfLoginsBecomesOneNotice() throws InterruptedException {
+        List<List<String>> notices = new CopyOnWriteArrayList<>();
+        CountDownLatch flushed = new CountDownLatch(1);
+        BroadcastCoalescer coalescer = new BroadcastCoalescer(200, users -> {
+            notices.add(users);
+            flushed.countDown();
+        });
+
+        // 500 logins desde varios hilos, todos dentro de la espera
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 5; t++) {
+            int first = t * 100;
+            Thread thread = new Thread(() -> {
+                for (int i = first; i < first + 100; i++) {
+                    coalescer.add("u" + i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        assertEquals(1, notices.size(), "avisos: " + notices.size());
+        assertEquals(500, notices.get(0).size());
+        assertEquals(500, notices.get(0).stream().distinct().count());
+    }
+
+    @Test
+    void loginAfterTheFlushStartsANewNotice() throws InterruptedException {
+        List<List<String>> notices = new CopyOnWriteArrayList<>();
+        CountDownLatch flushed = new CountDownLatch(2);
+        BroadcastCoalescer coalescer = new BroadcastCoalescer(20, users -> {
+            notices.add(users);
+            flushed.countDown();
+        });
+
+        coalescer.add("ana");
+        coalescer.add("beto");
+        Thread.sleep(200);
+        coalescer.add("carla");
+
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of("ana", "beto"), List.of("carla")), notices);
+    }
+}
@@ -0,0 +1,133 @@
+package service;
+
+import model.Group;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupMembershipTest {
+    private static final List<String> USERS = List.of("ana", "beto", "carla", "dani");
+
+    /**
+     * Los dos lados del índice dicen lo mismo: cada miembro de un grupo lo tiene entre sus
+     * grupos y cada grupo de un usuario existe y lo tiene como miembro.
+     */
+    private static void assertConsistent(GroupMembership membership) {
+        for (Group group : membership.getGroups()) {
+            for (String member : membership.getMembers(group.getName())) {
+                assertTrue(membership.getGroupsOf(member).contains(group.getName()),
+                        member + " no tiene a " + group.getName() + " entre sus grupos");
+            }
+        }
+        for (String user : USERS) {
+            for (String groupName : membership.getGroupsOf(user)) {
+                assertTrue(membership.exists(groupName), user + " figura en " + groupName + ", que no existe");
+                assertTrue(membership.getMembers(groupName).contains(user), user + " no es miembro de " + groupName);
+            }
+        }
+    }
+
+    @Test
+    void joinUpdatesBothSides() {
+        GroupMembership membership = new GroupMembership();
+        assertTrue(membership.createGroup(new Group("amigos", "ana")));
+        assertFalse(membership.createGroup(new Group("amigos", "beto")));
+
+        assertTrue(membership.join("amigos", "beto"));
+        assertFalse(membership.join("amigos", "beto"));
+        assertFalse(membership.join("no-existe", "beto"));
+
+        assertEquals(Set.of("ana", "beto"), membership.getMembers("amigos"));
+        assertEquals(Set.of("amigos"), membership.getGroupsOf("beto"));
+        assertTrue(membership.isMember("beto", "amigos"));
+        assertConsistent(membership);
+    }
+
+    @Test
+    void leaveUpdatesBothSides() {
+        GroupMembership membership = new GroupMembership();
+        membership.createGroup(new Group("amigos", "ana"));
+        membership.createGroup(new Group("trabajo", "ana"));
+        membership.join("amigos", "beto");
+
+        assertEquals(GroupMembership.LeaveResult.LEFT, membership.leave("amigos", "ana"));
+        assertEquals(GroupMembership.LeaveResult.NOT_MEMBER, membership.leave("amigos", "ana"));
+        assertEquals(GroupMembership.LeaveResult.NOT_MEMBER, membership.leave("no-existe", "ana"));
+
+        assertEquals(Set.of("beto"), membership.getMembers("amigos"));
+        assertEquals(Set.of("trabajo"), membership.getGroupsOf("ana"));
+        assertFalse(membership.isMember("ana", "amigos"));
+        assertConsistent(membership);
+    }
+
+    @Test
+    void lastMemberLeavingDeletesTheGroup() {
+        GroupMembership membership = new GroupMembership();
+        membership.createGroup(new Group("amigos", "ana"));
+
+        assertEquals(GroupMembership.LeaveResult.LEFT_AND_DELETED, membership.leave("amigos", "ana"));
+        assertFalse(membership.exists("amigos"));
+        assertEquals(0, membership.size());
+        assertTrue(membership.getMembers("amigos").isEmpty());
+        assertTrue(membership.getGroupsOf("ana").isEmpty());
+        assertFalse(membership.join("amigos", "beto"));
+        assertConsistent(membership);
+
+        // El nombre queda libre
+        assertTrue(membership.createGroup(new Group("amigos", "beto")));
+        assertEquals(Set.of("beto"), membership.getMembers("amigos"));
+    }
+
+    @Test
+    void snapshotsAreImmutableAndDoNotChangeLater() {
+        GroupMembership membership = new GroupMembership();
+        membership.createGroup(new Group("amigos", "ana"));
+        Set<String> members = membership.getMembers("amigos");
+        Set<String> groups = membership.getGroupsOf("ana");
+
+        assertThrows(UnsupportedOperationException.class, () -> members.add("intruso"));
+        assertThrows(UnsupportedOperationException.class, () -> groups.add("otro"));
+        assertThrows(UnsupportedOperationException.class, () -> membership.getGroupNames().remove("amigos"));
+
+        membership.join("amigos", "beto");
+        membership.createGroup(new Group("trabajo", "ana"));
+        assertEquals(Set.of("ana"), members);
+        assertEquals(Set.of("amigos"), groups);
+        assertEquals(Set.of("ana", "beto"), membership.getMembers("amigos"));
+        assertEquals(Set.of("amigos", "trabajo"), membership.getGroupsOf("ana"));
+    }
+
+    @Test
+    void concurrentJoinsAndLeavesStayConsistent() throws InterruptedException {
+        GroupMembership membership = new GroupMembership();
+        List<String> groupNames = List.of("g0", "g1", "g2");
+        Thread[] threads = new Thread[USERS.size()];
+        for (int t = 0; t < threads.length; t++) {
+            String user = USERS.get(t);
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 5_000; i++) {
+                    String group = groupNames.get(random.nextInt(groupNames.size()));
+                    switch (random.nextInt(3)) {
+                        case 0 -> membership.createGroup(new Group(group, user));
+                        case 1 -> membership.join(group, user);
+                        default -> membership.leave(group, user);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertConsistent(membership);
+        for (Group group : membership.getGroups()) {
+            assertTrue(group.getMemberCount() > 0, group.getName() + " quedó vacío sin borrarse");
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderedDispatcherTest {
+
+    @Test
+    void blockedKeysDoNotStarveTheOthers() throws InterruptedException {
+        OrderedDispatcher dispatcher = new OrderedDispatcher();
+        // Más tareas bloqueadas que el pool fijo de antes (2 hilos por núcleo)
+        int blocked = Runtime.getRuntime().availableProcessors() * 2 + 4;
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(blocked);
+        for (int i = 0; i < blocked; i++) {
+            dispatcher.execute("bloqueado" + i, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        try {
+            assertTrue(started.await(5, TimeUnit.SECONDS), "no arrancaron todas las tareas bloqueadas");
+            CountDownLatch ran = new CountDownLatch(1);
+            dispatcher.execute("libre", ran::countDown);
+            assertTrue(ran.await(5, TimeUnit.SECONDS), "la tarea de otra clave quedó esperando");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void tasksOfOneKeyRunInOrder() throws InterruptedException {
+        OrderedDispatcher dispatcher = new OrderedDispatcher();
+        List<Integer> order = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 200; i++) {
+            int n = i;
+            dispatcher.execute("usuario", () -> order.add(n));
+        }
+        dispatcher.execute("usuario", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, order.get(i));
+        }
+    }
+}
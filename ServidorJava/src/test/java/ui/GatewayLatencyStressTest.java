@@ -0,0 +1,299 @@
+package ui;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.KeyValueLine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Latencia de las notificaciones hasta el navegador: cuánto tarda un mensaje privado en
+ * llegar por el gateway (WebSocket en /ws y Server-Sent Events en /events) contra el camino
+ * del proxy, donde las notificaciones se guardan en la sesión y el cliente web las pide a
+ * /api/notifications cada segundo.
+ *
+ * El proxy necesita sus dependencias de npm, así que su camino se reproduce aquí: una sesión
+ * TCP que guarda lo que llega en una cola (como session.notifications) y un hilo que la vacía
+ * cada -Dstress.pollMs (1000, el intervalo de Web-Client/js/app.js). No incluye el salto HTTP
+ * al proxy, por lo que su latencia real es algo mayor.
+ *
+ * El servidor corre en otro proceso ({@link ServerModeProbe}) con el gateway en un puerto libre.
+ * Corre con gradle stressTest; -Dstress.messages cambia la cantidad de mensajes por transporte.
+ */
+@Tag("stress")
+class GatewayLatencyStressTest {
+    private static final int MESSAGES = Integer.getInteger("stress.messages", 200);
+    private static final long POLL_MS = Long.getLong("stress.pollMs", 1000);
+
+    @Test
+    void pushBeatsPolling(@TempDir Path dir) throws Exception {
+        int port = freePort();
+        int gatewayPort = freePort();
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process server = new ProcessBuilder(java, "-Dchat.gateway.port=" + gatewayPort, "-Dchat.relay.port=0",
+                "-cp", System.getProperty("java.class.path"), ServerModeProbe.class.getName(), String.valueOf(port), "nio")
+                .directory(dir.toFile())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        HttpClient http = HttpClient.newHttpClient();
+        List<AutoCloseable> resources = new ArrayList<>();
+        try {
+            awaitListening(port);
+            awaitListening(gatewayPort);
+
+            Latencies ws = new Latencies("websocket", MESSAGES);
+            Latencies sse = new Latencies("sse", MESSAGES);
+            Latencies polling = new Latencies("polling " + POLL_MS + " ms", MESSAGES);
+
+            resources.add(openWebSocket(http, gatewayPort, "ws", ws));
+            resources.add(openEventStream(http, gatewayPort, "sse", sse));
+            resources.add(openPolling(port, "poll", polling));
+
+            Socket sender = new Socket("localhost", port);
+            resources.add(sender);
+            BufferedReader senderIn = reader(sender);
+            OutputStream senderOut = sender.getOutputStream();
+            senderOut.write("type:login|username:emisor\n".getBytes(StandardCharsets.UTF_8));
+            awaitType(senderIn, "login_success");
+
+            // Intervalos al azar para que los envíos no queden alineados con el sondeo
+            for (int i = 0; i < MESSAGES; i++) {
+                for (String to : new String[]{"ws", "sse", "poll"}) {
+                    String line = "type:private_message|from:emisor|to:" + to + "|content:t" + System.nanoTime() + "\n";
+                    senderOut.write(line.getBytes(StandardCharsets.UTF_8));
+                }
+                senderOut.flush();
+                Thread.sleep(ThreadLocalRandom.current().nextLong(20, 80));
+            }
+
+            System.out.printf("%d mensajes por transporte%n", MESSAGES);
+            System.out.printf("%-18s %9s %9s %9s %9s %9s%n", "transporte", "recibidos", "p50 (ms)", "p90 (ms)", "p99 (ms)", "máx (ms)");
+            for (Latencies latencies : List.of(ws, sse, polling)) {
+                assertTrue(latencies.await(POLL_MS * 3 + 5_000), latencies.name + ": " + latencies.count() + " de " + MESSAGES);
+                System.out.printf("%-18s %9d %9.2f %9.2f %9.2f %9.2f%n", latencies.name, latencies.count(),
+                        latencies.percentile(50), latencies.percentile(90), latencies.percentile(99), latencies.percentile(100));
+            }
+
+            // Con push la mediana no depende del intervalo de sondeo
+            assertTrue(ws.percentile(50) < POLL_MS / 4.0, "websocket p50 " + ws.percentile(50));
+            assertTrue(sse.percentile(50) < POLL_MS / 4.0, "sse p50 " + sse.percentile(50));
+            assertTrue(polling.percentile(50) > ws.percentile(50) && polling.percentile(50) > sse.percentile(50));
+        } finally {
+            for (AutoCloseable resource : resources) {
+                try {
+                    resource.close();
+                } catch (Exception ignored) {
+                }
+            }
+            server.destroyForcibly().waitFor();
+        }
+    }
+
+    /**
+     * Latencias en ms de los mensajes que recibió un transporte.
+     */
+    private static final class Latencies {
+        final String name;
+        private final double[] values;
+        private int count;
+        private final CountDownLatch done;
+
+        Latencies(String name, int expected) {
+            this.name = name;
+            this.values = new double[expected];
+            this.done = new CountDownLatch(expected);
+        }
+
+        /**
+         * Registra la línea si es un mensaje de la prueba (el contenido es el nanoTime del envío).
+         */
+        synchronized void record(String line, long receivedNanos) {
+            KeyValueLine fields = KeyValueLine.parse(line);
+            if (!fields.valueEquals("type", "private_message")) return;
+            String content = fields.get("content");
+            if (content == null || !content.startsWith("t") || count == values.length) return;
+            values[count++] = (receivedNanos - Long.parseLong(content.substring(1))) / 1e6;
+            done.countDown();
+        }
+
+        boolean await(long timeoutMs) throws InterruptedException {
+            return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        synchronized double percentile(int p) {
+            double[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+
+    private static AutoCloseable openWebSocket(HttpClient http, int gatewayPort, String username, Latencies latencies)
+            throws Exception {
+        CompletableFuture<Void> loggedIn = new CompletableFuture<>();
+        Consumer<String> onLine = line -> {
+            latencies.record(line, System.nanoTime());
+            if (line.startsWith("type:login_success")) loggedIn.complete(null);
+        };
+        WebSocket socket = http.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + gatewayPort + "/ws"), new WebSocket.Listener() {
+                    private final StringBuilder message = new StringBuilder();
+
+                    @Override
+                    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                        message.append(data);
+                        if (last) {
+                            for (String line : message.toString().split("\n")) {
+                                onLine.accept(line);
+                            }
+                            message.setLength(0);
+                        }
+                        webSocket.request(1);
+                        return null;
+                    }
+                }).get(5, TimeUnit.SECONDS);
+        socket.sendText("type:login|username:" + username, true).get(5, TimeUnit.SECONDS);
+        loggedIn.get(5, TimeUnit.SECONDS);
+        return () -> socket.abort();
+    }
+
+    private static AutoCloseable openEventStream(HttpClient http, int gatewayPort, String username, Latencies latencies)
+            throws Exception {
+        Socket socket = new Socket("localhost", gatewayPort);
+        socket.setTcpNoDelay(true);
+        socket.getOutputStream().write(("GET /events HTTP/1.1\r\nHost: localhost\r\nAccept: text/event-stream\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        BufferedReader in = reader(socket);
+        String sessionLine;
+        while ((sessionLine = in.readLine()) != null && !sessionLine.startsWith("data: type:gateway_session")) {
+            // Cabeceras de la respuesta HTTP
+        }
+        assertNotNull(sessionLine, "el stream de eventos se cerró");
+        String session = KeyValueLine.parse(sessionLine.substring("data: ".length())).get("session");
+
+        CompletableFuture<Void> loggedIn = new CompletableFuture<>();
+        Thread reader = new Thread(() -> {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.startsWith("data: ")) continue;
+                    String event = line.substring("data: ".length());
+                    latencies.record(event, System.nanoTime());
+                    if (event.startsWith("type:login_success")) loggedIn.complete(null);
+                }
+            } catch (IOException ignored) {
+            }
+        }, "sse-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        HttpResponse<Void> response = http.send(HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + gatewayPort + "/command?session=" + session))
+                .POST(HttpRequest.BodyPublishers.ofString("type:login|username:" + username))
+                .build(), HttpResponse.BodyHandlers.discarding());
+        assertEquals(202, response.statusCode());
+        loggedIn.get(5, TimeUnit.SECONDS);
+        return socket;
+    }
+
+    /**
+     * Lo que hacen el proxy y el cliente web: las notificaciones esperan en la sesión hasta
+     * el siguiente sondeo.
+     */
+    private static AutoCloseable openPolling(int port, String username, Latencies latencies) throws Exception {
+        Socket socket = new Socket("localhost", port);
+        BufferedReader in = reader(socket);
+        socket.getOutputStream().write(("type:login|username:" + username + "\n").getBytes(StandardCharsets.UTF_8));
+        awaitType(in, "login_success");
+
+        Queue<String> notifications = new ConcurrentLinkedQueue<>();
+        Thread reader = new Thread(() -> {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    notifications.add(line);
+                }
+            } catch (IOException ignored) {
+            }
+        }, "proxy-session");
+        reader.setDaemon(true);
+        reader.start();
+
+        Thread poller = new Thread(() -> {
+            try {
+                while (!socket.isClosed()) {
+                    Thread.sleep(POLL_MS);
+                    long now = System.nanoTime();
+                    String line;
+                    while ((line = notifications.poll()) != null) {
+                        latencies.record(line, now);
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "web-client-poll");
+        poller.setDaemon(true);
+        poller.start();
+        return socket;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static void awaitType(BufferedReader in, String type) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null && !line.startsWith("type:" + type)) {
+            // Avisos de presencia
+        }
+        assertNotNull(line, "la conexión se cerró antes de " + type);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    private static void awaitListening(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                if (attempt == 100) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ui;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import util.KeyValueLine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reconexión masiva: olas de sesiones que inician sesión y se cortan todas juntas (como
+ * cuando se reinicia el proxy), hasta completar 50k. Cada ola debe quedar procesada (nadie
+ * en línea salvo el monitor) y el tiempo de desconexión no debe crecer con las olas.
+ *
+ * Es mucho más lenta que las demás pruebas, por eso no corre con gradle test: gradle stressTest. La cantidad se cambia
+ * con -Dstress.sessions y -Dstress.wave.
+ */
+@Tag("stress")
+class MassReconnectStressTest {
+    private static final int SESSIONS = Integer.getInteger("stress.sessions", 50_000);
+    private static final int WAVE = Integer.getInteger("stress.wave", 1_000);
+
+    @Test
+    void reconnectsFiftyThousandSessions() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        System.setProperty("chat.gateway.port", "0");
+        System.setProperty("chat.relay.port", "0");
+
+        // El servidor registra cada login y cada conexión cortada: se silencia durante la prueba
+        PrintStream console = System.out;
+        PrintStream errors = System.err;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Thread server = new Thread(() -> MainServer.main(new String[]{String.valueOf(port), "nio"}), "stress-server");
+            server.setDaemon(true);
+            server.start();
+
+            try (Session monitor = Session.open(port)) {
+                monitor.login("monitor");
+
+                int waves = (SESSIONS + WAVE - 1) / WAVE;
+                long[] dropMs = new long[waves];
+                long started = System.nanoTime();
+                for (int w = 0; w < waves; w++) {
+                    int count = Math.min(WAVE, SESSIONS - w * WAVE);
+                    Session[] sessions = new Session[count];
+                    for (int i = 0; i < count; i++) {
+                        sessions[i] = Session.open(port);
+                        sessions[i].sendLogin("u" + w + "_" + i);
+                    }
+                    for (Session session : sessions) {
+                        session.awaitLogin();
+                    }
+
+                    long dropStart = System.nanoTime();
+                    for (Session session : sessions) {
+                        session.abort();
+                    }
+                    awaitOnlyMonitor(monitor);
+                    dropMs[w] = (System.nanoTime() - dropStart) / 1_000_000;
+                }
+                long totalMs = (System.nanoTime() - started) / 1_000_000;
+
+                long first = average(dropMs, 0, waves / 4);
+                long last = average(dropMs, waves - waves / 4, waves);
+                console.printf("%d sesiones en %d olas: %d ms; desconexión por ola: %d ms (primer cuarto) / %d ms (último)%n",
+                        SESSIONS, waves, totalMs, first, last);
+                assertTrue(last <= first * 3 + 100, "la desconexión se volvió más lenta: " + first + " -> " + last + " ms");
+            }
+        } finally {
+            System.setOut(console);
+            System.setErr(errors);
+        }
+    }
+
+    private static void awaitOnlyMonitor(Session monitor) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (true) {
+            String users = monitor.onlineUsers();
+            if (users.equals("monitor")) return;
+            assertTrue(System.currentTimeMillis() < deadline, "siguen en línea: " + users.length() + " caracteres de usuarios");
+            Thread.sleep(10);
+        }
+    }
+
+    private static long average(long[] values, int from, int to) {
+        if (to <= from) return 0;
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return sum / (to - from);
+    }
+
+    /**
+     * Una conexión de texto, leída a mano para no crear hilos por sesión.
+     */
+    private static final class Session implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final OutputStream writer;
+        private String username;
+
+        private Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.writer = socket.getOutputStream();
+        }
+
+        static Session open(int port) throws IOException {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    return new Session(new Socket("localhost", port));
+                } catch (IOException e) {
+                    // El servidor puede no haber terminado de arrancar
+                    if (attempt == 50) throw e;
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException interrupted) {
+                        throw new IOException(interrupted);
+                    }
+                }
+            }
+        }
+
+        void sendLogin(String username) throws IOException {
+            this.username = username;
+            send("type:login|username:" + username);
+        }
+
+        void login(String username) throws IOException {
+            sendLogin(username);
+            awaitLogin();
+        }
+
+        void awaitLogin() throws IOException {
+            String line = awaitType("login_success", "login_error");
+            assertTrue(line.startsWith("type:login_success"), username + ": " + line);
+        }
+
+        String onlineUsers() throws IOException {
+            send("type:get_online_users|username:" + username);
+            return KeyValueLine.parse(awaitType("online_users", null)).get("users");
+        }
+
+        private void send(String line) throws IOException {
+            writer.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            writer.flush();
+        }
+
+        private String awaitType(String type, String alternative) throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Entre medio llegan los avisos de presencia
+                if (line.startsWith("type:" + type) || (alternative != null && line.startsWith("type:" + alternative))) {
+                    return line;
+                }
+            }
+            throw new IOException(username + ": conexión cerrada esperando " + type);
+        }
+
+        /**
+         * Corte abrupto (RST), sin logout: así se cae una conexión cuando se reinicia el proxy,
+         * y el puerto local no queda en TIME_WAIT.
+         */
+        void abort() throws IOException {
+            socket.setSoLinger(true, 0);
+            socket.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ui;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Proceso auxiliar de {@link ServerModesStressTest} y {@link GatewayLatencyStressTest}: arranca el servidor en el modo pedido y,
+ * por cada línea "stats" que recibe por stdin, responde con los hilos vivos, el heap usado
+ * después de un GC y el RSS del proceso. Cada modo corre en su propio proceso para que las
+ * medidas de uno no incluyan los hilos ni la memoria del otro.
+ *
+ * Uso: ServerModeProbe puerto blocking|nio
+ */
+public final class ServerModeProbe {
+
+    private ServerModeProbe() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        PrintStream answers = System.out;
+        // El servidor registra cada conexión: se descarta para no mezclarlo con las respuestas
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        Thread server = new Thread(() -> MainServer.main(args), "probe-server");
+        server.setDaemon(true);
+        server.start();
+
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String command;
+        while ((command = commands.readLine()) != null) {
+            if (command.equals("stats")) {
+                answers.println(stats());
+                answers.flush();
+            }
+        }
+    }
+
+    private static String stats() throws InterruptedException {
+        // Dos pasadas: la primera puede dejar objetos pendientes de finalizar
+        for (int i = 0; i < 2; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        return "threads:" + threads + "|heap:" + heap + "|rss:" + rss();
+    }
+
+    /**
+     * RSS en bytes según /proc, o -1 fuera de Linux.
+     */
+    private static long rss() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Sin /proc no hay RSS
+        }
+        return -1;
+    }
+}
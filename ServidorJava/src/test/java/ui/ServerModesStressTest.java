@@ -0,0 +1,126 @@
+package ui;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.KeyValueLine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Conexiones inactivas que sostiene cada modo del servidor: abre N conexiones (cada una inicia
+ * sesión y después no hace nada) contra el modo clásico, un hilo por conexión con ServerSocket,
+ * y contra el modo NIO, y compara hilos, heap y RSS del proceso del servidor antes y después.
+ *
+ * Cada modo corre en su propio proceso ({@link ServerModeProbe}). Corre con gradle stressTest;
+ * -Dstress.connections cambia la cantidad.
+ */
+@Tag("stress")
+class ServerModesStressTest {
+    private static final int CONNECTIONS = Integer.getInteger("stress.connections", 2_000);
+
+    @Test
+    void idleConnectionsPerServerMode(@TempDir Path dir) throws Exception {
+        Stats blocking = measure("blocking", dir.resolve("blocking"));
+        Stats nio = measure("nio", dir.resolve("nio"));
+
+        System.out.printf("%d conexiones inactivas%n", CONNECTIONS);
+        System.out.printf("%-9s %10s %10s %12s %12s %16s%n", "modo", "sostenidas", "hilos", "heap (MB)", "RSS (MB)", "por conexión (KB)");
+        for (Stats stats : List.of(blocking, nio)) {
+            System.out.printf("%-9s %10d %4d->%-5d %5.1f->%-6.1f %5.1f->%-6.1f heap %.1f, RSS %.1f%n",
+                    stats.mode, stats.held, stats.idle.threads, stats.loaded.threads,
+                    stats.idle.heap / 1e6, stats.loaded.heap / 1e6, stats.idle.rss / 1e6, stats.loaded.rss / 1e6,
+                    (stats.loaded.heap - stats.idle.heap) / 1024.0 / stats.held,
+                    (stats.loaded.rss - stats.idle.rss) / 1024.0 / stats.held);
+        }
+
+        assertEquals(CONNECTIONS, blocking.held);
+        assertEquals(CONNECTIONS, nio.held);
+        // Un hilo por conexión contra unos pocos event loops
+        assertTrue(blocking.loaded.threads - blocking.idle.threads >= CONNECTIONS, "hilos en modo clásico: " + blocking.loaded.threads);
+        assertTrue(nio.loaded.threads - nio.idle.threads < 50, "hilos en modo NIO: " + nio.loaded.threads);
+    }
+
+    private record Sample(int threads, long heap, long rss) {
+        static Sample parse(String line) {
+            KeyValueLine fields = new KeyValueLine().reset(line);
+            return new Sample(fields.getInt("threads", -1), fields.getLong("heap", -1), fields.getLong("rss", -1));
+        }
+    }
+
+    private record Stats(String mode, int held, Sample idle, Sample loaded) {
+    }
+
+    private static Stats measure(String mode, Path dir) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        dir.toFile().mkdirs();
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process server = new ProcessBuilder(java, "-Xmx512m", "-Dchat.gateway.port=0", "-Dchat.relay.port=0",
+                "-cp", System.getProperty("java.class.path"), ServerModeProbe.class.getName(), String.valueOf(port), mode)
+                .directory(dir.toFile())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            PrintStream commands = new PrintStream(server.getOutputStream(), true, StandardCharsets.UTF_8);
+            BufferedReader answers = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+
+            awaitListening(port);
+            commands.println("stats");
+            Sample idle = Sample.parse(answers.readLine());
+
+            List<BufferedReader> readers = new ArrayList<>();
+            for (int i = 0; i < CONNECTIONS; i++) {
+                Socket socket = new Socket("localhost", port);
+                sockets.add(socket);
+                OutputStream out = socket.getOutputStream();
+                out.write(("type:login|username:" + mode + i + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                readers.add(new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)));
+            }
+            int held = 0;
+            for (BufferedReader reader : readers) {
+                String line;
+                while ((line = reader.readLine()) != null && !line.startsWith("type:login")) {
+                    // Avisos de presencia de los que se conectaron antes
+                }
+                if (line != null && line.startsWith("type:login_success")) held++;
+            }
+
+            commands.println("stats");
+            Sample loaded = Sample.parse(answers.readLine());
+            return new Stats(mode, held, idle, loaded);
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            server.destroyForcibly().waitFor();
+        }
+    }
+
+    private static void awaitListening(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try (Socket ignored = new Socket("localhost", port)) {
+                return;
+            } catch (IOException e) {
+                if (attempt == 100) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+}
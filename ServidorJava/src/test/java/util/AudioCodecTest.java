@@ -0,0 +1,202 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioCodecTest {
+    // Un paquete de llamada: 20 ms a 16 kHz
+    private static final int FRAME_SAMPLES = 320;
+    private static final int FRAME_BYTES = FRAME_SAMPLES * 2;
+
+    /**
+     * Voz de prueba: dos tonos sumados, PCM 16 bits little-endian.
+     */
+    private static byte[] speech(int samples, int amplitude) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            double t = i / 16000.0;
+            int sample = (int) (amplitude * (0.7 * Math.sin(2 * Math.PI * 440 * t) + 0.3 * Math.sin(2 * Math.PI * 1250 * t)));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    private static int sample(byte[] pcm, int index) {
+        return (short) ((pcm[2 * index] & 0xFF) | (pcm[2 * index + 1] << 8));
+    }
+
+    /**
+     * Relación señal/ruido en dB entre el original y lo decodificado.
+     */
+    private static double snr(byte[] original, byte[] decoded, int from, int samples) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = from; i < from + samples; i++) {
+            int expected = sample(original, i);
+            int error = expected - sample(decoded, i);
+            signal += (double) expected * expected;
+            noise += (double) error * error;
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1));
+    }
+
+    /**
+     * Codifica y decodifica pcm de a paquetes de 20 ms con una sola instancia, como una llamada.
+     */
+    private static byte[] roundTrip(AudioCodec codec, byte[] pcm) {
+        byte[] decoded = new byte[pcm.length];
+        ByteBuffer packet = ByteBuffer.allocate(codec.maxEncodedBytes(FRAME_BYTES));
+        for (int offset = 0; offset < pcm.length; offset += FRAME_BYTES) {
+            packet.clear();
+            int written = codec.encode(pcm, offset, FRAME_BYTES, packet);
+            assertEquals(written, packet.position());
+            assertTrue(written <= codec.maxEncodedBytes(FRAME_BYTES));
+            packet.flip();
+            assertEquals(FRAME_BYTES, codec.decodedBytes(written));
+            assertEquals(FRAME_BYTES, codec.decode(packet, decoded, offset));
+            assertEquals(0, packet.position(), "decode no debe mover la posición");
+        }
+        return decoded;
+    }
+
+    @Test
+    void ulawMatchesReferenceValues() {
+        assertEquals(0xFF, G711Codec.linearToUlaw(0));
+        assertEquals(0x80, G711Codec.linearToUlaw(Short.MAX_VALUE));
+        assertEquals(0x00, G711Codec.linearToUlaw(Short.MIN_VALUE));
+        assertEquals(32124, G711Codec.ulawToLinear(0x80));
+        assertEquals(-32124, G711Codec.ulawToLinear(0x00));
+        assertEquals(0, G711Codec.ulawToLinear(0xFF));
+    }
+
+    @Test
+    void alawMatchesReferenceValues() {
+        assertEquals(0xD5, G711Codec.linearToAlaw(0));
+        assertEquals(0x55, G711Codec.linearToAlaw(-8));
+        assertEquals(0xAA, G711Codec.linearToAlaw(Short.MAX_VALUE));
+        assertEquals(0x2A, G711Codec.linearToAlaw(Short.MIN_VALUE));
+        assertEquals(8, G711Codec.alawToLinear(0xD5));
+        assertEquals(-8, G711Codec.alawToLinear(0x55));
+        assertEquals(32256, G711Codec.alawToLinear(0xAA));
+    }
+
+    @Test
+    void g711CodesSurviveARoundTrip() {
+        for (int code = 0; code < 256; code++) {
+            // 0x7F es el "cero negativo" de μ-law: se decodifica como 0 y vuelve como 0xFF
+            if (code != 0x7F) {
+                assertEquals(code, G711Codec.linearToUlaw(G711Codec.ulawToLinear(code)), "μ-law " + code);
+            }
+            assertEquals(code, G711Codec.linearToAlaw(G711Codec.alawToLinear(code)), "A-law " + code);
+        }
+    }
+
+    @Test
+    void g711ErrorStaysWithinHalfASegmentStep() {
+        for (int sample = -32124; sample <= 32124; sample++) {
+            int magnitude = Math.abs(sample);
+            // El paso del segmento es 1/16 de su comienzo, más el mínimo del primer segmento
+            int bound = magnitude / 32 + 16;
+            int ulaw = G711Codec.ulawToLinear(G711Codec.linearToUlaw(sample));
+            int alaw = G711Codec.alawToLinear(G711Codec.linearToAlaw(sample));
+            assertTrue(Math.abs(ulaw - sample) <= bound, "μ-law " + sample + " -> " + ulaw);
+            assertTrue(Math.abs(alaw - sample) <= bound, "A-law " + sample + " -> " + alaw);
+        }
+    }
+
+    @Test
+    void g711FramesRoundTrip() {
+        byte[] pcm = speech(FRAME_SAMPLES * 10, 12000);
+        for (G711Codec codec : new G711Codec[]{G711Codec.ULAW, G711Codec.ALAW}) {
+            assertEquals(FRAME_BYTES / 2, codec.maxEncodedBytes(FRAME_BYTES));
+            byte[] decoded = roundTrip(codec, pcm);
+            double snr = snr(pcm, decoded, 0, pcm.length / 2);
+            assertTrue(snr > 30, codec.getName() + ": " + snr + " dB");
+        }
+    }
+
+    @Test
+    void imaAdpcmFramesRoundTrip() {
+        byte[] pcm = speech(FRAME_SAMPLES * 10, 12000);
+        ImaAdpcmCodec codec = new ImaAdpcmCodec();
+        // Un cuarto de PCM más los 4 bytes del estado
+        assertEquals(FRAME_BYTES / 4 + ImaAdpcmCodec.HEADER_BYTES, codec.maxEncodedBytes(FRAME_BYTES));
+        byte[] decoded = roundTrip(codec, pcm);
+        // El primer paquete arranca con el paso mínimo y tarda en adaptarse: se mide desde el segundo
+        double snr = snr(pcm, decoded, FRAME_SAMPLES, pcm.length / 2 - FRAME_SAMPLES);
+        assertTrue(snr > 20, "ima-adpcm: " + snr + " dB");
+    }
+
+    @Test
+    void imaAdpcmPacketsDecodeOnTheirOwn() {
+        byte[] pcm = speech(FRAME_SAMPLES * 3, 12000);
+        ImaAdpcmCodec encoder = new ImaAdpcmCodec();
+        ByteBuffer[] packets = new ByteBuffer[3];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = ByteBuffer.allocate(encoder.maxEncodedBytes(FRAME_BYTES));
+            encoder.encode(pcm, i * FRAME_BYTES, FRAME_BYTES, packets[i]);
+            packets[i].flip();
+        }
+
+        // Se pierde el segundo paquete: el tercero se decodifica igual que en la secuencia completa
+        byte[] full = new byte[pcm.length];
+        for (int i = 0; i < packets.length; i++) {
+            new ImaAdpcmCodec().decode(packets[i], full, i * FRAME_BYTES);
+        }
+        byte[] alone = new byte[FRAME_BYTES];
+        AudioCodecs.forPayloadType(encoder.getPayloadType()).decode(packets[2], alone, 0);
+        for (int i = 0; i < FRAME_BYTES; i++) {
+            assertEquals(full[2 * FRAME_BYTES + i], alone[i]);
+        }
+    }
+
+    @Test
+    void imaAdpcmOddSampleCountAndShortOutput() {
+        byte[] pcm = speech(7, 8000);
+        ImaAdpcmCodec codec = new ImaAdpcmCodec();
+        ByteBuffer packet = ByteBuffer.allocate(codec.maxEncodedBytes(pcm.length));
+        assertEquals(codec.maxEncodedBytes(pcm.length), codec.encode(pcm, 0, pcm.length, packet));
+        packet.flip();
+
+        // Entran solo dos bytes codificados (cuatro muestras): se decodifica lo que entra
+        byte[] small = new byte[9];
+        assertEquals(8, codec.decode(packet, small, 0));
+        // Sin el encabezado completo no hay nada que decodificar
+        assertEquals(0, codec.decode(ByteBuffer.allocate(3), new byte[16], 0));
+    }
+
+    @Test
+    void voiceNotesRoundTripThroughWavFiles(@TempDir Path dir) throws Exception {
+        // Más de un bloque de ADPCM (1017 muestras) y un resto
+        byte[] pcm = speech(5000, 12000);
+        for (String name : new String[]{"pcm16", "pcmu", "pcma", "ima-adpcm"}) {
+            File file = dir.resolve(name + ".wav").toFile();
+            WavFile.write(file, AudioCodecs.create(name), pcm);
+            byte[] decoded = WavFile.readPcm(file);
+            assertEquals(pcm.length, decoded.length, name);
+            if (name.equals("pcm16")) {
+                assertArrayEquals(pcm, decoded);
+            } else {
+                assertTrue(snr(pcm, decoded, FRAME_SAMPLES, 5000 - FRAME_SAMPLES) > 20, name);
+                assertTrue(file.length() <= pcm.length / 2 + 512, name + ": " + file.length() + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void negotiationPicksTheFirstCommonCodec() {
+        assertEquals("pcmu", AudioCodecs.negotiate("opus,pcmu,ima-adpcm").getName());
+        assertEquals("pcm16", AudioCodecs.negotiate("opus").getName());
+        assertEquals("pcm16", AudioCodecs.negotiate(null).getName());
+        assertNull(AudioCodecs.create("opus"));
+        // Cada flujo ADPCM tiene su propio estado
+        assertNotSame(AudioCodecs.create("ima-adpcm"), AudioCodecs.create("ima-adpcm"));
+    }
+}
@@ -0,0 +1,166 @@
+package util;
+
+import network.PacketBuffer;
+import network.PacketBufferPool;
+import network.RtpPacket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JitterBufferTest {
+    private static final int POOL = 16;
+    // 512 ticks a 16 kHz: paquetes de 32 ms
+    private static final int PACKET_TICKS = 512;
+    private static final int SSRC = 1234;
+
+    private PacketBufferPool pool;
+    private JitterBuffer jitter;
+
+    @BeforeEach
+    void setUp() {
+        pool = new PacketBufferPool(POOL, 256);
+        // Demora fija de 64 ms (dos paquetes), para no depender del jitter medido con el reloj
+        jitter = new JitterBuffer(64, 64);
+    }
+
+    private void offer(int sequence) {
+        offer(sequence, SSRC);
+    }
+
+    private void offer(int sequence, int ssrc) {
+        PacketBuffer packet = pool.acquire();
+        ByteBuffer data = packet.data();
+        RtpPacket.writeHeader(data, RtpPacket.PAYLOAD_PCM16, sequence, (long) sequence * PACKET_TICKS, ssrc);
+        data.putShort((short) sequence);
+        data.flip();
+        jitter.offer(packet);
+    }
+
+    /**
+     * Secuencia del paquete que devuelve poll() (guardada como audio), o -1 si tocó silencio.
+     */
+    private int poll() {
+        PacketBuffer packet = jitter.poll();
+        if (packet == null) return -1;
+        int sequence = packet.data().getShort(packet.data().position()) & 0xFFFF;
+        packet.release();
+        return sequence;
+    }
+
+    @Test
+    void waitsForTargetDelayBeforePlaying() {
+        offer(0);
+        assertEquals(-1, poll());
+        offer(1);
+        assertEquals(0, poll());
+        assertEquals(1, poll());
+    }
+
+    @Test
+    void reordersPacketsBySequence() {
+        offer(0);
+        offer(2);
+        assertEquals(0, poll());
+        offer(1);
+        offer(4);
+        offer(3);
+        for (int expected = 1; expected <= 4; expected++) {
+            assertEquals(expected, poll());
+        }
+        assertEquals(0, jitter.getLost());
+        assertEquals(0, jitter.getLateDrops());
+    }
+
+    @Test
+    void trimsOldPacketsWhenLatencyGrows() {
+        // Una ráfaga de 6 paquetes: con objetivo 2 y margen 2 se descartan los 2 más viejos
+        for (int sequence = 0; sequence < 6; sequence++) {
+            offer(sequence);
+        }
+        assertEquals(2, poll());
+        assertEquals(3, poll());
+        assertTrue(jitter.toString().contains("2 recortes"), jitter.toString());
+        assertEquals(POOL - 2, pool.getAvailable());
+    }
+
+    @Test
+    void dropsPacketsThatArriveAfterTheirTurn() {
+        offer(0);
+        offer(1);
+        offer(3);
+        assertEquals(0, poll());
+        assertEquals(1, poll());
+        // Se reproduce silencio en lugar del 2, que no llegó a tiempo
+        assertEquals(-1, poll());
+        assertEquals(1, jitter.getLost());
+
+        offer(2);
+        assertEquals(1, jitter.getLateDrops());
+        assertEquals(3, poll());
+        // El paquete descartado volvió al pool
+        assertEquals(POOL, pool.getAvailable());
+    }
+
+    @Test
+    void underrunRefillsBeforePlayingAgain() {
+        offer(0);
+        offer(1);
+        assertEquals(0, poll());
+        assertEquals(1, poll());
+
+        assertEquals(-1, poll());
+        assertEquals(1, jitter.getUnderruns());
+
+        // Vuelve a esperar la demora objetivo antes de reproducir
+        offer(2);
+        assertEquals(-1, poll());
+        offer(3);
+        assertEquals(2, poll());
+        assertEquals(3, poll());
+        assertEquals(1, jitter.getUnderruns());
+    }
+
+    @Test
+    void sequenceWrapsAround() {
+        offer(65534);
+        offer(65535);
+        offer(0);
+        offer(1);
+        assertEquals(65534, poll());
+        assertEquals(65535, poll());
+        assertEquals(0, poll());
+        assertEquals(1, poll());
+    }
+
+    @Test
+    void duplicatesAndInvalidPacketsAreReleased() {
+        offer(0);
+        offer(0);
+        PacketBuffer invalid = pool.acquire();
+        invalid.data().put(new byte[]{1, 2, 3}).flip();
+        jitter.offer(invalid);
+        offer(1);
+
+        assertEquals(0, poll());
+        assertEquals(1, poll());
+        assertEquals(POOL, pool.getAvailable());
+    }
+
+    @Test
+    void newStreamResetsTheBuffer() {
+        offer(0);
+        offer(1);
+        offer(500, 99);
+        assertEquals(99, jitter.getSsrc());
+        offer(501, 99);
+        assertEquals(500, poll());
+        assertEquals(501, poll());
+
+        jitter.clear();
+        assertFalse(jitter.isStarted());
+        assertEquals(POOL, pool.getAvailable());
+    }
+}
@@ -0,0 +1,139 @@
+package util;
+
+import network.CommandType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyValueLineTest {
+
+    @Test
+    void readsFieldsInOrder() {
+        KeyValueLine line = new KeyValueLine().reset("type:login|username:ana|reqId:7");
+        assertEquals(3, line.size());
+        assertEquals("login", line.get("type"));
+        assertEquals("ana", line.get("username"));
+        assertEquals(7, line.getInt("reqId", -1));
+        assertNull(line.get("missing"));
+        assertFalse(line.has("missing"));
+    }
+
+    @Test
+    void valueKeepsColonsAfterTheFirst() {
+        KeyValueLine line = new KeyValueLine().reset("type:message|content:a:b:c");
+        assertEquals("a:b:c", line.get("content"));
+    }
+
+    @Test
+    void unescapesSeparatorsInValues() {
+        KeyValueLine line = new KeyValueLine().reset("type:message|content:10\\:30 \\| sala\\nfin|from:ana");
+        assertEquals("10:30 | sala\nfin", line.get("content"));
+        assertEquals("ana", line.get("from"));
+        assertEquals(3, line.size());
+    }
+
+    @Test
+    void escapedValueReadsBackUnchanged() {
+        String content = "a|b:c\\d\ne\rf \\| fin\\";
+        StringBuilder line = new StringBuilder("type:message|content:");
+        KeyValueLine.appendEscaped(line, content);
+        line.append("|from:ana");
+
+        assertEquals(-1, line.indexOf("\n"));
+        KeyValueLine parsed = new KeyValueLine().reset(line);
+        assertEquals(3, parsed.size());
+        assertEquals(content, parsed.get("content"));
+        assertEquals("ana", parsed.get("from"));
+    }
+
+    @Test
+    void viewReturnsRawValueWithoutCopy() {
+        KeyValueLine line = new KeyValueLine().reset("type:message|content:a\\|b");
+        assertEquals("a\\|b", line.view("content").toString());
+        assertFalse(line.valueEquals("content", "a|b"));
+        assertTrue(line.valueEquals("type", "message"));
+    }
+
+    @Test
+    void numbersWithoutCreatingStrings() {
+        KeyValueLine line = new KeyValueLine().reset("a:-15|b:12x|c:|d:9000000000");
+        assertEquals(-15, line.getInt("a", 0));
+        assertEquals(0, line.getInt("b", 0));
+        assertEquals(0, line.getInt("c", 0));
+        assertEquals(0, line.getInt("d", 0));
+        assertEquals(9000000000L, line.getLong("d", 0));
+    }
+
+    @Test
+    void valueHashMatchesStringHash() {
+        KeyValueLine line = new KeyValueLine().reset("type:get_history|with:beto");
+        assertEquals("get_history".hashCode(), line.valueHash("type"));
+        assertEquals(CommandType.GET_HISTORY, CommandType.of(line));
+        assertEquals(CommandType.UNKNOWN, CommandType.of(new KeyValueLine().reset("type:nada")));
+        assertNull(CommandType.of(new KeyValueLine().reset("with:beto")));
+    }
+
+    @Test
+    void ignoresPairsWithoutColon() {
+        KeyValueLine line = new KeyValueLine().reset("type:x|basura|k:v|");
+        assertEquals(2, line.size());
+        assertEquals("v", line.get("k"));
+    }
+
+    @Test
+    void parseReturnsAFreshInstance() {
+        KeyValueLine first = KeyValueLine.parse("type:a");
+        KeyValueLine second = KeyValueLine.parse("type:b");
+        assertNotSame(first, second);
+        assertEquals("a", first.get("type"));
+    }
+
+    @Test
+    void parseThreadLocalReusesThreadInstance() {
+        KeyValueLine first = KeyValueLine.parseThreadLocal("type:a");
+        KeyValueLine second = KeyValueLine.parseThreadLocal("type:b");
+        assertSame(first, second);
+        assertEquals("b", first.get("type"));
+    }
+
+    @Test
+    void detachedCopySurvivesTheNextLine() {
+        KeyValueLine detached = KeyValueLine.parseThreadLocal("type:message|content:a\\|b|reqId:3").detach();
+        KeyValueLine.parseThreadLocal("type:login|username:ana");
+
+        assertEquals(3, detached.size());
+        assertEquals("a|b", detached.get("content"));
+        assertEquals("message", detached.view("type").toString());
+        assertEquals(3, detached.getInt("reqId", 0));
+
+        // Una copia se puede volver a usar con una línea de más campos
+        assertEquals(4, detached.reset("a:1|b:2|c:3|d:4").size());
+        assertEquals("4", detached.get("d"));
+    }
+
+    @Test
+    void rejectsTooManyFields() {
+        StringBuilder line = new StringBuilder("type:x");
+        for (int i = 1; i < KeyValueLine.MAX_FIELDS; i++) {
+            line.append("|k").append(i).append(":v");
+        }
+        assertEquals(KeyValueLine.MAX_FIELDS, KeyValueLine.parse(line).size());
+
+        line.append("|extra:v");
+        KeyValueLine reused = new KeyValueLine();
+        assertThrows(IllegalArgumentException.class, () -> reused.reset(line));
+        assertEquals(0, reused.size());
+    }
+
+    @Test
+    void longOverflowReturnsDefault() {
+        KeyValueLine line = new KeyValueLine().reset(
+                "max:9223372036854775807|min:-9223372036854775808|over:9223372036854775808|under:-9223372036854775809|big:99999999999999999999");
+        assertEquals(Long.MAX_VALUE, line.getLong("max", 0));
+        assertEquals(Long.MIN_VALUE, line.getLong("min", 0));
+        assertEquals(-1, line.getLong("over", -1));
+        assertEquals(-1, line.getLong("under", -1));
+        assertEquals(-1, line.getLong("big", -1));
+        assertEquals(-1, line.getInt("big", -1));
+    }
+}
@@ -2,6 +2,166 @@ console.log("Iniciando aplicación...")
 
 // Configuración del cliente
 const API_URL = "http://localhost:3000/api"
+// Gateway WebSocket del servidor Java: si responde, los comandos y los avisos van directo
+// por ahí (sin proxy ni polling). Si no, se usa el proxy como siempre.
+const GATEWAY_URL = "ws://localhost:5080/ws"
+const GATEWAY_TIMEOUT_MS = 30000
+const GATEWAY_RECONNECT_MAX_MS = 10000
+
+// active: la sesión se inició por el gateway. Desde ahí todo va por él: si se corta no se pasa
+// al proxy (el servidor no sabría de esa sesión), se reconecta y se vuelve a iniciar sesión.
+const gateway = {
+  socket: null,
+  pending: new Map(),
+  nextReqId: 1,
+  onPush: null,
+  onStatus: null,
+  backlog: [],
+  active: false,
+  username: null,
+}
+
+// Respuesta a un comando: el servidor pone el reqId justo después del tipo. Los avisos llevan
+// ahí "push:true", y un "|reqId:" dentro de un valor llega escapado, así que no se confunden.
+const REPLY_PATTERN = /^type:[^|]*\|reqId:([^|]*)/
+
+// Separa una línea "clave:valor|clave:valor" quitando los escapes (\| \: \\ \n \r), igual
+// que KeyValueLine en el servidor. Cada valor empieza después del primer ':' sin escapar.
+function parseLine(line) {
+  const data = {}
+  let key = ""
+  let value = ""
+  let inValue = false
+  for (let i = 0; i <= line.length; i++) {
+    let c = i < line.length ? line[i] : "|"
+    if (c === "\\" && i + 1 < line.length && "|:\\nr".includes(line[i + 1])) {
+      const next = line[++i]
+      c = next === "n" ? "\n" : next === "r" ? "\r" : next
+      if (inValue) value += c
+      else key += c
+    } else if (c === ":" && !inValue) {
+      inValue = true
+    } else if (c === "|") {
+      if (inValue && !(key in data)) data[key] = value
+      key = ""
+      value = ""
+      inValue = false
+    } else if (inValue) {
+      value += c
+    } else {
+      key += c
+    }
+  }
+  return data
+}
+
+function escapeValue(value) {
+  return value.replace(/[\\|:\n\r]/g, (c) => (c === "\n" ? "\\n" : c === "\r" ? "\\r" : "\\" + c))
+}
+
+function connectGateway() {
+  return new Promise((resolve) => {
+    let ws
+    try {
+      ws = new WebSocket(GATEWAY_URL)
+    } catch (err) {
+      resolve(false)
+      return
+    }
+    const timer = setTimeout(() => {
+      ws.close()
+      resolve(false)
+    }, 2000)
+    ws.onopen = () => {
+      clearTimeout(timer)
+      gateway.socket = ws
+      console.log("Conectado al gateway del servidor:", GATEWAY_URL)
+      resolve(true)
+    }
+    ws.onerror = () => {
+      clearTimeout(timer)
+      resolve(false)
+    }
+    ws.onclose = () => {
+      if (gateway.socket !== ws) return
+      gateway.socket = null
+      gateway.pending.forEach(({ reject }) => reject(new Error("Conexión con el gateway cerrada")))
+      gateway.pending.clear()
+      if (gateway.active) reconnectGateway()
+    }
+    ws.onmessage = (event) => {
+      const line = String(event.data)
+      const match = line.match(REPLY_PATTERN)
+      const entry = match && gateway.pending.get(match[1])
+      if (entry) {
+        gateway.pending.delete(match[1])
+        entry.resolve(line)
+      } else if (gateway.onPush) {
+        gateway.onPush(line)
+      } else {
+        gateway.backlog.push(line)
+      }
+    }
+  })
+}
+
+// Reconecta con espera creciente y vuelve a iniciar sesión con el mismo usuario. Mientras
+// tanto los comandos fallan con un error visible en vez de ir al proxy.
+async function reconnectGateway() {
+  let delay = 500
+  gateway.onStatus?.("Conexión perdida, reconectando...", "#e67e22")
+  while (gateway.active && !gateway.socket) {
+    await new Promise((resolve) => setTimeout(resolve, delay))
+    delay = Math.min(delay * 2, GATEWAY_RECONNECT_MAX_MS)
+    if (!(await connectGateway())) continue
+    try {
+      // El servidor puede tener todavía la sesión anterior: login_error y se reintenta
+      const data = await gatewayRequest({ type: "login", username: gateway.username })
+      if (data.ok) {
+        console.log("Sesión restablecida en el gateway")
+        gateway.onStatus?.(`Bienvenido, ${gateway.username}`, "#27ae60")
+        return
+      }
+      console.warn("No se pudo volver a iniciar sesión:", data.java_response)
+    } catch (err) {
+      console.warn("Reconexión con el gateway fallida:", err.message)
+    }
+    gateway.socket?.close()
+  }
+}
+
+// Envía un comando por el gateway y espera la respuesta con su mismo reqId. Devuelve lo mismo
+// que los endpoints del proxy ({ ok, java_response }).
+function gatewayRequest(command) {
+  return new Promise((resolve, reject) => {
+    if (!gateway.socket) {
+      reject(new Error("Sin conexión con el servidor (reconectando)"))
+      return
+    }
+    const reqId = String(gateway.nextReqId++)
+    let line = ""
+    for (const [key, value] of Object.entries(command)) {
+      // Se escapa como en el servidor: un '|' o un salto de línea romperían la línea
+      line += (line ? "|" : "") + key + ":" + escapeValue(String(value))
+    }
+    const timeout = setTimeout(() => {
+      gateway.pending.delete(reqId)
+      reject(new Error("Timeout esperando respuesta del servidor"))
+    }, GATEWAY_TIMEOUT_MS)
+    gateway.pending.set(reqId, {
+      resolve: (response) => {
+        clearTimeout(timeout)
+        const ok = !/^type:(error|login_error)\|/.test(response)
+        resolve({ ok, java_response: response })
+      },
+      reject: (err) => {
+        clearTimeout(timeout)
+        reject(err)
+      },
+    })
+    gateway.socket.send(line + "|reqId:" + reqId)
+  })
+}
 
 // Verificar conexión con el servidor
 ;(async function verificarServidor() {
@@ -23,6 +183,13 @@ const API_URL = "http://localhost:3000/api"
 async function apiLogin(username) {
   try {
     console.log("Intentando login con:", username)
+    if (await connectGateway()) {
+      const data = await gatewayRequest({ type: "login", username: username.trim() })
+      if (!data.ok) throw new Error(`Login failed: ${data.java_response}`)
+      gateway.active = true
+      gateway.username = username.trim()
+      return { ok: true, message: "Login exitoso", username }
+    }
     const res = await fetch(`${API_URL}/login`, {
       method: "POST",
       headers: {
@@ -53,6 +220,7 @@ async function apiLogin(username) {
 async function apiSendMessage(from, to, content) {
   try {
     console.log(`Enviando mensaje de ${from} a ${to}: ${content.substring(0, 30)}...`)
+    if (gateway.active) return await gatewayRequest({ type: "private_message", from, to, content })
     const res = await fetch(`${API_URL}/sendMessage`, {
       method: "POST",
       headers: { "Content-Type": "application/json" },
@@ -74,6 +242,7 @@ async function apiSendMessage(from, to, content) {
 async function apiSendGroupMessage(from, group_name, content) {
   try {
     console.log(`Enviando mensaje de grupo de ${from} a ${group_name}: ${content.substring(0, 30)}...`)
+    if (gateway.active) return await gatewayRequest({ type: "group_message", from, group_name, content })
     const res = await fetch(`${API_URL}/sendGroupMessage`, {
       method: "POST",
       headers: { "Content-Type": "application/json" },
@@ -95,6 +264,7 @@ async function apiSendGroupMessage(from, group_name, content) {
 async function apiCreateGroup(group_name, creator) {
   try {
     console.log(`Creando grupo ${group_name} por ${creator}`)
+    if (gateway.active) return await gatewayRequest({ type: "create_group", group_name, creator })
     const res = await fetch(`${API_URL}/createGroup`, {
       method: "POST",
       headers: { "Content-Type": "application/json" },
@@ -116,6 +286,7 @@ async function apiCreateGroup(group_name, creator) {
 async function apiGetGroups(username) {
   try {
     console.log(`Obteniendo grupos para ${username}`)
+    if (gateway.active) return await gatewayRequest({ type: "get_groups", username })
     const res = await fetch(`${API_URL}/groups/${username}`)
 
     if (!res.ok) {
@@ -133,6 +304,7 @@ async function apiGetGroups(username) {
 async function apiGetHistory(target, username, isGroup = false) {
   try {
     console.log(`Obteniendo historial de ${target}`)
+    if (gateway.active) return await gatewayRequest({ type: "get_history", target, username, isGroup })
     const res = await fetch(`${API_URL}/history/${target}?username=${username}&isGroup=${isGroup}`, {
       method: "GET",
       headers: { "Content-Type": "application/json" },
@@ -152,6 +324,7 @@ async function apiGetHistory(target, username, isGroup = false) {
 async function apiJoinGroup(username, group_name) {
   try {
     console.log(`Usuario ${username} uniéndose al grupo ${group_name}`)
+    if (gateway.active) return await gatewayRequest({ type: "join_group", group_name, username })
     const res = await fetch(`${API_URL}/joinGroup`, {
       method: "POST",
       headers: { "Content-Type": "application/json" },
@@ -173,6 +346,7 @@ async function apiJoinGroup(username, group_name) {
 async function apiGetOnlineUsers(username) {
   try {
     console.log(`Obteniendo usuarios online para ${username}`)
+    if (gateway.active) return await gatewayRequest({ type: "get_online_users", username })
     const res = await fetch(`${API_URL}/onlineUsers/${username}`)
 
     if (!res.ok) {
@@ -285,12 +459,7 @@ document.addEventListener("DOMContentLoaded", () => {
     console.log("📨 Procesando notificación:", notification)
 
     if (notification.includes("type:private_message")) {
-      const parts = notification.split("|")
-      const messageData = {}
-      parts.forEach((part) => {
-        const [key, value] = part.split(":")
-        if (key && value) messageData[key] = value
-      })
+      const messageData = parseLine(notification)
 
       const from = messageData.from
       const to = messageData.to
@@ -318,12 +487,7 @@ document.addEventListener("DOMContentLoaded", () => {
         console.log(`✅ Mensaje privado recibido de ${from}`)
       }
     } else if (notification.includes("type:group_message")) {
-      const parts = notification.split("|")
-      const messageData = {}
-      parts.forEach((part) => {
-        const [key, value] = part.split(":")
-        if (key && value) messageData[key] = value
-      })
+      const messageData = parseLine(notification)
 
       const from = messageData.from
       const group = messageData.group
@@ -345,12 +509,7 @@ document.addEventListener("DOMContentLoaded", () => {
       }
     } else if (notification.includes("type:join_group_success")) {
       // El usuario actual se unió a un grupo exitosamente
-      const parts = notification.split("|")
-      const data = {}
-      parts.forEach((part) => {
-        const [key, value] = part.split(":")
-        if (key && value) data[key] = value
-      })
+      const data = parseLine(notification)
 
       const group = data.group
       if (group) {
@@ -406,6 +565,17 @@ document.addEventListener("DOMContentLoaded", () => {
   function startNotificationPolling(username) {
     if (pollingInterval) clearInterval(pollingInterval)
 
+    // Con el gateway los avisos llegan solos, en cuanto el servidor los produce
+    if (gateway.active) {
+      gateway.onPush = processNotification
+      gateway.onStatus = (text, color) => {
+        loginStatus.textContent = text
+        loginStatus.style.color = color
+      }
+      gateway.backlog.splice(0).forEach((notif) => processNotification(notif))
+      return
+    }
+
     pollingInterval = setInterval(async () => {
       try {
         // Obtener notificaciones